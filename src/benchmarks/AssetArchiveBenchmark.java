@@ -0,0 +1,124 @@
+package benchmarks;
+
+import engine.utils.AssetArchive;
+import engine.utils.AssetArchive.Codec;
+import engine.utils.AssetPacker;
+import engine.utils.Utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Packs src/res/images, models and shaders with every codec and compares
+ * each archive entry with its loose file. Then reads all assets the old
+ * way, through Utils.ioResourceToBuffer from the class path, and from
+ * each archive into pooled buffers, and checks that Utils reads from a
+ * mounted archive and falls back to loose files for paths it does not
+ * contain. Runs from the project root without an OpenGL context, src has
+ * to be on the class path. Exits with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.AssetArchiveBenchmark [rounds]
+ */
+public class AssetArchiveBenchmark {
+
+    public static void main(String... args) throws Exception {
+
+        int rounds = args.length > 0 ? Integer.valueOf(args[0]) : 5;
+        File root = new File("src");
+        File directory = Files.createTempDirectory("assetarchive").toFile();
+        boolean ok = true;
+
+        String[] paths = null;
+        double loose = 0;
+        for(Codec codec: Codec.values()){
+            File file = new File(directory, codec.name().toLowerCase() + ".pak");
+            long start = System.nanoTime();
+            AssetPacker.Result result = AssetPacker.pack(root, Arrays.asList(AssetPacker.DIRECTORIES), file, codec);
+            double packing = (System.nanoTime() - start) / 1e9;
+            AssetArchive archive = new AssetArchive(file);
+
+            // every entry matches its file
+            if(paths == null){
+                paths = archive.paths();
+                Arrays.sort(paths);
+                loose = readLoose(paths, rounds);
+            }
+            ok &= expect(archive.size() == paths.length, codec + ": " + archive.size() + " entries, expected " + paths.length);
+            for(String path: paths){
+                ByteBuffer data = archive.read(path);
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                AssetArchive.release(data);
+                ok &= expect(Arrays.equals(bytes, Files.readAllBytes(new File(root, path).toPath())), codec + ": " + path + " differs");
+            }
+
+            double packed = readArchive(archive, paths, rounds);
+            System.out.printf("%s: %d files, %.1f MB -> %.1f MB (%d compressed), packed in %.1f s%n", codec,
+                    result.getEntries(), result.getSize() / 1048576d, file.length() / 1048576d, result.getCompressed(), packing);
+            System.out.printf("  read all: loose %.1f ms, archive %.1f ms%n", loose, packed);
+            file.delete();
+        }
+
+        // mounted, Utils reads through the archive and falls back to loose files
+        File file = new File(directory, "res.pak");
+        AssetPacker.pack(root, Arrays.asList(AssetPacker.DIRECTORIES), file, Codec.ZSTD);
+        AssetArchive.mount(file);
+        AssetArchive archive = AssetArchive.mounted();
+        ok &= expect(archive != null, "archive not mounted");
+        String shader = "res/shaders/pbr/pbr_fs.glsl";
+        ok &= expect(Utils.loadResource(shader).equals(new String(Files.readAllBytes(new File(root, shader).toPath()),
+                StandardCharsets.UTF_8)), "shader from the archive differs");
+        ok &= expect(Utils.loadResource("shaders/pbr/pbr_fs.glsl").equals(Utils.loadResource(shader)),
+                "shader path below res/ not found");
+        ok &= expect(!archive.contains("res/config.properties"), "config packed");
+        ByteBuffer config = Utils.ioResourceToBuffer("res/config.properties", 128);
+        ok &= expect(config.remaining() == new File(root, "res/config.properties").length(), "loose fallback failed");
+        ok &= expect(archive.read("res/images/missing.png") == null, "missing entry found");
+        AssetArchive.unmount();
+        ok &= expect(AssetArchive.getReused() > 0, "pooled buffers never reused");
+        System.out.printf("Buffer pool: %d allocated, %d reused, %.1f MB pooled%n", AssetArchive.getAllocated(),
+                AssetArchive.getReused(), AssetArchive.getPooledBytes() / 1048576d);
+
+        file.delete();
+        directory.delete();
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: archives match the loose files");
+    }
+
+    /**
+     * Reads every asset the way loaders did before archives, best of rounds in ms
+     */
+    private static double readLoose(String[] paths, int rounds) throws Exception {
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < rounds; round++){
+            long start = System.nanoTime();
+            for(String path: paths)
+                Utils.ioResourceToBuffer(path, 128 * 128);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    private static double readArchive(AssetArchive archive, String[] paths, int rounds){
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < rounds; round++){
+            long start = System.nanoTime();
+            for(String path: paths)
+                AssetArchive.release(archive.read(path));
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
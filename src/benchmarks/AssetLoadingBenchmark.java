@@ -0,0 +1,109 @@
+package benchmarks;
+
+import engine.utils.AssetManager;
+import engine.utils.ImageLoader;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decodes every image under src/res/images, once synchronously on the
+ * calling thread as PBRTest3 used to, and once through an AssetManager
+ * whose upload step copies the pixels into a heap array in place of
+ * glTexImage2D. Reports how long the "render thread" is blocked: the
+ * whole load in the first case, the longest AssetManager.update() frame
+ * in the second. Runs without an OpenGL context, src has to be on the
+ * class path for the images to resolve.
+ *
+ * Usage: java benchmarks.AssetLoadingBenchmark [worker threads] [budget ms] [budget KB]
+ */
+public class AssetLoadingBenchmark {
+
+    private static final long FRAME_NANOS = 16_000_000;
+
+    public static void main(String... args){
+
+        int threads = args.length > 0 ? Integer.valueOf(args[0]) : 2;
+        long budgetNanos = (args.length > 1 ? Integer.valueOf(args[1]) : 4) * 1_000_000L;
+        long budgetBytes = (args.length > 2 ? Integer.valueOf(args[2]) : 16384) * 1024L;
+
+        ArrayList<String> images = new ArrayList<>();
+        collect(new File("src/res/images"), "res/images", images);
+        if(images.isEmpty()){
+            System.err.println("No images found, run from the project root");
+            System.exit(1);
+        }
+
+        // synchronous: decode and upload back to back
+        long start = System.nanoTime();
+        long bytes = 0;
+        for(String image: images)
+            bytes += upload(ImageLoader.decodeImage(image));
+        double sync = (System.nanoTime() - start) / 1_000_000d;
+
+        // asynchronous: frames call update() until every future is done
+        AssetManager assets = new AssetManager(true, threads, budgetNanos, budgetBytes);
+        ArrayList<CompletableFuture<ImageLoader.Image>> futures = new ArrayList<>();
+        start = System.nanoTime();
+        for(String image: images)
+            futures.add(assets.load(() -> ImageLoader.decodeImage(image),
+                    decoded -> (long) decoded.getWidth() * decoded.getHeight() * decoded.getChannels(),
+                    AssetLoadingBenchmark::upload));
+
+        int frames = 0;
+        long longest = 0, uploaded = 0;
+        int mostUploads = 0;
+        while(assets.getLoading() > 0){
+            long frame = System.nanoTime();
+            assets.update();
+            long busy = System.nanoTime() - frame;
+            longest = Math.max(longest, busy);
+            uploaded += assets.getBytesLastFrame();
+            mostUploads = Math.max(mostUploads, assets.getUploadsLastFrame());
+            frames++;
+            // rest of the frame
+            while(System.nanoTime() - frame < FRAME_NANOS) Thread.yield();
+        }
+        double async = (System.nanoTime() - start) / 1_000_000d;
+        assets.cleanup();
+
+        boolean ok = uploaded == bytes;
+        for(CompletableFuture<ImageLoader.Image> future: futures)
+            ok &= future.isDone() && !future.isCompletedExceptionally();
+
+        System.out.println(images.size() + " images, " + bytes / 1024 / 1024 + " MB of pixels");
+        System.out.printf("  Synchronous:  render thread blocked %8.3f ms%n", sync);
+        System.out.printf("  AssetManager: longest frame         %8.3f ms, %d frames (%.0f ms) until loaded, at most %d uploads per frame%n",
+                longest / 1_000_000d, frames, async, mostUploads);
+
+        if(!ok){
+            System.out.println("FAILED: not every image was uploaded");
+            System.exit(1);
+        }
+        System.out.println("OK: all images uploaded");
+    }
+
+    /**
+     * Stands in for glTexImage2D, copies the pixels and frees them
+     */
+    private static long upload(ImageLoader.Image image){
+        ByteBuffer pixels = image.getPixels();
+        byte[] texture = new byte[pixels.remaining()];
+        pixels.get(texture);
+        image.free();
+        return texture.length;
+    }
+
+    private static void collect(File directory, String path, ArrayList<String> ret){
+        File[] files = directory.listFiles();
+        if(files == null) return;
+        for(File file: files){
+            if(file.isDirectory())
+                collect(file, path + "/" + file.getName(), ret);
+            else if(file.getName().endsWith(".png") || file.getName().endsWith(".jpg"))
+                ret.add(path + "/" + file.getName());
+        }
+    }
+}
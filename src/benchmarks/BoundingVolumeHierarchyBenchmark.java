@@ -0,0 +1,236 @@
+package benchmarks;
+
+import engine.scene.node.BoundingVolumeHierarchy;
+import engine.scene.node.Node;
+import org.joml.AABBf;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Build, refit and query times of the BoundingVolumeHierarchy compared
+ * to a linear scan over all nodes, at 10k, 100k and 1M objects. Refits
+ * after moving 1% of the objects both in place and over the whole tree,
+ * and removes and adds back 1% of the objects, before the queries run.
+ * Runs without an OpenGL context. The 1M scene needs about 2 GB of heap.
+ * Exits with status 1 if a query misses or adds a hit compared to the scan.
+ *
+ * Usage: java -Xmx4g benchmarks.BoundingVolumeHierarchyBenchmark [objects...]
+ */
+public class BoundingVolumeHierarchyBenchmark {
+
+    private static final int QUERIES = 200;
+    private static final float WORLD = 2000f;
+
+    private static final AABBf UNIT_BOX = new AABBf(-1, -1, -1, 1, 1, 1);
+
+    public static void main(String... args){
+
+        int[] counts = new int[]{ 10_000, 100_000, 1_000_000 };
+        if(args.length > 0){
+            counts = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+                counts[i] = Integer.valueOf(args[i]);
+        }
+
+        boolean ok = true;
+        for(int count: counts)
+            ok &= run(count);
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int count){
+        System.out.println("Objects: " + count);
+
+        ArrayList<Node> objects = new ArrayList<>();
+        Node root = buildScene(count, objects);
+        root.updateTransforms();
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(root);
+
+        // warm up the JIT
+        bvh.rebuild();
+        bvh.rebuild();
+
+        long start = System.nanoTime();
+        bvh.rebuild();
+        System.out.printf("  Build:          %9.3f ms (%d tree nodes)%n", millis(start), bvh.getNodeCount());
+
+        Random random = new Random(3);
+        int moved = Math.max(1, count / 100);
+        move(objects, moved, random);
+        root.updateTransforms();
+        start = System.nanoTime();
+        bvh.update();
+        System.out.printf("  Refit (1%% moved): %7.3f ms in place%n", millis(start));
+
+        move(objects, moved, random);
+        root.updateTransforms();
+        start = System.nanoTime();
+        bvh.refit();
+        System.out.printf("  Refit (1%% moved): %7.3f ms whole tree%n", millis(start));
+
+        // take 1% out of their groups and put them back
+        int rebuilds = bvh.getRebuilds();
+        Node[] churned = new Node[moved];
+        Node[] groups = new Node[moved];
+        start = System.nanoTime();
+        for(int j = 0; j < moved; j++){
+            Node node = objects.get(random.nextInt(count));
+            while(node.getParent() == null)
+                node = objects.get(random.nextInt(count));
+            churned[j] = node;
+            groups[j] = node.getParent();
+            groups[j].removeChild(node);
+        }
+        bvh.update();
+        double removed = millis(start);
+        for(int j = 0; j < moved; j++)
+            groups[j].addChild(churned[j]);
+        root.updateTransforms();
+        start = System.nanoTime();
+        bvh.update();
+        System.out.printf("  Remove / add 1%%: %7.3f ms / %.3f ms (%d rebuilds)%n",
+                removed, millis(start), bvh.getRebuilds() - rebuilds);
+
+        FrustumIntersection[] frusta = new FrustumIntersection[QUERIES];
+        float[] rays = new float[QUERIES * 6];
+        for(int i = 0; i < QUERIES; i++){
+            float x = (random.nextFloat() - 0.5f) * WORLD, z = (random.nextFloat() - 0.5f) * WORLD;
+            Matrix4f viewProjection = new Matrix4f()
+                    .perspective((float) Math.toRadians(70), 16 / 9f, 0.1f, 200f)
+                    .lookAt(x, 10, z, x + random.nextFloat() - 0.5f, 10, z + random.nextFloat() - 0.5f, 0, 1, 0);
+            frusta[i] = new FrustumIntersection(viewProjection);
+            rays[i*6] = x; rays[i*6+1] = 10; rays[i*6+2] = z;
+            rays[i*6+3] = random.nextFloat() - 0.5f; rays[i*6+4] = -0.05f; rays[i*6+5] = random.nextFloat() - 0.5f;
+        }
+
+        List<Node> out = new ArrayList<>();
+
+        // frustum
+        long hits = 0;
+        start = System.nanoTime();
+        for(FrustumIntersection frustum: frusta){
+            out.clear();
+            hits += bvh.query(frustum, out).size();
+        }
+        double tree = millis(start) / QUERIES;
+        start = System.nanoTime();
+        long scanHits = 0;
+        for(FrustumIntersection frustum: frusta){
+            for(Node node: objects){
+                AABBf b = node.getWorldBounds();
+                if(frustum.testAab(b.minX, b.minY, b.minZ, b.maxX, b.maxY, b.maxZ)) scanHits++;
+            }
+        }
+        boolean ok = report("Frustum", tree, millis(start) / QUERIES, hits, scanHits);
+
+        // ray
+        hits = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            out.clear();
+            hits += bvh.raycast(rays[i*6], rays[i*6+1], rays[i*6+2],
+                    rays[i*6+3], rays[i*6+4], rays[i*6+5], Float.POSITIVE_INFINITY, out).size();
+        }
+        tree = millis(start) / QUERIES;
+        scanHits = 0;
+        org.joml.Vector2f result = new org.joml.Vector2f();
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            for(Node node: objects){
+                AABBf b = node.getWorldBounds();
+                if(org.joml.Intersectionf.intersectRayAab(rays[i*6], rays[i*6+1], rays[i*6+2],
+                        rays[i*6+3], rays[i*6+4], rays[i*6+5],
+                        b.minX, b.minY, b.minZ, b.maxX, b.maxY, b.maxZ, result)) scanHits++;
+            }
+        }
+        ok &= report("Ray", tree, millis(start) / QUERIES, hits, scanHits);
+
+        // sphere
+        hits = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            out.clear();
+            hits += bvh.query(rays[i*6], 0, rays[i*6+2], 25f, out).size();
+        }
+        tree = millis(start) / QUERIES;
+        scanHits = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            for(Node node: objects)
+                if(node.getWorldBounds().testSphere(rays[i*6], 0, rays[i*6+2], 25f * 25f)) scanHits++;
+        }
+        ok &= report("Sphere", tree, millis(start) / QUERIES, hits, scanHits);
+
+        // box
+        hits = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            out.clear();
+            AABBf box = new AABBf(rays[i*6] - 20, -5, rays[i*6+2] - 20, rays[i*6] + 20, 5, rays[i*6+2] + 20);
+            hits += bvh.query(box, out).size();
+        }
+        tree = millis(start) / QUERIES;
+        scanHits = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < QUERIES; i++){
+            AABBf box = new AABBf(rays[i*6] - 20, -5, rays[i*6+2] - 20, rays[i*6] + 20, 5, rays[i*6+2] + 20);
+            for(Node node: objects)
+                if(node.getWorldBounds().testAABB(box)) scanHits++;
+        }
+        ok &= report("AABB", tree, millis(start) / QUERIES, hits, scanHits);
+        return ok;
+    }
+
+    private static boolean report(String name, double tree, double scan, long hits, long scanHits){
+        System.out.printf("  %-8s BVH %8.4f ms, scan %8.4f ms, %7.1fx (hits %d/%d)%n",
+                name, tree, scan, scan / tree, hits, scanHits);
+        return hits == scanHits;
+    }
+
+    private static void move(ArrayList<Node> objects, int moved, Random random){
+        for(int j = 0; j < moved; j++)
+            objects.get(random.nextInt(objects.size())).transform.translate(random.nextFloat(), 0, random.nextFloat());
+    }
+
+    private static double millis(long start){
+        return (System.nanoTime() - start) / 1_000_000d;
+    }
+
+    /**
+     * Objects scattered over a flat world in groups of up to 16,
+     * similar to levels built out of grouped PBRModels
+     */
+    private static Node buildScene(int count, ArrayList<Node> out){
+        Random random = new Random(42);
+        Node root = new Node();
+        Node group = null;
+
+        for(int i = 0; i < count; i++){
+            if(i % 16 == 0){
+                group = new Node();
+                group.transform.translate((random.nextFloat() - 0.5f) * WORLD, 0, (random.nextFloat() - 0.5f) * WORLD);
+                root.addChild(group);
+            }
+            Node node = new Node(){
+                @Override
+                public AABBf getLocalBounds(){
+                    return UNIT_BOX;
+                }
+            };
+            node.transform.translate(random.nextFloat() * 20, random.nextFloat() * 4, random.nextFloat() * 20)
+                    .scale(0.5f + random.nextFloat());
+            group.addChild(node);
+            out.add(node);
+        }
+
+        return root;
+    }
+}
@@ -0,0 +1,170 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import engine.utils.MeshOptimizer;
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Imports every model below src/res/models with each AssimpLoader preset
+ * and prints meshes, triangles, ACMR and import time per file, next to the
+ * triangles the old quad conversion (nine indices per quad) produced.
+ * Checks that PREVIEW turns every triangle and quad into one and two
+ * triangles, larger polygons into at most n - 2 (assimp drops the ones
+ * without area), and that SHIPPING has no more triangles than that and
+ * none that are degenerate. SHIPPING is also timed the way meshes are
+ * loaded with meshOptimization on, imported without
+ * aiProcess_ImproveCacheLocality and then run through the MeshOptimizer,
+ * against importing with it first, and the ACMR must not get worse for
+ * skipping assimp's pass. Runs without an OpenGL context. Exits with
+ * status 1 if a check fails.
+ *
+ * Usage: java benchmarks.ImportPresetBenchmark [rounds]
+ */
+public class ImportPresetBenchmark {
+
+    public static void main(String... args){
+
+        int rounds = args.length > 0 ? Integer.valueOf(args[0]) : 3;
+
+        ArrayList<File> files = new ArrayList<>();
+        collect(new File("src/res/models"), files);
+
+        boolean ok = true;
+        System.out.printf("%-18s %9s  %-8s %6s %9s %7s %9s%n", "", "old tris", "preset", "meshes", "triangles", "ACMR", "import");
+        for(File file: files){
+            int[] polygons = polygons(file);
+            int expected = polygons[0], old = polygons[1];
+            boolean exact = polygons[2] == 0;
+
+            for(Preset preset: Preset.values()){
+                ArrayList<Mesh3D> meshes = null;
+                double millis = Double.MAX_VALUE;
+                for(int round = 0; round < rounds; round++){
+                    long start = System.nanoTime();
+                    meshes = read(file, preset, false);
+                    millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+                }
+
+                int triangles = AssimpLoader.triangles(meshes);
+                System.out.printf("%-18s %9s  %-8s %6d %9d %7.3f %7.1f ms%n", preset == Preset.PREVIEW ? file.getName() : "",
+                        preset == Preset.PREVIEW ? String.valueOf(old) : "", preset, meshes.size(), triangles,
+                        acmr(meshes), millis);
+
+                if(preset == Preset.PREVIEW && exact)
+                    ok &= expect(triangles == expected, file.getName() + ": " + triangles + " triangles, polygons make " + expected);
+                else
+                    ok &= expect(triangles <= expected, file.getName() + ": " + triangles + " triangles, more than the polygons make");
+                if(preset == Preset.SHIPPING)
+                    ok &= expect(degenerates(meshes) == 0, file.getName() + ": " + degenerates(meshes) + " degenerate triangles");
+            }
+
+            // SHIPPING followed by the MeshOptimizer, with and without assimp's cache pass
+            float[] acmr = new float[2];
+            double[] millis = { Double.MAX_VALUE, Double.MAX_VALUE };
+            for(int pass = 0; pass < 2; pass++){
+                for(int round = 0; round < rounds; round++){
+                    long start = System.nanoTime();
+                    ArrayList<Mesh3D> meshes = read(file, Preset.SHIPPING, pass == 1);
+                    meshes.forEach(MeshOptimizer::optimize);
+                    millis[pass] = Math.min(millis[pass], (System.nanoTime() - start) / 1e6);
+                    acmr[pass] = acmr(meshes);
+                }
+            }
+            System.out.printf("%-18s %9s  %-8s %6s %9s %7.3f %7.1f ms  (%.3f, %.1f ms with ImproveCacheLocality)%n",
+                    "", "", "+ opt", "", "", acmr[1], millis[1], acmr[0], millis[0]);
+            ok &= expect(acmr[1] <= acmr[0] * 1.02f, file.getName() + ": ACMR " + acmr[1]
+                    + " without ImproveCacheLocality, " + acmr[0] + " with it");
+        }
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: polygons imported as n - 2 triangles at most, no degenerate triangles shipped,"
+                + " no ACMR lost leaving the cache order to the MeshOptimizer");
+    }
+
+    private static ArrayList<Mesh3D> read(File file, Preset preset, boolean meshOptimization){
+        AIScene scene = AssimpLoader.importScene(file.getPath(), preset, meshOptimization);
+        if(scene == null)
+            throw new RuntimeException(Assimp.aiGetErrorString());
+        ArrayList<Mesh3D> ret = AssimpLoader.convertMeshGroup(scene);
+        Assimp.aiReleaseImport(scene);
+        return ret;
+    }
+
+    /**
+     * Triangles the polygons of the file make when triangulated, the
+     * triangles the old conversion made of them and the number of
+     * polygons with more than four corners
+     */
+    private static int[] polygons(File file){
+        AIScene scene = Assimp.aiImportFile(file.getPath(), 0);
+        int[] ret = new int[3];
+        for(int m = 0; m < scene.mNumMeshes(); m++){
+            AIMesh mesh = AIMesh.create(scene.mMeshes().get(m));
+            for(AIFace face: mesh.mFaces()){
+                int n = face.mNumIndices();
+                ret[0] += Math.max(0, n - 2);
+                ret[1] += n == 3 ? 1 : n == 4 ? 3 : 0;
+                if(n > 4) ret[2]++;
+            }
+        }
+        Assimp.aiReleaseImport(scene);
+        return ret;
+    }
+
+    /**
+     * ACMR of all meshes, weighted by their triangles
+     */
+    private static float acmr(ArrayList<Mesh3D> meshes){
+        int triangles = AssimpLoader.triangles(meshes);
+        float ret = 0;
+        for(Mesh3D mesh: meshes)
+            ret += MeshOptimizer.acmr(mesh) * mesh.getIndices().length / 3;
+        return triangles == 0 ? 0 : ret / triangles;
+    }
+
+    /**
+     * Triangles with a repeated vertex or no area
+     */
+    private static int degenerates(ArrayList<Mesh3D> meshes){
+        int ret = 0;
+        for(Mesh3D mesh: meshes){
+            int[] indices = mesh.getIndices();
+            float[] p = mesh.getPositions();
+            for(int i = 0; i < indices.length; i += 3){
+                int a = indices[i] * 3, b = indices[i + 1] * 3, c = indices[i + 2] * 3;
+                float ux = p[b] - p[a], uy = p[b + 1] - p[a + 1], uz = p[b + 2] - p[a + 2];
+                float vx = p[c] - p[a], vy = p[c + 1] - p[a + 1], vz = p[c + 2] - p[a + 2];
+                float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                if(a == b || b == c || a == c || nx * nx + ny * ny + nz * nz == 0) ret++;
+            }
+        }
+        return ret;
+    }
+
+    private static void collect(File directory, ArrayList<File> files){
+        File[] children = directory.listFiles();
+        if(children == null) return;
+        Arrays.sort(children);
+        for(File child: children){
+            if(child.isDirectory()) collect(child, files);
+            else if(!child.getName().endsWith(".mtl")) files.add(child);
+        }
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import engine.utils.MeshCache;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.lwjgl.assimp.Assimp.aiProcess_GenSmoothNormals;
+
+/**
+ * Compares a cold start, importing every model through assimp and writing
+ * the MeshCache, with a warm start reading the cache files back, then
+ * checks that edited sources, other import flags and loaders invalidate an entry
+ * and that the size limit evicts old files. Runs without an OpenGL
+ * context in a temporary cache directory, exits with status 1 if a check
+ * fails.
+ *
+ * Usage: java benchmarks.MeshCacheBenchmark [paths to .obj]
+ */
+public class MeshCacheBenchmark {
+
+    private static final int FLAGS = Preset.PREVIEW.getFlags();
+    private static final int ITERATIONS = 10;
+
+    public static void main(String... args) throws IOException {
+
+        String[] paths = args.length > 0 ? args : new String[]{
+                "src/res/models/mat_test.obj", "src/res/models/glock.obj", "src/res/models/doublebarrel.obj",
+                "src/res/models/primitives/sphere.obj", "src/res/models/primitives/quad.obj",
+                "src/res/models/primitives/cube.obj", "src/res/models/primitives/dome.obj",
+                "src/res/models/primitives/posquad.obj" };
+
+        File directory = Files.createTempDirectory("meshcache").toFile();
+        MeshCache cache = new MeshCache(directory, Long.MAX_VALUE);
+        boolean ok = true;
+
+        // first run of each path warms up the JIT, the cache is rewritten every iteration
+        long cold = 0, warm = 0;
+        ArrayList<ArrayList<Mesh3D>> imported = new ArrayList<>();
+        for(int i = 0; i <= ITERATIONS; i++){
+            imported.clear();
+            long start = System.nanoTime();
+            for(String path: paths){
+                ArrayList<Mesh3D> meshes = importMeshes(path);
+                cache.store(path, FLAGS, false, meshes);
+                imported.add(meshes);
+            }
+            if(i > 0) cold += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int p = 0; p < paths.length; p++){
+                ArrayList<Mesh3D> cached = cache.load(paths[p], FLAGS, false);
+                if(i == 0) ok &= expect(same(imported.get(p), cached), paths[p] + ": cached meshes differ");
+            }
+            if(i > 0) warm += System.nanoTime() - start;
+        }
+
+        System.out.println(paths.length + " models, cache " + cache.size() / 1024 + " KB in " + directory);
+        System.out.printf("  Cold (assimp import + write): %8.3f ms%n", cold / (double) ITERATIONS / 1_000_000d);
+        System.out.printf("  Warm (cache read):            %8.3f ms%n", warm / (double) ITERATIONS / 1_000_000d);
+
+        // other flags, optimization setting or loader miss
+        ok &= expect(cache.load(paths[0], aiProcess_GenSmoothNormals, false) == null, "other import flags hit the cache");
+        ok &= expect(cache.load(paths[0], FLAGS, true) == null, "optimized meshes hit the unoptimized entry");
+        ok &= expect(cache.load(paths[0], FLAGS, false, true, 0) == null, "ObjLoader meshes hit the assimp entry");
+
+        // an edited source misses until it is stored again
+        File source = new File(directory, "edited.obj");
+        Files.copy(new File(paths[paths.length - 1]).toPath(), source.toPath());
+        cache.store(source.getPath(), FLAGS, false, importMeshes(source.getPath()));
+        ok &= expect(cache.load(source.getPath(), FLAGS, false) != null, "stored source missed");
+        Files.write(source.toPath(), "\n# edited\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        ok &= expect(cache.load(source.getPath(), FLAGS, false) == null, "edited source hit the old entry");
+
+        // a limit below the current size keeps only the newest entries
+        MeshCache limited = new MeshCache(directory, cache.size() / 2);
+        limited.trim();
+        ok &= expect(limited.size() <= limited.getMaxBytes(), "trim left " + limited.size() + " bytes");
+        System.out.println("  Trimmed to " + limited.size() / 1024 + " KB of " + limited.getMaxBytes() / 1024 + " KB");
+
+        cache.clear();
+        source.delete();
+        directory.delete();
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: cache entries match the imports and invalidate");
+    }
+
+    private static ArrayList<Mesh3D> importMeshes(String path){
+        AIScene scene = Assimp.aiImportFile(path, FLAGS);
+        if(scene == null){
+            System.err.println(Assimp.aiGetErrorString());
+            System.exit(1);
+        }
+        ArrayList<Mesh3D> ret = AssimpLoader.convertMeshGroup(scene);
+        Assimp.aiReleaseImport(scene);
+        return ret;
+    }
+
+    private static boolean same(ArrayList<Mesh3D> a, ArrayList<Mesh3D> b){
+        if(b == null || a.size() != b.size()) return false;
+        for(int i = 0; i < a.size(); i++){
+            Mesh3D x = a.get(i), y = b.get(i);
+            if(!Arrays.equals(x.getPositions(), y.getPositions()) || !Arrays.equals(x.getUVs(), y.getUVs())
+                    || !Arrays.equals(x.getNormals(), y.getNormals()) || !Arrays.equals(x.getIndices(), y.getIndices()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
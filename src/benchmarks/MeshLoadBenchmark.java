@@ -0,0 +1,75 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.util.ArrayList;
+
+
+/**
+ * Imports a model with assimp and times the conversion into Mesh3D arrays,
+ * reporting the heap retained by the converted meshes and the heap
+ * allocated while converting. Runs without an OpenGL context, the meshes
+ * are not uploaded.
+ *
+ * Usage: java benchmarks.MeshLoadBenchmark [path to .obj]
+ */
+public class MeshLoadBenchmark {
+
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 20;
+
+    public static void main(String... args){
+
+        String path = args.length > 0 ? args[0] : "src/res/models/mat_test.obj";
+
+        long start = System.nanoTime();
+        AIScene scene = Assimp.aiImportFile(path, Preset.PREVIEW.getFlags());
+        if(scene == null){
+            System.err.println(Assimp.aiGetErrorString());
+            System.exit(1);
+        }
+        double importMillis = (System.nanoTime() - start) / 1_000_000d;
+
+        for(int i = 0; i < WARMUP; i++)
+            AssimpLoader.convertMeshGroup(scene);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++)
+            AssimpLoader.convertMeshGroup(scene);
+        double convertMillis = (System.nanoTime() - start) / 1_000_000d / ITERATIONS;
+        allocated = (threads.getThreadAllocatedBytes(thread) - allocated) / ITERATIONS;
+
+        long before = usedHeap();
+        ArrayList<Mesh3D> meshes = AssimpLoader.convertMeshGroup(scene);
+        long retained = usedHeap() - before;
+        Assimp.aiReleaseImport(scene);
+
+        int vertices = 0, indices = 0;
+        for(Mesh3D mesh: meshes){
+            vertices += mesh.getNumVertices();
+            indices += mesh.getIndices().length;
+        }
+
+        System.out.println(path + ": " + meshes.size() + " meshes, " + vertices + " vertices, " + indices + " indices");
+        System.out.printf("  Assimp import: %8.3f ms%n", importMillis);
+        System.out.printf("  Convert:       %8.3f ms%n", convertMillis);
+        System.out.printf("  Allocated:     %8.1f KB per conversion%n", allocated / 1024d);
+        System.out.printf("  Retained:      %8.1f KB%n", retained / 1024d);
+    }
+
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
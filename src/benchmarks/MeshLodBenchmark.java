@@ -0,0 +1,285 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.glapi.vbo.Primitives;
+import engine.system.Config;
+import engine.utils.AssetArchive;
+import engine.utils.AssetArchive.Codec;
+import engine.utils.AssetManager;
+import engine.utils.AssetPacker;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import engine.utils.MeshCache;
+import engine.utils.MeshOptimizer;
+import engine.utils.MeshSimplifier;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Generates the level of detail chains of the largest meshes below
+ * src/res/models and of a dense sphere, and prints the triangles and
+ * relative error of every level with the time the chain took. Checks that
+ * the levels index the mesh's vertices without triangles that lost their
+ * area, shrink by at least a fifth per level, grow in error, keep closed
+ * meshes closed, that meshes with more than 4 * MIN_TRIANGLES triangles get
+ * at least three levels and that the chain survives the MeshCache and
+ * AssetManager.loadMesh, the way scenes load their meshes.
+ *
+ * Then sweeps each mesh from close up to a few pixels and back, and checks
+ * the level picked only ever gets coarser going away and finer coming back,
+ * and that jitter of JITTER around every switch does not flip the level.
+ * Prints the triangles drawn per size on screen for the view and, one
+ * level coarser, for the shadow map. Runs without an OpenGL context. Exits
+ * with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.MeshLodBenchmark [levels] [pixel error]
+ */
+public class MeshLodBenchmark {
+
+    private static final int MESHES = 4;
+    private static final float JITTER = 0.05f;
+    private static final float[] SIZES = { 2000, 500, 200, 50, 20 };
+
+    public static void main(String... args) throws Exception {
+
+        int levels = args.length > 0 ? Integer.valueOf(args[0]) : 5;
+        float pixelError = args.length > 1 ? Float.valueOf(args[1]) : 1;
+        boolean ok = true;
+
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Mesh3D> meshes = new ArrayList<>();
+        largest(new File("src/res/models"), names, meshes);
+        names.add("sphere 256x128");
+        meshes.add(Primitives.sphere(256, 128));
+
+        System.out.printf("%-24s %9s  %-40s %9s%n", "", "triangles", "levels (relative error)", "generate");
+        for(int m = 0; m < meshes.size(); m++){
+            Mesh3D mesh = meshes.get(m);
+            long start = System.nanoTime();
+            MeshSimplifier.generateLods(mesh, levels);
+            double millis = (System.nanoTime() - start) / 1e6;
+
+            StringBuilder chain = new StringBuilder();
+            for(int level = 1; level < mesh.getLodCount(); level++)
+                chain.append(String.format("%d (%.4f) ", triangles(mesh, level), mesh.getLodError(level)));
+            System.out.printf("%-24s %9d  %-40s %6.1f ms%n", names.get(m), triangles(mesh, 0), chain, millis);
+            ok &= check(names.get(m), mesh);
+        }
+
+        ok &= checkCache(meshes.get(0), levels);
+        ok &= checkLoadMesh(levels);
+
+        System.out.printf("Triangles drawn at %.1f pixels of error, view / shadow map:%n", pixelError);
+        System.out.printf("%-24s", "");
+        for(float size: SIZES) System.out.printf(" %13s", (int) size + " px");
+        System.out.println();
+        for(int m = 0; m < meshes.size(); m++){
+            Mesh3D mesh = meshes.get(m);
+            System.out.printf("%-24s", names.get(m));
+            for(float size: SIZES){
+                int level = mesh.selectLod(size, pixelError, 0);
+                int shadow = Math.min(level + 1, mesh.getLodCount() - 1);
+                System.out.printf(" %6d/%-6d", triangles(mesh, level), triangles(mesh, shadow));
+            }
+            System.out.println();
+            ok &= checkSelection(names.get(m), mesh, pixelError);
+        }
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: levels are valid, shrinking and stable on screen");
+    }
+
+    private static boolean check(String name, Mesh3D mesh){
+        boolean ok = true;
+        int numVertices = mesh.getNumVertices();
+        boolean closed = openEdges(mesh.getPositions(), mesh.getIndices()) == 0;
+        if(mesh.getIndices().length / 3 > 4 * MeshSimplifier.MIN_TRIANGLES)
+            ok &= expect(mesh.getLodCount() >= 3, name + ": only " + mesh.getLodCount() + " levels");
+
+        for(int level = 1; level < mesh.getLodCount(); level++){
+            int[] indices = indices(mesh, level);
+            float[] p = mesh.getPositions();
+            for(int i = 0; i < indices.length; i += 3){
+                int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+                if(Math.max(a, Math.max(b, c)) >= numVertices || Math.min(a, Math.min(b, c)) < 0)
+                    return expect(false, name + ": level " + level + " indexes past the vertices");
+                if(same(p, a, b) || same(p, b, c) || same(p, a, c))
+                    return expect(false, name + ": level " + level + " has a triangle without area");
+            }
+            ok &= expect(triangles(mesh, level) <= triangles(mesh, level - 1) * 0.8f,
+                    name + ": level " + level + " saves less than a fifth");
+            ok &= expect(mesh.getLodError(level) >= mesh.getLodError(level - 1),
+                    name + ": level " + level + " has less error than the one before");
+            if(closed){
+                int open = openEdges(p, indices);
+                ok &= expect(open == 0, name + ": level " + level + " opened " + open + " edges");
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Stores and loads the mesh through a MeshCache in a temporary directory
+     */
+    private static boolean checkCache(Mesh3D mesh, int levels) throws Exception {
+        File directory = Files.createTempDirectory("lods").toFile();
+        File source = new File(directory, "source.obj");
+        Files.write(source.toPath(), new byte[]{ 1, 2, 3 });
+        MeshCache cache = new MeshCache(directory, 1 << 30);
+        ArrayList<Mesh3D> list = new ArrayList<>();
+        list.add(mesh);
+        cache.store(source.getPath(), 0, true, levels, list);
+
+        ArrayList<Mesh3D> loaded = cache.load(source.getPath(), 0, true, levels);
+        boolean ok = expect(loaded != null, "cached levels missed");
+        ok &= expect(cache.load(source.getPath(), 0, true, levels - 1) == null, "other levels hit the cache");
+        if(loaded != null){
+            Mesh3D copy = loaded.get(0);
+            ok &= expect(copy.getLodCount() == mesh.getLodCount(), "cache lost levels");
+            for(int level = 1; ok && level < mesh.getLodCount(); level++){
+                ok &= expect(Arrays.equals(indices(copy, level), indices(mesh, level))
+                        && copy.getLodError(level) == mesh.getLodError(level), "cache changed level " + level);
+            }
+        }
+        cache.clear();
+        source.delete();
+        directory.delete();
+        return ok;
+    }
+
+    /**
+     * Loads a model into a placeholder through an asynchronous AssetManager,
+     * reading from a mounted archive of the models
+     */
+    private static boolean checkLoadMesh(int levels) throws Exception {
+        File directory = Files.createTempDirectory("lodload").toFile();
+        File file = new File(directory, "models.pak");
+        AssetPacker.pack(new File("src"), Arrays.asList("res/models"), file, Codec.ZSTD);
+        AssetArchive.mount(file);
+
+        Config config = Config.instance();
+        config.setMeshCache(false);
+        config.setMeshLods(levels);
+
+        AssetManager assets = new AssetManager(true, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+        // stands in for bind(), which needs a GL context
+        Mesh3D mesh = assets.loadMesh("res/models/mat_test.obj", placeholder -> {});
+        while(assets.getLoading() > 0){
+            assets.update();
+            Thread.sleep(1);
+        }
+        assets.cleanup();
+        AssetArchive.unmount();
+        file.delete();
+        directory.delete();
+
+        return expect(mesh.getLodCount() > 1, "AssetManager.loadMesh lost the levels, " + mesh.getLodCount() + " left");
+    }
+
+    /**
+     * Moves the mesh away and back in steps of 1 %, jittering at every switch
+     */
+    private static boolean checkSelection(String name, Mesh3D mesh, float pixelError){
+        int level = mesh.selectLod(4000, pixelError, 0), closeUp = level;
+        for(int direction = 0; direction < 2; direction++){
+            for(int step = 0; step <= 600; step++){
+                // from 4000 pixels down to 10 and up again
+                float size = 4000 * (float) Math.pow(0.99, direction == 0 ? step : 600 - step);
+                int next = mesh.selectLod(size, pixelError, level);
+                if(direction == 0 ? next < level : next > level)
+                    return expect(false, name + ": level went back at " + size + " pixels");
+                if(next != level){
+                    int jittered = next;
+                    for(int frame = 0; frame < 20; frame++){
+                        float jitter = 1 + (frame % 2 == 0 ? JITTER : -JITTER);
+                        if(mesh.selectLod(size * jitter, pixelError, jittered) != next)
+                            return expect(false, name + ": level flips around " + size + " pixels");
+                    }
+                }
+                level = next;
+            }
+        }
+        return expect(level == closeUp, name + ": level " + level + " close up, " + closeUp + " before");
+    }
+
+    /**
+     * The MESHES meshes with the most triangles in the models below directory
+     */
+    private static void largest(File directory, ArrayList<String> names, ArrayList<Mesh3D> meshes){
+        ArrayList<File> files = new ArrayList<>();
+        collect(directory, files);
+        ArrayList<Object[]> all = new ArrayList<>();
+        for(File file: files){
+            AIScene scene = AssimpLoader.importScene(file.getPath(), Preset.SHIPPING);
+            if(scene == null) continue;
+            ArrayList<Mesh3D> group = AssimpLoader.convertMeshGroup(scene);
+            Assimp.aiReleaseImport(scene);
+            for(int i = 0; i < group.size(); i++)
+                all.add(new Object[]{ file.getName() + (group.size() > 1 ? " #" + i : ""), group.get(i) });
+        }
+        all.sort((a, b) -> ((Mesh3D) b[1]).getIndices().length - ((Mesh3D) a[1]).getIndices().length);
+        for(int i = 0; i < Math.min(MESHES, all.size()); i++){
+            Mesh3D mesh = (Mesh3D) all.get(i)[1];
+            MeshOptimizer.optimize(mesh);
+            names.add((String) all.get(i)[0]);
+            meshes.add(mesh);
+        }
+    }
+
+    private static void collect(File directory, ArrayList<File> files){
+        File[] children = directory.listFiles();
+        if(children == null) return;
+        Arrays.sort(children);
+        for(File child: children){
+            if(child.isDirectory()) collect(child, files);
+            else if(child.getName().endsWith(".obj")) files.add(child);
+        }
+    }
+
+    /**
+     * Edges between two positions that only one triangle uses
+     */
+    private static int openEdges(float[] p, int[] indices){
+        HashMap<String, Integer> edges = new HashMap<>();
+        for(int i = 0; i < indices.length; i += 3){
+            for(int k = 0; k < 3; k++){
+                String from = key(p, indices[i + k]), to = key(p, indices[i + (k + 1) % 3]);
+                edges.merge(from.compareTo(to) < 0 ? from + to : to + from, 1, Integer::sum);
+            }
+        }
+        int ret = 0;
+        for(int count: edges.values())
+            if(count == 1) ret++;
+        return ret;
+    }
+
+    private static String key(float[] p, int vertex){
+        return (p[vertex * 3] + 0f) + " " + (p[vertex * 3 + 1] + 0f) + " " + (p[vertex * 3 + 2] + 0f) + ";";
+    }
+
+    private static boolean same(float[] p, int a, int b){
+        return p[a * 3] == p[b * 3] && p[a * 3 + 1] == p[b * 3 + 1] && p[a * 3 + 2] == p[b * 3 + 2];
+    }
+
+    private static int[] indices(Mesh3D mesh, int level){
+        return level == 0 ? mesh.getIndices() : ((Mesh3D.Lod) mesh.getLod(level)).getIndices();
+    }
+
+    private static int triangles(Mesh3D mesh, int level){
+        return mesh.getLod(level).getVertexCount() / 3;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -0,0 +1,217 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.scene.node.OcclusionCuller;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import engine.utils.MeshOptimizer;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Runs the MeshOptimizer stages on the meshes of each model and reports
+ * the ACMR (FIFO cache of MeshOptimizer.ACMR_CACHE_SIZE) after every stage
+ * with the time it took. Checks that the optimized meshes draw the same
+ * triangles as the imported ones.
+ *
+ * Overdraw is measured by drawing each mesh on its own, front faces in
+ * index order, into an OcclusionCuller depth buffer from the corners and
+ * faces of a cube around it: fragments passing the depth test per
+ * covered pixel, 1 is the limit. Checks that the overdraw stage lowers it
+ * against its vertex cache ordered input. Runs without an OpenGL context,
+ * exits with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.MeshOptimizationBenchmark [paths to .obj]
+ */
+public class MeshOptimizationBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int VIEWPORT = 256;
+
+    // directions the overdraw is measured from, cube faces and corners
+    private static final Vector3f[] VIEWS = new Vector3f[14];
+    static {
+        int v = 0;
+        for(int axis = 0; axis < 3; axis++)
+            for(int sign = -1; sign <= 1; sign += 2)
+                VIEWS[v++] = new Vector3f(axis == 0 ? sign : 0, axis == 1 ? sign : 0, axis == 2 ? sign : 0);
+        for(int corner = 0; corner < 8; corner++)
+            VIEWS[v++] = new Vector3f((corner & 1) * 2 - 1, (corner & 2) - 1, (corner & 4) / 2f - 1).normalize();
+    }
+
+    public static void main(String... args){
+
+        String[] paths = args.length > 0 ? args : new String[]{
+                "src/res/models/mat_test.obj", "src/res/models/glock.obj", "src/res/models/doublebarrel.obj" };
+
+        OcclusionCuller culler = new OcclusionCuller(VIEWPORT, VIEWPORT);
+        boolean ok = true;
+        for(String path: paths){
+            AIScene scene = Assimp.aiImportFile(path, Preset.PREVIEW.getFlags());
+            if(scene == null){
+                System.err.println(Assimp.aiGetErrorString());
+                System.exit(1);
+            }
+            ArrayList<Mesh3D> meshes = AssimpLoader.convertMeshGroup(scene);
+            Assimp.aiReleaseImport(scene);
+
+            int triangles = 0, vertices = 0;
+            double input = 0, cache = 0, overdraw = 0, fetch = 0;
+            long cacheTime = 0, overdrawTime = 0, fetchTime = 0;
+            // fragments and covered pixels, imported, vertex cache and overdraw order
+            long[] fragments = new long[3];
+            long pixels = 0;
+
+            for(Mesh3D mesh: meshes){
+                int[] original = mesh.getIndices();
+                float[] originalPositions = mesh.getPositions();
+                int count = original.length / 3;
+                triangles += count;
+                vertices += mesh.getNumVertices();
+                input += MeshOptimizer.acmr(mesh) * count;
+
+                // best of a few runs, the mesh keeps the last result
+                int[] cached = null, sorted = null;
+                long best = Long.MAX_VALUE;
+                for(int i = 0; i < ITERATIONS; i++){
+                    long start = System.nanoTime();
+                    cached = MeshOptimizer.optimizeVertexCache(original, mesh.getNumVertices());
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                cacheTime += best;
+                cache += MeshOptimizer.acmr(cached, mesh.getNumVertices(), MeshOptimizer.ACMR_CACHE_SIZE) * count;
+
+                best = Long.MAX_VALUE;
+                for(int i = 0; i < ITERATIONS; i++){
+                    long start = System.nanoTime();
+                    sorted = MeshOptimizer.optimizeOverdraw(cached, originalPositions);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                overdrawTime += best;
+                overdraw += MeshOptimizer.acmr(sorted, mesh.getNumVertices(), MeshOptimizer.ACMR_CACHE_SIZE) * count;
+
+                long[] drawn = overdraw(culler, originalPositions, original, cached, sorted);
+                for(int i = 0; i < 3; i++) fragments[i] += drawn[i];
+                pixels += drawn[3];
+
+                ok &= expect(sameTriangles(original, cached), path + ": vertex cache order lost triangles");
+                ok &= expect(sameTriangles(original, sorted), path + ": overdraw order lost triangles");
+
+                mesh.setIndices(sorted);
+                long start = System.nanoTime();
+                MeshOptimizer.optimizeVertexFetch(mesh);
+                fetchTime += System.nanoTime() - start;
+                fetch += MeshOptimizer.acmr(mesh) * count;
+
+                ok &= expect(samePositions(sorted, originalPositions, mesh), path + ": vertex fetch order moved vertices");
+            }
+
+            System.out.println(path + ": " + meshes.size() + " meshes, " + vertices + " vertices, " + triangles + " triangles");
+            System.out.printf("  Input:        ACMR %.3f%n", input / triangles);
+            System.out.printf("  Vertex cache: ACMR %.3f  %8.3f ms%n", cache / triangles, cacheTime / 1_000_000d);
+            System.out.printf("  Overdraw:     ACMR %.3f  %8.3f ms%n", overdraw / triangles, overdrawTime / 1_000_000d);
+            System.out.printf("  Vertex fetch: ACMR %.3f  %8.3f ms%n", fetch / triangles, fetchTime / 1_000_000d);
+            System.out.printf("  Overdraw from %d views: imported %.3f, vertex cache %.3f, overdraw stage %.3f%n",
+                    VIEWS.length, (double) fragments[0] / pixels, (double) fragments[1] / pixels, (double) fragments[2] / pixels);
+
+            ok &= expect(fragments[2] < fragments[1], path + ": overdraw stage did not lower the overdraw");
+        }
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: optimized meshes draw the imported triangles, with less overdraw");
+    }
+
+    /**
+     * Draws the front faces of each index order from every view
+     * @return the fragments passing the depth test per order, then the pixels covered
+     */
+    private static long[] overdraw(OcclusionCuller culler, float[] positions, int[]... orders){
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY), max = new Vector3f(Float.NEGATIVE_INFINITY);
+        for(int i = 0; i < positions.length; i += 3){
+            min.min(new Vector3f(positions[i], positions[i+1], positions[i+2]));
+            max.max(new Vector3f(positions[i], positions[i+1], positions[i+2]));
+        }
+        Vector3f center = min.add(max, new Vector3f()).mul(0.5f);
+        float radius = Math.max(1e-3f, max.distance(min) / 2);
+
+        Matrix4f identity = new Matrix4f(), viewProjection = new Matrix4f();
+        long[] ret = new long[orders.length + 1];
+        for(Vector3f view: VIEWS){
+            Vector3f eye = new Vector3f(view).mul(radius * 3).add(center);
+            Vector3f up = Math.abs(view.y) > 0.9f ? new Vector3f(0, 0, 1) : new Vector3f(0, 1, 0);
+            viewProjection.setPerspective((float) Math.toRadians(45), 1, radius, radius * 5)
+                    .lookAt(eye, center, up);
+
+            for(int o = 0; o < orders.length; o++){
+                culler.begin(viewProjection).rasterize(identity, positions, frontFaces(orders[o], positions, eye));
+                ret[o] += culler.getFragments();
+            }
+            for(int y = 0; y < VIEWPORT; y++)
+                for(int x = 0; x < VIEWPORT; x++)
+                    if(culler.getDepth(x, y) < 1) ret[orders.length]++;
+        }
+        return ret;
+    }
+
+    /**
+     * Triangles wound counter clockwise as seen from the eye, in order
+     */
+    private static int[] frontFaces(int[] indices, float[] p, Vector3f eye){
+        int[] ret = new int[indices.length];
+        int n = 0;
+        for(int t = 0; t < indices.length; t += 3){
+            int a = indices[t] * 3, b = indices[t+1] * 3, c = indices[t+2] * 3;
+            float ux = p[b] - p[a], uy = p[b+1] - p[a+1], uz = p[b+2] - p[a+2];
+            float vx = p[c] - p[a], vy = p[c+1] - p[a+1], vz = p[c+2] - p[a+2];
+            float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+            if(nx * (eye.x - p[a]) + ny * (eye.y - p[a+1]) + nz * (eye.z - p[a+2]) > 0){
+                System.arraycopy(indices, t, ret, n, 3);
+                n += 3;
+            }
+        }
+        return Arrays.copyOf(ret, n);
+    }
+
+    /**
+     * Both index buffers hold the same triangles, each with its winding
+     */
+    private static boolean sameTriangles(int[] a, int[] b){
+        return a.length == b.length && Arrays.equals(keys(a), keys(b));
+    }
+
+    private static long[] keys(int[] indices){
+        long[] ret = new long[indices.length / 3];
+        for(int t = 0; t < ret.length; t++){
+            int x = indices[t*3], y = indices[t*3+1], z = indices[t*3+2];
+            // rotate the smallest index to the front, keeping the winding
+            if(y < x && y < z){ int s = x; x = y; y = z; z = s; }
+            else if(z < x && z < y){ int s = z; z = y; y = x; x = s; }
+            ret[t] = ((long) x << 42) | ((long) y << 21) | z;
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private static boolean samePositions(int[] indices, float[] positions, Mesh3D mesh){
+        int[] remapped = mesh.getIndices();
+        float[] moved = mesh.getPositions();
+        for(int i = 0; i < indices.length; i++)
+            for(int c = 0; c < 3; c++)
+                if(positions[indices[i]*3+c] != moved[remapped[i]*3+c]) return false;
+        return true;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
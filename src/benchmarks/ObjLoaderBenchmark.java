@@ -0,0 +1,166 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import engine.utils.ObjLoader;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads every OBJ file below src/res/models, plus a generated grid with
+ * relative indices, no normals and some concave quads, through assimp
+ * with the PREVIEW preset and through the ObjLoader. Prints the throughput
+ * of both in MB/s and checks that they produce the same meshes: equal
+ * indices, equal vertex counts, attributes within 1e-4. Files with
+ * polygons the ObjLoader leaves to assimp are skipped. Runs without an
+ * OpenGL context. Exits with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.ObjLoaderBenchmark [grid size] [rounds]
+ */
+public class ObjLoaderBenchmark {
+
+    private static final int FLAGS = Preset.PREVIEW.getFlags();
+    private static final float TOLERANCE = 1e-4f;
+
+    public static void main(String... args) throws Exception {
+
+        int grid = args.length > 0 ? Integer.valueOf(args[0]) : 400;
+        int rounds = args.length > 1 ? Integer.valueOf(args[1]) : 5;
+
+        ArrayList<File> files = new ArrayList<>();
+        collect(new File("src/res/models"), files);
+        File generated = File.createTempFile("grid", ".obj");
+        writeGrid(generated, grid);
+        files.add(generated);
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, common pool parallelism "
+                + ForkJoinPool.getCommonPoolParallelism());
+        boolean ok = true;
+        long bytes = 0;
+        double assimpTotal = 0, objTotal = 0;
+        for(File file: files){
+            ArrayList<Mesh3D> expected = assimp(file);
+            ArrayList<Mesh3D> actual = ObjLoader.read(file, true, true, true);
+            if(actual == null){
+                System.out.printf("%-20s left to assimp, has polygons with more than four corners%n", file.getName());
+                continue;
+            }
+            ok &= expect(compare(file.getName(), expected, actual), file.getName() + ": meshes differ from assimp");
+
+            double assimp = Double.MAX_VALUE, obj = Double.MAX_VALUE;
+            for(int round = 0; round < rounds; round++){
+                long start = System.nanoTime();
+                assimp(file);
+                assimp = Math.min(assimp, (System.nanoTime() - start) / 1e6);
+                start = System.nanoTime();
+                ObjLoader.read(file, true, true, true);
+                obj = Math.min(obj, (System.nanoTime() - start) / 1e6);
+            }
+            bytes += file.length();
+            assimpTotal += assimp;
+            objTotal += obj;
+            System.out.printf("%-20s %7.1f KB %3d meshes  assimp %8.2f ms %7.1f MB/s  ObjLoader %8.2f ms %7.1f MB/s%n",
+                    file.getName().startsWith("grid") ? "grid " + grid + "x" + grid : file.getName(), file.length() / 1024d,
+                    expected.size(), assimp, mbs(file.length(), assimp), obj, mbs(file.length(), obj));
+        }
+        System.out.printf("Total %.1f MB: assimp %.1f MB/s, ObjLoader %.1f MB/s (%.1fx)%n", bytes / 1048576d,
+                mbs(bytes, assimpTotal), mbs(bytes, objTotal), assimpTotal / objTotal);
+        generated.delete();
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: ObjLoader matches assimp on every file");
+    }
+
+    private static ArrayList<Mesh3D> assimp(File file){
+        AIScene scene = Assimp.aiImportFile(file.getPath(), FLAGS);
+        ArrayList<Mesh3D> ret = AssimpLoader.convertMeshGroup(scene);
+        Assimp.aiReleaseImport(scene);
+        return ret;
+    }
+
+    private static boolean compare(String name, ArrayList<Mesh3D> expected, ArrayList<Mesh3D> actual){
+        if(expected.size() != actual.size()){
+            System.out.println("  " + name + ": " + actual.size() + " meshes, assimp " + expected.size());
+            return false;
+        }
+        for(int i = 0; i < expected.size(); i++){
+            Mesh3D a = expected.get(i), b = actual.get(i);
+            if(!Arrays.equals(a.getIndices(), b.getIndices()) || !close(a.getPositions(), b.getPositions())
+                    || !close(a.getUVs(), b.getUVs()) || !close(a.getNormals(), b.getNormals())){
+                System.out.println("  " + name + ": mesh " + i + " differs");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean close(float[] a, float[] b){
+        if(a.length != b.length) return false;
+        for(int i = 0; i < a.length; i++)
+            if(Math.abs(a[i] - b[i]) > TOLERANCE) return false;
+        return true;
+    }
+
+    /**
+     * Wavy grid of quads with UVs, no normals and relative face indices,
+     * followed by darts: quads concave at each of their corners in turn
+     */
+    private static void writeGrid(File file, int size) throws Exception {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))){
+            out.println("o grid");
+            for(int y = 0; y <= size; y++){
+                for(int x = 0; x <= size; x++){
+                    out.printf("v %.5f %.5f %.5f%n", x / (float) size, (float) (Math.sin(x * 0.1) * Math.cos(y * 0.1)) * 0.05f, y / (float) size);
+                    out.printf("vt %.5f %.5f%n", x / (float) size, y / (float) size);
+                }
+            }
+            int vertices = (size + 1) * (size + 1);
+            for(int y = 0; y < size; y++){
+                for(int x = 0; x < size; x++){
+                    int a = y * (size + 1) + x - vertices, b = a + 1, c = a + size + 2, d = a + size + 1;
+                    out.printf("f %d/%d %d/%d %d/%d %d/%d%n", a, a, d, d, c, c, b, b);
+                }
+            }
+            out.println("o darts");
+            for(int i = 0; i < 8; i++){
+                float x = 2 * i;
+                out.printf("v %.1f 0 0%nv %.1f 1 0.2%nv %.1f 0.4 0%nv %.1f 1 -0.2%n", x, x + 0.5f, x, x - 0.5f);
+                int[] corners = { -4, -3, -2, -1 };
+                StringBuilder face = new StringBuilder("f");
+                for(int c = 0; c < 4; c++)
+                    face.append(' ').append(corners[(c + i) % 4]);
+                out.println(face);
+            }
+        }
+    }
+
+    private static void collect(File directory, ArrayList<File> files){
+        File[] children = directory.listFiles();
+        if(children == null) return;
+        Arrays.sort(children);
+        for(File child: children){
+            if(child.isDirectory()) collect(child, files);
+            else if(child.getName().endsWith(".obj")) files.add(child);
+        }
+    }
+
+    private static double mbs(long bytes, double millis){
+        return bytes / 1048576d / (millis / 1000);
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -0,0 +1,148 @@
+package benchmarks;
+
+import engine.scene.node.OcclusionCuller;
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+
+import java.util.Random;
+
+/**
+ * Rasterizes a room of wall boxes into the 256x128 OcclusionCuller buffer
+ * and tests 100k object boxes scattered inside and outside the room against
+ * the hierarchical-Z pyramid. Then checks on a buffer of odd size that no
+ * box is culled that the full resolution depth shows is visible. Runs
+ * without an OpenGL context. Exits with status 1 if the check fails.
+ *
+ * Usage: java benchmarks.OcclusionCullingBenchmark [objects]
+ */
+public class OcclusionCullingBenchmark {
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 500;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 100_000;
+
+        float[] positions = new float[8 * 3];
+        int[] indices = new int[36];
+        box(positions, indices);
+
+        // four 24x6x1 walls around the origin
+        Matrix4f[] walls = {
+                new Matrix4f().translate(0, 3, -12).scale(12, 3, 0.5f),
+                new Matrix4f().translate(0, 3, 12).scale(12, 3, 0.5f),
+                new Matrix4f().translate(-12, 3, 0).scale(0.5f, 3, 12),
+                new Matrix4f().translate(12, 3, 0).scale(0.5f, 3, 12),
+        };
+
+        Matrix4f viewProjection = new Matrix4f()
+                .perspective((float) Math.toRadians(60), 16 / 9f, 0.01f, 10000f)
+                .lookAt(0, 2, 5, 0, 2, -20, 0, 1, 0);
+
+        // objects inside the room and beyond its walls
+        Random random = new Random(42);
+        AABBf[] boxes = new AABBf[count];
+        int outside = 0;
+        for(int i = 0; i < count; i++){
+            float x = (random.nextFloat() - 0.5f) * 80, z = (random.nextFloat() - 0.5f) * 80;
+            float y = random.nextFloat() * 3;
+            boxes[i] = new AABBf(x - 0.5f, y, z - 0.5f, x + 0.5f, y + 1, z + 0.5f);
+            if(Math.abs(x) > 13 || Math.abs(z) > 13) outside++;
+        }
+
+        OcclusionCuller culler = new OcclusionCuller();
+        long raster = 0, test = 0;
+        int occluded = 0;
+
+        for(int i = 0; i < WARMUP + ITERATIONS; i++){
+            long start = System.nanoTime();
+            culler.begin(viewProjection);
+            for(Matrix4f wall: walls)
+                culler.rasterize(wall, positions, indices);
+            culler.finish();
+            long mid = System.nanoTime();
+
+            occluded = 0;
+            for(AABBf box: boxes)
+                if(!culler.isVisible(box)) occluded++;
+            long end = System.nanoTime();
+
+            if(i >= WARMUP){
+                raster += mid - start;
+                test += end - mid;
+            }
+        }
+
+        System.out.println("Buffer: " + culler.getWidth() + "x" + culler.getHeight()
+                + ", occluder triangles: " + culler.getTriangles() + ", objects: " + count);
+        System.out.printf("  Rasterize + HiZ: %8.3f ms%n", raster / (double) ITERATIONS / 1_000_000d);
+        System.out.printf("  Test objects:    %8.3f ms (%.1f ns/object)%n",
+                test / (double) ITERATIONS / 1_000_000d, test / (double) ITERATIONS / count);
+        System.out.println("  Occluded: " + occluded + " of " + count + " (" + outside + " outside the room)");
+
+        int wrong = conservative(255, 127, count);
+        if(wrong > 0){
+            System.out.println("FAILED: " + wrong + " visible boxes culled on a 255x127 buffer");
+            System.exit(1);
+        }
+        System.out.println("OK: no visible box culled on a 255x127 buffer");
+    }
+
+    /**
+     * Rasterizes a screen filling occluder that leaves the last three
+     * columns and rows open, straight in NDC, and tests boxes crowding the
+     * open edges against the depth at full resolution
+     * @return number of boxes culled although a pixel they cover is open
+     */
+    private static int conservative(int width, int height, int count){
+        float right = 1 - 6f / width, top = 1 - 6f / height;
+        float[] positions = { -1, -1, 0.5f,  right, -1, 0.5f,  right, top, 0.5f,  -1, top, 0.5f };
+        int[] indices = { 0, 1, 2,  0, 2, 3 };
+
+        OcclusionCuller culler = new OcclusionCuller(width, height);
+        culler.begin(new Matrix4f());
+        culler.rasterize(new Matrix4f(), positions, indices);
+        culler.finish();
+
+        Random random = new Random(7);
+        int wrong = 0;
+        for(int i = 0; i < count; i++){
+            float x = 1 - random.nextFloat() * 0.2f, y = 1 - random.nextFloat() * 0.2f;
+            float sizeX = random.nextFloat() * 0.1f, sizeY = random.nextFloat() * 0.1f;
+            AABBf box = new AABBf(x - sizeX, y - sizeY, 0.9f, Math.min(1, x), Math.min(1, y), 0.95f);
+
+            // pixels the box covers, as isVisible finds them
+            int x0 = Math.max(0, (int) Math.floor((box.minX * 0.5f + 0.5f) * width));
+            int x1 = Math.min(width - 1, (int) Math.floor((box.maxX * 0.5f + 0.5f) * width));
+            int y0 = Math.max(0, (int) Math.floor((box.minY * 0.5f + 0.5f) * height));
+            int y1 = Math.min(height - 1, (int) Math.floor((box.maxY * 0.5f + 0.5f) * height));
+            float farthest = 0;
+            for(int py = y0; py <= y1; py++)
+                for(int px = x0; px <= x1; px++)
+                    farthest = Math.max(farthest, culler.getDepth(px, py));
+
+            if(box.minZ <= farthest && !culler.isVisible(box)) wrong++;
+        }
+        return wrong;
+    }
+
+    /**
+     * Unit cube from -1 to 1, 12 triangles
+     */
+    private static void box(float[] positions, int[] indices){
+        for(int i = 0; i < 8; i++){
+            positions[i*3]   = (i & 1) == 0 ? -1 : 1;
+            positions[i*3+1] = (i & 2) == 0 ? -1 : 1;
+            positions[i*3+2] = (i & 4) == 0 ? -1 : 1;
+        }
+        int[] faces = {
+                0, 2, 3, 1,  4, 5, 7, 6,  0, 1, 5, 4,
+                2, 6, 7, 3,  0, 4, 6, 2,  1, 3, 7, 5 };
+        int t = 0;
+        for(int f = 0; f < faces.length; f += 4){
+            indices[t++] = faces[f]; indices[t++] = faces[f+1]; indices[t++] = faces[f+2];
+            indices[t++] = faces[f]; indices[t++] = faces[f+2]; indices[t++] = faces[f+3];
+        }
+    }
+}
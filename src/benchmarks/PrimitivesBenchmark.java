@@ -0,0 +1,140 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.glapi.vbo.Primitives;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Generates every primitive at the first three levels of detail and checks
+ * the geometry: indices in range, no triangles without area, unit normals
+ * on the outer side of every triangle, and for the closed shapes that each
+ * edge joins exactly two triangles and the volume is close to the exact
+ * one. Prints vertices, triangles and the time to generate each, next to
+ * the time the OBJ files took through assimp. Runs without an OpenGL
+ * context. Exits with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.PrimitivesBenchmark [rounds]
+ */
+public class PrimitivesBenchmark {
+
+    private static final int SEGMENTS = 64, RINGS = 32;
+    private static final double PI = Math.PI;
+
+    public static void main(String... args){
+
+        int rounds = args.length > 0 ? Integer.valueOf(args[0]) : 20;
+        boolean ok = true;
+
+        System.out.printf("%-22s %8s %9s %10s%n", "", "vertices", "triangles", "generate");
+        for(int lod = 0; lod <= 2; lod++){
+            int segments = SEGMENTS >> lod, rings = RINGS >> lod;
+            // closed shapes with their exact volume, open ones with 0. Facets cut off
+            // a share of the volume that grows like 1 - cos(pi / segments)
+            double tolerance = 4 * (1 - Math.cos(PI / segments));
+            ok &= check("sphere " + segments + "x" + rings, () -> Primitives.sphere(segments, rings),
+                    4 * PI / 3, tolerance, rounds);
+            ok &= check("dome " + segments + "x" + rings / 2, () -> Primitives.dome(segments, rings / 2), 0, 0, rounds);
+            ok &= check("cylinder " + segments, () -> Primitives.cylinder(segments), 2 * PI, tolerance, rounds);
+            ok &= check("capsule " + segments + "x" + rings / 2, () -> Primitives.capsule(segments, rings / 2, 2),
+                    4 * PI / 3 + 2 * PI, tolerance, rounds);
+        }
+        ok &= check("cube", Primitives::cube, 8, 1e-6, rounds);
+        ok &= check("thick quad", () -> Primitives.box(1, 1, 0.05f), 0.4, 1e-6, rounds);
+        ok &= check("quad", () -> Primitives.quad(-1, -1, 1, 1), 0, 0, rounds);
+        ok &= check("fullscreen triangle", Primitives::fullscreenTriangle, 0, 0, rounds);
+
+        // what Meshs loaded before, thickquad.obj never existed
+        System.out.println("Through assimp:");
+        for(String name: new String[]{ "sphere", "cube", "dome", "posquad" }){
+            String path = "src/res/models/primitives/" + name + ".obj";
+            double millis = Double.MAX_VALUE;
+            for(int round = 0; round < Math.min(rounds, 5); round++){
+                long start = System.nanoTime();
+                AIScene scene = AssimpLoader.importScene(path, Preset.SHIPPING);
+                AssimpLoader.convertMeshGroup(scene);
+                Assimp.aiReleaseImport(scene);
+                millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+            }
+            System.out.printf("  %-20s %29.3f ms%n", name + ".obj", millis);
+        }
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: primitives are valid, outward facing and closed where they should be");
+    }
+
+    /**
+     * @param volume exact volume of a closed shape, 0 for open ones
+     * @param tolerance share of the volume the facets may cut off
+     */
+    private static boolean check(String name, Supplier<Mesh3D> generator, double volume, double tolerance, int rounds){
+        Mesh3D mesh = generator.get();
+        double millis = Double.MAX_VALUE;
+        for(int round = 0; round < rounds; round++){
+            long start = System.nanoTime();
+            generator.get();
+            millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+        }
+        float[] p = mesh.getPositions(), n = mesh.getNormals();
+        int[] indices = mesh.getIndices();
+        int vertices = p.length / 3;
+        System.out.printf("  %-20s %8d %9d %7.3f ms%n", name, vertices, indices.length / 3, millis);
+
+        boolean ok = expect(n.length == p.length && mesh.getUVs().length == vertices * 2, name + ": attribute sizes");
+        for(int v = 0; v < vertices; v++){
+            double length = Math.sqrt(n[v * 3] * n[v * 3] + n[v * 3 + 1] * n[v * 3 + 1] + n[v * 3 + 2] * n[v * 3 + 2]);
+            if(Math.abs(length - 1) > 1e-4)
+                return expect(false, name + ": normal " + v + " has length " + length);
+        }
+
+        double signedVolume = 0;
+        HashMap<String, Integer> edges = new HashMap<>();
+        for(int i = 0; i < indices.length; i += 3){
+            for(int k = 0; k < 3; k++)
+                if(indices[i + k] < 0 || indices[i + k] >= vertices)
+                    return expect(false, name + ": index out of range");
+            int a = indices[i] * 3, b = indices[i + 1] * 3, c = indices[i + 2] * 3;
+            double ux = p[b] - p[a], uy = p[b + 1] - p[a + 1], uz = p[b + 2] - p[a + 2];
+            double vx = p[c] - p[a], vy = p[c + 1] - p[a + 1], vz = p[c + 2] - p[a + 2];
+            double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+            if(nx * nx + ny * ny + nz * nz < 1e-14)
+                return expect(false, name + ": triangle " + i / 3 + " has no area");
+            for(int corner: new int[]{ a, b, c })
+                if(nx * n[corner] + ny * n[corner + 1] + nz * n[corner + 2] <= 0)
+                    return expect(false, name + ": triangle " + i / 3 + " faces away from its normals");
+
+            signedVolume += (p[a] * (p[b + 1] * p[c + 2] - p[b + 2] * p[c + 1])
+                    - p[a + 1] * (p[b] * p[c + 2] - p[b + 2] * p[c])
+                    + p[a + 2] * (p[b] * p[c + 1] - p[b + 1] * p[c])) / 6;
+            for(int k = 0; k < 3; k++){
+                String from = key(p, indices[i + k]), to = key(p, indices[i + (k + 1) % 3]);
+                edges.merge(from.compareTo(to) < 0 ? from + to : to + from, 1, Integer::sum);
+            }
+        }
+
+        if(volume > 0){
+            for(int count: edges.values())
+                if(count != 2) return expect(false, name + ": not closed, an edge joins " + count + " triangles");
+            ok &= expect(signedVolume <= volume * (1 + 1e-6) && signedVolume >= volume * (1 - tolerance),
+                    name + ": volume " + signedVolume + ", exact " + volume);
+        }
+        return ok;
+    }
+
+    private static String key(float[] p, int vertex){
+        return String.format("(%.5f %.5f %.5f)", p[vertex * 3] + 0f, p[vertex * 3 + 1] + 0f, p[vertex * 3 + 2] + 0f);
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
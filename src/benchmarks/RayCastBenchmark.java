@@ -0,0 +1,211 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.glapi.vbo.Primitives;
+import engine.scene.RayCaster;
+import engine.scene.RayHit;
+import engine.scene.node.BoundingVolumeHierarchy;
+import engine.scene.node.ModuleNode;
+import engine.scene.node.Node;
+import engine.scene.node.RenderModule;
+import engine.scene.node.RenderType;
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Casts rays into a scene of translated, rotated and non uniformly scaled
+ * primitives through the RayCaster, once with candidates from a
+ * BoundingVolumeHierarchy and once from the tree walk, and checks node,
+ * world position, normal and distance of every hit against a brute force
+ * loop over all triangles in world space. Half of the rays aim at a node,
+ * the rest start inside the scene in a random direction, two start outside
+ * of it pointing away so they miss everything. Prints the time per cast of the
+ * three. Runs without an OpenGL context, exits with status 1 if a check
+ * fails.
+ *
+ * Usage: java benchmarks.RayCastBenchmark [nodes] [rays]
+ */
+public class RayCastBenchmark {
+
+    private static final float WORLD = 100f;
+    // world units, relative to distances of up to about 2 * WORLD
+    private static final float EPSILON = 1e-3f;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 500;
+        int rays = args.length > 1 ? Integer.valueOf(args[1]) : 2000;
+
+        Mesh3D[] meshes = { Primitives.sphere(32, 16), Primitives.box(1, 2, 0.5f),
+                Primitives.capsule(16, 8, 2), Primitives.cylinder(24) };
+        for(Mesh3D mesh: meshes)
+            mesh.computeBounds();
+
+        Random random = new Random(7);
+        Node root = new Node();
+        ArrayList<ModuleNode> nodes = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            Node group = new Node();
+            group.transform.translate((random.nextFloat() - 0.5f) * WORLD, 0, (random.nextFloat() - 0.5f) * WORLD)
+                    .rotate(0, random.nextFloat() * 360, 0);
+            ModuleNode node = model(meshes[i % meshes.length]);
+            node.transform.translate(0, random.nextFloat() * 4, 0)
+                    .rotate(random.nextFloat() * 360, random.nextFloat() * 360, random.nextFloat() * 360)
+                    .scaleTo(0.5f + random.nextFloat() * 2, 0.5f + random.nextFloat() * 2, 0.5f + random.nextFloat() * 2);
+            group.addChild(node);
+            root.addChild(group);
+            nodes.add(node);
+        }
+        root.updateTransforms();
+        BoundingVolumeHierarchy index = new BoundingVolumeHierarchy(root);
+        index.rebuild();
+
+        Vector3f[] origins = new Vector3f[rays], directions = new Vector3f[rays];
+        for(int r = 0; r < rays; r++){
+            origins[r] = new Vector3f((random.nextFloat() - 0.5f) * WORLD, 2 + random.nextFloat() * 10,
+                    (random.nextFloat() - 0.5f) * WORLD);
+            if(r % 2 == 0){
+                Vector3f target = nodes.get(random.nextInt(count)).getModelMatrix().getTranslation(new Vector3f());
+                directions[r] = target.sub(origins[r]);
+            } else {
+                directions[r] = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f,
+                        random.nextFloat() - 0.5f);
+            }
+        }
+        // straight up from above the scene and sideways from beside it, both miss everything
+        origins[1].set(0, 20, 0);
+        directions[1].set(0, 1, 0);
+        origins[3].set(WORLD, 2, 0);
+        directions[3].set(1, 0, 0.2f);
+
+        RayCaster caster = new RayCaster();
+        RayHit[] expected = new RayHit[rays], indexed = new RayHit[rays], walked = new RayHit[rays];
+
+        long start = System.nanoTime();
+        for(int r = 0; r < rays; r++)
+            expected[r] = bruteForce(nodes, origins[r], directions[r]);
+        double brute = (System.nanoTime() - start) / 1e6 / rays;
+
+        start = System.nanoTime();
+        for(int r = 0; r < rays; r++)
+            indexed[r] = caster.cast(root, index, origins[r], directions[r], null, RenderType.TYPE_UUID);
+        double tree = (System.nanoTime() - start) / 1e6 / rays;
+
+        start = System.nanoTime();
+        for(int r = 0; r < rays; r++)
+            walked[r] = caster.cast(root, null, origins[r], directions[r], null, RenderType.TYPE_UUID);
+        double walk = (System.nanoTime() - start) / 1e6 / rays;
+
+        boolean ok = true;
+        int hits = 0, misses = 0;
+        for(int r = 0; r < rays; r++){
+            if(expected[r] == null) misses++;
+            else hits++;
+            ok &= compare("spatial index", r, expected[r], indexed[r]);
+            ok &= compare("tree walk", r, expected[r], walked[r]);
+        }
+        ok &= expect(expected[1] == null && expected[3] == null, "a ray outside the scene hit something");
+        ok &= expect(hits > rays / 2, "only " + hits + " of " + rays + " rays hit");
+
+        System.out.println(count + " nodes, " + rays + " rays, " + hits + " hits, " + misses + " misses");
+        System.out.printf("  Brute force:   %8.4f ms per ray%n", brute);
+        System.out.printf("  Spatial index: %8.4f ms per ray%n", tree);
+        System.out.printf("  Tree walk:     %8.4f ms per ray%n", walk);
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: every cast matches the brute force hit");
+    }
+
+    private static ModuleNode model(Mesh3D mesh){
+        ModuleNode node = new ModuleNode(){
+            @Override
+            public AABBf getLocalBounds(){
+                return mesh.getBounds();
+            }
+        };
+        node.addModule(RenderType.TYPE_UUID, new RenderModule(null, mesh));
+        return node;
+    }
+
+    private static boolean compare(String path, int ray, RayHit expected, RayHit hit){
+        String name = path + " ray " + ray + ": ";
+        if(expected == null || hit == null)
+            return expect(expected == hit, name + (hit == null ? "missed" : "hit " + hit.getNode().getName() + ", expected a miss"));
+
+        // two surfaces at the same distance may both be right
+        if(hit.getNode() != expected.getNode() && Math.abs(hit.getDistance() - expected.getDistance()) > EPSILON)
+            return expect(false, name + "hit " + hit.getNode().getName() + ", expected " + expected.getNode().getName());
+        if(Math.abs(hit.getDistance() - expected.getDistance()) > EPSILON)
+            return expect(false, name + "distance " + hit.getDistance() + ", expected " + expected.getDistance());
+        if(hit.getPosition().distance(expected.getPosition()) > EPSILON)
+            return expect(false, name + "position " + hit.getPosition() + ", expected " + expected.getPosition());
+        if(hit.getNode() == expected.getNode() && hit.getNormal().dot(expected.getNormal()) < 0.999f)
+            return expect(false, name + "normal " + hit.getNormal() + ", expected " + expected.getNormal());
+        return true;
+    }
+
+    /**
+     * Closest triangle of all nodes, transformed to world space, against the normalized ray
+     */
+    private static RayHit bruteForce(ArrayList<ModuleNode> nodes, Vector3f origin, Vector3f dir){
+        Vector3f d = new Vector3f(dir).normalize();
+        Vector3f a = new Vector3f(), b = new Vector3f(), c = new Vector3f();
+        Vector3f e1 = new Vector3f(), e2 = new Vector3f(), p = new Vector3f(), q = new Vector3f(), s = new Vector3f();
+
+        ModuleNode best = null;
+        float closest = Float.POSITIVE_INFINITY;
+        Vector3f normal = new Vector3f();
+
+        for(ModuleNode node: nodes){
+            Mesh3D mesh = (Mesh3D) ((RenderModule) node.getModules().get(RenderType.TYPE_UUID)).getMesh();
+            Matrix4f model = node.getModelMatrix();
+            float[] positions = mesh.getPositions();
+            int[] indices = mesh.getIndices();
+            for(int i = 0; i < indices.length; i += 3){
+                vertex(model, positions, indices[i], a);
+                vertex(model, positions, indices[i + 1], b);
+                vertex(model, positions, indices[i + 2], c);
+
+                // Moller-Trumbore
+                b.sub(a, e1);
+                c.sub(a, e2);
+                d.cross(e2, p);
+                float det = e1.dot(p);
+                if(Math.abs(det) < 1e-12f) continue;
+                float inv = 1 / det;
+                origin.sub(a, s);
+                float u = s.dot(p) * inv;
+                if(u < 0 || u > 1) continue;
+                s.cross(e1, q);
+                float v = d.dot(q) * inv;
+                if(v < 0 || u + v > 1) continue;
+                float t = e2.dot(q) * inv;
+                if(t < 0 || t >= closest) continue;
+
+                closest = t;
+                best = node;
+                e1.cross(e2, normal).normalize();
+                if(normal.dot(d) > 0) normal.negate();
+            }
+        }
+
+        if(best == null) return null;
+        return new RayHit(best, new Vector3f(d).mul(closest).add(origin), normal, closest);
+    }
+
+    private static void vertex(Matrix4f model, float[] positions, int index, Vector3f dest){
+        model.transformPosition(dest.set(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]));
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -0,0 +1,246 @@
+package benchmarks;
+
+import engine.glapi.vbo.BatchMesh;
+import engine.glapi.vbo.Mesh3D;
+import engine.scene.node.ModuleNode;
+import engine.scene.node.Node;
+import engine.scene.node.RenderModule;
+import engine.scene.node.RenderType;
+import engine.scene.node.StaticBatcher;
+import engine.scene.node.TransformStore;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Random;
+
+/**
+ * Bakes a grid of static cubes with the StaticBatcher and checks the merged
+ * vertices against each node's model matrix, then times the incremental
+ * rebakes after removing, adding and moving single static nodes (average
+ * of REPEAT each, the transform update included in the move). Checks
+ * that these stay inside the batch's region of the merged arrays and that
+ * a move only bakes the moved node, that a mesh arriving after its node
+ * joined is baked at its new size, and that moving a non static parent in
+ * a TransformStore moves its static children.
+ * Runs without an OpenGL context (the batch is never uploaded), exits with
+ * status 1 if the baked geometry is wrong.
+ *
+ * Usage: java benchmarks.StaticBatchingBenchmark [nodes]
+ */
+public class StaticBatchingBenchmark {
+
+    private static final float EPSILON = 1e-4f;
+    private static final int REPEAT = 10;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 10_000;
+
+        Mesh3D cube = cube();
+        Node root = new Node();
+        StaticBatcher batcher = new StaticBatcher(root);
+
+        Random random = new Random(42);
+        Node level = new Node();
+        for(int i = 0; i < count; i++)
+            level.addChild(model(cube, random));
+        level.setStatic(true);
+
+        long start = System.nanoTime();
+        root.addChild(level);
+        root.updateTransforms();
+        batcher.update();
+        double bake = (System.nanoTime() - start) / 1_000_000d;
+
+        boolean ok = check(batcher, "initial bake");
+
+        // a dynamic node must not touch the batches
+        int bakes = batcher.getBakes();
+        root.addChild(model(cube, random));
+        batcher.update();
+        ok &= expect(batcher.getBakes() == bakes, "dynamic node caused a rebake");
+
+        int layouts = batcher.getLayouts();
+        float[] merged = batcher.getMesh().getPositions();
+        start = System.nanoTime();
+        for(int i = 0; i < REPEAT; i++){
+            level.removeChild(level.getChildren().get(0));
+            batcher.update();
+        }
+        double remove = (System.nanoTime() - start) / 1_000_000d / REPEAT;
+        ok &= check(batcher, "remove");
+
+        ModuleNode added = null;
+        start = System.nanoTime();
+        for(int i = 0; i < REPEAT; i++){
+            added = model(cube, random);
+            added.setStatic(true);
+            level.addChild(added);
+            batcher.update();
+        }
+        double add = (System.nanoTime() - start) / 1_000_000d / REPEAT;
+        ok &= check(batcher, "add");
+
+        start = System.nanoTime();
+        for(int i = 0; i < REPEAT; i++){
+            added.transform.translate(0, 10, 0);
+            root.updateTransforms();
+            batcher.update();
+        }
+        double move = (System.nanoTime() - start) / 1_000_000d / REPEAT;
+        ok &= check(batcher, "move");
+        ok &= expect(batcher.getBakes() == bakes + 2 * REPEAT, "move baked the whole batch");
+        ok &= expect(batcher.getLayouts() == layouts && batcher.getMesh().getPositions() == merged,
+                "remove, add or move laid out the merged arrays again");
+
+        // a mesh still loading has no vertices, it grows its member once it arrives
+        Mesh3D loading = new Mesh3D();
+        ModuleNode late = new ModuleNode();
+        late.addModule(RenderType.TYPE_SCENE, new RenderModule(null, loading));
+        late.setStatic(true);
+        level.addChild(late);
+        root.updateTransforms();
+        batcher.update();
+        loading.setPositions(cube.getPositions());
+        loading.setNormals(cube.getNormals());
+        loading.setUVs(cube.getUVs());
+        loading.setIndices(cube.getIndices());
+        late.invalidateTransform();
+        root.updateTransforms();
+        batcher.update();
+        ok &= check(batcher, "mesh arrived");
+        level.removeChild(late);
+        batcher.update();
+
+        ok &= checkTransformStore(cube, random);
+
+        ok &= expect(batcher.size() == count, "expected " + count + " batched nodes, got " + batcher.size());
+
+        BatchMesh mesh = batcher.getMesh();
+        System.out.println("Static nodes: " + batcher.size() + ", batches: " + batcher.getBatches().size()
+                + ", vertices: " + mesh.getPositions().length / 3 + ", indices: " + mesh.getIndices().length
+                + " (with room to grow)");
+        System.out.printf("  Initial bake: %8.3f ms%n", bake);
+        System.out.printf("  Remove node:  %8.3f ms%n", remove);
+        System.out.printf("  Add node:     %8.3f ms%n", add);
+        System.out.printf("  Move node:    %8.3f ms%n", move);
+        System.out.println("  Batches baked: " + batcher.getBakes());
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: baked geometry matches the node transforms");
+    }
+
+    /**
+     * Nodes in a TransformStore do not invalidate their children, the
+     * batcher has to reach static children of a moved parent itself
+     */
+    private static boolean checkTransformStore(Mesh3D cube, Random random){
+        Node root = new Node();
+        Node group = new Node();
+        for(int i = 0; i < 16; i++)
+            group.addChild(model(cube, random));
+        for(Node child: group.getChildren())
+            child.setStatic(true);
+        root.addChild(group);
+        StaticBatcher batcher = new StaticBatcher(root);
+        TransformStore store = new TransformStore(root);
+        store.propagate();
+        batcher.update();
+
+        group.transform.translate(5, 0, 5);
+        store.propagate();
+        batcher.update();
+        return check(batcher, "move parent in a transform store");
+    }
+
+    private static ModuleNode model(Mesh3D mesh, Random random){
+        ModuleNode node = new ModuleNode();
+        node.addModule(RenderType.TYPE_SCENE, new RenderModule(null, mesh));
+        node.transform.translate(random.nextFloat() * 200 - 100, 0, random.nextFloat() * 200 - 100)
+                .rotate(0, random.nextFloat() * 360, 0)
+                .scaleTo(0.5f + random.nextFloat());
+        return node;
+    }
+
+    /**
+     * Every member's vertices, in batch order from the start of the batch's
+     * region, have to equal its model matrix applied to the source mesh and
+     * lie inside the batch bounds
+     */
+    private static boolean check(StaticBatcher batcher, String step){
+        float[] positions = batcher.getMesh().getPositions();
+        int[] indices = batcher.getMesh().getIndices();
+        Vector3f expected = new Vector3f();
+
+        for(StaticBatcher.Batch batch: batcher.getBatches()){
+            int base = batch.getFirstVertex(), vertex = base;
+            for(ModuleNode node: batch.getMembers()){
+                Mesh3D mesh = (Mesh3D) ((RenderModule) node.getModules().get(RenderType.TYPE_SCENE)).getMesh();
+                Matrix4f model = node.getModelMatrix();
+                float[] source = mesh.getPositions();
+                for(int v = 0; v < mesh.getNumVertices(); v++){
+                    model.transformPosition(expected.set(source[v*3], source[v*3+1], source[v*3+2]));
+                    float x = positions[vertex * 3], y = positions[vertex * 3 + 1], z = positions[vertex * 3 + 2];
+                    if(Math.abs(x - expected.x) > EPSILON || Math.abs(y - expected.y) > EPSILON
+                            || Math.abs(z - expected.z) > EPSILON)
+                        return expect(false, step + ": vertex " + vertex + " of " + node.getName() + " not transformed");
+                    if(!batch.getBounds().testPoint(x, y, z))
+                        return expect(false, step + ": vertex " + vertex + " outside of the batch bounds");
+                    vertex++;
+                }
+            }
+
+            BatchMesh.Range range = batch.getRange();
+            for(int i = range.getFirstIndex(); i < range.getFirstIndex() + range.getIndexCount(); i++)
+                if(indices[i] < base || indices[i] >= vertex)
+                    return expect(false, step + ": index " + i + " points outside of its batch");
+            if(vertex - base != batch.getVertexCount())
+                return expect(false, step + ": batch vertex count does not match the members");
+        }
+        return true;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+
+    /**
+     * Unit cube from -1 to 1 with face normals, 24 vertices
+     */
+    private static Mesh3D cube(){
+        int[][] faces = {
+                {0, 2, 3, 1}, {4, 5, 7, 6}, {0, 1, 5, 4},
+                {2, 6, 7, 3}, {0, 4, 6, 2}, {1, 3, 7, 5} };
+        float[][] normals = {
+                {0, 0, -1}, {0, 0, 1}, {0, -1, 0},
+                {0, 1, 0}, {-1, 0, 0}, {1, 0, 0} };
+
+        float[] positions = new float[24 * 3], normal = new float[24 * 3], UVs = new float[24 * 2];
+        int[] indices = new int[36];
+        for(int f = 0; f < faces.length; f++){
+            int base = f * 4;
+            for(int c = 0; c < 4; c++){
+                int i = faces[f][c], v = base + c;
+                positions[v*3]   = (i & 1) == 0 ? -1 : 1;
+                positions[v*3+1] = (i & 2) == 0 ? -1 : 1;
+                positions[v*3+2] = (i & 4) == 0 ? -1 : 1;
+                System.arraycopy(normals[f], 0, normal, v * 3, 3);
+                UVs[v*2]   = c == 1 || c == 2 ? 1 : 0;
+                UVs[v*2+1] = c >= 2 ? 1 : 0;
+            }
+            int[] quad = { base, base + 1, base + 2, base, base + 2, base + 3 };
+            System.arraycopy(quad, 0, indices, f * 6, 6);
+        }
+
+        Mesh3D mesh = new Mesh3D();
+        mesh.setPositions(positions);
+        mesh.setNormals(normal);
+        mesh.setUVs(UVs);
+        mesh.setIndices(indices);
+        return mesh;
+    }
+}
@@ -0,0 +1,152 @@
+package benchmarks;
+
+import engine.glapi.TextureObject;
+import engine.utils.ImageLoader;
+import engine.utils.TextureCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.lwjgl.opengl.GL11.GL_RED;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL21.GL_SRGB8;
+import static org.lwjgl.opengl.GL21.GL_SRGB8_ALPHA8;
+import static org.lwjgl.opengl.GL30.GL_RGB16F;
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+
+/**
+ * Replays the textured materials PBRTest3 builds, six of them from
+ * res/images/scuffed_plastic sharing normal, rough and metal maps, once
+ * decoding every map per material as before and once through a
+ * TextureCache. Then releases the materials one by one and checks that
+ * every texture is deleted exactly once, after its last material. The
+ * scuffed_plastic images are not in the repository, plastic_squares
+ * stands in for them; textures are not uploaded, so it runs without an
+ * OpenGL context. src has to be on the class path.
+ *
+ * Usage: java benchmarks.TextureCacheBenchmark [image directory]
+ */
+public class TextureCacheBenchmark {
+
+    private static final String[] ALBEDOS = { "albedoyellow.png", "albedowhite.png", "albedoblue.png",
+            "albedored.png", "albedoblack.png", "albedoblue.png" };
+    private static final String[] SHARED = { "normal.png", "rough.png", "metal.png" };
+
+    private static String directory;
+
+    public static void main(String... args){
+
+        directory = args.length > 0 ? args[0] : "res/images/plastic_squares/";
+
+        // without the cache every material decodes and uploads its four maps
+        long start = System.nanoTime();
+        long bytes = 0;
+        for(String albedo: ALBEDOS){
+            bytes += load("res/images/scuffed_plastic/" + albedo, false).getBytes();
+            for(String map: SHARED)
+                bytes += load("res/images/scuffed_plastic/" + map, false).getBytes();
+        }
+        double uncached = (System.nanoTime() - start) / 1_000_000d;
+
+        HashMap<TextureObject, Integer> deletions = new HashMap<>();
+        TextureCache cache = new TextureCache();
+        ArrayList<TextureObject[]> materials = new ArrayList<>();
+
+        start = System.nanoTime();
+        for(String albedo: ALBEDOS){
+            TextureObject[] maps = new TextureObject[1 + SHARED.length];
+            maps[0] = acquire(cache, "res/images/scuffed_plastic/" + albedo, deletions);
+            for(int i = 0; i < SHARED.length; i++)
+                maps[i + 1] = acquire(cache, "res/images/scuffed_plastic/./" + SHARED[i], deletions);
+            materials.add(maps);
+        }
+        double cached = (System.nanoTime() - start) / 1_000_000d;
+
+        System.out.println(materials.size() + " materials, " + materials.size() * (1 + SHARED.length) + " maps");
+        System.out.printf("  Decode every map: %8.3f ms, %6.1f MB%n", uncached, bytes / 1048576d);
+        System.out.printf("  TextureCache:     %8.3f ms, %6.1f MB%n", cached, cache.getResidentBytes() / 1048576d);
+        System.out.println("  " + cache.report());
+
+        boolean ok = expect(cache.getMisses() == 5 + SHARED.length, cache.getMisses() + " decodes, expected " + (5 + SHARED.length));
+        ok &= expect(cache.getResidentBytes() + cache.getBytesSaved() == bytes, "saved bytes do not add up");
+        ok &= expect(!TextureCache.key("res/images/scuffed_plastic/normal.png", true)
+                .equals(TextureCache.key("res/images/scuffed_plastic/normal.png", false)), "sRGB and linear share a key");
+
+        // release in order, a texture goes with the last material using it
+        for(int m = 0; m < materials.size(); m++){
+            for(TextureObject map: materials.get(m)){
+                cache.release(map);
+                boolean used = false;
+                for(int n = m + 1; n < materials.size(); n++)
+                    for(TextureObject other: materials.get(n)) used |= other == map;
+                ok &= expect(deletions.get(map) == (used ? 0 : 1),
+                        "material " + m + ": texture deleted " + deletions.get(map) + " times, still used: " + used);
+            }
+        }
+        ok &= expect(cache.size() == 0 && cache.getDeleted() == 5 + SHARED.length,
+                cache.size() + " entries left, " + cache.getDeleted() + " deleted");
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: shared maps decoded once and deleted after their last material");
+    }
+
+    private static TextureObject acquire(TextureCache cache, String filename, HashMap<TextureObject, Integer> deletions){
+        return cache.acquire(filename, false, () -> {
+            Texture ret = load(filename, false);
+            deletions.put(ret, 0);
+            ret.setDeleted(() -> deletions.merge(ret, 1, Integer::sum));
+            return ret;
+        });
+    }
+
+    /**
+     * Decodes the image, stands in for the upload ImageLoader would do
+     */
+    private static Texture load(String filename, boolean srgb){
+        String name = filename.substring(filename.lastIndexOf('/') + 1);
+        ImageLoader.Image image = ImageLoader.decodeImage(directory + (name.startsWith("albedo") ? "albedo.png" : name));
+        if(image == null){
+            System.err.println("Could not find image: " + directory + name + ", is src on the class path?");
+            System.exit(1);
+        }
+        Texture ret = new Texture(image.getWidth(), image.getHeight(), image.getChannels(), srgb);
+        image.free();
+        return ret;
+    }
+
+    /**
+     * Texture without a GL object, sized and formatted like the upload
+     */
+    private static class Texture extends TextureObject {
+        private final int internalFormat;
+        private Runnable deleted;
+
+        Texture(int width, int height, int channels, boolean srgb){
+            super(GL_TEXTURE_2D, width, height, 0);
+            internalFormat = channels == 3 ? (srgb ? GL_SRGB8 : GL_RGB16F)
+                    : channels == 1 ? GL_RED : (srgb ? GL_SRGB8_ALPHA8 : GL_RGBA16F);
+        }
+
+        void setDeleted(Runnable deleted){
+            this.deleted = deleted;
+        }
+
+        @Override
+        public int getInternalFormat(){
+            return internalFormat;
+        }
+
+        @Override
+        public void cleanup(){
+            if(deleted != null) deleted.run();
+        }
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
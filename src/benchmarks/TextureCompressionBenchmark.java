@@ -0,0 +1,143 @@
+package benchmarks;
+
+import engine.glapi.TextureObject;
+import engine.utils.CompressedTextureCache;
+import engine.utils.ImageLoader;
+import engine.utils.TextureCompressor;
+import engine.utils.TextureCompressor.CompressedImage;
+import engine.utils.TextureCompressor.Format;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.lwjgl.opengl.GL11.GL_RED;
+import static org.lwjgl.opengl.GL21.GL_SRGB8;
+import static org.lwjgl.opengl.GL21.GL_SRGB8_ALPHA8;
+import static org.lwjgl.opengl.GL30.GL_RGB16F;
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+
+/**
+ * Compresses material textures with the TextureCompressor, on one thread
+ * and on the common pool, and compares the size of the compressed mip
+ * chain with what ImageLoader uploads uncompressed. Decodes the first two
+ * levels again and checks their PSNR against the source and its
+ * downsampled mip, then round trips every texture through a
+ * CompressedTextureCache in a temporary directory. Runs without an OpenGL
+ * context, src has to be on the class path. Exits with status 1 if a
+ * check fails.
+ *
+ * Usage: java benchmarks.TextureCompressionBenchmark [image paths]
+ */
+public class TextureCompressionBenchmark {
+
+    // minimum PSNR in dB of the full size level per format
+    private static final double BC1_PSNR = 30, BC3_PSNR = 30, BC4_PSNR = 36, BC5_PSNR = 30;
+
+    public static void main(String... args) throws Exception {
+
+        String[] paths = args.length > 0 ? args : new String[]{
+                "res/images/plastic_squares/albedo.png", "res/images/plastic_squares/normal.png",
+                "res/images/plastic_squares/rough.png", "res/images/plastic_squares/metal.png",
+                "res/images/gun/albedo.jpg", "res/images/gun/normal.jpg", "res/images/rock/height.png" };
+
+        File directory = Files.createTempDirectory("texturecache").toFile();
+        CompressedTextureCache cache = new CompressedTextureCache(directory, Long.MAX_VALUE);
+        ForkJoinPool single = new ForkJoinPool(1);
+        boolean ok = true;
+        long raw = 0, compressed = 0;
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, common pool parallelism "
+                + ForkJoinPool.getCommonPoolParallelism());
+        for(String path: paths){
+            ByteBuffer file = ImageLoader.readImageFile(path);
+            if(file == null){
+                System.err.println("Could not find image: " + path + ", is src on the class path?");
+                System.exit(1);
+            }
+            ImageLoader.Image image = ImageLoader.decodeImage(path, file);
+            int w = image.getWidth(), h = image.getHeight();
+            TextureCompressor.Usage usage = TextureCompressor.Usage.of(path);
+            byte[] rgba = TextureCompressor.toRGBA(image);
+            long uncompressed = (long) w * h * TextureObject.bytesPerTexel(uploadFormat(image.getChannels(), false)) * 4 / 3;
+            image.free();
+
+            // warm up, then one thread against the pool
+            TextureCompressor.compress(rgba, w, h, usage, false);
+            long start = System.nanoTime();
+            single.submit(() -> TextureCompressor.compress(rgba, w, h, usage, false)).get();
+            double serial = (System.nanoTime() - start) / 1_000_000d;
+            start = System.nanoTime();
+            CompressedImage result = TextureCompressor.compress(rgba, w, h, usage, false);
+            double parallel = (System.nanoTime() - start) / 1_000_000d;
+
+            Format format = result.getFormat();
+            double psnr0 = TextureCompressor.psnr(rgba, TextureCompressor.decode(result.getLevels()[0], w, h, format), format.getChannels());
+            byte[] mip = TextureCompressor.downsample(rgba, w, h, usage, false);
+            double psnr1 = result.getLevels().length < 2 ? psnr0 : TextureCompressor.psnr(mip,
+                    TextureCompressor.decode(result.getLevels()[1], Math.max(1, w / 2), Math.max(1, h / 2), format), format.getChannels());
+
+            raw += uncompressed;
+            compressed += result.getBytes();
+
+            System.out.printf("%s: %dx%d %s, %d levels%n", path, w, h, format, result.getLevels().length);
+            System.out.printf("  %7.1f KB -> %7.1f KB, PSNR %.2f dB (mip 1 %.2f dB)%n",
+                    uncompressed / 1024d, result.getBytes() / 1024d, psnr0, psnr1);
+            System.out.printf("  1 thread %8.3f ms, pool %8.3f ms%n", serial, parallel);
+
+            ok &= expect(psnr0 >= minimum(format), path + ": PSNR below " + minimum(format) + " dB");
+            ok &= expect(psnr1 >= minimum(format), path + ": mip 1 PSNR below " + minimum(format) + " dB");
+            ok &= expect(result.getLevels().length == TextureCompressor.mipLevels(w, h), path + ": missing mip levels");
+            for(int level = 0; level < result.getLevels().length; level++)
+                ok &= expect(result.getLevels()[level].length == format.size(Math.max(1, w >> level), Math.max(1, h >> level)),
+                        path + ": level " + level + " has the wrong size");
+
+            // cache round trip, another content hash misses
+            long hash = CompressedTextureCache.hash(file);
+            cache.store(path, false, hash, result);
+            CompressedImage cached = cache.load(path, false, hash);
+            ok &= expect(cached != null && cached.getFormat() == format && cached.getWidth() == w
+                    && Arrays.deepEquals(cached.getLevels(), result.getLevels()), path + ": cache round trip differs");
+            ok &= expect(cache.load(path, false, hash + 1) == null, path + ": edited image hit the cache");
+            ok &= expect(cache.load(path, true, hash) == null, path + ": sRGB hit the linear entry");
+        }
+
+        System.out.printf("Total %.1f MB -> %.1f MB (%.1f%%), cache %d KB%n", raw / 1048576d, compressed / 1048576d,
+                100d * compressed / raw, cache.size() / 1024);
+
+        single.shutdown();
+        cache.clear();
+        directory.delete();
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: compressed textures within PSNR limits and cached");
+    }
+
+    /**
+     * Internal format ImageLoader.uploadImage picks
+     */
+    private static int uploadFormat(int channels, boolean srgb){
+        if(channels == 3) return srgb ? GL_SRGB8 : GL_RGB16F;
+        if(channels == 1) return GL_RED;
+        return srgb ? GL_SRGB8_ALPHA8 : GL_RGBA16F;
+    }
+
+    private static double minimum(Format format){
+        switch(format){
+            case BC1: return BC1_PSNR;
+            case BC3: return BC3_PSNR;
+            case BC4: return BC4_PSNR;
+            default: return BC5_PSNR;
+        }
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
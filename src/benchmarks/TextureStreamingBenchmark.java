@@ -0,0 +1,183 @@
+package benchmarks;
+
+import engine.glapi.TextureObject;
+import engine.utils.AssetManager;
+import engine.utils.TextureCompressor;
+import engine.utils.TextureCompressor.CompressedImage;
+import engine.utils.TextureCompressor.Format;
+import engine.utils.TextureStreamer;
+import org.joml.AABBf;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+
+/**
+ * Drives a TextureStreamer with a fake GPU backend: a row of objects,
+ * each with its own 2048x2048 BC1 texture, and a camera flying along the
+ * row and back. Every frame the visible objects request their textures by
+ * projected size, as PBRPipeline does. Checks that the resident levels
+ * never exceed the budget and match what the backend holds, that a
+ * resting camera gets the levels it needs, and that deleted textures are
+ * forgotten. Exits with status 1 if a check fails.
+ *
+ * Usage: java benchmarks.TextureStreamingBenchmark [textures] [budget MB]
+ */
+public class TextureStreamingBenchmark {
+
+    private static final int SIZE = 2048, START_SIZE = 64, HEIGHT = 720;
+    private static final float FOV = (float) Math.toRadians(60), SPACING = 4, VIEW_DISTANCE = 40;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 64;
+        long budget = (args.length > 1 ? Integer.valueOf(args[1]) : 6) * 1024L * 1024L;
+
+        FakeBackend backend = new FakeBackend();
+        // asset workers with an upload budget, as in the engine
+        AssetManager assets = new AssetManager(true, 2, 4_000_000L, 16L * 1024 * 1024);
+        TextureStreamer streamer = new TextureStreamer(backend, assets, budget, START_SIZE);
+
+        ArrayList<FakeTexture> textures = new ArrayList<>();
+        ArrayList<AABBf> bounds = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            FakeTexture texture = new FakeTexture();
+            textures.add(texture);
+            streamer.add(texture, "texture" + i + ".png", false);
+            bounds.add(new AABBf(i * SPACING - 1, -1, -1, i * SPACING + 1, 1, 1));
+        }
+
+        boolean ok = true;
+        long peak = 0;
+        Vector3f eye = new Vector3f();
+        int frames = 0;
+        float end = (count - 1) * SPACING;
+
+        // fly along the row and back, then rest in the middle
+        for(int pass = 0; pass < 3; pass++){
+            for(int step = 0; step <= 400; step++){
+                float x = pass == 0 ? end * step / 400 : pass == 1 ? end * (400 - step) / 400 : end / 2;
+                eye.set(x, 0, 6);
+                frame(streamer, assets, textures, bounds, eye);
+                frames++;
+                peak = Math.max(peak, streamer.getResidentBytes());
+                ok &= expect(streamer.getResidentBytes() <= budget, "frame " + frames + ": "
+                        + streamer.getResidentBytes() + " bytes over the budget");
+                ok &= expect(streamer.getResidentBytes() == backend.bytes(), "frame " + frames
+                        + ": streamer counts " + streamer.getResidentBytes() + " bytes, backend holds " + backend.bytes());
+            }
+        }
+        assets.update();
+
+        // at rest every visible texture has the levels it needs, or the budget is full
+        int sharp = 0, visible = 0;
+        for(int i = 0; i < count; i++){
+            if(!isVisible(bounds.get(i), eye)) continue;
+            visible++;
+            float size = TextureStreamer.projectedSize(bounds.get(i), eye, FOV, HEIGHT);
+            if(SIZE >> streamer.getResidentMip(textures.get(i)) >= Math.min(size, SIZE)) sharp++;
+        }
+        boolean full = streamer.getResidentBytes() > budget * 3 / 4;
+        ok &= expect(sharp == visible || full, sharp + " of " + visible + " visible textures sharp with room in the budget");
+
+        long all = count * TextureCompressor.chainBytes(Format.BC1, SIZE, SIZE, 0);
+        System.out.println(count + " textures " + SIZE + "x" + SIZE + " BC1, " + frames + " frames");
+        System.out.printf("  Fully resident:  %8.1f MB%n", all / 1048576d);
+        System.out.printf("  Streamed:        %8.1f MB peak, budget %.1f MB%n", peak / 1048576d, budget / 1048576d);
+        System.out.printf("  At rest:         %d of %d visible textures at full detail for their size%n", sharp, visible);
+        System.out.println("  " + streamer.report() + ", " + backend.uploads + " uploads, "
+                + backend.uploaded / 1048576 + " MB uploaded");
+
+        // deleted textures leave the streamer and give back their levels
+        long before = streamer.getResidentBytes();
+        long freed = backend.resident.get(textures.get(0));
+        textures.get(0).cleanup();
+        streamer.update();
+        ok &= expect(streamer.size() == count - 1 && streamer.getResidentBytes() == before - freed,
+                "deleted texture still counted");
+
+        assets.cleanup();
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: residency stayed within the budget and followed the camera");
+    }
+
+    private static void frame(TextureStreamer streamer, AssetManager assets, ArrayList<FakeTexture> textures,
+                              ArrayList<AABBf> bounds, Vector3f eye){
+        streamer.update();
+        assets.update();
+        for(int i = 0; i < textures.size(); i++)
+            if(isVisible(bounds.get(i), eye))
+                streamer.request(textures.get(i), TextureStreamer.projectedSize(bounds.get(i), eye, FOV, HEIGHT));
+        // give the workers time to read, like the rest of a frame would
+        try { Thread.sleep(2); } catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+    }
+
+    private static boolean isVisible(AABBf bounds, Vector3f eye){
+        return Math.abs((bounds.minX + bounds.maxX) / 2 - eye.x) < VIEW_DISTANCE;
+    }
+
+    /**
+     * Levels of zeros instead of a cache file, uploads only counted
+     */
+    private static class FakeBackend implements TextureStreamer.Backend {
+        final IdentityHashMap<TextureObject, Long> resident = new IdentityHashMap<>();
+        int uploads;
+        long uploaded;
+
+        @Override
+        public CompressedImage read(String filename, boolean srgb, int maxSize){
+            int mip = TextureCompressor.mipForSize(SIZE, SIZE, maxSize);
+            byte[][] levels = new byte[TextureCompressor.mipLevels(SIZE, SIZE) - mip][];
+            for(int i = 0; i < levels.length; i++)
+                levels[i] = new byte[Format.BC1.size(Math.max(1, SIZE >> (mip + i)), Math.max(1, SIZE >> (mip + i)))];
+            return new CompressedImage(Format.BC1, srgb, SIZE, SIZE, mip, levels);
+        }
+
+        @Override
+        public void upload(TextureObject texture, CompressedImage image){
+            texture.setWidth(image.getLevelWidth(image.getMip()));
+            texture.setHeight(image.getLevelHeight(image.getMip()));
+            resident.put(texture, image.getBytes());
+            uploads++;
+            uploaded += image.getBytes();
+        }
+
+        long bytes(){
+            long ret = 0;
+            for(long bytes: resident.values()) ret += bytes;
+            return ret;
+        }
+    }
+
+    /**
+     * Texture without a GL object
+     */
+    private static class FakeTexture extends TextureObject {
+        private boolean deleted;
+
+        FakeTexture(){
+            super(GL_TEXTURE_2D, 1, 1, 0);
+        }
+
+        @Override
+        public boolean isDeleted(){
+            return deleted;
+        }
+
+        @Override
+        public void cleanup(){
+            deleted = true;
+        }
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import engine.scene.node.Node;
+import engine.scene.node.TransformStore;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares world matrix propagation of the object graph (Node.updateTransforms)
+ * against the TransformStore linear sweep on a 100k node tree.
+ * Runs without an OpenGL context.
+ *
+ * Usage: java benchmarks.TransformPropagationBenchmark [nodes] [moved fraction]
+ */
+public class TransformPropagationBenchmark {
+
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 100_000;
+        float[] fractions = args.length > 1 ?
+                new float[]{ Float.valueOf(args[1]) } : new float[]{ 0.01f, 0.1f, 1f };
+
+        ArrayList<Node> objectNodes = new ArrayList<>();
+        Node objectRoot = buildTree(count, objectNodes);
+
+        ArrayList<Node> storeNodes = new ArrayList<>();
+        Node storeRoot = buildTree(count, storeNodes);
+        TransformStore store = new TransformStore(storeRoot);
+        store.propagate();
+
+        for(float fraction: fractions) {
+            System.out.println("Nodes: " + count + ", moved per frame: " + (int)(count * fraction));
+
+            double object = run(objectNodes, fraction, objectRoot::updateTransforms);
+            System.out.printf("  Object graph:    %8.3f ms/frame%n", object);
+
+            double sweep = run(storeNodes, fraction, store::propagate);
+            System.out.printf("  Transform store: %8.3f ms/frame%n", sweep);
+
+            System.out.printf("  Speedup:         %8.2fx%n", object / sweep);
+        }
+    }
+
+    private static double run(ArrayList<Node> nodes, float fraction, Runnable propagate){
+        int moved = Math.max(1, (int)(nodes.size() * fraction));
+        Random random = new Random(7);
+        long total = 0;
+
+        for(int i = 0; i < WARMUP + ITERATIONS; i++){
+            for(int j = 0; j < moved; j++)
+                nodes.get(random.nextInt(nodes.size())).transform.rotate(0.1f, 0.2f, 0.3f);
+
+            long start = System.nanoTime();
+            propagate.run();
+            if(i >= WARMUP) total += System.nanoTime() - start;
+        }
+
+        return total / (double) ITERATIONS / 1_000_000d;
+    }
+
+    /**
+     * Random tree with a branching factor of up to 8, similar in shape
+     * to levels built out of grouped PBRModels
+     */
+    private static Node buildTree(int count, ArrayList<Node> out){
+        Random random = new Random(42);
+        Node root = new Node();
+        out.add(root);
+
+        for(int i = 1; i < count; i++){
+            Node parent = out.get(Math.max(0, (i - 1) / (1 + random.nextInt(8))));
+            Node node = new Node();
+            node.transform.translate(random.nextFloat(), random.nextFloat(), random.nextFloat())
+                    .rotate(random.nextFloat() * 90, 0, 0);
+            parent.addChild(node);
+            out.add(node);
+        }
+
+        return root;
+    }
+}
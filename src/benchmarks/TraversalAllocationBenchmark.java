@@ -0,0 +1,110 @@
+package benchmarks;
+
+import engine.application.element.Element;
+import engine.scene.node.Node;
+import engine.utils.TreeTraversal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Checks that per frame traversal of a 50k node scenegraph and a 50k
+ * element GUI tree allocates nothing once warmed up: depth and breadth
+ * first walks with pruning, collect into a reused list, Node.update,
+ * Node.updateTransforms and Element.update.
+ * Runs without an OpenGL context, exits with status 1 if any frame allocated.
+ *
+ * Usage: java benchmarks.TraversalAllocationBenchmark [nodes]
+ */
+public class TraversalAllocationBenchmark {
+
+    private static final int WARMUP = 300;
+    private static final int FRAMES = 200;
+
+    private static int visited;
+
+    private static final Consumer<Node> COUNT_NODE = node -> visited++;
+    private static final Consumer<Element> COUNT_ELEMENT = element -> visited++;
+    private static final Predicate<Node> VISIBLE = node -> node.isActivated() && !node.isHidden();
+    private static final Predicate<Element> ACTIVE = Element::isActivated;
+
+    public static void main(String... args){
+
+        int count = args.length > 0 ? Integer.valueOf(args[0]) : 50_000;
+
+        Node root = buildScene(count);
+        Element gui = buildGui(count);
+
+        TreeTraversal<Node> nodes = Node.traversal();
+        TreeTraversal<Element> elements = Element.traversal();
+        ArrayList<Node> list = new ArrayList<>(count);
+
+        Runnable frame = () -> {
+            visited = 0;
+            nodes.depthFirst(root, VISIBLE, COUNT_NODE);
+            nodes.breadthFirst(root, VISIBLE, COUNT_NODE);
+            list.clear();
+            nodes.collect(root, VISIBLE, list);
+            root.collect(list);
+            root.update();
+            root.updateTransforms();
+            elements.depthFirst(gui, ACTIVE, COUNT_ELEMENT);
+            elements.breadthFirst(gui, ACTIVE, COUNT_ELEMENT);
+            gui.update();
+        };
+
+        for(int i = 0; i < WARMUP; i++)
+            frame.run();
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long start = System.nanoTime();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < FRAMES; i++)
+            frame.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        double millis = (System.nanoTime() - start) / 1_000_000d / FRAMES;
+
+        System.out.println("Nodes: " + count + ", elements: " + count + ", visited per frame: " + visited);
+        System.out.printf("  Frame:     %8.3f ms%n", millis);
+        System.out.printf("  Allocated: %8.1f bytes/frame%n", allocated / (double) FRAMES);
+
+        if(allocated > 0){
+            System.out.println("FAILED: traversal allocated " + allocated + " bytes in " + FRAMES + " frames");
+            System.exit(1);
+        }
+        System.out.println("OK: no allocations");
+    }
+
+    private static Node buildScene(int count){
+        Random random = new Random(42);
+        ArrayList<Node> all = new ArrayList<>(count);
+        Node root = new Node();
+        all.add(root);
+        for(int i = 1; i < count; i++){
+            Node node = new Node();
+            all.get(random.nextInt(all.size())).addChild(node);
+            if(random.nextInt(50) == 0) node.setHidden(true);
+            all.add(node);
+        }
+        return root;
+    }
+
+    private static Element buildGui(int count){
+        Random random = new Random(42);
+        ArrayList<Element> all = new ArrayList<>(count);
+        Element root = new Element(){};
+        all.add(root);
+        for(int i = 1; i < count; i++){
+            Element element = new Element(){};
+            all.get(random.nextInt(all.size())).addChild(element);
+            all.add(element);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,151 @@
+package benchmarks;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.glapi.vbo.QuantizedVertices;
+import engine.utils.AssimpLoader;
+import engine.utils.AssimpLoader.Preset;
+import org.joml.AABBf;
+import org.joml.Vector3f;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * Packs the meshes of a model into QuantizedVertices and reports each
+ * mesh's GPU size as float arrays and quantized, the time to pack and the
+ * largest position, UV and normal error after decoding the packed buffer
+ * again. Runs without an OpenGL context, exits with status 1 if an error
+ * is out of bounds.
+ *
+ * Usage: java benchmarks.VertexQuantizationBenchmark [path to .obj]
+ */
+public class VertexQuantizationBenchmark {
+
+    private static final int ITERATIONS = 20;
+
+    // cosine between original and decoded normal, about 0.03 degrees
+    private static final double MIN_NORMAL_COSINE = 0.9999998;
+
+    public static void main(String... args){
+
+        String path = args.length > 0 ? args[0] : "src/res/models/mat_test.obj";
+
+        AIScene scene = Assimp.aiImportFile(path, Preset.PREVIEW.getFlags());
+        if(scene == null){
+            System.err.println(Assimp.aiGetErrorString());
+            System.exit(1);
+        }
+        ArrayList<Mesh3D> meshes = AssimpLoader.convertMeshGroup(scene);
+        Assimp.aiReleaseImport(scene);
+
+        boolean ok = true;
+        long floatTotal = 0, packedTotal = 0;
+
+        System.out.println("mesh  vertices   indices   float KB  packed KB  stride  positions  uvs    indices");
+        for(int m = 0; m < meshes.size(); m++){
+            Mesh3D mesh = meshes.get(m);
+            QuantizedVertices packed = pack(mesh);
+            ok &= check(m, mesh, packed);
+
+            floatTotal += mesh.getFloatBytes();
+            packedTotal += packed.getBytes();
+            System.out.printf("%4d  %8d  %8d  %9.1f  %9.1f  %6d  %-9s  %-5s  %s%n",
+                    m, mesh.getNumVertices(), mesh.getIndices().length,
+                    mesh.getFloatBytes() / 1024d, packed.getBytes() / 1024d, packed.getStride(),
+                    packed.isHalfPositions() ? "half" : "float", packed.isUnormUVs() ? "unorm" : "half",
+                    packed.isShortIndices() ? "16 bit" : "32 bit");
+            packed.free();
+        }
+
+        for(int i = 0; i < ITERATIONS; i++)
+            for(Mesh3D mesh: meshes) pack(mesh).free();
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++)
+            for(Mesh3D mesh: meshes) pack(mesh).free();
+        double millis = (System.nanoTime() - start) / 1_000_000d / ITERATIONS;
+
+        System.out.printf("Total: %.1f KB as float arrays, %.1f KB quantized (%.0f%%), packed in %.3f ms%n",
+                floatTotal / 1024d, packedTotal / 1024d, 100d * packedTotal / floatTotal, millis);
+
+        if(!ok){
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK: decoded vertices within tolerance");
+    }
+
+    private static QuantizedVertices pack(Mesh3D mesh){
+        return new QuantizedVertices(mesh.getPositions(), mesh.getUVs(), mesh.getNormals(), mesh.getIndices());
+    }
+
+    /**
+     * Decodes every vertex and index of the packed buffers and compares
+     * them with the mesh's arrays
+     */
+    private static boolean check(int m, Mesh3D mesh, QuantizedVertices packed){
+        float[] positions = mesh.getPositions(), UVs = mesh.getUVs(), normals = mesh.getNormals();
+        int[] indices = mesh.getIndices();
+        ByteBuffer vertices = packed.getVertices();
+        mesh.computeBounds();
+        AABBf bounds = mesh.getBounds();
+        float radius = new Vector3f(bounds.maxX - bounds.minX, bounds.maxY - bounds.minY, bounds.maxZ - bounds.minZ)
+                .length() * 0.5f;
+
+        float positionError = 0, uvError = 0;
+        double minCosine = 1;
+        float[] normal = new float[3];
+
+        for(int v = 0; v < mesh.getNumVertices(); v++){
+            int offset = v * packed.getStride();
+            for(int c = 0; c < 3; c++){
+                float decoded = packed.isHalfPositions()
+                        ? QuantizedVertices.fromHalf(vertices.getShort(offset + c * 2))
+                        : vertices.getFloat(offset + c * 4);
+                positionError = Math.max(positionError, Math.abs(decoded - positions[v*3+c]));
+            }
+            offset += packed.isHalfPositions() ? 8 : 12;
+
+            if(UVs.length == positions.length / 3 * 2){
+                for(int c = 0; c < 2; c++){
+                    short value = vertices.getShort(offset + c * 2);
+                    float decoded = packed.isUnormUVs() ? QuantizedVertices.fromUnorm16(value) : QuantizedVertices.fromHalf(value);
+                    // half floats are relative to the magnitude of the coordinate
+                    float scale = packed.isUnormUVs() ? 1 : Math.max(1, Math.abs(UVs[v*2+c]));
+                    uvError = Math.max(uvError, Math.abs(decoded - UVs[v*2+c]) / scale);
+                }
+            }
+            offset += 4;
+
+            if(normals.length == positions.length){
+                QuantizedVertices.decodeOctahedral(
+                        QuantizedVertices.fromSnorm16(vertices.getShort(offset)),
+                        QuantizedVertices.fromSnorm16(vertices.getShort(offset + 2)), normal);
+                double nx = normals[v*3], ny = normals[v*3+1], nz = normals[v*3+2];
+                double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if(length > 0)
+                    minCosine = Math.min(minCosine, (nx * normal[0] + ny * normal[1] + nz * normal[2]) / length);
+            }
+        }
+
+        boolean ok = true;
+        for(int i = 0; i < indices.length && ok; i++){
+            int decoded = packed.isShortIndices() ? packed.getIndices().getShort(i * 2) & 0xffff : packed.getIndices().getInt(i * 4);
+            ok = expect(decoded == indices[i], "mesh " + m + ": index " + i + " is " + decoded + ", expected " + indices[i]);
+        }
+        ok &= expect(positionError <= radius * QuantizedVertices.POSITION_TOLERANCE,
+                "mesh " + m + ": position error " + positionError + " for radius " + radius);
+        ok &= expect(uvError <= (packed.isUnormUVs() ? 0.5f / 65535 + 1e-7f : 1f / 2048),
+                "mesh " + m + ": uv error " + uvError);
+        ok &= expect(minCosine >= MIN_NORMAL_COSINE,
+                "mesh " + m + ": normal deviates by " + Math.toDegrees(Math.acos(minCosine)) + " degrees");
+        return ok;
+    }
+
+    private static boolean expect(boolean condition, String message){
+        if(!condition) System.out.println("  " + message);
+        return condition;
+    }
+}
@@ -11,6 +11,7 @@ import engine.application.layout.Inset;
 import engine.application.layout.Layout;
 import engine.application.layout.AbsoluteLayout;
 import engine.system.Window;
+import engine.utils.TreeTraversal;
 import engine.utils.Utils;
 
 import java.util.ArrayList;
@@ -68,9 +69,10 @@ public abstract class Element {
      * be added by subclasses
      */
     public void render(){
-        children.stream()
-                .filter(e -> e.isActivated())
-                .forEach(e -> e.render());
+        for(int i = 0; i < children.size(); i++){
+            Element child = children.get(i);
+            if(child.isActivated()) child.render();
+        }
     }
 
     /**
@@ -78,9 +80,17 @@ public abstract class Element {
      * re-calculation
      */
     public void update(){
-        children.stream()
-                .filter(e -> e.isActivated())
-                .forEach(e -> e.update());
+        for(int i = 0; i < children.size(); i++){
+            Element child = children.get(i);
+            if(child.isActivated()) child.update();
+        }
+    }
+
+    /**
+     * New reusable depth/breadth first walker over GUI elements
+     */
+    public static TreeTraversal<Element> traversal(){
+        return new TreeTraversal<>(Element::getChildren);
     }
 
     /**
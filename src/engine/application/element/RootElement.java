@@ -2,7 +2,7 @@ package engine.application.element;
 
 import engine.application.layout.Box;
 
-import java.util.Collections;
+import java.util.ArrayList;
 
 public class RootElement extends Element{
 
@@ -18,11 +18,12 @@ public class RootElement extends Element{
 
     @Override
     public void render() {
-        Collections.reverse(getChildren());
-        getChildren().stream()
-                .filter(e -> e.isActivated())
-                .forEach(e -> e.render());
-        Collections.reverse(getChildren());
+        // last added child is drawn first
+        ArrayList<Element> children = getChildren();
+        for(int i = children.size() - 1; i >= 0; i--){
+            Element child = children.get(i);
+            if(child.isActivated()) child.render();
+        }
     }
 
 }
@@ -63,11 +63,11 @@ public class Panel extends Element {
         instance().updateUniforms(this);
         if (isScissor()) {
             Window.instance().setScissor(getAbsoluteBox());
-            Meshs.posquad.render();
+            Meshs.posquad().render();
             super.render();
             Window.instance().disableScissor();
         } else {
-            Meshs.posquad.render();
+            Meshs.posquad().render();
             super.render();
         }
         instance().unbind();
@@ -6,6 +6,7 @@ import org.lwjgl.system.MemoryStack;
 import engine.scene.SceneContext;
 import engine.scene.light.Light;
 import engine.scene.node.ModuleNode;
+import engine.glapi.vbo.InstanceBuffer;
 import engine.utils.Color;
 import engine.utils.Utils;
 
@@ -49,6 +50,10 @@ public class Shader {
         glUseProgram(programId);
     }
 
+    public int getProgramId(){
+        return programId;
+    }
+
     public void unbind(){
         glUseProgram(0);
     }
@@ -348,6 +353,74 @@ public class Shader {
     /** UPDATE INTERFACE **/
 
     public void updateUniforms(ModuleNode moduleNode){}
+
+    /** BATCHED UPDATE INTERFACE **/
+    /*
+        Used by RenderQueue, which binds each shader once per run of queued
+        objects. Shaders that override these split updateUniforms() into
+        per-pass, per-material and per-object state. The defaults fall back
+        to a full updateUniforms() for every object.
+     */
+
+    /**
+     * Uniforms shared by every object drawn in this pass (camera, light space)
+     */
+    public void updatePassUniforms(){}
+
+    /**
+     * Identifies material state set by updateMaterialUniforms. Objects with
+     * equal keys are drawn without re-uploading material uniforms
+     * @param moduleNode node being drawn
+     * @return material key, 0 if this shader has no material state
+     */
+    public int getMaterialKey(ModuleNode moduleNode){ return 0; }
+
+    public void updateMaterialUniforms(ModuleNode moduleNode){}
+
+    public void updateObjectUniforms(ModuleNode moduleNode){
+        updateUniforms(moduleNode);
+    }
+
+    /** INSTANCED UPDATE INTERFACE **/
+    /*
+        Used by RenderQueue to draw a run of objects that share shader,
+        material and mesh with one instanced draw. The variant is bound in
+        place of this shader and receives the same pass and material
+        uniforms; per-object state goes into the instance buffer instead.
+     */
+
+    /**
+     * @return variant of this shader reading per-object state from an
+     * InstanceBuffer, null if this shader cannot be instanced
+     */
+    public Shader getInstancedShader(){ return null; }
+
+    /**
+     * Appends the per-object state of moduleNode to the instance buffer
+     */
+    public void putInstance(ModuleNode moduleNode, InstanceBuffer instances){}
+
+    /** STATIC BATCH INTERFACE **/
+    /*
+        Used by StaticBatcher, which merges the meshes of static nodes with
+        equal material into one buffer with world transforms pre-applied.
+        A batch is drawn with the pass and material uniforms of one of its
+        nodes and updateBatchUniforms() in place of updateObjectUniforms().
+     */
+
+    /**
+     * Object state that has to be equal, in addition to the material key,
+     * for two nodes to be merged into one batch
+     * @return batch key, 0 if all object state is baked into the vertices
+     */
+    public int getBatchKey(ModuleNode moduleNode){ return 0; }
+
+    /**
+     * Object uniforms for geometry that is already in world space
+     * @param moduleNode any node of the batch
+     */
+    public void updateBatchUniforms(ModuleNode moduleNode){}
+
     public void updateUniforms(TextureObject textureObject){}
     public void updateUniforms(Light light){}
     public void updateUniforms(float... floats){}
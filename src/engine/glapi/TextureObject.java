@@ -3,6 +3,7 @@ package engine.glapi;
 import lombok.Getter;
 import lombok.Setter;
 import org.joml.Vector2i;
+import org.lwjgl.system.MemoryUtil;
 import engine.system.Config;
 
 
@@ -10,9 +11,12 @@ import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
 import static org.lwjgl.opengl.GL13.GL_CLAMP_TO_BORDER;
 import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT32;
 import static org.lwjgl.opengl.GL14.GL_MIRRORED_REPEAT;
+import static org.lwjgl.opengl.GL21.GL_SRGB8;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL32.GL_TEXTURE_2D_MULTISAMPLE;
 import static org.lwjgl.opengl.GL32.glTexImage2DMultisample;
@@ -21,7 +25,8 @@ import static org.lwjgl.opengl.GL32.glTexImage2DMultisample;
 public class TextureObject {
 
     private int type, id, internalFormat, format, dataType;
-    private boolean isDepth = false, isStencil = false;
+    private boolean isDepth = false, isStencil = false, mipmapped = false, compressed = false, deleted = false;
+    private long compressedBytes;
     @Getter @Setter private int width, height;
 
     public TextureObject(int type, int width, int height, int id){
@@ -57,6 +62,7 @@ public class TextureObject {
     public void cleanup(){
         unbind();
         glDeleteTextures(id);
+        deleted = true;
     }
 
     public TextureObject wrap(){
@@ -86,9 +92,12 @@ public class TextureObject {
     public TextureObject trilinearFilter(){
         bind();
         glTexParameteri(type, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glGenerateMipmap(type);
+        // compressed textures are uploaded with their mip levels
+        if(!compressed)
+            glGenerateMipmap(type);
         glTexParameteri(type, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
         unbind();
+        mipmapped = true;
         return this;
     }
 
@@ -132,6 +141,29 @@ public class TextureObject {
         return this;
     }
 
+    /**
+     * Uploads block compressed data, one array per mip level starting at
+     * the full size
+     */
+    public TextureObject allocateCompressedImage2D(int internalFormat, byte[]... levels){
+        this.internalFormat = internalFormat;
+        compressedBytes = 0;
+        bind();
+        for(int level = 0; level < levels.length; level++){
+            ByteBuffer data = MemoryUtil.memAlloc(levels[level].length);
+            data.put(levels[level]).flip();
+            glCompressedTexImage2D(type, level, internalFormat, Math.max(1, width >> level),
+                    Math.max(1, height >> level), 0, data);
+            MemoryUtil.memFree(data);
+            compressedBytes += levels[level].length;
+        }
+        glTexParameteri(type, GL_TEXTURE_MAX_LEVEL, levels.length - 1);
+        unbind();
+        compressed = true;
+        mipmapped = levels.length > 1;
+        return this;
+    }
+
     public TextureObject allocateDepth(){
         this.internalFormat = GL_DEPTH_COMPONENT32;
         this.format = GL_DEPTH_COMPONENT;
@@ -175,6 +207,7 @@ public class TextureObject {
     }
 
     private void allocate(ByteBuffer buf){
+        compressed = false;
         bind();
         glTexImage2D(type, 0, internalFormat, width, height, 0, format, dataType, buf);
         unbind();
@@ -188,6 +221,26 @@ public class TextureObject {
         return isDepth;
     }
 
+    /**
+     * Estimated video memory of the texture, mipmaps included
+     */
+    public long getBytes(){
+        if(compressed) return compressedBytes;
+        long ret = (long) width * height * bytesPerTexel(getInternalFormat());
+        return mipmapped ? ret * 4 / 3 : ret;
+    }
+
+    public static int bytesPerTexel(int internalFormat){
+        switch(internalFormat){
+            case GL_RED: return 1;
+            case GL_RGB8: case GL_SRGB8: return 3;
+            case GL_RGB16F: return 6;
+            case GL_RGBA16F: return 8;
+            case GL_RGBA32F: return 16;
+            default: return 4;
+        }
+    }
+
     public static TextureObject emptyTexture(){
         return new TextureObject(GL_TEXTURE_2D,0,0,0);
     }
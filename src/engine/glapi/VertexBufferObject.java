@@ -16,7 +16,16 @@ public abstract class VertexBufferObject {
 
     protected VertexBufferObject(){
         vbos = new ArrayList<>();
-        vaoId = glGenVertexArrays();
+    }
+
+    /**
+     * The vertex array is created on first use, so meshes can be built and
+     * queried on the CPU without a GL context
+     */
+    public int getVaoId(){
+        if(vaoId == 0)
+            vaoId = glGenVertexArrays();
+        return vaoId;
     }
 
     public abstract void bind();
@@ -24,10 +33,12 @@ public abstract class VertexBufferObject {
     public abstract int getVertexCount();
 
     public void cleanup(){
+        if(vaoId == 0) return;
         glBindVertexArray(vaoId);
         vbos.stream().forEach(i ->glDeleteBuffers(i));
         glDeleteVertexArrays(vaoId);
         glBindVertexArray(0);
+        vaoId = 0;
     }
 
 }
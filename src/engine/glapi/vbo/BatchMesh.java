@@ -0,0 +1,201 @@
+package engine.glapi.vbo;
+
+import engine.glapi.VertexBufferObject;
+import engine.utils.Buffer;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+public class BatchMesh extends VertexBufferObject {
+
+    /**
+     * One vertex array holding several merged meshes, each drawn as a Range
+     * of the index buffer. Vertex layout matches Mesh3D (position, uv,
+     * octahedral normal at locations 0, 1, 2) so the same shaders apply.
+     * Batches stay unquantized, their world space positions rarely fit
+     * half floats.
+     *
+     * The arrays are filled on the CPU and uploaded on the first draw after
+     * markChanged(), so building a batch does not need a GL context. Ranges
+     * of vertices and indices rewritten in place are marked on their own
+     * and only those are uploaded, with glBufferSubData.
+     */
+
+    @Getter @Setter private float[] positions = new float[0];
+    @Getter @Setter private float[] UVs = new float[0];
+    @Getter @Setter private float[] normals = new float[0];
+    @Getter @Setter private int[] indices = new int[0];
+
+    private boolean changed;
+
+    // first and count of the vertex and index ranges changed in place since the last upload
+    private final ArrayList<int[]> changedVertices = new ArrayList<>(), changedIndices = new ArrayList<>();
+
+    public class Range extends VertexBufferObject {
+
+        @Getter private int firstIndex, indexCount;
+
+        public Range set(int firstIndex, int indexCount){
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+            return this;
+        }
+
+        @Override
+        public int getVaoId(){
+            return BatchMesh.this.getVaoId();
+        }
+
+        @Override
+        public void bind(){
+            BatchMesh.this.bind();
+        }
+
+        @Override
+        public void render(){
+            BatchMesh.this.render(firstIndex, indexCount);
+        }
+
+        @Override
+        public int getVertexCount(){
+            return indexCount;
+        }
+
+        // the buffers belong to the BatchMesh
+        @Override
+        public void cleanup(){}
+    }
+
+    /**
+     * The arrays were replaced, upload them before the next draw
+     */
+    public void markChanged(){
+        changed = true;
+    }
+
+    /**
+     * Vertices and indices were rewritten in place, the arrays kept their
+     * length: upload only these ranges before the next draw
+     */
+    public void markChanged(int firstVertex, int vertexCount, int firstIndex, int indexCount){
+        if(changed) return;
+        if(vertexCount > 0)
+            changedVertices.add(new int[]{ firstVertex, vertexCount });
+        if(indexCount > 0)
+            changedIndices.add(new int[]{ firstIndex, indexCount });
+    }
+
+    @Override
+    public void bind(){
+
+        changed = false;
+        changedVertices.clear();
+        changedIndices.clear();
+
+        glBindVertexArray(getVaoId());
+        vbos.stream().forEach(i ->glDeleteBuffers(i));
+        vbos.clear();
+
+        upload(GL_ARRAY_BUFFER, Buffer.floatBuffer(positions));
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+
+        upload(GL_ARRAY_BUFFER, Buffer.floatBuffer(UVs));
+        glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
+
+        upload(GL_ARRAY_BUFFER, Buffer.floatBuffer(QuantizedVertices.encodeOctahedral(normals)));
+        glVertexAttribPointer(2, 2, GL_FLOAT, false, 0, 0);
+
+        IntBuffer data = Buffer.intBuffer(indices);
+        int vbo = glGenBuffers();
+        vbos.add(vbo);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, data, GL_STATIC_DRAW);
+        memFree(data);
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
+    private void upload(int target, FloatBuffer data){
+        int vbo = glGenBuffers();
+        vbos.add(vbo);
+        glBindBuffer(target, vbo);
+        glBufferData(target, data, GL_STATIC_DRAW);
+        memFree(data);
+    }
+
+    /**
+     * Uploads the ranges marked since the last upload into the existing buffers
+     */
+    private void uploadChanged(){
+        glBindVertexArray(getVaoId());
+        for(int[] range: changedVertices){
+            int first = range[0], count = range[1];
+            uploadRange(GL_ARRAY_BUFFER, vbos.get(0), first * 3, Arrays.copyOfRange(positions, first * 3, (first + count) * 3));
+            uploadRange(GL_ARRAY_BUFFER, vbos.get(1), first * 2, Arrays.copyOfRange(UVs, first * 2, (first + count) * 2));
+            uploadRange(GL_ARRAY_BUFFER, vbos.get(2), first * 2, QuantizedVertices.encodeOctahedral(
+                    Arrays.copyOfRange(normals, first * 3, (first + count) * 3)));
+        }
+        for(int[] range: changedIndices){
+            IntBuffer data = Buffer.intBuffer(Arrays.copyOfRange(indices, range[0], range[0] + range[1]));
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbos.get(3));
+            glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, range[0] * 4L, data);
+            memFree(data);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+
+        changedVertices.clear();
+        changedIndices.clear();
+    }
+
+    private void uploadRange(int target, int vbo, int firstFloat, float[] values){
+        FloatBuffer data = Buffer.floatBuffer(values);
+        glBindBuffer(target, vbo);
+        glBufferSubData(target, firstFloat * 4L, data);
+        memFree(data);
+    }
+
+    @Override
+    public void render(){
+        render(0, indices.length);
+    }
+
+    public void render(int firstIndex, int indexCount){
+
+        if(changed) bind();
+        else if(!changedVertices.isEmpty() || !changedIndices.isEmpty()) uploadChanged();
+
+        glBindVertexArray(getVaoId());
+
+        glEnableVertexAttribArray(0); // pos
+        glEnableVertexAttribArray(1); // uv
+        glEnableVertexAttribArray(2); // norm
+
+        glDrawElements(GL_TRIANGLES, indexCount, GL_UNSIGNED_INT, firstIndex * 4L);
+
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glDisableVertexAttribArray(2);
+
+        glBindVertexArray(0);
+    }
+
+    @Override
+    public int getVertexCount(){
+        return indices.length;
+    }
+
+}
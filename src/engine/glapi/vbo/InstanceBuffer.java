@@ -0,0 +1,83 @@
+package engine.glapi.vbo;
+
+import lombok.Getter;
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+public class InstanceBuffer {
+
+    /**
+     * Per instance vertex data for instanced draws. Every instance is a
+     * model matrix followed by one vec4 whose meaning is up to the shader
+     * (UV scale, picking color, ...), bound to 5 consecutive attribute
+     * locations with a divisor of 1.
+     *
+     * The data is re-uploaded with glBufferData for every draw, which lets
+     * the driver orphan the previous storage instead of stalling on it.
+     */
+
+    public static final int FLOATS = 20;
+    public static final int ATTRIBUTES = 5;
+
+    @Getter private final int id;
+    @Getter private int count;
+    private FloatBuffer data;
+
+    public InstanceBuffer(){
+        id = glGenBuffers();
+        data = BufferUtils.createFloatBuffer(64 * FLOATS);
+    }
+
+    public InstanceBuffer clear(){
+        data.clear();
+        count = 0;
+        return this;
+    }
+
+    public InstanceBuffer put(Matrix4f model, float x, float y, float z, float w){
+        if(data.remaining() < FLOATS){
+            FloatBuffer grown = BufferUtils.createFloatBuffer(data.capacity() * 2);
+            data.flip();
+            grown.put(data);
+            data = grown;
+        }
+        model.get(data.position(), data);
+        data.position(data.position() + 16);
+        data.put(x).put(y).put(z).put(w);
+        count++;
+        return this;
+    }
+
+    public void upload(){
+        data.flip();
+        glBindBuffer(GL_ARRAY_BUFFER, id);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        data.limit(data.capacity());
+    }
+
+    /**
+     * Points the attributes firstLocation .. firstLocation + 4 of the bound
+     * vertex array at this buffer
+     */
+    void bindAttributes(int firstLocation){
+        glBindBuffer(GL_ARRAY_BUFFER, id);
+        for(int i = 0; i < ATTRIBUTES; i++){
+            glVertexAttribPointer(firstLocation + i, 4, GL_FLOAT, false, FLOATS * 4, i * 16);
+            glVertexAttribDivisor(firstLocation + i, 1);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    public void cleanup(){
+        glDeleteBuffers(id);
+    }
+
+}
@@ -29,9 +29,9 @@ public class Mesh2D extends VertexBufferObject {
 
     @Override
     public void bind() {
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
 
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
         vbos.stream().forEach(i ->glDeleteBuffers(i));
         vbos.clear();
 
@@ -56,7 +56,7 @@ public class Mesh2D extends VertexBufferObject {
 
     @Override
     public void render() {
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
 
         glEnableVertexAttribArray(0); // pos
         glDrawElements(GL_TRIANGLE_STRIP, getVertexCount(), GL_UNSIGNED_INT, 0);
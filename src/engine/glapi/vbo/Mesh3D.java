@@ -1,13 +1,13 @@
 package engine.glapi.vbo;
 
 import engine.glapi.VertexBufferObject;
+import engine.system.Config;
 import lombok.Getter;
 import lombok.Setter;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
-import engine.utils.Buffer;
+import org.joml.AABBf;
+import org.joml.Spheref;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
@@ -19,81 +19,237 @@ import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
 import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
 import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
 
 public class Mesh3D extends VertexBufferObject {
 
-    @Getter @Setter private ArrayList<Vector3f> positions;
-    @Getter @Setter private ArrayList<Vector3f> normals;
-    @Getter @Setter private ArrayList<Vector2f> UVs;
-    @Getter @Setter private ArrayList<Integer> indices;
+    /*
+        Geometry is stored in flat primitive arrays: x,y,z per vertex for
+        positions and normals, u,v per vertex for UVs and three indices per
+        triangle. Normals and UVs may be empty. The arrays are kept on the
+        CPU and uploaded as float buffers or as one quantized, interleaved
+        buffer (see QuantizedVertices). Either way normals reach the shaders
+        octahedral encoded, as a vec2 at location 2. Set new arrays (and
+        bind again) to change the geometry.
+
+        Coarser levels of detail (see MeshSimplifier) are further index
+        arrays over the same vertices. They are uploaded behind the full
+        index buffer and drawn through Lod views of the mesh, which share
+        its vertex array. Each level carries its error relative to half the
+        diagonal of the bounds; selectLod picks a level from it.
+     */
+    private static final float[] NO_FLOATS = new float[0];
+    private static final int[] NO_INTS = new int[0];
+    private static final Lod[] NO_LODS = new Lod[0];
+
+    // a level is only dropped again once its error is this much below the threshold
+    public static final float LOD_HYSTERESIS = 0.25f;
+
+    @Getter @Setter private float[] positions = NO_FLOATS;
+    @Getter @Setter private float[] normals = NO_FLOATS;
+    @Getter @Setter private float[] UVs = NO_FLOATS;
+    @Getter @Setter private int[] indices = NO_INTS;
+
+    // coarser levels, finest first, level 0 is the mesh itself
+    private Lod[] lods = NO_LODS;
+
+    // object space bounds, computed from positions when the mesh is bound
+    @Getter private AABBf bounds;
+    @Getter private Spheref boundingSphere;
+
+    // built on first ray cast, dropped when the mesh is uploaded again
+    private TriangleBVH triangleBVH;
+
+    // instance buffer the vertex array's per instance attributes point at, 0 if none
+    private int instanceBufferId;
+
+    // upload as QuantizedVertices when vertex quantization is enabled in the config
+    @Getter @Setter private boolean quantized = true;
+    private int indexType = GL_UNSIGNED_INT;
+
+    private int indexSize = 4;
+
+    // size of the uploaded vertex and index buffers
+    @Getter private int gpuBytes;
+
+    /**
+     * One level of detail, drawn from its range of the mesh's index buffer
+     */
+    public class Lod extends VertexBufferObject {
+
+        @Getter private final int level;
+        @Getter private final int[] indices;
+        @Getter private final float error;
+        @Getter private int firstIndex;
+
+        private Lod(int level, int[] indices, float error){
+            this.level = level;
+            this.indices = indices;
+            this.error = error;
+        }
+
+        public Mesh3D getMesh(){
+            return Mesh3D.this;
+        }
+
+        @Override
+        public int getVaoId(){
+            return Mesh3D.this.getVaoId();
+        }
+
+        @Override
+        public void bind(){
+            Mesh3D.this.bind();
+        }
+
+        @Override
+        public void render(){
+            Mesh3D.this.render(firstIndex, indices.length);
+        }
+
+        public void renderInstanced(InstanceBuffer instances){
+            Mesh3D.this.renderInstanced(instances, firstIndex, indices.length);
+        }
 
+        @Override
+        public int getVertexCount(){
+            return indices.length;
+        }
+
+        // the buffers belong to the mesh
+        @Override
+        public void cleanup(){}
+    }
 
     public Mesh3D(){
 
         super();
 
-        positions = new ArrayList<>();
-        normals = new ArrayList<>();
-        UVs = new ArrayList<>();
-        indices = new ArrayList<>();
+        bounds = new AABBf();
+        boundingSphere = new Spheref();
 
     }
 
     @Override
     public void bind(){
 
-        glBindVertexArray(vaoId);
+        computeBounds();
+        triangleBVH = null;
+        instanceBufferId = 0;
 
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
         vbos.stream().forEach(i ->glDeleteBuffers(i));
         vbos.clear();
 
+        if(quantized && Config.instance().isVertexQuantization())
+            bindQuantized();
+        else
+            bindFloats();
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+
+    /**
+     * One interleaved buffer, see QuantizedVertices for the layout
+     */
+    private void bindQuantized(){
+
+        QuantizedVertices packed = new QuantizedVertices(positions, UVs, normals, allIndices());
+
+        int vbo = glGenBuffers();
+        vbos.add(vbo);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, packed.getVertices(), GL_STATIC_DRAW);
+        packed.setAttributes();
+
+        vbo = glGenBuffers();
+        vbos.add(vbo);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, packed.getIndices(), GL_STATIC_DRAW);
+
+        indexType = packed.getIndexType();
+        indexSize = packed.isShortIndices() ? 2 : 4;
+        gpuBytes = packed.getBytes();
+        packed.free();
+    }
+
+    /**
+     * Separate float buffers with octahedral normals and 32 bit indices
+     */
+    private void bindFloats(){
+
         // position vbo
         int vbo = glGenBuffers();
         vbos.add(vbo);
         glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ARRAY_BUFFER, Buffer.buffer3f(positions), GL_STATIC_DRAW);
+        glBufferData(GL_ARRAY_BUFFER, positions, GL_STATIC_DRAW);
         glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
 
 
         // uv vbo
-        if(UVs.size()>0) {
+        if(UVs.length>0) {
             vbo = glGenBuffers();
             vbos.add(vbo);
             glBindBuffer(GL_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ARRAY_BUFFER, Buffer.buffer2f(UVs), GL_STATIC_DRAW);
+            glBufferData(GL_ARRAY_BUFFER, UVs, GL_STATIC_DRAW);
             glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
         }
 
 
         // normal vbo
-        if(normals.size()>0) {
+        if(normals.length>0) {
             vbo = glGenBuffers();
             vbos.add(vbo);
             glBindBuffer(GL_ARRAY_BUFFER, vbo);
-            glBufferData(GL_ARRAY_BUFFER, Buffer.buffer3f(normals), GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
+            glBufferData(GL_ARRAY_BUFFER, QuantizedVertices.encodeOctahedral(normals), GL_STATIC_DRAW);
+            glVertexAttribPointer(2, 2, GL_FLOAT, false, 0, 0);
         }
 
         // index vbo
         vbo = glGenBuffers();
         vbos.add(vbo);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, Buffer.indiciesBuffer(indices), GL_STATIC_DRAW);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, allIndices(), GL_STATIC_DRAW);
 
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        indexType = GL_UNSIGNED_INT;
+        indexSize = 4;
+        gpuBytes = getFloatBytes();
+    }
+
+    /**
+     * The full index array followed by the coarser levels, placing each
+     * level behind the previous one
+     */
+    private int[] allIndices(){
+        if(lods.length == 0) return indices;
+        int length = indices.length;
+        for(Lod lod: lods){
+            lod.firstIndex = length;
+            length += lod.indices.length;
+        }
+        int[] ret = Arrays.copyOf(indices, length);
+        for(Lod lod: lods)
+            System.arraycopy(lod.indices, 0, ret, lod.firstIndex, lod.indices.length);
+        return ret;
     }
 
     public void render(){
+        render(0, indices.length);
+    }
+
+    /**
+     * Draws count indices from firstIndex on, a range of the index buffer
+     */
+    private void render(int firstIndex, int count){
 
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
 
         glEnableVertexAttribArray(0); // pos
         glEnableVertexAttribArray(1); // uv
         glEnableVertexAttribArray(2); // norm
 
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        glDrawElements(GL_TRIANGLES, count, indexType, (long) firstIndex * indexSize);
 
         glDisableVertexAttribArray(0);
         glDisableVertexAttribArray(1);
@@ -103,18 +259,182 @@ public class Mesh3D extends VertexBufferObject {
 
     }
 
+    /**
+     * Draws the mesh once per instance in the buffer. Per instance data is
+     * read from attributes 3 to 7, see InstanceBuffer
+     * @param instances uploaded instance buffer
+     */
+    public void renderInstanced(InstanceBuffer instances){
+        renderInstanced(instances, 0, indices.length);
+    }
+
+    private void renderInstanced(InstanceBuffer instances, int firstIndex, int count){
+
+        glBindVertexArray(getVaoId());
+
+        if(instanceBufferId != instances.getId()){
+            instances.bindAttributes(3);
+            instanceBufferId = instances.getId();
+        }
+
+        for(int i = 0; i < 3 + InstanceBuffer.ATTRIBUTES; i++)
+            glEnableVertexAttribArray(i);
+
+        glDrawElementsInstanced(GL_TRIANGLES, count, indexType, (long) firstIndex * indexSize, instances.getCount());
+
+        for(int i = 0; i < 3 + InstanceBuffer.ATTRIBUTES; i++)
+            glDisableVertexAttribArray(i);
+
+        glBindVertexArray(0);
+
+    }
+
+    /**
+     * Sets the coarser levels of detail. They index the current vertices,
+     * so set them after the last change to the vertex arrays, and bind
+     * again to upload them
+     * @param indices index array per level, finest first
+     * @param errors error of each level relative to half the diagonal of the bounds, ascending
+     */
+    public void setLods(int[][] indices, float[] errors){
+        lods = new Lod[indices.length];
+        for(int i = 0; i < lods.length; i++)
+            lods[i] = new Lod(i + 1, indices[i], errors[i]);
+        allIndices();
+    }
+
+    /**
+     * Takes over the levels of detail of source, a mesh with the same vertices
+     */
+    public void copyLods(Mesh3D source){
+        int[][] indices = new int[source.lods.length][];
+        float[] errors = new float[source.lods.length];
+        for(int i = 0; i < indices.length; i++){
+            indices[i] = source.lods[i].indices;
+            errors[i] = source.lods[i].error;
+        }
+        setLods(indices, errors);
+    }
+
+    /**
+     * Number of indices of the coarser levels together
+     */
+    public int getLodIndexCount(){
+        int ret = 0;
+        for(Lod lod: lods) ret += lod.indices.length;
+        return ret;
+    }
+
+    /**
+     * Number of levels of detail, including the full mesh
+     */
+    public int getLodCount(){
+        return lods.length + 1;
+    }
+
+    /**
+     * @return the mesh itself for level 0, else the Lod view of the level
+     */
+    public VertexBufferObject getLod(int level){
+        return level == 0 ? this : lods[level - 1];
+    }
+
+    /**
+     * Error of a level relative to half the diagonal of the bounds, 0 for the full mesh
+     */
+    public float getLodError(int level){
+        return level == 0 ? 0 : lods[level - 1].error;
+    }
+
+    /**
+     * Picks the coarsest level whose error stays within pixelError pixels
+     * at the given size on screen. A level is only left for a coarser one
+     * once that one's error is LOD_HYSTERESIS below the threshold, so a
+     * mesh at the boundary does not flip between two levels every frame
+     * @param screenSize diameter of the mesh's bounds in pixels, see TextureStreamer.projectedSize
+     * @param current level picked last time
+     */
+    public int selectLod(float screenSize, float pixelError, int current){
+        current = Math.min(current, lods.length);
+        // coarsest level within the threshold, and within the threshold less the hysteresis
+        int fits = 0, coarsens = 0;
+        for(int level = 1; level <= lods.length; level++){
+            float error = lods[level - 1].error * screenSize / 2;
+            if(error <= pixelError) fits = level;
+            if(error <= pixelError * (1 - LOD_HYSTERESIS)) coarsens = level;
+        }
+        if(current > fits) return fits;
+        return Math.max(current, coarsens);
+    }
+
+    /**
+     * Recalculates the axis aligned box and bounding sphere from the
+     * current positions. The sphere is centered on the box
+     */
+    public void computeBounds(){
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for(int i = 0; i + 2 < positions.length; i += 3){
+            float x = positions[i], y = positions[i+1], z = positions[i+2];
+            if(x < minX) minX = x; if(x > maxX) maxX = x;
+            if(y < minY) minY = y; if(y > maxY) maxY = y;
+            if(z < minZ) minZ = z; if(z > maxZ) maxZ = z;
+        }
+
+        if(positions.length < 3)
+            bounds = new AABBf(0, 0, 0, 0, 0, 0);
+        else
+            bounds = new AABBf(minX, minY, minZ, maxX, maxY, maxZ);
+
+        float cx = (bounds.minX + bounds.maxX) * 0.5f;
+        float cy = (bounds.minY + bounds.maxY) * 0.5f;
+        float cz = (bounds.minZ + bounds.maxZ) * 0.5f;
+        float radiusSquared = 0;
+        for(int i = 0; i + 2 < positions.length; i += 3){
+            float dx = positions[i] - cx, dy = positions[i+1] - cy, dz = positions[i+2] - cz;
+            float d = dx * dx + dy * dy + dz * dz;
+            if(d > radiusSquared) radiusSquared = d;
+        }
+        boundingSphere = new Spheref(cx, cy, cz, (float) Math.sqrt(radiusSquared));
+    }
+
+    /**
+     * Triangle hierarchy of the current positions and indices for CPU ray casts
+     */
+    public TriangleBVH getTriangleBVH(){
+        if(triangleBVH == null)
+            triangleBVH = new TriangleBVH(positions, indices);
+        return triangleBVH;
+    }
+
     public float getLowest(){
         float ret = Float.MAX_VALUE;
-        for(Vector3f pos: getPositions()){
-            if(pos.y < ret) ret = pos.y;
+        for(int i = 1; i < positions.length; i += 3){
+            if(positions[i] < ret) ret = positions[i];
         }
         return ret;
     }
 
+    /**
+     * Number of indices, drawn with glDrawElements
+     */
     public int getVertexCount(){
-        return indices.size();
+        return indices.length;
     }
 
+    public int getNumVertices(){
+        return positions.length / 3;
+    }
+
+    /**
+     * GPU size of the mesh uploaded as float arrays, compare with getGpuBytes
+     */
+    public int getFloatBytes(){
+        int numVertices = getNumVertices();
+        int numIndices = indices.length + getLodIndexCount();
+        return QuantizedVertices.floatBytes(numVertices, UVs.length == numVertices * 2,
+                normals.length == numVertices * 3, numIndices);
+    }
 
 
 }
@@ -3,10 +3,6 @@ package engine.glapi.vbo;
 import engine.glapi.VertexBufferObject;
 import lombok.Getter;
 import lombok.Setter;
-import org.joml.Vector3f;
-import engine.utils.Buffer;
-
-import java.util.ArrayList;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
@@ -17,19 +13,17 @@ import static org.lwjgl.opengl.GL30.glBindVertexArray;
 
 public class Mesh3DLine extends VertexBufferObject {
 
-    @Getter @Setter private ArrayList<Vector3f> positions;
-    @Getter @Setter private ArrayList<Integer> indices;
+    // x,y,z per vertex and two indices per line, as in Mesh3D
+    @Getter @Setter private float[] positions = new float[0];
+    @Getter @Setter private int[] indices = new int[0];
 
     public Mesh3DLine(){
         super();
-        positions = new ArrayList<>();
-        indices = new ArrayList<>();
     }
 
     public void bind(){
 
-        glBindVertexArray(vaoId);
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
         vbos.stream().forEach(i ->glDeleteBuffers(i));
         vbos.clear();
 
@@ -37,14 +31,14 @@ public class Mesh3DLine extends VertexBufferObject {
         int vbo = glGenBuffers();
         vbos.add(vbo);
         glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ARRAY_BUFFER, Buffer.buffer3f(positions), GL_STATIC_DRAW);
+        glBufferData(GL_ARRAY_BUFFER, positions, GL_STATIC_DRAW);
         glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
 
         // index vbo
         vbo = glGenBuffers();
         vbos.add(vbo);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, Buffer.indiciesBuffer(indices), GL_STATIC_DRAW);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
 
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         glBindVertexArray(0);
@@ -53,7 +47,7 @@ public class Mesh3DLine extends VertexBufferObject {
 
     public void render(){
 
-        glBindVertexArray(vaoId);
+        glBindVertexArray(getVaoId());
         glEnableVertexAttribArray(0); // pos
         glDrawElements(GL_LINE, getVertexCount(), GL_UNSIGNED_INT, 0);
         glDisableVertexAttribArray(0);
@@ -61,7 +55,7 @@ public class Mesh3DLine extends VertexBufferObject {
     }
 
     public int getVertexCount(){
-        return indices.size();
+        return indices.length;
     }
 
 }
@@ -1,40 +1,100 @@
 package engine.glapi.vbo;
 
-import org.joml.Vector3f;
-import engine.utils.AssimpLoader;
-
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
 
 public class Meshs {
 
-    /** TODO:
-     *         Rework into primitive generator
+    /**
+     * Primitives shared by everything drawing them, generated by Primitives
+     * the first time they are asked for and uploaded once. Call from the
+     * render thread. Curved primitives take a level of detail: level 0 has
+     * the full resolution, each level above halves the segments and rings.
      */
 
-    private final static String path = "res/models/primitives/";
+    public static final int SEGMENTS = 64, RINGS = 32, MAX_LOD = 4;
+
+    private static final HashMap<String, Mesh3D> meshes = new HashMap<>();
+    private static Mesh3DLine line;
+
+    public static Mesh3D sphere(){
+        return sphere(0);
+    }
+
+    public static Mesh3D sphere(int lod){
+        return shared("sphere" + lod, () -> Primitives.sphere(resolution(SEGMENTS, lod), resolution(RINGS, lod)));
+    }
+
+    public static Mesh3D dome(){
+        return dome(0);
+    }
 
-    public final static Mesh3D sphere = AssimpLoader.loadMeshGroup(path + "sphere.obj").get(0);
-    public final static Mesh3D quad = AssimpLoader.loadMeshGroup(path + "thickquad.obj").get(0);
-    public final static Mesh3D cube = AssimpLoader.loadMeshGroup(path + "cube.obj").get(0);
-    public final static Mesh3D dome = AssimpLoader.loadMeshGroup(path + "dome.obj").get(0);
-    public final static Mesh3D posquad = AssimpLoader.loadMeshGroup(path + "posquad.obj").get(0);
-    public final static Mesh3D thickquad = AssimpLoader.loadMeshGroup(path + "thickquad.obj").get(0);
-    public static Mesh3DLine line = new Mesh3DLine();
+    public static Mesh3D dome(int lod){
+        return shared("dome" + lod, () -> Primitives.dome(resolution(SEGMENTS, lod), resolution(RINGS / 2, lod)));
+    }
 
-    static{
-        ArrayList<Integer> indices = new ArrayList<>();
-        indices.add(0);
-        indices.add(1);
+    public static Mesh3D cylinder(int lod){
+        return shared("cylinder" + lod, () -> Primitives.cylinder(resolution(SEGMENTS, lod)));
+    }
 
-        ArrayList<Vector3f> positions = new ArrayList<>();
-        positions.add(new Vector3f(0f,0f,0f));
-        positions.add(new Vector3f(1f,1f,1f));
+    /**
+     * Capsule with a cylinder of height 2 between its half spheres
+     */
+    public static Mesh3D capsule(int lod){
+        return shared("capsule" + lod, () -> Primitives.capsule(resolution(SEGMENTS, lod), resolution(RINGS / 2, lod), 2));
+    }
 
-        line.setIndices(indices);
-        line.setPositions(positions);
-        line.bind();
+    public static Mesh3D cube(){
+        return shared("cube", Primitives::cube);
+    }
 
+    /**
+     * Square from -1 to 1 facing +z
+     */
+    public static Mesh3D quad(){
+        return shared("quad", () -> Primitives.quad(-1, -1, 1, 1));
     }
 
+    /**
+     * Square from 0 to 1 facing +z, for panels
+     */
+    public static Mesh3D posquad(){
+        return shared("posquad", () -> Primitives.quad(0, 0, 1, 1));
+    }
+
+    /**
+     * Square from -1 to 1 with a thickness of 0.1, for floors and walls
+     */
+    public static Mesh3D thickquad(){
+        return shared("thickquad", () -> Primitives.box(1, 1, 0.05f));
+    }
+
+    public static Mesh3D fullscreenTriangle(){
+        return shared("fullscreenTriangle", Primitives::fullscreenTriangle);
+    }
+
+    public static Mesh3DLine line(){
+        if(line == null){
+            line = new Mesh3DLine();
+            line.setIndices(new int[]{ 0, 1 });
+            line.setPositions(new float[]{ 0f,0f,0f, 1f,1f,1f });
+            line.bind();
+        }
+        return line;
+    }
+
+    private static Mesh3D shared(String key, Supplier<Mesh3D> generator){
+        Mesh3D ret = meshes.get(key);
+        if(ret == null){
+            ret = generator.get();
+            ret.bind();
+            meshes.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static int resolution(int full, int lod){
+        return Math.max(full >> Math.max(0, Math.min(lod, MAX_LOD)), Primitives.MIN_SEGMENTS);
+    }
 
 }
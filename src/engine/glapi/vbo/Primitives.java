@@ -0,0 +1,250 @@
+package engine.glapi.vbo;
+
+import java.util.Arrays;
+
+public class Primitives {
+
+    /**
+     * Generates primitive meshes on the CPU, unbound, in the layout of
+     * Mesh3D: positions, UVs, unit normals and counter clockwise triangles
+     * seen from the outside. Curved shapes are surfaces of revolution
+     * around the y axis, built from a profile of rows running from the top
+     * to the bottom; segments is the number of steps around the axis,
+     * rings the number of rows per half sphere. Sizes follow the OBJ files
+     * the primitives replace: radius 1, boxes and quads from -1 to 1.
+     *
+     * Safe to call from any thread, see Meshs for the shared, uploaded ones.
+     */
+
+    public static final int MIN_SEGMENTS = 3, MIN_RINGS = 2;
+
+    public static Mesh3D sphere(int segments, int rings){
+        rings = Math.max(rings, MIN_RINGS);
+        Profile profile = new Profile(rings + 1);
+        for(int r = 0; r <= rings; r++){
+            double theta = Math.PI * r / rings;
+            profile.add((float) Math.sin(theta), (float) Math.cos(theta),
+                    (float) Math.sin(theta), (float) Math.cos(theta), r / (float) rings);
+        }
+        return lathe(profile, segments);
+    }
+
+    /**
+     * Upper half sphere, open at the bottom
+     */
+    public static Mesh3D dome(int segments, int rings){
+        rings = Math.max(rings, 1);
+        Profile profile = new Profile(rings + 1);
+        for(int r = 0; r <= rings; r++){
+            double theta = Math.PI / 2 * r / rings;
+            profile.add((float) Math.sin(theta), (float) Math.cos(theta),
+                    (float) Math.sin(theta), (float) Math.cos(theta), r / (float) rings);
+        }
+        return lathe(profile, segments);
+    }
+
+    /**
+     * Cylinder from y = -1 to 1 with flat caps
+     */
+    public static Mesh3D cylinder(int segments){
+        Profile profile = new Profile(6);
+        profile.add(0, 1, 0, 1, 0);
+        profile.add(1, 1, 0, 1, 0.25f);
+        profile.add(1, 1, 1, 0, 0.25f);
+        profile.add(1, -1, 1, 0, 0.75f);
+        profile.add(1, -1, 0, -1, 0.75f);
+        profile.add(0, -1, 0, -1, 1);
+        return lathe(profile, segments);
+    }
+
+    /**
+     * Cylinder of the given height between two half spheres, so the
+     * capsule reaches from y = -1 - height / 2 to 1 + height / 2
+     */
+    public static Mesh3D capsule(int segments, int rings, float height){
+        rings = Math.max(rings, 1);
+        float length = 2 + height;
+        Profile profile = new Profile(2 * rings + 2);
+        for(int half = 0; half < 2; half++){
+            float offset = half == 0 ? height / 2 : -height / 2;
+            for(int r = 0; r <= rings; r++){
+                double theta = Math.PI / 2 * (half + r / (double) rings);
+                float y = (float) Math.cos(theta);
+                profile.add((float) Math.sin(theta), y + offset, (float) Math.sin(theta), y,
+                        (length / 2 - y - offset) / length);
+            }
+        }
+        return lathe(profile, segments);
+    }
+
+    public static Mesh3D cube(){
+        return box(1, 1, 1);
+    }
+
+    /**
+     * Box around the origin with flat faces, each with UVs from 0 to 1
+     * @param x half the size along x, y and z likewise
+     */
+    public static Mesh3D box(float x, float y, float z){
+
+        // normal, then the directions of u and v on the face, with u x v = normal
+        float[][] faces = {
+                {  1, 0, 0,   0, 0, -1,   0, 1, 0 },
+                { -1, 0, 0,   0, 0, 1,    0, 1, 0 },
+                {  0, 1, 0,   1, 0, 0,    0, 0, -1 },
+                {  0, -1, 0,  1, 0, 0,    0, 0, 1 },
+                {  0, 0, 1,   1, 0, 0,    0, 1, 0 },
+                {  0, 0, -1,  -1, 0, 0,   0, 1, 0 }
+        };
+        float[] size = { x, y, z };
+        float[] positions = new float[6 * 4 * 3], normals = new float[6 * 4 * 3], uvs = new float[6 * 4 * 2];
+        int[] indices = new int[6 * 6];
+
+        for(int f = 0; f < 6; f++){
+            float[] face = faces[f];
+            for(int c = 0; c < 4; c++){
+                // corners counter clockwise from (-u, -v)
+                float su = c == 1 || c == 2 ? 1 : -1, sv = c >= 2 ? 1 : -1;
+                int v = f * 4 + c;
+                for(int axis = 0; axis < 3; axis++){
+                    positions[v * 3 + axis] = (face[axis] + su * face[3 + axis] + sv * face[6 + axis]) * size[axis];
+                    normals[v * 3 + axis] = face[axis];
+                }
+                uvs[v * 2] = (su + 1) / 2;
+                uvs[v * 2 + 1] = (sv + 1) / 2;
+            }
+            quad(indices, f * 6, f * 4);
+        }
+        return mesh(positions, uvs, normals, indices);
+    }
+
+    /**
+     * Rectangle in the xy plane facing +z, with UVs from 0 to 1
+     */
+    public static Mesh3D quad(float x0, float y0, float x1, float y1){
+        float[] positions = { x0, y0, 0,  x1, y0, 0,  x1, y1, 0,  x0, y1, 0 };
+        float[] uvs = { 0, 0,  1, 0,  1, 1,  0, 1 };
+        float[] normals = { 0, 0, 1,  0, 0, 1,  0, 0, 1,  0, 0, 1 };
+        int[] indices = new int[6];
+        quad(indices, 0, 0);
+        return mesh(positions, uvs, normals, indices);
+    }
+
+    /**
+     * One triangle covering the square from -1 to 1 in the xy plane, UVs
+     * from 0 to 1 across the square. Draws a full screen pass without the
+     * diagonal seam of a quad
+     */
+    public static Mesh3D fullscreenTriangle(){
+        float[] positions = { -1, -1, 0,  3, -1, 0,  -1, 3, 0 };
+        float[] uvs = { 0, 0,  2, 0,  0, 2 };
+        float[] normals = { 0, 0, 1,  0, 0, 1,  0, 0, 1 };
+        return mesh(positions, uvs, normals, new int[]{ 0, 1, 2 });
+    }
+
+    /**
+     * Rows of a surface of revolution: distance from the axis, height,
+     * normal in the same two directions and the v coordinate
+     */
+    private static class Profile {
+        final float[] rows;
+        int size;
+
+        Profile(int rows){
+            this.rows = new float[rows * 5];
+        }
+
+        void add(float radius, float y, float normalRadius, float normalY, float v){
+            // sin(pi) is not quite 0
+            rows[size * 5] = radius < 1e-6f ? 0 : radius;
+            rows[size * 5 + 1] = y;
+            rows[size * 5 + 2] = normalRadius;
+            rows[size * 5 + 3] = normalY;
+            rows[size * 5 + 4] = v;
+            size++;
+        }
+
+        float radius(int row){ return rows[row * 5]; }
+        float y(int row){ return rows[row * 5 + 1]; }
+    }
+
+    /**
+     * Sweeps the profile around the y axis. Every row gets segments + 1
+     * vertices, the first and last share a position but not their u.
+     * Triangles collapsing onto the axis and bands between rows at the same
+     * place, where the normal changes at a hard edge, are left out
+     */
+    private static Mesh3D lathe(Profile profile, int segments){
+        segments = Math.max(segments, MIN_SEGMENTS);
+        int columns = segments + 1, rows = profile.size;
+
+        float[] cos = new float[columns], sin = new float[columns];
+        for(int s = 0; s < columns; s++){
+            double phi = 2 * Math.PI * s / segments;
+            cos[s] = s == segments ? 1 : (float) Math.cos(phi);
+            sin[s] = s == segments ? 0 : (float) Math.sin(phi);
+        }
+
+        float[] positions = new float[rows * columns * 3], normals = new float[rows * columns * 3];
+        float[] uvs = new float[rows * columns * 2];
+        for(int r = 0; r < rows; r++){
+            float radius = profile.radius(r), y = profile.y(r);
+            float normalRadius = profile.rows[r * 5 + 2], normalY = profile.rows[r * 5 + 3];
+            float length = (float) Math.sqrt(normalRadius * normalRadius + normalY * normalY);
+            normalRadius /= length;
+            normalY /= length;
+            for(int s = 0; s < columns; s++){
+                int v = r * columns + s;
+                positions[v * 3] = radius * cos[s];
+                positions[v * 3 + 1] = y;
+                positions[v * 3 + 2] = -radius * sin[s];
+                normals[v * 3] = normalRadius * cos[s];
+                normals[v * 3 + 1] = normalY;
+                normals[v * 3 + 2] = -normalRadius * sin[s];
+                // on the axis u points at the middle of the triangle
+                uvs[v * 2] = radius == 0 ? Math.min(s + 0.5f, segments) / segments : s / (float) segments;
+                uvs[v * 2 + 1] = 1 - profile.rows[r * 5 + 4];
+            }
+        }
+
+        int count = 0;
+        int[] indices = new int[(rows - 1) * segments * 6];
+        for(int r = 0; r + 1 < rows; r++){
+            boolean top = profile.radius(r) == 0, bottom = profile.radius(r + 1) == 0;
+            if(profile.radius(r) == profile.radius(r + 1) && profile.y(r) == profile.y(r + 1))
+                continue;
+            for(int s = 0; s < segments; s++){
+                int a = r * columns + s, b = a + 1, c = a + columns, d = c + 1;
+                if(!bottom){
+                    indices[count++] = a; indices[count++] = c; indices[count++] = d;
+                }
+                if(!top){
+                    indices[count++] = a; indices[count++] = d; indices[count++] = b;
+                }
+            }
+        }
+        return mesh(positions, uvs, normals, Arrays.copyOf(indices, count));
+    }
+
+    /**
+     * Two triangles over the corners first to first + 3, counter clockwise
+     */
+    private static void quad(int[] indices, int at, int first){
+        indices[at] = first;
+        indices[at + 1] = first + 1;
+        indices[at + 2] = first + 2;
+        indices[at + 3] = first;
+        indices[at + 4] = first + 2;
+        indices[at + 5] = first + 3;
+    }
+
+    private static Mesh3D mesh(float[] positions, float[] uvs, float[] normals, int[] indices){
+        Mesh3D ret = new Mesh3D();
+        ret.setPositions(positions);
+        ret.setUVs(uvs);
+        ret.setNormals(normals);
+        ret.setIndices(indices);
+        return ret;
+    }
+
+}
@@ -0,0 +1,264 @@
+package engine.glapi.vbo;
+
+import lombok.Getter;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+public class QuantizedVertices {
+
+    /**
+     * Interleaved, quantized copy of a mesh's arrays, ready for upload.
+     * Every vertex is
+     *
+     *   position  4 x half float (w = 1)        8 bytes, or 3 x float  12 bytes
+     *   uv        2 x unorm16                   4 bytes, or 2 x half    4 bytes
+     *   normal    2 x snorm16, octahedral       4 bytes
+     *
+     * so the stride is 16 bytes (20 with float positions) against 28 for
+     * the separate float arrays. Indices are 16 bit when every vertex can be
+     * addressed with them.
+     *
+     * Positions stay float when half floats would move a vertex further
+     * than POSITION_TOLERANCE of the mesh's bounding radius (meshes far from
+     * their origin), UVs fall back to half floats when one leaves [0, 1].
+     * Normals are always octahedral, see encodeOctahedral.
+     *
+     * Packing runs on the CPU only, the buffers are off heap and have to be
+     * freed once uploaded.
+     */
+
+    public static final float POSITION_TOLERANCE = 1f / 1024;
+
+    @Getter private final boolean halfPositions, unormUVs, shortIndices;
+    @Getter private final int stride, numVertices, numIndices;
+    @Getter private final float maxPositionError;
+
+    @Getter private ByteBuffer vertices, indices;
+
+    public QuantizedVertices(float[] positions, float[] UVs, float[] normals, int[] indices){
+
+        numVertices = positions.length / 3;
+        numIndices = indices.length;
+        boolean hasUVs = UVs.length == numVertices * 2;
+        boolean hasNormals = normals.length == numVertices * 3;
+
+        maxPositionError = halfError(positions);
+        halfPositions = maxPositionError <= boundingRadius(positions) * POSITION_TOLERANCE;
+        unormUVs = !hasUVs || inUnitRange(UVs);
+        shortIndices = numVertices <= 0x10000;
+
+        int positionBytes = halfPositions ? 8 : 12;
+        stride = positionBytes + 8;
+
+        vertices = MemoryUtil.memAlloc(numVertices * stride);
+        float[] octahedral = new float[2];
+        for(int v = 0; v < numVertices; v++){
+            int x = v * 3;
+            if(halfPositions)
+                vertices.putShort(toHalf(positions[x])).putShort(toHalf(positions[x+1]))
+                        .putShort(toHalf(positions[x+2])).putShort(toHalf(1));
+            else
+                vertices.putFloat(positions[x]).putFloat(positions[x+1]).putFloat(positions[x+2]);
+
+            float u = hasUVs ? UVs[v*2] : 0, w = hasUVs ? UVs[v*2+1] : 0;
+            if(unormUVs)
+                vertices.putShort(toUnorm16(u)).putShort(toUnorm16(w));
+            else
+                vertices.putShort(toHalf(u)).putShort(toHalf(w));
+
+            if(hasNormals)
+                encodeOctahedral(normals[x], normals[x+1], normals[x+2], octahedral);
+            else
+                octahedral[0] = octahedral[1] = 0;
+            vertices.putShort(toSnorm16(octahedral[0])).putShort(toSnorm16(octahedral[1]));
+        }
+        vertices.flip();
+
+        this.indices = MemoryUtil.memAlloc(numIndices * (shortIndices ? 2 : 4));
+        for(int index: indices){
+            if(shortIndices) this.indices.putShort((short) index);
+            else this.indices.putInt(index);
+        }
+        this.indices.flip();
+    }
+
+    /**
+     * Points attributes 0 to 2 of the bound vertex array at the vertex
+     * buffer bound to GL_ARRAY_BUFFER
+     */
+    public void setAttributes(){
+        if(halfPositions)
+            glVertexAttribPointer(0, 4, GL_HALF_FLOAT, false, stride, 0);
+        else
+            glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
+
+        int offset = halfPositions ? 8 : 12;
+        if(unormUVs)
+            glVertexAttribPointer(1, 2, GL_UNSIGNED_SHORT, true, stride, offset);
+        else
+            glVertexAttribPointer(1, 2, GL_HALF_FLOAT, false, stride, offset);
+
+        glVertexAttribPointer(2, 2, GL_SHORT, true, stride, offset + 4);
+    }
+
+    public int getIndexType(){
+        return shortIndices ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Size of the vertex and index buffers
+     */
+    public int getBytes(){
+        return numVertices * stride + numIndices * (shortIndices ? 2 : 4);
+    }
+
+    /**
+     * Size of the same mesh as separate float arrays with 32 bit indices
+     */
+    public static int floatBytes(int numVertices, boolean hasUVs, boolean hasNormals, int numIndices){
+        return numVertices * (12 + (hasUVs ? 8 : 0) + (hasNormals ? 8 : 0)) + numIndices * 4;
+    }
+
+    public void free(){
+        MemoryUtil.memFree(vertices);
+        MemoryUtil.memFree(indices);
+        vertices = indices = null;
+    }
+
+    /**
+     * Projects a unit normal onto the octahedron and unfolds it into the
+     * square [-1, 1]^2. Decoded in the vertex shaders (octDecode)
+     */
+    public static void encodeOctahedral(float x, float y, float z, float[] dest){
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if(length == 0){
+            dest[0] = dest[1] = 0;
+            return;
+        }
+        x /= length;
+        y /= length;
+        if(z < 0){
+            float ox = (1 - Math.abs(y)) * (x >= 0 ? 1 : -1);
+            float oy = (1 - Math.abs(x)) * (y >= 0 ? 1 : -1);
+            x = ox;
+            y = oy;
+        }
+        dest[0] = x;
+        dest[1] = y;
+    }
+
+    /**
+     * Octahedral float pairs of x,y,z normals, the unquantized normal layout
+     */
+    public static float[] encodeOctahedral(float[] normals){
+        float[] ret = new float[normals.length / 3 * 2];
+        float[] octahedral = new float[2];
+        for(int i = 0, j = 0; i + 2 < normals.length; i += 3, j += 2){
+            encodeOctahedral(normals[i], normals[i+1], normals[i+2], octahedral);
+            ret[j] = octahedral[0];
+            ret[j+1] = octahedral[1];
+        }
+        return ret;
+    }
+
+    public static void decodeOctahedral(float x, float y, float[] dest){
+        float z = 1 - Math.abs(x) - Math.abs(y);
+        float t = Math.max(-z, 0);
+        x += x >= 0 ? -t : t;
+        y += y >= 0 ? -t : t;
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        dest[0] = x / length;
+        dest[1] = y / length;
+        dest[2] = z / length;
+    }
+
+    public static short toSnorm16(float value){
+        return (short) Math.round(Math.max(-1, Math.min(1, value)) * 32767);
+    }
+
+    public static float fromSnorm16(short value){
+        return Math.max(value / 32767f, -1);
+    }
+
+    public static short toUnorm16(float value){
+        return (short) Math.round(Math.max(0, Math.min(1, value)) * 65535);
+    }
+
+    public static float fromUnorm16(short value){
+        return (value & 0xffff) / 65535f;
+    }
+
+    /**
+     * Rounds to the nearest IEEE half float, overflowing to infinity
+     */
+    public static short toHalf(float value){
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+
+        if(magnitude >= 0x7f800000) // infinity and NaN
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+
+        int rounded = magnitude + 0x1000;
+        if(rounded >= 0x47800000) // above 65504
+            return (short) (sign | 0x7c00);
+        if(rounded >= 0x38800000) // normal
+            return (short) (sign | (rounded - 0x38000000) >>> 13);
+        if(magnitude < 0x33000000) // below half the smallest subnormal
+            return (short) sign;
+
+        // subnormal
+        int exponent = magnitude >>> 23;
+        int mantissa = (magnitude & 0x7fffff) | 0x800000;
+        return (short) (sign | (mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent));
+    }
+
+    public static float fromHalf(short half){
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+
+        if(exponent == 0){
+            float value = mantissa / 16777216f; // 2^-24
+            return sign == 0 ? value : -value;
+        }
+        if(exponent == 31)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+    }
+
+    private static float halfError(float[] positions){
+        float ret = 0;
+        for(float position: positions){
+            float error = Math.abs(fromHalf(toHalf(position)) - position);
+            if(error > ret) ret = error;
+        }
+        return ret;
+    }
+
+    private static float boundingRadius(float[] positions){
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for(int i = 0; i + 2 < positions.length; i += 3){
+            float x = positions[i], y = positions[i+1], z = positions[i+2];
+            if(x < minX) minX = x; if(x > maxX) maxX = x;
+            if(y < minY) minY = y; if(y > maxY) maxY = y;
+            if(z < minZ) minZ = z; if(z > maxZ) maxZ = z;
+        }
+        if(positions.length < 3) return 0;
+        float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz) * 0.5f;
+    }
+
+    private static boolean inUnitRange(float[] values){
+        for(float value: values)
+            if(!(value >= 0 && value <= 1)) return false;
+        return true;
+    }
+
+}
@@ -0,0 +1,236 @@
+package engine.glapi.vbo;
+
+import lombok.Getter;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+public class TriangleBVH {
+
+    /**
+     * Bounding volume hierarchy over the triangles of one mesh, used for
+     * ray casts on the CPU. Works in object space and only needs the
+     * position and index data, so it can be built without a GL context.
+     *
+     * Triangles are copied into a flat array and reordered so every leaf
+     * covers a contiguous range. Nodes split at the middle of the longest
+     * axis of their centroid bounds.
+     */
+
+    private static final int LEAF_SIZE = 4;
+    private static final float EPSILON = 1e-7f;
+
+    // 9 floats per triangle (3 vertices), in leaf order
+    private final float[] triangles;
+    // original triangle number for each stored triangle
+    private final int[] order;
+    private final float[] centroids;
+    @Getter private final int triangleCount;
+
+    private float[] bounds;
+    private int[] left, right, first, count;
+    @Getter private int nodeCount;
+
+    private int[] stack = new int[64];
+
+    public static class Hit {
+        public float distance;
+        public int triangle;
+        public final Vector3f normal = new Vector3f();
+    }
+
+    /**
+     * @param positions x,y,z per vertex
+     * @param indices three per triangle
+     */
+    public TriangleBVH(float[] positions, int[] indices){
+        triangleCount = indices.length / 3;
+        triangles = new float[triangleCount * 9];
+        order = new int[triangleCount];
+        centroids = new float[triangleCount * 3];
+
+        for(int t = 0; t < triangleCount; t++){
+            order[t] = t;
+            for(int v = 0; v < 3; v++){
+                int p = indices[t * 3 + v] * 3;
+                triangles[t*9 + v*3]     = positions[p];
+                triangles[t*9 + v*3 + 1] = positions[p + 1];
+                triangles[t*9 + v*3 + 2] = positions[p + 2];
+            }
+            for(int k = 0; k < 3; k++)
+                centroids[t*3 + k] = (triangles[t*9 + k] + triangles[t*9 + 3 + k] + triangles[t*9 + 6 + k]) / 3f;
+        }
+
+        int capacity = Math.max(1, 2 * triangleCount);
+        bounds = new float[capacity * 6];
+        left = new int[capacity];
+        right = new int[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+
+        if(triangleCount > 0){
+            nodeCount = 1;
+            build(0, 0, triangleCount);
+        }
+    }
+
+    private void build(int node, int start, int end){
+        int o = node * 6;
+        bounds[o] = bounds[o+1] = bounds[o+2] = Float.POSITIVE_INFINITY;
+        bounds[o+3] = bounds[o+4] = bounds[o+5] = Float.NEGATIVE_INFINITY;
+        float cminX = Float.POSITIVE_INFINITY, cminY = cminX, cminZ = cminX;
+        float cmaxX = Float.NEGATIVE_INFINITY, cmaxY = cmaxX, cmaxZ = cmaxX;
+
+        for(int t = start; t < end; t++){
+            for(int v = 0; v < 9; v += 3){
+                float x = triangles[t*9+v], y = triangles[t*9+v+1], z = triangles[t*9+v+2];
+                if(x < bounds[o])   bounds[o]   = x; if(x > bounds[o+3]) bounds[o+3] = x;
+                if(y < bounds[o+1]) bounds[o+1] = y; if(y > bounds[o+4]) bounds[o+4] = y;
+                if(z < bounds[o+2]) bounds[o+2] = z; if(z > bounds[o+5]) bounds[o+5] = z;
+            }
+            float x = centroids[t*3], y = centroids[t*3+1], z = centroids[t*3+2];
+            if(x < cminX) cminX = x; if(x > cmaxX) cmaxX = x;
+            if(y < cminY) cminY = y; if(y > cmaxY) cmaxY = y;
+            if(z < cminZ) cminZ = z; if(z > cmaxZ) cmaxZ = z;
+        }
+
+        int n = end - start;
+        if(n <= LEAF_SIZE){
+            first[node] = start;
+            count[node] = n;
+            return;
+        }
+
+        float ex = cmaxX - cminX, ey = cmaxY - cminY, ez = cmaxZ - cminZ;
+        int axis = ex >= ey && ex >= ez ? 0 : ey >= ez ? 1 : 2;
+        float split = axis == 0 ? cminX + ex * 0.5f : axis == 1 ? cminY + ey * 0.5f : cminZ + ez * 0.5f;
+
+        int i = start, j = end - 1;
+        while(i <= j){
+            if(centroids[i*3+axis] < split) i++;
+            else swap(i, j--);
+        }
+
+        int mid = i;
+        if(mid == start || mid == end) mid = start + n / 2;
+
+        int l = nodeCount++;
+        int r = nodeCount++;
+        left[node] = l;
+        right[node] = r;
+        count[node] = 0;
+        build(l, start, mid);
+        build(r, mid, end);
+    }
+
+    private void swap(int a, int b){
+        for(int k = 0; k < 9; k++){
+            float t = triangles[a*9+k]; triangles[a*9+k] = triangles[b*9+k]; triangles[b*9+k] = t;
+        }
+        for(int k = 0; k < 3; k++){
+            float t = centroids[a*3+k]; centroids[a*3+k] = centroids[b*3+k]; centroids[b*3+k] = t;
+        }
+        int t = order[a]; order[a] = order[b]; order[b] = t;
+    }
+
+    /**
+     * Finds the closest triangle hit by the ray, both sides of a triangle count.
+     * Origin, direction and the resulting normal are in object space.
+     * @param maxDistance hits further away (in units of dir) are ignored
+     * @param hit receives distance, triangle number and the unit face normal
+     * @return true if a triangle was hit
+     */
+    public boolean intersect(float ox, float oy, float oz, float dx, float dy, float dz,
+                             float maxDistance, Hit hit){
+        if(nodeCount == 0) return false;
+
+        float ix = 1f / dx, iy = 1f / dy, iz = 1f / dz;
+        float closest = maxDistance;
+        int best = -1;
+
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int node = stack[--top];
+            if(slab(node, ox, oy, oz, ix, iy, iz) > closest) continue;
+
+            if(count[node] > 0){
+                for(int t = first[node]; t < first[node] + count[node]; t++){
+                    int v = t * 9;
+                    float d = intersectTriangle(ox, oy, oz, dx, dy, dz,
+                            triangles[v],   triangles[v+1], triangles[v+2],
+                            triangles[v+3], triangles[v+4], triangles[v+5],
+                            triangles[v+6], triangles[v+7], triangles[v+8]);
+                    if(d >= 0 && d < closest){
+                        closest = d;
+                        best = t;
+                    }
+                }
+                continue;
+            }
+
+            // visit the nearer child first
+            float dl = slab(left[node], ox, oy, oz, ix, iy, iz);
+            float dr = slab(right[node], ox, oy, oz, ix, iy, iz);
+            if(top + 2 > stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            if(dl <= dr){
+                if(dr <= closest) stack[top++] = right[node];
+                if(dl <= closest) stack[top++] = left[node];
+            } else {
+                if(dl <= closest) stack[top++] = left[node];
+                if(dr <= closest) stack[top++] = right[node];
+            }
+        }
+
+        if(best < 0) return false;
+
+        int v = best * 9;
+        float e1x = triangles[v+3] - triangles[v], e1y = triangles[v+4] - triangles[v+1], e1z = triangles[v+5] - triangles[v+2];
+        float e2x = triangles[v+6] - triangles[v], e2y = triangles[v+7] - triangles[v+1], e2z = triangles[v+8] - triangles[v+2];
+        hit.normal.set(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x).normalize();
+        hit.distance = closest;
+        hit.triangle = order[best];
+        return true;
+    }
+
+    /**
+     * Entry distance of the ray into a node's box, infinity on a miss
+     */
+    private float slab(int node, float ox, float oy, float oz, float ix, float iy, float iz){
+        int o = node * 6;
+        float t1 = (bounds[o]   - ox) * ix, t2 = (bounds[o+3] - ox) * ix;
+        float tmin = t1 < t2 ? t1 : t2, tmax = t1 < t2 ? t2 : t1;
+        t1 = (bounds[o+1] - oy) * iy; t2 = (bounds[o+4] - oy) * iy;
+        float lo = t1 < t2 ? t1 : t2, hi = t1 < t2 ? t2 : t1;
+        if(lo > tmin) tmin = lo; if(hi < tmax) tmax = hi;
+        t1 = (bounds[o+2] - oz) * iz; t2 = (bounds[o+5] - oz) * iz;
+        lo = t1 < t2 ? t1 : t2; hi = t1 < t2 ? t2 : t1;
+        if(lo > tmin) tmin = lo; if(hi < tmax) tmax = hi;
+        // NaN from 0 * infinity on an axis parallel ray fails the comparison and counts as a hit
+        if(tmax < 0 || tmin > tmax) return Float.POSITIVE_INFINITY;
+        return tmin < 0 ? 0 : tmin;
+    }
+
+    /**
+     * Moeller-Trumbore, returns the distance along dir or -1
+     */
+    private static float intersectTriangle(float ox, float oy, float oz, float dx, float dy, float dz,
+                                           float v0x, float v0y, float v0z, float v1x, float v1y, float v1z,
+                                           float v2x, float v2y, float v2z){
+        float e1x = v1x - v0x, e1y = v1y - v0y, e1z = v1z - v0z;
+        float e2x = v2x - v0x, e2y = v2y - v0y, e2z = v2z - v0z;
+        float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if(det > -EPSILON && det < EPSILON) return -1;
+        float inv = 1f / det;
+        float tx = ox - v0x, ty = oy - v0y, tz = oz - v0z;
+        float u = (tx * px + ty * py + tz * pz) * inv;
+        if(u < 0 || u > 1) return -1;
+        float qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * inv;
+        if(v < 0 || u + v > 1) return -1;
+        return (e2x * qx + e2y * qy + e2z * qz) * inv;
+    }
+
+}
@@ -260,6 +260,20 @@ public class Camera extends Element {
         return ret;
     }
 
+    /**
+     * Unprojects a pixel of the scene viewport into a world space ray
+     * @param x pixel from the left
+     * @param y pixel from the bottom, as for glReadPixels
+     * @param origin receives the point on the near plane
+     * @param dir receives the normalized direction
+     */
+    public void getPickRay(int x, int y, Vector3f origin, Vector3f dir){
+        Vector2i resolution = context.getResolution();
+        int[] viewport = {0, 0, resolution.x, resolution.y};
+        getViewProjectionMatrix().unprojectRay(x + 0.5f, y + 0.5f, viewport, origin, dir);
+        dir.normalize();
+    }
+
     private Node pick(Vector2f screenpos){
         Box sceneBox = context.getParent().getAbsoluteBox();
         Vector2f pos = sceneBox.within(screenpos);
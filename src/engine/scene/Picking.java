@@ -5,7 +5,9 @@ import org.joml.Vector3f;
 import engine.glapi.FrameBufferObject;
 import engine.glapi.TextureObject;
 import engine.scene.node.Node;
+import engine.scene.node.RenderQueue;
 import engine.scene.node.RenderType;
+import engine.system.Config;
 import engine.system.Window;
 
 import java.nio.ByteBuffer;
@@ -17,18 +19,34 @@ public class Picking {
 
     private SceneContext context;
     @Getter private UUIDFrameBufferObject UUIDmap;
+    @Getter private RenderQueue queue;
+    @Getter private RayCaster rayCaster;
 
     public Picking(SceneContext context){
         this.context = context;
         this.UUIDmap = new UUIDFrameBufferObject();
+        this.queue = new RenderQueue();
+        this.rayCaster = new RayCaster();
     }
 
+    /**
+     * Node under the given pixel of the scene viewport, selected nodes are skipped.
+     * Casts a ray on the CPU when cpuPicking is enabled, otherwise renders
+     * the UUID map and reads the pixel back.
+     */
     public Node pick(int x, int y){
+        if(Config.instance().isCpuPicking()) {
+            RayHit hit = pickHit(x, y);
+            return hit == null ? null : hit.getNode();
+        }
 
         UUIDmap.bind();
             glClear( GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
             Window.instance().resizeViewport(context.getResolution());
-            context.getScene().render(RenderType.TYPE_UUID, e -> !e.isSelected());
+            queue.setEye(context.getCamera().transform.getTranslation())
+                    .setFrustum(context.getCamera().getViewProjectionMatrix())
+                    .setInstancing(Config.instance().isInstancing())
+                    .render(context.getScene(), RenderType.TYPE_UUID, e -> !e.isSelected());
             Window.instance().resetViewport();
             ByteBuffer rgb = ByteBuffer.allocateDirect(4);
             glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
@@ -43,10 +61,17 @@ public class Picking {
 
         int ID = r + b + g;
 
-        for (Node node: context.getScene().collect())
-            if(node.getUUID() == ID) return node;
+        return context.getScene().getRegistry().get(ID);
+    }
 
-        return null;
+    /**
+     * Casts a ray through the given pixel into the scene, never stalls the GPU
+     * @return closest hit with world position, normal and distance, or null
+     */
+    public RayHit pickHit(int x, int y){
+        Vector3f origin = new Vector3f(), dir = new Vector3f();
+        context.getCamera().getPickRay(x, y, origin, dir);
+        return rayCaster.cast(context.getScene(), origin, dir, e -> !e.isSelected());
     }
 
 
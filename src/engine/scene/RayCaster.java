@@ -0,0 +1,203 @@
+package engine.scene;
+
+import engine.glapi.VertexBufferObject;
+import engine.glapi.vbo.Mesh3D;
+import engine.glapi.vbo.TriangleBVH;
+import engine.scene.node.*;
+import engine.utils.TreeTraversal;
+import org.joml.AABBf;
+import org.joml.Intersectionf;
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class RayCaster {
+
+    /**
+     * Finds the closest node hit by a world space ray without touching
+     * the GPU. Candidates come from the scenegraph's spatial index when it
+     * is enabled, otherwise from a walk over the tree. Their world bounds
+     * are sorted by entry distance, then the triangles of each candidate's
+     * mesh are tested through the mesh's TriangleBVH in object space.
+     *
+     * Only nodes with a module of the cast's RenderType are pickable, by
+     * default TYPE_UUID, the same nodes the UUID picking pass draws. Meshes
+     * that are not Mesh3D are hit on their bounds.
+     */
+
+    private final List<Node> candidates = new ArrayList<>();
+    private float[] entries = new float[16];
+    private int[] sorted = new int[16];
+
+    private final Vector2f range = new Vector2f();
+    private final Matrix4f inverse = new Matrix4f();
+    private final Matrix4f normalMatrix = new Matrix4f();
+    private final Vector3f localOrigin = new Vector3f();
+    private final Vector3f localDir = new Vector3f();
+    private final TriangleBVH.Hit triangleHit = new TriangleBVH.Hit();
+
+    // tree walk used when the scene has no spatial index
+    private final TreeTraversal<Node> traversal = Node.traversal();
+    private Predicate<Node> castCondition;
+    private RenderType castType;
+    private final Predicate<Node> descend = node -> node.isActivated()
+            && (castCondition == null ? !node.isHidden() : castCondition.test(node));
+    private final Consumer<Node> gatherer = node -> {
+        if(pickable(node, castType)) candidates.add(node);
+    };
+
+    public RayHit cast(Node root, Vector3f origin, Vector3f dir){
+        return cast(root, origin, dir, null, RenderType.TYPE_UUID);
+    }
+
+    public RayHit cast(Node root, Vector3f origin, Vector3f dir, Predicate<Node> condition){
+        return cast(root, origin, dir, condition, RenderType.TYPE_UUID);
+    }
+
+    /**
+     * @param root scene to cast into, root itself is never hidden by the condition
+     * @param dir ray direction, does not need to be normalized
+     * @param condition visibility filter like Node.render(type, condition), null for activated and not hidden
+     * @param type nodes need a module of this type to be hit
+     * @return closest hit or null
+     */
+    public RayHit cast(Node root, Vector3f origin, Vector3f dir, Predicate<Node> condition, RenderType type){
+        BoundingVolumeHierarchy index = root instanceof Scenegraph ? ((Scenegraph) root).getSpatialIndex() : null;
+        return cast(root, index, origin, dir, condition, type);
+    }
+
+    /**
+     * Same with the spatial index given explicitly, for trees that are not
+     * a Scenegraph (headless tools and tests)
+     * @param index index over root, null to walk the tree
+     */
+    public RayHit cast(Node root, BoundingVolumeHierarchy index, Vector3f origin, Vector3f dir,
+                       Predicate<Node> condition, RenderType type){
+        Vector3f direction = new Vector3f(dir).normalize();
+
+        candidates.clear();
+        if(index != null){
+            index.update();
+            index.raycast(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                    Float.POSITIVE_INFINITY, candidates);
+        } else {
+            castCondition = condition;
+            castType = type;
+            traversal.depthFirst(root, descend, gatherer);
+            castCondition = null;
+        }
+
+        // entry distance into each candidate's bounds, sorted front to back
+        int count = 0;
+        for(int i = 0; i < candidates.size(); i++){
+            Node node = candidates.get(i);
+            if(index != null && !(pickable(node, type) && visible(node, root, condition)))
+                continue;
+            AABBf b = node.getWorldBounds();
+            if(!Intersectionf.intersectRayAab(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                    b.minX, b.minY, b.minZ, b.maxX, b.maxY, b.maxZ, range))
+                continue;
+            if(count == entries.length){
+                entries = Arrays.copyOf(entries, count * 2);
+                sorted = Arrays.copyOf(sorted, count * 2);
+            }
+            entries[count] = Math.max(0, range.x);
+            sorted[count] = i;
+            count++;
+        }
+        sortByEntry(count);
+
+        Node best = null;
+        float closest = Float.POSITIVE_INFINITY;
+        Vector3f normal = new Vector3f();
+
+        for(int k = 0; k < count; k++){
+            if(entries[k] > closest) break;
+            Node node = candidates.get(sorted[k]);
+            VertexBufferObject mesh = mesh(node, type);
+
+            if(mesh instanceof Mesh3D){
+                float distance = intersectMesh(node, (Mesh3D) mesh, origin, direction, closest, normal);
+                if(distance >= 0 && distance < closest){
+                    closest = distance;
+                    best = node;
+                }
+            } else if(entries[k] < closest){
+                closest = entries[k];
+                best = node;
+                normal.set(direction).negate();
+            }
+        }
+
+        candidates.clear();
+        if(best == null) return null;
+
+        Vector3f position = new Vector3f(direction).mul(closest).add(origin);
+        return new RayHit(best, position, normal, closest);
+    }
+
+    private static boolean pickable(Node node, RenderType type){
+        return node instanceof ModuleNode
+                && ((ModuleNode) node).getModules().containsKey(type)
+                && node.getWorldBounds() != null;
+    }
+
+    /**
+     * Same rules as the render traversal: every node on the path below root
+     * has to be activated and pass the condition
+     */
+    private static boolean visible(Node node, Node root, Predicate<Node> condition){
+        for(Node n = node; n != null && n != root; n = n.getParent())
+            if(!(n.isActivated() && (condition == null ? !n.isHidden() : condition.test(n))))
+                return false;
+        return true;
+    }
+
+    private static VertexBufferObject mesh(Node node, RenderType type){
+        Module module = ((ModuleNode) node).getModules().get(type);
+        return module instanceof RenderModule ? ((RenderModule) module).getMesh() : null;
+    }
+
+    /**
+     * Casts the ray in the node's object space. The direction is transformed
+     * without normalizing, so distances stay in world units
+     * @return world distance of the closest triangle or -1
+     */
+    private float intersectMesh(Node node, Mesh3D mesh, Vector3f origin, Vector3f dir, float maxDistance, Vector3f normal){
+        node.getModelMatrix().invert(inverse);
+        inverse.transformPosition(origin, localOrigin);
+        inverse.transformDirection(dir, localDir);
+
+        if(!mesh.getTriangleBVH().intersect(localOrigin.x, localOrigin.y, localOrigin.z,
+                localDir.x, localDir.y, localDir.z, maxDistance, triangleHit))
+            return -1;
+
+        node.getModelMatrix().normal(normalMatrix);
+        normalMatrix.transformDirection(triangleHit.normal, normal).normalize();
+        if(normal.dot(dir) > 0) normal.negate();
+        return triangleHit.distance;
+    }
+
+    // insertion sort, candidate lists along a single ray are short
+    private void sortByEntry(int count){
+        for(int i = 1; i < count; i++){
+            float e = entries[i];
+            int s = sorted[i];
+            int j = i - 1;
+            while(j >= 0 && entries[j] > e){
+                entries[j+1] = entries[j];
+                sorted[j+1] = sorted[j];
+                j--;
+            }
+            entries[j+1] = e;
+            sorted[j+1] = s;
+        }
+    }
+
+}
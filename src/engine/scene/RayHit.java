@@ -0,0 +1,21 @@
+package engine.scene;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.joml.Vector3f;
+import engine.scene.node.Node;
+
+@Getter @AllArgsConstructor
+public class RayHit {
+
+    /*
+        Result of a RayCaster query. Position and normal are in world space,
+        distance is measured along the normalized ray direction.
+     */
+
+    private Node node;
+    private Vector3f position;
+    private Vector3f normal;
+    private float distance;
+
+}
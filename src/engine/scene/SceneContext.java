@@ -4,6 +4,7 @@ import lombok.Getter;
 import org.joml.Vector2i;
 import engine.application.event.mouse.MouseMoveEvent;
 import engine.application.element.Element;
+import engine.scene.node.SceneUpdater;
 import engine.scene.node.Scenegraph;
 import engine.system.Config;
 import engine.system.Core;
@@ -38,9 +39,15 @@ public abstract class SceneContext extends Element {
         super();
 
         this.scene = new Scenegraph();
+        if(Config.instance().isTransformStore())
+            scene.enableTransformStore();
+        if(Config.instance().isSpatialIndex())
+            scene.enableSpatialIndex();
+        if(Config.instance().isStaticBatching())
+            scene.enableStaticBatching();
         this.camera = new Camera(this);
         this.picking = new Picking(this);
-        this.selectionManager = new SelectionManager();
+        this.selectionManager = new SelectionManager(scene.getRegistry());
         this.resolution = new Vector2i(0,0);
 
         onEvent(e -> {
@@ -99,8 +106,18 @@ public abstract class SceneContext extends Element {
         super.update();
 
         // now update scene with proper inputs reaching the
-        scene.update();
+        if(Config.instance().isParallelUpdate()) {
+            // workers must find clean matrices, a lazy recompute would write shared ancestors
+            scene.updateTransforms();
+            SceneUpdater.instance().setSplitThreshold(Config.instance().getParallelSplitThreshold());
+            SceneUpdater.instance().update(scene);
+        } else {
+            scene.update();
+        }
         camera.update();
+
+        // rebuild cached world matrices of nodes moved this frame
+        scene.updateTransforms();
     }
 
     /**
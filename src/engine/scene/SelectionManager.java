@@ -2,16 +2,25 @@ package engine.scene;
 
 import lombok.Getter;
 import engine.scene.node.Node;
+import engine.scene.node.NodeRegistry;
 import engine.scene.node.RenderType;
 
+import engine.utils.TreeTraversal;
+
 import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class SelectionManager {
 
     @Getter private ArrayList<Node> selected;
 
-    public SelectionManager(){
+    private NodeRegistry registry;
+    private final TreeTraversal<Node> traversal = Node.traversal();
+
+    public SelectionManager(NodeRegistry registry){
+        this.registry = registry;
         selected = new ArrayList<>();
     }
 
@@ -25,6 +34,22 @@ public class SelectionManager {
         selected.remove(node);
     }
 
+    /**
+     * Selects the node with the given UUID
+     * @return false if no such node is in the scene
+     */
+    public boolean addSelection(int UUID){
+        Node node = registry.get(UUID);
+        if(node == null) return false;
+        if(!node.isSelected()) addSelection(node);
+        return true;
+    }
+
+    public void remove(int UUID){
+        Node node = registry.get(UUID);
+        if(node != null) remove(node);
+    }
+
     public void clear(){
         selected.forEach(e -> e.setSelected(false));
         selected.clear();
@@ -35,10 +60,23 @@ public class SelectionManager {
     }
 
     public void renderSelected(RenderType type){
-        stream().forEach(e -> e.render(type));
+        for(int i = 0; i < selected.size(); i++)
+            selected.get(i).render(type);
+    }
+
+    public void renderSelected(RenderType type, Predicate<Node> condition){
+        for(int i = 0; i < selected.size(); i++){
+            Node node = selected.get(i);
+            if(condition.test(node)) node.render(type, condition);
+        }
     }
 
-    public void renderSelected(RenderType type, Node.Condition condition){
-        stream().forEach(e -> {if(condition.isvalid(e))e.render(type, condition);});
+    /**
+     * Walks the subtrees of all selected nodes
+     * @param descend pruning predicate, see TreeTraversal
+     */
+    public void forEachSelected(Predicate<Node> descend, Consumer<Node> visitor){
+        for(int i = 0; i < selected.size(); i++)
+            traversal.depthFirst(selected.get(i), descend, visitor);
     }
 }
@@ -29,8 +29,8 @@ public class DirectionalLight extends Light {
     }
 
     @Override
-    public void update(){
-        super.update();
+    protected void updateSelf(){
+        super.updateSelf();
         Vector3f rot = new Vector3f(getWorldRotation()).normalize();
         lightView = new Matrix4f().lookAt(
               rot, new Vector3f(0,0,0),
@@ -18,11 +18,11 @@ public class PointLight extends Light {
         super();
 
         RenderModule debugRenderer = new RenderModule(
-                LightOverlayShader.instance(), Meshs.cube
+                LightOverlayShader.instance(), Meshs.cube()
         );
 
         RenderModule UUIDrenderer = new RenderModule(
-                UUIDShader.instance(), Meshs.cube
+                UUIDShader.instance(), Meshs.cube()
         );
         addModule(RenderType.TYPE_OVERLAY, debugRenderer);
         addModule(RenderType.TYPE_UUID, UUIDrenderer);
@@ -0,0 +1,811 @@
+package engine.scene.node;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.joml.AABBf;
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Vector2f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BoundingVolumeHierarchy {
+
+    /**
+     * Spatial index over every node below root that has world bounds
+     * (PBRModels and other geometry carrying ModuleNodes).
+     *
+     * The tree is built top-down with a binned surface area heuristic and
+     * stored in flat arrays. After that it is kept up to date in place: moved
+     * nodes only refit their leaf and its ancestors, added nodes are inserted
+     * next to the sibling that grows the tree the least and removed nodes
+     * take their leaf out once it is empty. Because this slowly degrades the
+     * tree, it is rebuilt once its SAH cost grows by more than
+     * rebuildThreshold relative to the last build.
+     *
+     * Nodes registered here notify the index from invalidateTransform and
+     * setParent, update() must be called once per frame after transforms
+     * were propagated.
+     */
+
+    private static final int BINS = 16;
+    private static final int LEAF_SIZE = 4;
+
+    // traversal cost relative to a box test, used by the SAH
+    private static final float TRAVERSAL_COST = 1f;
+
+    private final Node root;
+
+    // indexed scene nodes, reordered so every leaf covers a contiguous range.
+    // Removed nodes leave holes until the next rebuild, inserted ones are appended
+    private Node[] items = new Node[0];
+    private float[] itemBounds = new float[0];
+    private float[] centroids = new float[0];
+    private int[] leafOf = new int[0];
+    private boolean[] movedItems = new boolean[0];
+    @Getter private int itemCount;
+    private int slotCount;
+
+    // tree nodes: 6 floats of bounds each, leaves have count > 0
+    private float[] bounds = new float[0];
+    private int[] left = new int[0], right = new int[0], parent = new int[0];
+    private int[] first = new int[0], count = new int[0];
+    @Getter private int nodeCount;
+    private int rootNode = -1, nodeEnd;
+    private int[] freeNodes = new int[0];
+    private int freeCount;
+
+    private int[] stack = new int[64];
+    private int[] order = new int[0];
+
+    // nodes added to the graph since the last update, and indexed ones without bounds yet
+    private final ArrayList<Node> pending = new ArrayList<>();
+    private final ArrayList<Node> unbounded = new ArrayList<>();
+
+    private boolean structureChanged = true;
+    private boolean moved, unboundedMoved;
+
+    // SAH cost not yet divided by the root's area, kept up to date by every change
+    private double weightedArea;
+    private float builtCost;
+    @Getter private float cost;
+    @Getter @Setter private float rebuildThreshold = 1.5f;
+
+    // statistics
+    @Getter private int rebuilds, refits, inserts, removals;
+
+    // build scratch
+    private final float[] binBounds = new float[BINS * 6];
+    private final int[] binCounts = new int[BINS];
+    private final float[] rightAreas = new float[BINS];
+    private final int[] rightCounts = new int[BINS];
+    private final float[] sweepBounds = new float[6];
+
+    public BoundingVolumeHierarchy(Node root){
+        this.root = root;
+    }
+
+    /**
+     * Only sets flags, so nodes may move from parallel updates
+     */
+    void markMoved(Node node){
+        if(node.spatialSlot >= 0)
+            movedItems[node.spatialSlot] = true;
+        else
+            unboundedMoved = true;
+        moved = true;
+
+        // nodes in a TransformStore do not invalidate their children themselves
+        if(node.store != null)
+            for(Node child: node.getChildren())
+                if(child.spatialIndex == this) markMoved(child);
+    }
+
+    /**
+     * Registers node and its subtree, they are inserted on the next update
+     * once their transforms were propagated
+     */
+    void add(Node node){
+        node.spatialIndex = this;
+        if(!structureChanged)
+            pending.add(node);
+        for(Node child: node.getChildren())
+            add(child);
+    }
+
+    /**
+     * Takes node and its subtree out of the tree right away
+     */
+    void remove(Node node){
+        if(node.spatialIndex != this) return;
+        node.spatialIndex = null;
+        if(node.spatialSlot >= 0)
+            removeItem(node.spatialSlot);
+        for(Node child: node.getChildren())
+            remove(child);
+    }
+
+    /**
+     * Brings the tree up to date with the nodes added, removed or moved
+     * since the last call. Rebuilds it if it degraded too far
+     */
+    public void update(){
+        if(structureChanged) {
+            rebuild();
+            return;
+        }
+
+        boolean changed = false;
+        for(int i = 0; i < pending.size(); i++){
+            Node node = pending.get(i);
+            if(node.spatialIndex != this || node.spatialSlot >= 0) continue;
+            if(node.getWorldBounds() == null)
+                unbounded.add(node);
+            else
+                insertItem(node);
+            changed = true;
+        }
+        pending.clear();
+
+        // nodes whose mesh was still loading get their bounds later
+        if(unboundedMoved) {
+            for(int i = unbounded.size() - 1; i >= 0; i--){
+                Node node = unbounded.get(i);
+                if(node.spatialIndex != this || node.spatialSlot >= 0) {
+                    unbounded.remove(i);
+                } else if(node.getWorldBounds() != null) {
+                    unbounded.remove(i);
+                    insertItem(node);
+                    changed = true;
+                }
+            }
+            unboundedMoved = false;
+        }
+
+        if(moved) {
+            // a sweep over flags, the boxes of everything that did not move are left alone
+            for(int i = 0; i < slotCount; i++){
+                if(!movedItems[i]) continue;
+                movedItems[i] = false;
+                if(items[i] == null) continue;
+                loadItem(i);
+                refitUp(leafOf[i]);
+            }
+            moved = false;
+            changed = true;
+            refits++;
+        }
+
+        if(changed) {
+            cost = currentCost();
+            if(cost > builtCost * rebuildThreshold || slotCount > 2 * itemCount + BINS * LEAF_SIZE)
+                rebuild();
+        }
+    }
+
+    /** BUILD **/      /** -------------------------------------------- **/
+
+    public void rebuild(){
+        release(root);
+        for(int i = 0; i < slotCount; i++)
+            items[i] = null;
+        itemCount = 0;
+        pending.clear();
+        unbounded.clear();
+        gather(root);
+        slotCount = itemCount;
+
+        ensureSlots(itemCount);
+        for(int i = 0; i < itemCount; i++){
+            loadItem(i);
+            movedItems[i] = false;
+        }
+
+        ensureNodes(Math.max(1, 2 * itemCount));
+        nodeCount = nodeEnd = freeCount = 0;
+        rootNode = -1;
+        if(itemCount > 0) {
+            rootNode = allocNode();
+            parent[rootNode] = -1;
+            build(rootNode, 0, itemCount);
+        }
+        for(int i = 0; i < itemCount; i++)
+            items[i].spatialSlot = i;
+
+        weightedArea = computeWeightedArea();
+        cost = builtCost = currentCost();
+        structureChanged = false;
+        moved = unboundedMoved = false;
+        rebuilds++;
+    }
+
+    /**
+     * Unregisters every node below root, the index is rebuilt on the next update
+     */
+    public void detach(){
+        release(root);
+        for(int i = 0; i < slotCount; i++)
+            items[i] = null;
+        itemCount = slotCount = 0;
+        nodeCount = nodeEnd = freeCount = 0;
+        rootNode = -1;
+        pending.clear();
+        unbounded.clear();
+        structureChanged = true;
+    }
+
+    private void release(Node node){
+        node.spatialIndex = null;
+        node.spatialSlot = -1;
+        for(Node child: node.getChildren())
+            release(child);
+    }
+
+    private void gather(Node node){
+        node.spatialIndex = this;
+        if(node.getWorldBounds() != null) {
+            ensureSlots(itemCount + 1);
+            items[itemCount++] = node;
+        } else {
+            unbounded.add(node);
+        }
+        for(Node child: node.getChildren())
+            gather(child);
+    }
+
+    private void loadItem(int i){
+        AABBf box = items[i].getWorldBounds();
+        int o = i * 6;
+        itemBounds[o]   = box.minX; itemBounds[o+1] = box.minY; itemBounds[o+2] = box.minZ;
+        itemBounds[o+3] = box.maxX; itemBounds[o+4] = box.maxY; itemBounds[o+5] = box.maxZ;
+        centroids[i*3]   = (box.minX + box.maxX) * 0.5f;
+        centroids[i*3+1] = (box.minY + box.maxY) * 0.5f;
+        centroids[i*3+2] = (box.minZ + box.maxZ) * 0.5f;
+    }
+
+    private void build(int node, int start, int end){
+        int n = end - start;
+        fitItems(node, start, end);
+
+        if(n <= LEAF_SIZE) {
+            makeLeaf(node, start, n);
+            return;
+        }
+
+        // centroid bounds choose the binning range
+        float cminX = Float.POSITIVE_INFINITY, cminY = cminX, cminZ = cminX;
+        float cmaxX = Float.NEGATIVE_INFINITY, cmaxY = cmaxX, cmaxZ = cmaxX;
+        for(int i = start; i < end; i++){
+            float x = centroids[i*3], y = centroids[i*3+1], z = centroids[i*3+2];
+            if(x < cminX) cminX = x; if(x > cmaxX) cmaxX = x;
+            if(y < cminY) cminY = y; if(y > cmaxY) cmaxY = y;
+            if(z < cminZ) cminZ = z; if(z > cmaxZ) cmaxZ = z;
+        }
+
+        float bestCost = Float.POSITIVE_INFINITY;
+        int bestAxis = -1, bestSplit = -1;
+
+        for(int axis = 0; axis < 3; axis++){
+            float min = axis == 0 ? cminX : axis == 1 ? cminY : cminZ;
+            float max = axis == 0 ? cmaxX : axis == 1 ? cmaxY : cmaxZ;
+            if(max - min <= 1e-6f) continue;
+            float scale = BINS / (max - min);
+
+            Arrays.fill(binCounts, 0);
+            for(int b = 0; b < BINS; b++) resetBox(binBounds, b * 6);
+
+            for(int i = start; i < end; i++){
+                int b = Math.min(BINS - 1, (int)((centroids[i*3+axis] - min) * scale));
+                binCounts[b]++;
+                growBox(binBounds, b * 6, itemBounds, i * 6);
+            }
+
+            // sweep from the right to get areas of all right hand partitions
+            float[] acc = sweepBounds;
+            resetBox(acc, 0);
+            int accCount = 0;
+            for(int b = BINS - 1; b > 0; b--){
+                accCount += binCounts[b];
+                growBox(acc, 0, binBounds, b * 6);
+                rightCounts[b] = accCount;
+                rightAreas[b] = accCount > 0 ? area(acc, 0) : 0;
+            }
+
+            resetBox(acc, 0);
+            accCount = 0;
+            for(int b = 0; b < BINS - 1; b++){
+                accCount += binCounts[b];
+                growBox(acc, 0, binBounds, b * 6);
+                if(accCount == 0 || rightCounts[b+1] == 0) continue;
+                float c = accCount * area(acc, 0) + rightCounts[b+1] * rightAreas[b+1];
+                if(c < bestCost){
+                    bestCost = c;
+                    bestAxis = axis;
+                    bestSplit = b;
+                }
+            }
+        }
+
+        float leafCost = n * area(bounds, node * 6);
+        if(bestAxis < 0 || bestCost + TRAVERSAL_COST * area(bounds, node * 6) >= leafCost && n <= LEAF_SIZE * 4) {
+            if(bestAxis < 0 && n > LEAF_SIZE) {
+                // all centroids coincide, split in the middle
+                split(node, start, start + n / 2, end);
+            } else {
+                makeLeaf(node, start, n);
+            }
+            return;
+        }
+
+        float min = bestAxis == 0 ? cminX : bestAxis == 1 ? cminY : cminZ;
+        float max = bestAxis == 0 ? cmaxX : bestAxis == 1 ? cmaxY : cmaxZ;
+        float scale = BINS / (max - min);
+
+        // partition items in place
+        int i = start, j = end - 1;
+        while(i <= j){
+            int b = Math.min(BINS - 1, (int)((centroids[i*3+bestAxis] - min) * scale));
+            if(b <= bestSplit) i++;
+            else swap(i, j--);
+        }
+
+        int mid = i;
+        if(mid == start || mid == end) mid = start + n / 2;
+        split(node, start, mid, end);
+    }
+
+    private void split(int node, int start, int mid, int end){
+        int l = allocNode();
+        int r = allocNode();
+        left[node] = l;
+        right[node] = r;
+        parent[l] = parent[r] = node;
+        count[node] = 0;
+        build(l, start, mid);
+        build(r, mid, end);
+    }
+
+    private void makeLeaf(int node, int start, int n){
+        left[node] = -1;
+        right[node] = -1;
+        first[node] = start;
+        count[node] = n;
+        for(int i = start; i < start + n; i++)
+            leafOf[i] = node;
+    }
+
+    private void fitItems(int node, int start, int end){
+        int o = node * 6;
+        resetBox(bounds, o);
+        for(int i = start; i < end; i++)
+            growBox(bounds, o, itemBounds, i * 6);
+    }
+
+    private void swap(int a, int b){
+        Node n = items[a]; items[a] = items[b]; items[b] = n;
+        for(int k = 0; k < 6; k++){
+            float t = itemBounds[a*6+k]; itemBounds[a*6+k] = itemBounds[b*6+k]; itemBounds[b*6+k] = t;
+        }
+        for(int k = 0; k < 3; k++){
+            float t = centroids[a*3+k]; centroids[a*3+k] = centroids[b*3+k]; centroids[b*3+k] = t;
+        }
+        boolean m = movedItems[a]; movedItems[a] = movedItems[b]; movedItems[b] = m;
+    }
+
+    private int allocNode(){
+        int node = freeCount > 0 ? freeNodes[--freeCount] : nodeEnd++;
+        ensureNodes(nodeEnd);
+        nodeCount++;
+        return node;
+    }
+
+    private void freeNode(int node){
+        if(freeCount == freeNodes.length)
+            freeNodes = Arrays.copyOf(freeNodes, Math.max(16, freeCount * 2));
+        freeNodes[freeCount++] = node;
+        count[node] = 0;
+        left[node] = right[node] = parent[node] = -1;
+        nodeCount--;
+    }
+
+    private void ensureNodes(int capacity){
+        if(left.length >= capacity) return;
+        capacity = Math.max(capacity, left.length * 2);
+        bounds = Arrays.copyOf(bounds, capacity * 6);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        first = Arrays.copyOf(first, capacity);
+        count = Arrays.copyOf(count, capacity);
+    }
+
+    private void ensureSlots(int capacity){
+        if(items.length >= capacity) return;
+        capacity = Math.max(Math.max(16, capacity), items.length * 2);
+        items = Arrays.copyOf(items, capacity);
+        itemBounds = Arrays.copyOf(itemBounds, capacity * 6);
+        centroids = Arrays.copyOf(centroids, capacity * 3);
+        leafOf = Arrays.copyOf(leafOf, capacity);
+        movedItems = Arrays.copyOf(movedItems, capacity);
+    }
+
+    /** INSERT / REMOVE **/      /** -------------------------------------------- **/
+
+    /**
+     * Appends node to the items and hangs a leaf for it next to the
+     * sibling whose new parent adds the least surface area, walking down
+     * from the root. Consecutive inserts close to each other share a leaf
+     */
+    private void insertItem(Node node){
+        int slot = slotCount++;
+        ensureSlots(slotCount);
+        items[slot] = node;
+        node.spatialSlot = slot;
+        movedItems[slot] = false;
+        loadItem(slot);
+        itemCount++;
+        inserts++;
+
+        if(rootNode < 0) {
+            rootNode = newLeaf(slot);
+            parent[rootNode] = -1;
+            return;
+        }
+
+        int sibling = findSibling(slot * 6);
+        if(count[sibling] > 0 && count[sibling] < LEAF_SIZE && first[sibling] + count[sibling] == slot) {
+            weightedArea += area(bounds, sibling * 6);
+            count[sibling]++;
+            leafOf[slot] = sibling;
+            refitUp(sibling);
+            return;
+        }
+
+        int leaf = newLeaf(slot);
+        int joint = allocNode(), grand = parent[sibling];
+        left[joint] = sibling;
+        right[joint] = leaf;
+        count[joint] = 0;
+        parent[joint] = grand;
+        parent[sibling] = parent[leaf] = joint;
+        resetBox(bounds, joint * 6);
+        growBox(bounds, joint * 6, bounds, sibling * 6);
+        growBox(bounds, joint * 6, bounds, leaf * 6);
+        weightedArea += area(bounds, joint * 6) * TRAVERSAL_COST;
+
+        if(grand < 0) {
+            rootNode = joint;
+        } else {
+            if(left[grand] == sibling) left[grand] = joint;
+            else right[grand] = joint;
+            refitUp(grand);
+        }
+    }
+
+    private int newLeaf(int slot){
+        int leaf = allocNode();
+        makeLeaf(leaf, slot, 1);
+        fitItems(leaf, slot, slot + 1);
+        weightedArea += area(bounds, leaf * 6);
+        return leaf;
+    }
+
+    /**
+     * Branch and bound free descent: a new parent above a node costs the
+     * area of its union with the item, going further down also pays for
+     * the growth of the node itself
+     */
+    private int findSibling(int io){
+        int node = rootNode;
+        while(count[node] == 0){
+            float union = unionArea(node * 6, io);
+            float direct = 2 * union;
+            float inherited = 2 * (union - area(bounds, node * 6));
+            float costLeft = descentCost(left[node], io) + inherited;
+            float costRight = descentCost(right[node], io) + inherited;
+            if(direct <= costLeft && direct <= costRight) break;
+            node = costLeft < costRight ? left[node] : right[node];
+        }
+        return node;
+    }
+
+    private float descentCost(int node, int io){
+        float union = unionArea(node * 6, io);
+        return count[node] > 0 ? 2 * union : 2 * (union - area(bounds, node * 6));
+    }
+
+    private float unionArea(int o, int io){
+        float dx = Math.max(bounds[o+3], itemBounds[io+3]) - Math.min(bounds[o], itemBounds[io]);
+        float dy = Math.max(bounds[o+4], itemBounds[io+4]) - Math.min(bounds[o+1], itemBounds[io+1]);
+        float dz = Math.max(bounds[o+5], itemBounds[io+5]) - Math.min(bounds[o+2], itemBounds[io+2]);
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Swaps the item to the end of its leaf's range and shrinks the range,
+     * an emptied leaf is unlinked and its sibling takes the parent's place
+     */
+    private void removeItem(int slot){
+        int leaf = leafOf[slot];
+        int last = first[leaf] + count[leaf] - 1;
+        if(slot != last) {
+            swap(slot, last);
+            items[slot].spatialSlot = slot;
+        }
+        items[last].spatialSlot = -1;
+        items[last] = null;
+        movedItems[last] = false;
+        if(last == slotCount - 1)
+            slotCount--;
+        itemCount--;
+        removals++;
+
+        weightedArea -= area(bounds, leaf * 6);
+        if(--count[leaf] > 0) {
+            refitUp(leaf);
+            return;
+        }
+
+        int up = parent[leaf];
+        freeNode(leaf);
+        if(up < 0) {
+            rootNode = -1;
+            return;
+        }
+        int sibling = left[up] == leaf ? right[up] : left[up];
+        int grand = parent[up];
+        weightedArea -= area(bounds, up * 6) * TRAVERSAL_COST;
+        freeNode(up);
+        parent[sibling] = grand;
+        if(grand < 0) {
+            rootNode = sibling;
+        } else {
+            if(left[grand] == up) left[grand] = sibling;
+            else right[grand] = sibling;
+            refitUp(grand);
+        }
+    }
+
+    /** REFIT **/      /** -------------------------------------------- **/
+
+    /**
+     * Recomputes all boxes from the current world bounds of the indexed
+     * nodes. Nodes are listed parent before children, so a reverse sweep
+     * of the list visits the children first
+     */
+    public void refit(){
+        for(int i = 0; i < slotCount; i++){
+            movedItems[i] = false;
+            if(items[i] != null) loadItem(i);
+        }
+        moved = false;
+
+        if(order.length < nodeCount)
+            order = new int[left.length];
+        int n = 0;
+        if(rootNode >= 0) {
+            int top = push(rootNode, 0);
+            while(top > 0){
+                int node = stack[--top];
+                order[n++] = node;
+                if(count[node] == 0) {
+                    top = push(left[node], top);
+                    top = push(right[node], top);
+                }
+            }
+        }
+        for(int i = n - 1; i >= 0; i--)
+            fitNode(order[i]);
+
+        weightedArea = computeWeightedArea();
+        cost = currentCost();
+        refits++;
+    }
+
+    /**
+     * Refits node and its ancestors, stopping at the first box that did not change
+     */
+    private void refitUp(int node){
+        float[] old = sweepBounds;
+        while(node >= 0){
+            int o = node * 6;
+            System.arraycopy(bounds, o, old, 0, 6);
+            float before = area(bounds, o);
+            fitNode(node);
+            weightedArea += (area(bounds, o) - before) * (count[node] > 0 ? count[node] : TRAVERSAL_COST);
+            if(old[0] == bounds[o] && old[1] == bounds[o+1] && old[2] == bounds[o+2]
+                    && old[3] == bounds[o+3] && old[4] == bounds[o+4] && old[5] == bounds[o+5])
+                return;
+            node = parent[node];
+        }
+    }
+
+    private void fitNode(int node){
+        int o = node * 6;
+        if(count[node] > 0){
+            fitItems(node, first[node], first[node] + count[node]);
+        } else {
+            resetBox(bounds, o);
+            growBox(bounds, o, bounds, left[node] * 6);
+            growBox(bounds, o, bounds, right[node] * 6);
+        }
+    }
+
+    /**
+     * Surface area of every tree node weighted by its items for leaves
+     * and by TRAVERSAL_COST for inner nodes
+     */
+    private double computeWeightedArea(){
+        if(rootNode < 0) return 0;
+        double sum = 0;
+        int top = push(rootNode, 0);
+        while(top > 0){
+            int node = stack[--top];
+            float a = area(bounds, node * 6);
+            if(count[node] > 0) {
+                sum += a * count[node];
+            } else {
+                sum += a * TRAVERSAL_COST;
+                top = push(left[node], top);
+                top = push(right[node], top);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * SAH cost of the whole tree relative to the root's surface area
+     */
+    private float currentCost(){
+        if(rootNode < 0) return 0;
+        return (float)(weightedArea / Math.max(area(bounds, rootNode * 6), 1e-12f));
+    }
+
+    /** QUERIES **/      /** -------------------------------------------- **/
+
+    /**
+     * Collects every indexed node whose bounds intersect the frustum
+     */
+    public List<Node> query(FrustumIntersection frustum, List<Node> out){
+        if(rootNode < 0) return out;
+        int top = push(rootNode, 0);
+        while(top > 0){
+            int node = stack[--top];
+            int o = node * 6;
+            if(!frustum.testAab(bounds[o], bounds[o+1], bounds[o+2], bounds[o+3], bounds[o+4], bounds[o+5]))
+                continue;
+            if(count[node] > 0) {
+                for(int i = first[node]; i < first[node] + count[node]; i++){
+                    int io = i * 6;
+                    if(frustum.testAab(itemBounds[io], itemBounds[io+1], itemBounds[io+2],
+                            itemBounds[io+3], itemBounds[io+4], itemBounds[io+5]))
+                        out.add(items[i]);
+                }
+            } else {
+                top = push(left[node], top);
+                top = push(right[node], top);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Collects every indexed node whose bounds overlap the given box
+     */
+    public List<Node> query(AABBf box, List<Node> out){
+        if(rootNode < 0) return out;
+        int top = push(rootNode, 0);
+        while(top > 0){
+            int node = stack[--top];
+            if(!overlaps(bounds, node * 6, box)) continue;
+            if(count[node] > 0) {
+                for(int i = first[node]; i < first[node] + count[node]; i++)
+                    if(overlaps(itemBounds, i * 6, box)) out.add(items[i]);
+            } else {
+                top = push(left[node], top);
+                top = push(right[node], top);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Collects every indexed node whose bounds intersect the sphere
+     */
+    public List<Node> query(float x, float y, float z, float radius, List<Node> out){
+        if(rootNode < 0) return out;
+        float r2 = radius * radius;
+        int top = push(rootNode, 0);
+        while(top > 0){
+            int node = stack[--top];
+            if(distanceSquared(bounds, node * 6, x, y, z) > r2) continue;
+            if(count[node] > 0) {
+                for(int i = first[node]; i < first[node] + count[node]; i++)
+                    if(distanceSquared(itemBounds, i * 6, x, y, z) <= r2) out.add(items[i]);
+            } else {
+                top = push(left[node], top);
+                top = push(right[node], top);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Collects every indexed node whose bounds are hit by the ray within maxDistance
+     * @param dirX ray direction, does not need to be normalized (distance is in units of it)
+     */
+    public List<Node> raycast(float originX, float originY, float originZ,
+                              float dirX, float dirY, float dirZ, float maxDistance, List<Node> out){
+        if(rootNode < 0) return out;
+        Vector2f hit = new Vector2f();
+        int top = push(rootNode, 0);
+        while(top > 0){
+            int node = stack[--top];
+            int o = node * 6;
+            if(!Intersectionf.intersectRayAab(originX, originY, originZ, dirX, dirY, dirZ,
+                    bounds[o], bounds[o+1], bounds[o+2], bounds[o+3], bounds[o+4], bounds[o+5], hit)
+                    || hit.x > maxDistance)
+                continue;
+            if(count[node] > 0) {
+                for(int i = first[node]; i < first[node] + count[node]; i++){
+                    int io = i * 6;
+                    if(Intersectionf.intersectRayAab(originX, originY, originZ, dirX, dirY, dirZ,
+                            itemBounds[io], itemBounds[io+1], itemBounds[io+2],
+                            itemBounds[io+3], itemBounds[io+4], itemBounds[io+5], hit)
+                            && hit.x <= maxDistance)
+                        out.add(items[i]);
+                }
+            } else {
+                top = push(left[node], top);
+                top = push(right[node], top);
+            }
+        }
+        return out;
+    }
+
+    private int push(int node, int top){
+        if(top == stack.length)
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[top] = node;
+        return top + 1;
+    }
+
+    /** BOX HELPERS **/      /** -------------------------------------------- **/
+
+    private static void resetBox(float[] b, int o){
+        b[o] = b[o+1] = b[o+2] = Float.POSITIVE_INFINITY;
+        b[o+3] = b[o+4] = b[o+5] = Float.NEGATIVE_INFINITY;
+    }
+
+    // plain comparisons, Math.min/max on floats are not intrinsified and dominate the build
+    private static void growBox(float[] b, int o, float[] src, int so){
+        if(src[so]   < b[o])   b[o]   = src[so];
+        if(src[so+1] < b[o+1]) b[o+1] = src[so+1];
+        if(src[so+2] < b[o+2]) b[o+2] = src[so+2];
+        if(src[so+3] > b[o+3]) b[o+3] = src[so+3];
+        if(src[so+4] > b[o+4]) b[o+4] = src[so+4];
+        if(src[so+5] > b[o+5]) b[o+5] = src[so+5];
+    }
+
+    private static float area(float[] b, int o){
+        float dx = b[o+3] - b[o], dy = b[o+4] - b[o+1], dz = b[o+5] - b[o+2];
+        if(dx < 0 || dy < 0 || dz < 0) return 0;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private static boolean overlaps(float[] b, int o, AABBf box){
+        return b[o] <= box.maxX && b[o+3] >= box.minX
+                && b[o+1] <= box.maxY && b[o+4] >= box.minY
+                && b[o+2] <= box.maxZ && b[o+5] >= box.minZ;
+    }
+
+    private static float distanceSquared(float[] b, int o, float x, float y, float z){
+        float dx = Math.max(Math.max(b[o] - x, 0), x - b[o+3]);
+        float dy = Math.max(Math.max(b[o+1] - y, 0), y - b[o+4]);
+        float dz = Math.max(Math.max(b[o+2] - z, 0), z - b[o+5]);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+}
@@ -9,6 +9,20 @@ public class Module {
     @Getter @Setter
     private ModuleNode parent;
 
+    /**
+     * Modules that touch OpenGL or state shared outside of their node
+     * must set this, their update() is then always deferred to the main thread
+     */
+    @Getter @Setter
+    private boolean mainThreadOnly = false;
+
+    /**
+     * Called once per frame after the parent's children were updated.
+     * With parallel updates enabled this runs on a ForkJoinPool worker, unless
+     * mainThreadOnly is set. It may only modify the parent node and its subtree.
+     * Transforms are propagated before, so it may read any node's matrix,
+     * see SceneUpdater for why moving nodes outside the subtree is not allowed.
+     */
     public void update(){}
     public void render(){}
     public void cleanup(){}
@@ -4,6 +4,7 @@ import lombok.Getter;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Predicate;
 
 public class ModuleNode extends Node {
 
@@ -16,9 +17,15 @@ public class ModuleNode extends Node {
 
     }
 
-    public void update(){
-        super.update();
-        modules.values().forEach(e->e.update());
+    @Override
+    protected void updateSelf(){
+        super.updateSelf();
+        for(Module module: modules.values()) {
+            if(module.isMainThreadOnly() && SceneUpdater.isWorkerThread())
+                SceneUpdater.instance().defer(module);
+            else
+                module.update();
+        }
     }
 
     public void render(RenderType type){
@@ -28,7 +35,7 @@ public class ModuleNode extends Node {
         super.render(type);
     }
 
-    public void render(RenderType type, Condition condition) {
+    public void render(RenderType type, Predicate<Node> condition) {
         if(modules.containsKey(type)){
             modules.get(type).render();
         }
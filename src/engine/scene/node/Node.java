@@ -2,13 +2,16 @@
 
 import lombok.Getter;
 import lombok.Setter;
+import org.joml.AABBf;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import engine.utils.TreeTraversal;
 import engine.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
  public class Node {
@@ -19,34 +22,165 @@ import java.util.stream.Stream;
     @Getter @Setter private boolean selected = false;
     @Getter @Setter private boolean hidden = false;
 
+    // never moves, baked into the scene's StaticBatcher if it has one
+    private boolean staticGeometry = false;
+
     @Setter private String debugName;
 
-    @Getter @Setter private Node parent;
+    @Getter private Node parent;
     @Getter private List<Node> children;
 
     @Getter public Transform transform;
 
+    /**
+     * Cached world space transform. Rebuilt only when this node or one
+     * of its ancestors had its transform changed (see invalidateTransform)
+     */
+    private final Vector3f worldTranslation, worldRotation, worldScaling;
+    private final Matrix4f localMatrix, modelMatrix;
+    @Getter private boolean transformDirty = true;
+
+    // world space box of this node's geometry, see getWorldBounds
+    private AABBf worldBounds;
+    private Vector3f boundsMin, boundsMax;
+    private boolean boundsDirty = true;
+
+    // number of nodes in this subtree including itself, used to split parallel updates
+    @Getter private int subtreeSize = 1;
+
+    // set while this node is a handle into a TransformStore
+    TransformStore store;
+    int storeSlot = -1;
+
+    // set while this node is part of a BoundingVolumeHierarchy, slot is -1 until it has bounds
+    BoundingVolumeHierarchy spatialIndex;
+    int spatialSlot = -1;
+
+    // set while this node is part of a scene's NodeRegistry
+    NodeRegistry registry;
+
     public Node() {
         super();
         UUID = Utils.generateNewUUID_3D();
         this.transform = new Transform();
+        this.transform.setOwner(this);
         this.children = new ArrayList<>();
+
+        this.worldTranslation = new Vector3f();
+        this.worldRotation = new Vector3f();
+        this.worldScaling = new Vector3f(1);
+        this.localMatrix = new Matrix4f();
+        this.modelMatrix = new Matrix4f();
     }
 
+    /**
+     * Cached world matrix of this node. Recomputed lazily if the node is dirty
+     * and was not reached by updateTransforms() this frame.
+     * The returned matrix is owned by the node and must not be modified.
+     * @return world matrix
+     */
     public Matrix4f getModelMatrix(){
-        Matrix4f ret = new Matrix4f();
-        Vector3f rotate = getWorldRotation();
-        ret.identity().translate(getWorldTranslation())
-                .scale(getWorldScaling())
-                .rotateX((float)Math.toRadians(-rotate.x))
-                .rotateY((float)Math.toRadians(-rotate.y))
-                .rotateZ((float)Math.toRadians(-rotate.z));
-        return ret;
+        if(store != null) return store.getModelMatrix(storeSlot, modelMatrix);
+        if(transformDirty) recomputeTransform();
+        return modelMatrix;
+    }
+
+    /**
+     * Local matrix of this node, built from its own transform only
+     * @return local matrix, owned by the node
+     */
+    public Matrix4f getLocalMatrix(){
+        if(store != null) buildLocalMatrix();
+        else if(transformDirty) recomputeTransform();
+        return localMatrix;
+    }
+
+    /**
+     * Object space bounds of the geometry drawn by this node itself,
+     * not including children. Nodes without geometry return null
+     */
+    public AABBf getLocalBounds(){
+        return null;
+    }
+
+    /**
+     * World space axis aligned box of getLocalBounds(), cached until the
+     * node's transform changes
+     * @return world bounds, null if this node has no geometry
+     */
+    public AABBf getWorldBounds(){
+        AABBf local = getLocalBounds();
+        if(local == null) return null;
+
+        if(worldBounds == null){
+            worldBounds = new AABBf();
+            boundsMin = new Vector3f();
+            boundsMax = new Vector3f();
+        }
+
+        if(boundsDirty || transformDirty || store != null){
+            getModelMatrix().transformAab(local.minX, local.minY, local.minZ,
+                    local.maxX, local.maxY, local.maxZ, boundsMin, boundsMax);
+            worldBounds.setMin(boundsMin).setMax(boundsMax);
+            boundsDirty = false;
+        }
+        return worldBounds;
+    }
+
+    public void setParent(Node parent) {
+        if(store != null) store.invalidateLayout();
+        if(parent != null && parent.store != null) parent.store.invalidateLayout();
+        // re-parented nodes are inserted again next to their new neighbours
+        if(spatialIndex != null) spatialIndex.remove(this);
+        if(parent != null && parent.spatialIndex != null) parent.spatialIndex.add(this);
+
+        if(registry != null && (parent == null || parent.registry != registry))
+            registry.unregister(this);
+        if(parent != null && parent.registry != null)
+            parent.registry.register(this);
+
+        if(parent == null)
+            leaveScene();
+        this.parent = parent;
+        invalidateTransform();
+    }
+
+    /**
+     * Releases this subtree from the scene wide backends after it was detached
+     */
+    private void leaveScene(){
+        store = null;
+        storeSlot = -1;
+        spatialIndex = null;
+        transformDirty = true;
+        for(Node child: children)
+            child.leaveScene();
     }
 
     public void addChild(Node child) {
+        child.detach();
         child.setParent(this);
         children.add(child);
+        growSubtree(child.subtreeSize);
+    }
+
+    /**
+     * Detaches child and its subtree from this node and from the scene's
+     * registry, transform store and spatial index
+     */
+    public void removeChild(Node child) {
+        if(!children.remove(child)) return;
+        growSubtree(-child.subtreeSize);
+        child.setParent(null);
+    }
+
+    /**
+     * Takes this node out of its current parent's children and subtree size
+     * before it is re-parented, the scene backends are updated by setParent
+     */
+    private void detach(){
+        if(parent == null || !parent.children.remove(this)) return;
+        parent.growSubtree(-subtreeSize);
     }
 
     public String getName(){
@@ -58,62 +192,177 @@ import java.util.stream.Stream;
     }
 
     public void addChildren(Node... children){
-        getChildren().addAll(Arrays.asList(children));
         for(Node child: children)
+            child.detach();
+        getChildren().addAll(Arrays.asList(children));
+        for(Node child: children) {
             child.setParent(this);
+            growSubtree(child.subtreeSize);
+        }
+    }
+
+    private void growSubtree(int amount){
+        for(Node node = this; node != null; node = node.parent)
+            node.subtreeSize += amount;
     }
 
     public Vector3f getWorldTranslation(){
-        if(parent != null) {
-            return transform.getTranslation().add(parent.getWorldTranslation());
-        } else {
-            return transform.getTranslation();
-        }
+        if(store != null) return store.getWorldTranslation(storeSlot, new Vector3f());
+        if(transformDirty) recomputeTransform();
+        return new Vector3f(worldTranslation);
     }
 
     public Vector3f getWorldRotation(){
-        if(parent != null) {
-            return transform.getRotation().add( parent.getWorldRotation());
-        } else {
-            return transform.getRotation();
-        }
+        if(store != null) return store.getWorldRotation(storeSlot, new Vector3f());
+        if(transformDirty) recomputeTransform();
+        return new Vector3f(worldRotation);
     }
 
     public Vector3f getWorldScaling(){
-        if(parent != null) {
-            return transform.getScaling().mul(parent.getWorldScaling());
+        if(store != null) return store.getWorldScaling(storeSlot, new Vector3f());
+        if(transformDirty) recomputeTransform();
+        return new Vector3f(worldScaling);
+    }
+
+    /**
+     * Marks this node and its whole subtree as needing a new world matrix.
+     * A dirty node always has a dirty subtree, so propagation stops early
+     * at nodes that are already dirty. Nodes backed by a TransformStore only
+     * flag their own slot, the store sweep handles the subtree.
+     */
+    public void invalidateTransform() {
+        if(spatialIndex != null) spatialIndex.markMoved(this);
+        if((staticGeometry || store != null) && registry != null && registry.staticBatcher != null)
+            registry.staticBatcher.markMoved(this);
+        if(store != null) {
+            store.markDirty(storeSlot);
+            return;
+        }
+        if(transformDirty) return;
+        transformDirty = true;
+        for(Node child: children)
+            child.invalidateTransform();
+    }
+
+    /**
+     * Single top-down pass that rebuilds the cached matrices of every dirty
+     * node in this subtree. Called once per frame before rendering.
+     */
+    public void updateTransforms() {
+        if(transformDirty) recomputeTransform();
+        for(int i = 0; i < children.size(); i++)
+            children.get(i).updateTransforms();
+    }
+
+    private void recomputeTransform() {
+        if(parent != null && parent.store == null && parent.transformDirty)
+            parent.recomputeTransform();
+
+        Transform t = transform;
+        if(parent != null && parent.store != null) {
+            // parent lives in a store, this node was added since its last rebuild
+            parent.store.getWorldTranslation(parent.storeSlot, worldTranslation).add(t.translation);
+            parent.store.getWorldRotation(parent.storeSlot, worldRotation).add(t.rotation);
+            parent.store.getWorldScaling(parent.storeSlot, worldScaling).mul(t.scaling);
+        } else if(parent != null) {
+            t.translation.add(parent.worldTranslation, worldTranslation);
+            t.rotation.add(parent.worldRotation, worldRotation);
+            t.scaling.mul(parent.worldScaling, worldScaling);
         } else {
-            return transform.getScaling();
+            worldTranslation.set(t.translation);
+            worldRotation.set(t.rotation);
+            worldScaling.set(t.scaling);
         }
+
+        buildLocalMatrix();
+
+        modelMatrix.translation(worldTranslation)
+                .scale(worldScaling)
+                .rotateX((float)Math.toRadians(-worldRotation.x))
+                .rotateY((float)Math.toRadians(-worldRotation.y))
+                .rotateZ((float)Math.toRadians(-worldRotation.z));
+
+        transformDirty = false;
+        boundsDirty = true;
+    }
+
+    private void buildLocalMatrix() {
+        Transform t = transform;
+        localMatrix.translation(t.translation)
+                .scale(t.scaling)
+                .rotateX((float)Math.toRadians(-t.rotation.x))
+                .rotateY((float)Math.toRadians(-t.rotation.y))
+                .rotateZ((float)Math.toRadians(-t.rotation.z));
     }
 
+    /**
+     * @return new list of this node and its whole subtree in pre-order
+     */
     public ArrayList<Node> collect(){
-        ArrayList<Node> ret = new ArrayList<>();
-        ret.add(this);
-        for(Node child: children)
-            ret.addAll(child.collect());
-        return ret;
+        return collect(new ArrayList<>(subtreeSize));
+    }
+
+    /**
+     * Adds this node and its whole subtree to out in pre-order. For
+     * filtered walks use a TreeTraversal (see traversal())
+     */
+    public <L extends List<? super Node>> L collect(L out){
+        out.add(this);
+        for(int i = 0; i < children.size(); i++)
+            children.get(i).collect(out);
+        return out;
+    }
+
+    /**
+     * New reusable depth/breadth first walker over scenegraph nodes
+     */
+    public static TreeTraversal<Node> traversal(){
+        return new TreeTraversal<>(Node::getChildren);
     }
 
+    /**
+     * Updates all activated children, then this node (see updateSelf).
+     *
+     * With parallel updates enabled (SceneUpdater), sibling subtrees may be updated
+     * concurrently on worker threads. An update may only modify its own node and
+     * that node's subtree, all children are finished before updateSelf runs.
+     */
     public void update() {
-        for(Node child: children)
+        for(int i = 0; i < children.size(); i++){
+            Node child = children.get(i);
             if (child.isActivated()) child.update();
+        }
+        updateSelf();
     }
 
+    /**
+     * Per node update logic, called after the children were updated.
+     * May run on a worker thread, see update()
+     */
+    protected void updateSelf() {}
+
     public void render(RenderType type) {
-        for(Node child: children)
+        for(int i = 0; i < children.size(); i++){
+            Node child = children.get(i);
             if (child.isActivated()&&!child.isHidden()) child.render(type);
+        }
     }
 
-     public void render(RenderType type, Condition condition) {
-         for(Node child: children) {
-             if (child.isActivated() && condition.isvalid(child))
+    /**
+     * Renders the subtree, skipping every child (and its subtree) that
+     * is deactivated or fails the pruning predicate
+     */
+     public void render(RenderType type, Predicate<Node> condition) {
+         for(int i = 0; i < children.size(); i++){
+             Node child = children.get(i);
+             if (child.isActivated() && condition.test(child))
                  child.render(type, condition);
          }
      }
 
     public void cleanup() {
         children.forEach(child -> child.cleanup());
+        if(registry != null) registry.unregister(this);
     }
 
     public boolean isActivated(){
@@ -128,14 +377,29 @@ import java.util.stream.Stream;
         activated = false;
     }
 
+    public boolean isStatic(){
+        return staticGeometry;
+    }
+
+    /**
+     * Marks this node and its current subtree as static geometry that does
+     * not move after being set up. With static batching enabled their
+     * meshes are merged into a few large draws (see StaticBatcher). Children
+     * added later are not static unless marked themselves.
+     */
+    public void setStatic(boolean isStatic){
+        if(staticGeometry != isStatic){
+            staticGeometry = isStatic;
+            StaticBatcher batcher = registry == null ? null : registry.staticBatcher;
+            if(batcher != null && isStatic) batcher.add(this);
+            else if(batcher != null) batcher.remove(this);
+        }
+        for(Node child: children) child.setStatic(isStatic);
+    }
+
     public void setSelected(boolean selected){
         this.selected = selected;
         for(Node child: children) child.setSelected(selected);
     }
 
-    @FunctionalInterface
-    public interface Condition {
-        boolean isvalid(Node node);
-    }
-
 }
\ No newline at end of file
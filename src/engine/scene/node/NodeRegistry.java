@@ -0,0 +1,72 @@
+package engine.scene.node;
+
+import engine.utils.IntMap;
+
+public class NodeRegistry {
+
+    /**
+     * Scene wide lookup from a node's UUID to the node.
+     *
+     * Nodes register themselves when they are attached below a node that
+     * is already part of a registry, and unregister when they are removed
+     * from it or cleaned up. Entries are strong references, so removed
+     * subtrees have to go through removeChild or cleanup (or the registry
+     * has to be cleared) to be collected.
+     *
+     * Like the rest of the graph structure it must only be modified from
+     * the main thread.
+     */
+
+    private final IntMap<Node> nodes = new IntMap<>(256);
+
+    // set while the scene batches static geometry, told about static nodes joining and leaving
+    StaticBatcher staticBatcher;
+
+    /**
+     * @return node with the given UUID or null
+     */
+    public Node get(int UUID){
+        return nodes.get(UUID);
+    }
+
+    public boolean contains(int UUID){
+        return nodes.containsKey(UUID);
+    }
+
+    public int size(){
+        return nodes.getSize();
+    }
+
+    /**
+     * Adds node and its whole subtree
+     */
+    public void register(Node node){
+        node.registry = this;
+        nodes.put(node.getUUID(), node);
+        if(staticBatcher != null && node.isStatic()) staticBatcher.add(node);
+        for(Node child: node.getChildren())
+            register(child);
+    }
+
+    /**
+     * Removes node and its whole subtree
+     */
+    public void unregister(Node node){
+        if(node.registry != this) return;
+        node.registry = null;
+        nodes.remove(node.getUUID());
+        if(staticBatcher != null) staticBatcher.remove(node);
+        for(Node child: node.getChildren())
+            unregister(child);
+    }
+
+    /**
+     * Drops every entry, nodes still in the scene have to be registered again
+     */
+    public void clear(){
+        nodes.forEachValue(node -> node.registry = null);
+        nodes.clear();
+        if(staticBatcher != null) staticBatcher.clear();
+    }
+
+}
@@ -0,0 +1,294 @@
+package engine.scene.node;
+
+import lombok.Getter;
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+public class OcclusionCuller {
+
+    /**
+     * Software occlusion culling on the CPU.
+     *
+     * A few large occluder meshes are rasterized into a small depth buffer
+     * (256x128 by default), from which a hierarchical-Z pyramid is built:
+     * every texel of level n holds the farthest depth of its 2x2 texels on
+     * level n-1. Level sizes round up, so an odd last row or column is
+     * folded in on its own instead of dropped. A world space box is
+     * occluded if its nearest projected depth lies behind the farthest
+     * occluder depth over the whole screen rectangle it covers, which is
+     * read from the level where that rectangle spans at most 4x4 texels.
+     *
+     * Pure Java, needs no GL context. Triangles are filled as horizontal
+     * spans, the inner loop is a branch free depth min over a flat float
+     * array. Depth is NDC z/w, the buffer is cleared to the far plane (1).
+     *
+     * Usage per frame: begin(viewProjection), rasterize(...) for every
+     * occluder, finish(), then isVisible(bounds) for each candidate.
+     */
+
+    // clip space w below which geometry counts as crossing the near plane
+    private static final float NEAR_W = 1e-4f;
+
+    @Getter private final int width, height;
+    private final float[][] levels;
+    private final int[] levelWidth, levelHeight;
+
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final Matrix4f modelViewProjection = new Matrix4f();
+
+    // clip space vertices of the mesh being rasterized, 4 floats each
+    private float[] clip = new float[64];
+    // scratch polygon for near plane clipping, up to 4 vertices of 4 floats
+    private final float[] polygon = new float[32];
+    private final float[] corners = new float[24];
+
+    // statistics since begin(), fragments are the ones that passed the depth test
+    @Getter private int triangles, tested, occluded;
+    @Getter private long fragments;
+
+    public OcclusionCuller(){
+        this(256, 128);
+    }
+
+    public OcclusionCuller(int width, int height){
+        this.width = width;
+        this.height = height;
+
+        int count = 1;
+        for(int w = width, h = height; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2)
+            count++;
+
+        levels = new float[count][];
+        levelWidth = new int[count];
+        levelHeight = new int[count];
+        for(int l = 0, w = width, h = height; l < count; l++, w = (w + 1) / 2, h = (h + 1) / 2){
+            levels[l] = new float[w * h];
+            levelWidth[l] = w;
+            levelHeight[l] = h;
+        }
+    }
+
+    /**
+     * Clears the depth buffer for a new view
+     */
+    public OcclusionCuller begin(Matrix4f viewProjection){
+        this.viewProjection.set(viewProjection);
+        Arrays.fill(levels[0], 1f);
+        triangles = 0;
+        tested = 0;
+        occluded = 0;
+        fragments = 0;
+        return this;
+    }
+
+    /**
+     * Rasterizes an indexed triangle mesh. Both faces of a triangle are drawn.
+     * @param model object to world matrix of the occluder
+     * @param positions x,y,z per vertex
+     * @param indices three per triangle
+     */
+    public OcclusionCuller rasterize(Matrix4f model, float[] positions, int[] indices){
+        viewProjection.mul(model, modelViewProjection);
+        Matrix4f m = modelViewProjection;
+
+        int vertices = positions.length / 3;
+        if(clip.length < vertices * 4)
+            clip = new float[vertices * 4];
+        for(int i = 0; i < vertices; i++){
+            float x = positions[i*3], y = positions[i*3+1], z = positions[i*3+2];
+            clip[i*4]   = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+            clip[i*4+1] = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+            clip[i*4+2] = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+            clip[i*4+3] = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+        }
+
+        for(int t = 0; t + 2 < indices.length; t += 3)
+            clipTriangle(indices[t] * 4, indices[t + 1] * 4, indices[t + 2] * 4);
+        return this;
+    }
+
+    private void clipTriangle(int a, int b, int c){
+        float[] v = clip;
+
+        // all vertices outside the same side of the frustum
+        if(v[a] > v[a+3] && v[b] > v[b+3] && v[c] > v[c+3]) return;
+        if(v[a] < -v[a+3] && v[b] < -v[b+3] && v[c] < -v[c+3]) return;
+        if(v[a+1] > v[a+3] && v[b+1] > v[b+3] && v[c+1] > v[c+3]) return;
+        if(v[a+1] < -v[a+3] && v[b+1] < -v[b+3] && v[c+1] < -v[c+3]) return;
+        if(v[a+2] > v[a+3] && v[b+2] > v[b+3] && v[c+2] > v[c+3]) return;
+
+        boolean inA = v[a+3] > NEAR_W, inB = v[b+3] > NEAR_W, inC = v[c+3] > NEAR_W;
+        if(inA && inB && inC){
+            drawTriangle(v, a, v, b, v, c);
+            return;
+        }
+        if(!inA && !inB && !inC) return;
+
+        // Sutherland-Hodgman against the w = NEAR_W plane, at most 4 vertices remain
+        int n = 0;
+        n = clipEdge(a, b, inA, inB, n);
+        n = clipEdge(b, c, inB, inC, n);
+        n = clipEdge(c, a, inC, inA, n);
+
+        drawTriangle(polygon, 0, polygon, 4, polygon, 8);
+        if(n == 4)
+            drawTriangle(polygon, 0, polygon, 8, polygon, 12);
+    }
+
+    private int clipEdge(int from, int to, boolean inFrom, boolean inTo, int n){
+        float[] v = clip;
+        if(inFrom){
+            System.arraycopy(v, from, polygon, n * 4, 4);
+            n++;
+        }
+        if(inFrom != inTo){
+            float t = (NEAR_W - v[from+3]) / (v[to+3] - v[from+3]);
+            for(int k = 0; k < 4; k++)
+                polygon[n*4+k] = v[from+k] + (v[to+k] - v[from+k]) * t;
+            n++;
+        }
+        return n;
+    }
+
+    private void drawTriangle(float[] va, int a, float[] vb, int b, float[] vc, int c){
+        triangles++;
+
+        float wa = 1f / va[a+3], wb = 1f / vb[b+3], wc = 1f / vc[c+3];
+        float x0 = (va[a]   * wa * 0.5f + 0.5f) * width,  y0 = (va[a+1] * wa * 0.5f + 0.5f) * height, z0 = va[a+2] * wa;
+        float x1 = (vb[b]   * wb * 0.5f + 0.5f) * width,  y1 = (vb[b+1] * wb * 0.5f + 0.5f) * height, z1 = vb[b+2] * wb;
+        float x2 = (vc[c]   * wc * 0.5f + 0.5f) * width,  y2 = (vc[c+1] * wc * 0.5f + 0.5f) * height, z2 = vc[c+2] * wc;
+
+        float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if(area > -1e-8f && area < 1e-8f) return;
+
+        // depth plane z = z0 + dzdx * (x - x0) + dzdy * (y - y0)
+        float inv = 1f / area;
+        float dzdx = ((z1 - z0) * (y2 - y0) - (z2 - z0) * (y1 - y0)) * inv;
+        float dzdy = ((z2 - z0) * (x1 - x0) - (z1 - z0) * (x2 - x0)) * inv;
+
+        // orient edges so the inside is where all edge functions are >= 0
+        float s = area > 0 ? 1 : -1;
+
+        int minY = Math.max(0, (int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+        int maxY = Math.min(height - 1, (int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+
+        float[] depth = levels[0];
+        for(int y = minY; y <= maxY; y++){
+            float py = y + 0.5f;
+            float lo = 0, hi = width;
+
+            // each edge e(x) = A * x + B >= 0 bounds the span on one side
+            float A = -(y1 - y0) * s, B = ((x1 - x0) * (py - y0) + (y1 - y0) * x0) * s;
+            if(A > 0) lo = Math.max(lo, -B / A); else if(A < 0) hi = Math.min(hi, -B / A); else if(B < 0) continue;
+            A = -(y2 - y1) * s; B = ((x2 - x1) * (py - y1) + (y2 - y1) * x1) * s;
+            if(A > 0) lo = Math.max(lo, -B / A); else if(A < 0) hi = Math.min(hi, -B / A); else if(B < 0) continue;
+            A = -(y0 - y2) * s; B = ((x0 - x2) * (py - y2) + (y0 - y2) * x2) * s;
+            if(A > 0) lo = Math.max(lo, -B / A); else if(A < 0) hi = Math.min(hi, -B / A); else if(B < 0) continue;
+
+            int start = Math.max(0, (int) Math.ceil(lo - 0.5f));
+            int end = Math.min(width - 1, (int) Math.floor(hi - 0.5f));
+            if(start > end) continue;
+
+            int row = y * width;
+            float z = z0 + dzdx * (start + 0.5f - x0) + dzdy * (py - y0);
+            int passed = 0;
+            for(int x = row + start; x <= row + end; x++){
+                float d = depth[x];
+                depth[x] = z < d ? z : d;
+                passed += z < d ? 1 : 0;
+                z += dzdx;
+            }
+            fragments += passed;
+        }
+    }
+
+    /**
+     * Builds the hierarchical-Z pyramid from the rasterized depth
+     */
+    public OcclusionCuller finish(){
+        for(int l = 1; l < levels.length; l++){
+            float[] src = levels[l - 1], dst = levels[l];
+            int sw = levelWidth[l - 1], sh = levelHeight[l - 1];
+            int dw = levelWidth[l], dh = levelHeight[l];
+            for(int y = 0; y < dh; y++){
+                int y0 = Math.min(sh - 1, y * 2) * sw, y1 = Math.min(sh - 1, y * 2 + 1) * sw;
+                for(int x = 0; x < dw; x++){
+                    int x0 = Math.min(sw - 1, x * 2), x1 = Math.min(sw - 1, x * 2 + 1);
+                    float a = src[y0 + x0], b = src[y0 + x1], c = src[y1 + x0], d = src[y1 + x1];
+                    float ab = a > b ? a : b, cd = c > d ? c : d;
+                    dst[y * dw + x] = ab > cd ? ab : cd;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param bounds world space box
+     * @return false only if the box is certainly hidden behind the rasterized occluders
+     */
+    public boolean isVisible(AABBf bounds){
+        tested++;
+        Matrix4f m = viewProjection;
+
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX;
+        for(int i = 0; i < 8; i++){
+            float x = (i & 1) == 0 ? bounds.minX : bounds.maxX;
+            float y = (i & 2) == 0 ? bounds.minY : bounds.maxY;
+            float z = (i & 4) == 0 ? bounds.minZ : bounds.maxZ;
+            float w = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+            // box reaches the camera plane, cannot be occluded
+            if(w <= NEAR_W) return true;
+            float inv = 1f / w;
+            float sx = ((m.m00() * x + m.m10() * y + m.m20() * z + m.m30()) * inv * 0.5f + 0.5f) * width;
+            float sy = ((m.m01() * x + m.m11() * y + m.m21() * z + m.m31()) * inv * 0.5f + 0.5f) * height;
+            float sz = (m.m02() * x + m.m12() * y + m.m22() * z + m.m32()) * inv;
+            if(sx < minX) minX = sx; if(sx > maxX) maxX = sx;
+            if(sy < minY) minY = sy; if(sy > maxY) maxY = sy;
+            if(sz < minZ) minZ = sz;
+        }
+
+        int x0 = Math.max(0, (int) Math.floor(minX)), x1 = Math.min(width - 1, (int) Math.floor(maxX));
+        int y0 = Math.max(0, (int) Math.floor(minY)), y1 = Math.min(height - 1, (int) Math.floor(maxY));
+        // off screen, left to frustum culling
+        if(x0 > x1 || y0 > y1) return true;
+
+        int l = 0;
+        while(l < levels.length - 1 && ((x1 >> l) - (x0 >> l) >= 4 || (y1 >> l) - (y0 >> l) >= 4))
+            l++;
+
+        float[] level = levels[l];
+        int lw = levelWidth[l], lh = levelHeight[l];
+        float farthest = 0;
+        for(int y = Math.min(lh - 1, y0 >> l); y <= Math.min(lh - 1, y1 >> l); y++)
+            for(int x = Math.min(lw - 1, x0 >> l); x <= Math.min(lw - 1, x1 >> l); x++){
+                float d = level[y * lw + x];
+                if(d > farthest) farthest = d;
+            }
+
+        if(minZ > farthest){
+            occluded++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Depth buffer value of a pixel, (0, 0) is the bottom left corner
+     */
+    public float getDepth(int x, int y){
+        return levels[0][y * width + x];
+    }
+
+    public float getDepth(int level, int x, int y){
+        return levels[level][y * levelWidth[level] + x];
+    }
+
+    public int getLevelCount(){
+        return levels.length;
+    }
+
+}
@@ -1,11 +1,11 @@
 package engine.scene.node;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 import engine.glapi.VertexBufferObject;
 import engine.glapi.Shader;
 
-@Getter @AllArgsConstructor
+@Getter
 public class RenderModule extends Module {
 
     /*
@@ -17,6 +17,14 @@ public class RenderModule extends Module {
     private Shader shader;
     private VertexBufferObject mesh;
 
+    // level of detail the RenderQueue picked for this pass last time, see Mesh3D.selectLod
+    @Setter private int lod;
+
+    public RenderModule(Shader shader, VertexBufferObject mesh){
+        this.shader = shader;
+        this.mesh = mesh;
+    }
+
     @Override
     public void render() {
 
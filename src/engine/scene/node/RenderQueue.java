@@ -0,0 +1,473 @@
+package engine.scene.node;
+
+import engine.glapi.Shader;
+import engine.glapi.VertexBufferObject;
+import engine.glapi.vbo.InstanceBuffer;
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.TextureStreamer;
+import engine.utils.TreeTraversal;
+import lombok.Getter;
+import org.joml.AABBf;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class RenderQueue {
+
+    /**
+     * Flat, sorted list of everything drawn in one render pass.
+     *
+     * collect() walks the scenegraph the same way Node.render() does and
+     * records every visible module for the pass. sort() orders them by a
+     * 64 bit key so that objects sharing a shader, material and mesh end up
+     * next to each other. submit() then binds each shader and material only
+     * once per run of matching objects.
+     *
+     * With a level of detail eye set, meshes that have coarser levels are
+     * queued at the level their size on screen allows (Mesh3D.selectLod).
+     * The level picked is kept per RenderModule, so every pass of a node
+     * has its own, and a pass may draw a bias of levels coarser.
+     *
+     * Key layout (most significant first):
+     *   12 bits shader program | 16 bits material | 16 bits mesh VAO | 20 bits depth
+     */
+
+    private static final int DEPTH_BITS = 20;
+    private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+
+    // depth is quantized over this distance, anything further shares the last bucket
+    private static final float DEPTH_RANGE = 1000f;
+
+    private static final Comparator<Item> ORDER = (a, b) -> Long.compare(a.key, b.key);
+
+    private Item[] items = new Item[0];
+    @Getter private int size;
+
+    private final Vector3f eye = new Vector3f();
+    private boolean useDepth;
+
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private boolean useFrustum;
+
+    private OcclusionCuller occlusion;
+
+    // static nodes merged by this batcher are queued as their batch instead
+    private StaticBatcher batcher;
+
+    // level of detail selection, off without an eye
+    private final Vector3f lodEye = new Vector3f();
+    private boolean useLod;
+    private float fovY, pixelError;
+    private int screenHeight, lodBias;
+
+    // instanced draws of runs sharing shader, material and mesh, buffer created on first use
+    private boolean instancing;
+    private InstanceBuffer instances;
+
+    // walk state, the lambdas are created once so collecting does not allocate
+    private final TreeTraversal<Node> traversal = Node.traversal();
+    private RenderType collectType;
+    private Predicate<Node> collectCondition;
+    private final Consumer<Node> collector = node -> add(node, collectType);
+    private final Predicate<Node> conditional = node -> node.isActivated() && collectCondition.test(node);
+    private static final Predicate<Node> VISIBLE = node -> node.isActivated() && !node.isHidden();
+
+    // statistics of the last collect: nodes with bounds tested, hidden by occluders, and drawn,
+    // the triangles queued and how many nodes were queued at a coarser level of detail
+    @Getter private int tested, occluded, drawn, triangles, reduced;
+
+    // statistics of the last submit
+    @Getter private int shaderBinds, materialBinds, drawCalls, instancedDraws;
+
+    private static class Item {
+        long key;
+        ModuleNode node;
+        Module module;
+        Shader shader;
+        VertexBufferObject mesh;
+        boolean batched;
+        StaticBatcher.Batch batch;
+    }
+
+    public void clear(){
+        tested = 0;
+        occluded = 0;
+        drawn = 0;
+        triangles = 0;
+        reduced = 0;
+        for(int i = 0; i < size; i++){
+            items[i].node = null;
+            items[i].module = null;
+            items[i].shader = null;
+            items[i].mesh = null;
+            items[i].batched = false;
+            items[i].batch = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Sets the point depth is measured from. Without an eye all objects
+     * share depth 0 and are only sorted by state
+     * @param eye world space position or null
+     */
+    public RenderQueue setEye(Vector3f eye){
+        useDepth = eye != null;
+        if(useDepth) this.eye.set(eye);
+        return this;
+    }
+
+    /**
+     * Enables view frustum culling for the following collects. Nodes whose
+     * world bounds are fully outside the volume are not queued
+     * @param viewProjection matrix of the volume (camera or light space) or null to disable
+     */
+    public RenderQueue setFrustum(Matrix4f viewProjection){
+        useFrustum = viewProjection != null;
+        if(useFrustum) frustum.set(viewProjection);
+        return this;
+    }
+
+    /**
+     * Enables occlusion culling for the following collects. Nodes whose
+     * world bounds are hidden behind the culler's occluders are not queued.
+     * The culler has to be filled and finished for the current view first
+     * @param culler prepared culler or null to disable
+     */
+    public RenderQueue setOcclusion(OcclusionCuller culler){
+        this.occlusion = culler;
+        return this;
+    }
+
+    /**
+     * Draws static geometry through the batcher for the following collects.
+     * Its nodes are skipped and every batch that has a RenderModule for the
+     * pass is queued once, culled by the batch's world bounds
+     * @param batcher scene batcher or null to draw static nodes one by one
+     */
+    public RenderQueue setStaticBatcher(StaticBatcher batcher){
+        this.batcher = batcher;
+        return this;
+    }
+
+    /**
+     * Enables instanced drawing for the following submits. Runs of two or
+     * more objects sharing a shader, material and Mesh3D at the same level
+     * of detail are drawn with one instanced draw if the shader provides an
+     * instanced variant
+     */
+    public RenderQueue setInstancing(boolean instancing){
+        this.instancing = instancing;
+        return this;
+    }
+
+    /**
+     * Picks a level of detail for meshes that have several in the
+     * following collects, from their size on screen
+     * @param eye world space position of the camera, null to always draw the full meshes
+     * @param fovY vertical field of view in radians
+     * @param pixelError largest error of a level in pixels
+     * @param bias levels to draw coarser than the one picked, like for shadow maps
+     */
+    public RenderQueue setLevelOfDetail(Vector3f eye, float fovY, int screenHeight, float pixelError, int bias){
+        useLod = eye != null;
+        if(useLod) lodEye.set(eye);
+        this.fovY = fovY;
+        this.screenHeight = screenHeight;
+        this.pixelError = pixelError;
+        this.lodBias = bias;
+        return this;
+    }
+
+    /**
+     * Collects visible modules of the given pass below root, following the
+     * visibility rules of Node.render(RenderType)
+     */
+    public RenderQueue collect(Node root, RenderType type){
+        clear();
+        collectType = type;
+        traversal.depthFirst(root, VISIBLE, collector);
+        addBatches(type);
+        return this;
+    }
+
+    /**
+     * Collects modules of the given pass below root, following the rules
+     * of Node.render(RenderType, Predicate)
+     */
+    public RenderQueue collect(Node root, RenderType type, Predicate<Node> condition){
+        clear();
+        collectType = type;
+        collectCondition = condition;
+        traversal.depthFirst(root, conditional, collector);
+        collectCondition = null;
+        addBatches(type);
+        return this;
+    }
+
+    /**
+     * Collects modules of a set of nodes and their subtrees
+     */
+    public RenderQueue collect(Iterable<? extends Node> roots, RenderType type){
+        clear();
+        collectType = type;
+        for(Node root: roots)
+            traversal.depthFirst(root, VISIBLE, collector);
+        addBatches(type);
+        return this;
+    }
+
+    private void add(Node node, RenderType type){
+        if(!(node instanceof ModuleNode)) return;
+        if(batcher != null && batcher.contains(node)) return;
+        ModuleNode moduleNode = (ModuleNode) node;
+        Module module = moduleNode.getModules().get(type);
+        if(module == null) return;
+        if(!visible(node.getWorldBounds())) return;
+
+        Item item = next();
+        item.node = moduleNode;
+        item.module = module;
+
+        if(module instanceof RenderModule){
+            RenderModule renderModule = (RenderModule) module;
+            item.shader = renderModule.getShader();
+            item.mesh = lod(renderModule, node.getWorldBounds());
+            triangles += item.mesh.getVertexCount() / 3;
+            item.key = key(item.shader.getProgramId(),
+                    item.shader.getMaterialKey(moduleNode),
+                    item.mesh.getVaoId(),
+                    depth(moduleNode));
+        } else {
+            // custom modules draw themselves, keep them after all state sorted draws
+            item.shader = null;
+            item.mesh = null;
+            item.key = -1L >>> 1;
+        }
+    }
+
+    /**
+     * Mesh or Lod view of the module's mesh to draw at the size of bounds on screen
+     */
+    private VertexBufferObject lod(RenderModule module, AABBf bounds){
+        VertexBufferObject mesh = module.getMesh();
+        if(!useLod || bounds == null || !(mesh instanceof Mesh3D)) return mesh;
+        Mesh3D mesh3D = (Mesh3D) mesh;
+        if(mesh3D.getLodCount() == 1) return mesh;
+
+        float size = TextureStreamer.projectedSize(bounds, lodEye, fovY, screenHeight);
+        int level = mesh3D.selectLod(size, pixelError, module.getLod());
+        module.setLod(level);
+        level = Math.min(level + lodBias, mesh3D.getLodCount() - 1);
+        if(level > 0) reduced++;
+        return mesh3D.getLod(level);
+    }
+
+    private void addBatches(RenderType type){
+        if(batcher == null) return;
+        for(StaticBatcher.Batch batch: batcher.getBatches()){
+            if(batch.getMembers().isEmpty()) continue;
+            ModuleNode node = batch.getNode();
+            Module module = node.getModules().get(type);
+            if(!(module instanceof RenderModule)) continue;
+            if(!visible(batch.getBounds())) continue;
+
+            Item item = next();
+            item.node = node;
+            item.module = module;
+            item.shader = ((RenderModule) module).getShader();
+            item.mesh = batch.getRange();
+            triangles += item.mesh.getVertexCount() / 3;
+            item.batched = true;
+            item.batch = batch;
+            // batches span large areas, sort them by state only
+            item.key = key(item.shader.getProgramId(),
+                    item.shader.getMaterialKey(node),
+                    item.mesh.getVaoId(),
+                    0);
+        }
+    }
+
+    /**
+     * Frustum and occlusion test, counted in the collect statistics
+     * @param bounds world bounds, null counts as visible
+     */
+    private boolean visible(AABBf bounds){
+        if(bounds != null && (useFrustum || occlusion != null)){
+            tested++;
+            if(useFrustum && !frustum.testAab(bounds.minX, bounds.minY, bounds.minZ,
+                    bounds.maxX, bounds.maxY, bounds.maxZ))
+                return false;
+            if(occlusion != null && !occlusion.isVisible(bounds)){
+                occluded++;
+                return false;
+            }
+        }
+        drawn++;
+        return true;
+    }
+
+    private Item next(){
+        if(size == items.length){
+            items = Arrays.copyOf(items, Math.max(16, size * 2));
+            for(int i = size; i < items.length; i++)
+                items[i] = new Item();
+        }
+        return items[size++];
+    }
+
+    private static long key(int program, int material, int mesh, long depth){
+        return ((long)(program & 0xFFF) << 52)
+                | ((long)(material & 0xFFFF) << 36)
+                | ((long)(mesh & 0xFFFF) << DEPTH_BITS)
+                | depth;
+    }
+
+    private long depth(ModuleNode node){
+        if(!useDepth) return 0;
+        Matrix4f model = node.getModelMatrix();
+        float dx = model.m30() - eye.x, dy = model.m31() - eye.y, dz = model.m32() - eye.z;
+        float d = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / DEPTH_RANGE;
+        // front to back, sqrt spends more precision close to the eye
+        return Math.min(DEPTH_MAX, (long) (Math.sqrt(d) * DEPTH_MAX));
+    }
+
+    /**
+     * Runs action for every node queued by the last collect, for queued
+     * static batches once per member
+     */
+    public void forEachNode(Consumer<ModuleNode> action){
+        for(int i = 0; i < size; i++){
+            if(items[i].batched) items[i].batch.getMembers().forEach(action);
+            else action.accept(items[i].node);
+        }
+    }
+
+    public RenderQueue sort(){
+        Arrays.sort(items, 0, size, ORDER);
+        return this;
+    }
+
+    /**
+     * Draws every queued item. Shaders are bound once per run of equal
+     * shaders, material uniforms are uploaded once per run of equal materials.
+     * With instancing enabled, runs that also share a mesh are drawn with a
+     * single instanced draw when the shader has an instanced variant.
+     */
+    public void submit(){
+        Shader bound = null;
+        int material = 0;
+        boolean materialBound = false;
+        shaderBinds = 0;
+        materialBinds = 0;
+        drawCalls = 0;
+        instancedDraws = 0;
+
+        for(int i = 0; i < size; i++){
+            Item item = items[i];
+
+            if(item.shader == null){
+                if(bound != null) bound.unbind();
+                bound = null;
+                item.module.render();
+                drawCalls++;
+                continue;
+            }
+
+            int itemMaterial = item.shader.getMaterialKey(item.node);
+
+            if(instancing){
+                int end = runEnd(i, itemMaterial);
+                Shader instanced = end - i > 1 && (item.mesh instanceof Mesh3D || item.mesh instanceof Mesh3D.Lod)
+                        ? item.shader.getInstancedShader() : null;
+                if(instanced != null){
+                    if(bound != null) bound.unbind();
+                    bound = null;
+                    submitInstanced(instanced, i, end);
+                    i = end - 1;
+                    continue;
+                }
+            }
+
+            if(item.shader != bound){
+                if(bound != null) bound.unbind();
+                bound = item.shader;
+                bound.bind();
+                bound.updatePassUniforms();
+                materialBound = false;
+                shaderBinds++;
+            }
+
+            if(!materialBound || itemMaterial != material){
+                bound.updateMaterialUniforms(item.node);
+                material = itemMaterial;
+                materialBound = true;
+                materialBinds++;
+            }
+
+            if(item.batched) bound.updateBatchUniforms(item.node);
+            else bound.updateObjectUniforms(item.node);
+            item.mesh.render();
+            drawCalls++;
+        }
+
+        if(bound != null) bound.unbind();
+    }
+
+    /**
+     * End (exclusive) of the run starting at start that shares its shader, mesh and material
+     */
+    private int runEnd(int start, int material){
+        Item first = items[start];
+        int end = start + 1;
+        while(end < size && items[end].shader == first.shader && items[end].mesh == first.mesh
+                && first.shader.getMaterialKey(items[end].node) == material)
+            end++;
+        return end;
+    }
+
+    /**
+     * Draws items start .. end - 1 with one instanced draw. The variant gets
+     * the pass and material uniforms of the first item, every item adds its
+     * per-object state to the instance buffer
+     */
+    private void submitInstanced(Shader instanced, int start, int end){
+        if(instances == null)
+            instances = new InstanceBuffer();
+
+        Shader shader = items[start].shader;
+        instances.clear();
+        for(int i = start; i < end; i++)
+            shader.putInstance(items[i].node, instances);
+        instances.upload();
+
+        instanced.bind();
+        instanced.updatePassUniforms();
+        instanced.updateMaterialUniforms(items[start].node);
+        if(items[start].mesh instanceof Mesh3D.Lod) ((Mesh3D.Lod) items[start].mesh).renderInstanced(instances);
+        else ((Mesh3D) items[start].mesh).renderInstanced(instances);
+        instanced.unbind();
+
+        shaderBinds++;
+        materialBinds++;
+        drawCalls++;
+        instancedDraws++;
+    }
+
+    /**
+     * Collect, sort and submit in one call
+     */
+    public void render(Node root, RenderType type){
+        collect(root, type).sort().submit();
+    }
+
+    public void render(Node root, RenderType type, Predicate<Node> condition){
+        collect(root, type, condition).sort().submit();
+    }
+
+}
@@ -0,0 +1,151 @@
+package engine.scene.node;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class SceneUpdater {
+
+    /**
+     * Parallel replacement for Node.update() on the root of a scene.
+     *
+     * Subtrees larger than the split threshold are forked into ForkJoinPool
+     * tasks, smaller sibling subtrees are batched together and updated
+     * sequentially inside one task. A node's updateSelf() still runs only
+     * after all of its children finished, exactly as in the sequential update.
+     *
+     * Modules flagged mainThreadOnly are queued while the workers run and
+     * updated on the calling thread once the whole tree is done.
+     *
+     * Transforms must be propagated (updateTransforms) before update() is
+     * called. Reading a dirty node's matrix recomputes its dirty ancestors
+     * lazily, and two workers doing that for a shared ancestor would write
+     * its matrix concurrently. So a module may read any node's matrix, but
+     * may only move nodes in its own subtree: those are not read by other
+     * tasks until it is finished.
+     */
+
+    private static SceneUpdater instance;
+    public static SceneUpdater instance(){
+        if(instance == null)
+            instance = new SceneUpdater();
+        return instance;
+    }
+
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<Module> deferred;
+
+    // minimum subtree size in nodes worth its own task
+    @Getter @Setter private int splitThreshold = 512;
+
+    private SceneUpdater(){
+        this.pool = new ForkJoinPool();
+        this.deferred = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Updates root and its whole subtree, blocking until finished.
+     * Must be called from the main thread.
+     * @param root node to update
+     */
+    public void update(Node root){
+        if(root.getSubtreeSize() <= splitThreshold)
+            root.update();
+        else
+            pool.invoke(new UpdateTask(root));
+
+        Module module;
+        while((module = deferred.poll()) != null)
+            module.update();
+    }
+
+    void defer(Module module){
+        deferred.add(module);
+    }
+
+    /**
+     * Whether the current thread is one of this updater's workers. Other
+     * pools (the common pool used by TextureCompressor and ObjLoader) do not count
+     */
+    static boolean isWorkerThread(){
+        SceneUpdater updater = instance;
+        return updater != null && ForkJoinTask.getPool() == updater.pool;
+    }
+
+    /**
+     * Stops the worker threads, a later instance() starts a new pool
+     */
+    public void shutdown(){
+        pool.shutdown();
+        if(instance == this)
+            instance = null;
+    }
+
+    private class UpdateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+
+        private UpdateTask(Node node){
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            if(node.getSubtreeSize() <= splitThreshold){
+                node.update();
+                return;
+            }
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Node> batch = new ArrayList<>();
+            int batchSize = 0;
+
+            for(Node child: node.getChildren()){
+                if(!child.isActivated()) continue;
+
+                if(child.getSubtreeSize() > splitThreshold){
+                    tasks.add(new UpdateTask(child));
+                } else {
+                    batch.add(child);
+                    batchSize += child.getSubtreeSize();
+                    if(batchSize >= splitThreshold){
+                        tasks.add(new BatchTask(batch));
+                        batch = new ArrayList<>();
+                        batchSize = 0;
+                    }
+                }
+            }
+            if(!batch.isEmpty())
+                tasks.add(new BatchTask(batch));
+
+            invokeAll(tasks);
+            node.updateSelf();
+        }
+    }
+
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Node> nodes;
+
+        private BatchTask(List<Node> nodes){
+            this.nodes = nodes;
+        }
+
+        @Override
+        protected void compute() {
+            for(Node node: nodes)
+                node.update();
+        }
+    }
+
+}
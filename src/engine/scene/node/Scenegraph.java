@@ -8,10 +8,92 @@ public class Scenegraph extends Node {
     @Getter
     private Sky sky;
 
+    // optional data oriented transform backend, null when disabled
+    @Getter
+    private TransformStore transformStore;
+
+    // optional spatial index over all nodes with bounds, null when disabled
+    @Getter
+    private BoundingVolumeHierarchy spatialIndex;
+
+    // optional merged draws of static geometry, null when disabled
+    @Getter
+    private StaticBatcher staticBatcher;
+
     public Scenegraph() {
         super();
 
         this.sky = new Sky();
+        new NodeRegistry().register(this);
+    }
+
+    /**
+     * UUID lookup of every node in this graph
+     */
+    public NodeRegistry getRegistry(){
+        return registry;
+    }
+
+    /**
+     * Moves transform propagation of the whole graph into a TransformStore.
+     * Intended for scenes with tens of thousands of nodes.
+     */
+    public void enableTransformStore(){
+        if(transformStore == null)
+            transformStore = new TransformStore(this);
+    }
+
+    public void disableTransformStore(){
+        if(transformStore != null){
+            transformStore.detach();
+            transformStore = null;
+        }
+    }
+
+    /**
+     * Keeps a BoundingVolumeHierarchy of the graph in sync, refitted after
+     * every transform update
+     */
+    public void enableSpatialIndex(){
+        if(spatialIndex == null)
+            spatialIndex = new BoundingVolumeHierarchy(this);
+    }
+
+    public void disableSpatialIndex(){
+        if(spatialIndex != null){
+            spatialIndex.detach();
+            spatialIndex = null;
+        }
+    }
+
+    /**
+     * Bakes static nodes (see Node.setStatic) into merged batches, rebaked
+     * after transform updates whenever static nodes were added, removed or moved
+     */
+    public void enableStaticBatching(){
+        if(staticBatcher == null)
+            staticBatcher = new StaticBatcher(this);
+    }
+
+    public void disableStaticBatching(){
+        if(staticBatcher != null){
+            staticBatcher.detach();
+            staticBatcher = null;
+        }
+    }
+
+    @Override
+    public void updateTransforms(){
+        if(transformStore != null)
+            transformStore.propagate();
+        else
+            super.updateTransforms();
+
+        if(spatialIndex != null)
+            spatialIndex.update();
+
+        if(staticBatcher != null)
+            staticBatcher.update();
     }
 
 }
@@ -0,0 +1,420 @@
+package engine.scene.node;
+
+import engine.glapi.Shader;
+import engine.glapi.vbo.BatchMesh;
+import engine.glapi.vbo.Mesh3D;
+import engine.utils.IntMap;
+import lombok.Getter;
+import org.joml.AABBf;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class StaticBatcher {
+
+    /**
+     * Merges the meshes of static nodes (see Node.setStatic) into one
+     * BatchMesh, with world transforms applied to the vertices.
+     *
+     * Nodes are grouped by the shader, material key and batch key of their
+     * TYPE_SCENE RenderModule (see Shader.getBatchKey); every group becomes
+     * one Batch, drawn as a single index range. RenderQueues given this
+     * batcher skip the batched nodes and queue the batches in their place.
+     *
+     * Nodes join when they are marked static inside the scene or attached
+     * below the scene while static, and leave when they are removed or
+     * unmarked. Every batch owns a region of the merged arrays with some
+     * slack. A moved member only has its own vertices baked again, a batch
+     * whose members changed is baked again inside its region, and only
+     * those parts are uploaded (BatchMesh.markChanged with ranges). The
+     * arrays are laid out again, and uploaded whole, only when a batch
+     * outgrows its region, a batch is created or most of the space is
+     * unused. Baking runs on the CPU only and needs no GL context.
+     *
+     * Material and batch key are read when a node joins. Hiding or
+     * deactivating a batched node does not remove it from its batch.
+     */
+
+    private static final RenderType KEY_PASS = RenderType.TYPE_SCENE;
+
+    public static class Batch {
+
+        @Getter private final Shader shader;
+        @Getter private final int material, variant;
+        @Getter private final ArrayList<ModuleNode> members = new ArrayList<>();
+
+        // region of the merged arrays, counts in use and reserved
+        private int vertexStart, vertexCount, vertexCapacity;
+        private int indexStart, indexCount, indexCapacity;
+
+        // first vertex and index of every member relative to the region, one more at the end
+        private int[] memberVertices = new int[1], memberIndices = new int[1];
+        private boolean[] movedMembers = new boolean[0];
+        private final IntMap<Integer> slots = new IntMap<>();
+
+        // members changed, or only some of them moved
+        private boolean dirty, moved;
+
+        @Getter private final AABBf bounds = new AABBf();
+        @Getter private final BatchMesh.Range range;
+
+        private Batch(Shader shader, int material, int variant, BatchMesh mesh){
+            this.shader = shader;
+            this.material = material;
+            this.variant = variant;
+            this.range = mesh.new Range();
+        }
+
+        /**
+         * Node whose pass and material state the batch is drawn with
+         */
+        public ModuleNode getNode(){
+            return members.get(0);
+        }
+
+        public int getVertexCount(){
+            return vertexCount;
+        }
+
+        public int getFirstVertex(){
+            return vertexStart;
+        }
+    }
+
+    private Node root;
+
+    @Getter private final BatchMesh mesh = new BatchMesh();
+    @Getter private final ArrayList<Batch> batches = new ArrayList<>();
+    private final IntMap<Batch> membership = new IntMap<>(256);
+    private boolean changed;
+
+    // batches and single members baked, and layouts of the merged arrays since creation
+    @Getter private int bakes, memberBakes, layouts;
+
+    private final Matrix3f normalMatrix = new Matrix3f();
+    private final Vector3f vertex = new Vector3f();
+
+    /**
+     * Attaches to the registry of root and adds every static node already
+     * below it. A root without registry (outside of a Scenegraph) gets one
+     */
+    public StaticBatcher(Node root){
+        this.root = root;
+        if(root.registry == null)
+            new NodeRegistry().register(root);
+        root.registry.staticBatcher = this;
+        Node.traversal().depthFirst(root, null, node -> {
+            if(node.isStatic()) add(node);
+        });
+    }
+
+    /**
+     * @return whether node is drawn as part of a batch
+     */
+    public boolean contains(Node node){
+        return membership.containsKey(node.getUUID());
+    }
+
+    public int size(){
+        return membership.getSize();
+    }
+
+    void add(Node node){
+        if(!(node instanceof ModuleNode) || contains(node)) return;
+        ModuleNode moduleNode = (ModuleNode) node;
+        Module module = moduleNode.getModules().get(KEY_PASS);
+        if(!(module instanceof RenderModule) || !(((RenderModule) module).getMesh() instanceof Mesh3D))
+            return;
+
+        Shader shader = ((RenderModule) module).getShader();
+        int material = shader == null ? 0 : shader.getMaterialKey(moduleNode);
+        int variant = shader == null ? 0 : shader.getBatchKey(moduleNode);
+
+        Batch batch = null;
+        for(int i = 0; i < batches.size() && batch == null; i++){
+            Batch b = batches.get(i);
+            if(b.shader == shader && b.material == material && b.variant == variant)
+                batch = b;
+        }
+        if(batch == null){
+            batch = new Batch(shader, material, variant, mesh);
+            batches.add(batch);
+        }
+
+        batch.members.add(moduleNode);
+        membership.put(node.getUUID(), batch);
+        markDirty(batch);
+    }
+
+    void remove(Node node){
+        Batch batch = membership.remove(node.getUUID());
+        if(batch == null) return;
+        batch.members.remove(node);
+        markDirty(batch);
+    }
+
+    /**
+     * A batched node's transform changed, its vertices are baked again.
+     * Only sets flags, so nodes may move from parallel updates
+     */
+    void markMoved(Node node){
+        Batch batch = membership.get(node.getUUID());
+        if(batch != null && !batch.dirty){
+            Integer slot = batch.slots.get(node.getUUID());
+            if(slot != null) batch.movedMembers[slot] = true;
+            else batch.dirty = true;
+            batch.moved = true;
+            changed = true;
+        }
+
+        // nodes in a TransformStore do not invalidate their children themselves
+        if(node.store != null)
+            for(Node child: node.getChildren()) markMoved(child);
+    }
+
+    private void markDirty(Batch batch){
+        batch.dirty = true;
+        changed = true;
+    }
+
+    /**
+     * Bakes the batches and members that changed since the last update into
+     * the merged arrays. Called after transform propagation
+     */
+    public void update(){
+        if(!changed) return;
+        changed = false;
+
+        boolean fits = true;
+        int usedVertices = 0;
+        for(int i = batches.size() - 1; i >= 0; i--){
+            Batch batch = batches.get(i);
+            if(batch.members.isEmpty()) {
+                batches.remove(i);
+                continue;
+            }
+            // a mesh that finished loading changes its member's size
+            if(batch.moved && !batch.dirty && !sameSizes(batch))
+                batch.dirty = true;
+            if(batch.dirty) {
+                measure(batch);
+                fits &= batch.vertexCount <= batch.vertexCapacity && batch.indexCount <= batch.indexCapacity;
+            }
+            usedVertices += batch.vertexCount;
+        }
+
+        if(!fits || mesh.getPositions().length / 3 > 3 * usedVertices + MIN_SLACK) {
+            layout();
+            return;
+        }
+
+        for(Batch batch: batches){
+            if(batch.dirty) {
+                bake(batch);
+                mesh.markChanged(batch.vertexStart, batch.vertexCount, batch.indexStart, batch.indexCount);
+            } else if(batch.moved) {
+                bakeMoved(batch, true);
+            }
+        }
+    }
+
+    private static final int MIN_SLACK = 1024;
+
+    private static int slack(int count){
+        return count == 0 ? 0 : count + count / 2 + 64;
+    }
+
+    /**
+     * Places every batch in new arrays with slack to grow. Batches that did
+     * not change are copied over, their indices shifted to the new region
+     */
+    private void layout(){
+        float[] oldPositions = mesh.getPositions(), oldUVs = mesh.getUVs(), oldNormals = mesh.getNormals();
+        int[] oldIndices = mesh.getIndices();
+
+        int vertices = 0, indices = 0;
+        for(Batch batch: batches){
+            vertices += slack(batch.vertexCount);
+            indices += slack(batch.indexCount);
+        }
+        mesh.setPositions(new float[vertices * 3]);
+        mesh.setUVs(new float[vertices * 2]);
+        mesh.setNormals(new float[vertices * 3]);
+        mesh.setIndices(new int[indices]);
+
+        int vertexStart = 0, indexStart = 0;
+        for(Batch batch: batches){
+            int oldVertexStart = batch.vertexStart, oldIndexStart = batch.indexStart;
+            batch.vertexStart = vertexStart;
+            batch.indexStart = indexStart;
+            batch.vertexCapacity = slack(batch.vertexCount);
+            batch.indexCapacity = slack(batch.indexCount);
+
+            if(batch.dirty) {
+                bake(batch);
+            } else {
+                int count = batch.vertexCount;
+                System.arraycopy(oldPositions, oldVertexStart * 3, mesh.getPositions(), vertexStart * 3, count * 3);
+                System.arraycopy(oldUVs, oldVertexStart * 2, mesh.getUVs(), vertexStart * 2, count * 2);
+                System.arraycopy(oldNormals, oldVertexStart * 3, mesh.getNormals(), vertexStart * 3, count * 3);
+                int[] target = mesh.getIndices();
+                for(int i = 0; i < batch.indexCount; i++)
+                    target[indexStart + i] = oldIndices[oldIndexStart + i] - oldVertexStart + vertexStart;
+                batch.range.set(indexStart, batch.indexCount);
+                if(batch.moved) bakeMoved(batch, false);
+            }
+
+            vertexStart += batch.vertexCapacity;
+            indexStart += batch.indexCapacity;
+        }
+
+        mesh.markChanged();
+        layouts++;
+    }
+
+    private void measure(Batch batch){
+        int vertexCount = 0, indexCount = 0;
+        for(ModuleNode node: batch.members){
+            Mesh3D mesh = meshOf(node);
+            vertexCount += mesh.getNumVertices();
+            indexCount += mesh.getIndices().length;
+        }
+        batch.vertexCount = vertexCount;
+        batch.indexCount = indexCount;
+    }
+
+    private boolean sameSizes(Batch batch){
+        for(int m = 0; m < batch.members.size(); m++){
+            if(!batch.movedMembers[m]) continue;
+            Mesh3D mesh = meshOf(batch.members.get(m));
+            if(mesh.getNumVertices() != batch.memberVertices[m + 1] - batch.memberVertices[m]
+                    || mesh.getIndices().length != batch.memberIndices[m + 1] - batch.memberIndices[m])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bakes all members into the batch's region, which must be large enough
+     */
+    private void bake(Batch batch){
+        int members = batch.members.size();
+        if(batch.movedMembers.length < members){
+            batch.memberVertices = new int[members + 1];
+            batch.memberIndices = new int[members + 1];
+            batch.movedMembers = new boolean[members];
+        }
+        batch.slots.clear();
+        batch.bounds.setMin(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY)
+                .setMax(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+
+        int[] indices = mesh.getIndices();
+        int base = 0, index = 0;
+        for(int m = 0; m < members; m++){
+            ModuleNode node = batch.members.get(m);
+            Mesh3D source = meshOf(node);
+            batch.memberVertices[m] = base;
+            batch.memberIndices[m] = index;
+            batch.movedMembers[m] = false;
+            batch.slots.put(node.getUUID(), m);
+            bakeMember(batch, node, batch.vertexStart + base);
+
+            int[] meshIndices = source.getIndices();
+            for(int j = 0; j < meshIndices.length; j++)
+                indices[batch.indexStart + index++] = batch.vertexStart + base + meshIndices[j];
+            base += source.getNumVertices();
+        }
+        batch.memberVertices[members] = base;
+        batch.memberIndices[members] = index;
+        batch.vertexCount = base;
+        batch.indexCount = index;
+
+        batch.range.set(batch.indexStart, batch.indexCount);
+        batch.dirty = batch.moved = false;
+        bakes++;
+    }
+
+    /**
+     * Bakes the moved members in place. Bounds only grow this way, they
+     * shrink again once the batch is baked whole
+     */
+    private void bakeMoved(Batch batch, boolean upload){
+        for(int m = 0; m < batch.members.size(); m++){
+            if(!batch.movedMembers[m]) continue;
+            batch.movedMembers[m] = false;
+            int first = batch.vertexStart + batch.memberVertices[m];
+            bakeMember(batch, batch.members.get(m), first);
+            if(upload)
+                mesh.markChanged(first, batch.memberVertices[m + 1] - batch.memberVertices[m], 0, 0);
+            memberBakes++;
+        }
+        batch.moved = false;
+    }
+
+    /**
+     * Writes the member's world space vertices to the merged arrays from first on
+     */
+    private void bakeMember(Batch batch, ModuleNode node, int first){
+        Mesh3D source = meshOf(node);
+        Matrix4f model = node.getModelMatrix();
+        model.normal(normalMatrix);
+
+        float[] positions = mesh.getPositions(), UVs = mesh.getUVs(), normals = mesh.getNormals();
+        float[] meshPositions = source.getPositions();
+        float[] meshNormals = source.getNormals();
+        float[] meshUVs = source.getUVs();
+        int count = source.getNumVertices();
+        boolean hasNormals = meshNormals.length == meshPositions.length;
+
+        for(int v = 0; v < count; v++){
+            int i = (first + v) * 3;
+            model.transformPosition(vertex.set(meshPositions[v*3], meshPositions[v*3+1], meshPositions[v*3+2]));
+            positions[i] = vertex.x;
+            positions[i + 1] = vertex.y;
+            positions[i + 2] = vertex.z;
+            batch.bounds.union(vertex);
+
+            if(hasNormals){
+                normalMatrix.transform(vertex.set(meshNormals[v*3], meshNormals[v*3+1], meshNormals[v*3+2])).normalize();
+                normals[i] = vertex.x;
+                normals[i + 1] = vertex.y;
+                normals[i + 2] = vertex.z;
+            }
+        }
+        if(!hasNormals)
+            Arrays.fill(normals, first * 3, (first + count) * 3, 0);
+        if(meshUVs.length == count * 2)
+            System.arraycopy(meshUVs, 0, UVs, first * 2, count * 2);
+        else
+            Arrays.fill(UVs, first * 2, (first + count) * 2, 0);
+    }
+
+    private static Mesh3D meshOf(ModuleNode node){
+        return (Mesh3D) ((RenderModule) node.getModules().get(KEY_PASS)).getMesh();
+    }
+
+    /**
+     * Forgets every node, static nodes still in the scene are drawn one by
+     * one until they are added again
+     */
+    public void clear(){
+        batches.clear();
+        membership.clear();
+        changed = true;
+    }
+
+    /**
+     * Stops batching, the scene's static nodes are drawn one by one again
+     */
+    public void detach(){
+        if(root != null && root.registry != null && root.registry.staticBatcher == this)
+            root.registry.staticBatcher = null;
+        root = null;
+        clear();
+        mesh.cleanup();
+    }
+
+}
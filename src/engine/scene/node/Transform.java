@@ -1,6 +1,7 @@
 package engine.scene.node;
 
 import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Setter;
 import org.joml.Vector3f;
 
@@ -14,9 +15,17 @@ public class Transform {
      */
 
     /** Data fields **/
-    @Setter protected Vector3f translation;
-    @Setter protected Vector3f rotation;
-    @Setter protected Vector3f scaling;
+    protected Vector3f translation;
+    protected Vector3f rotation;
+    protected Vector3f scaling;
+
+    /**
+     * Node whose cached world matrix depends on this transform.
+     * Every mutator notifies it so the subtree is recomputed on the next
+     * transform pass. Transforms without an owner (camera) skip this.
+     */
+    @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
+    private Node owner;
 
     public Transform(){
         translation = new Vector3f(0,0,0);
@@ -37,7 +46,7 @@ public class Transform {
     }
 
     public Transform translateTo(Vector3f position){
-        translation = new Vector3f(position);
+        setTranslation(new Vector3f(position));
         return this;
     }
 
@@ -49,6 +58,11 @@ public class Transform {
         return new Vector3f(translation);
     }
 
+    public void setTranslation(Vector3f translation){
+        this.translation = translation;
+        changed();
+    }
+
     /** ROTATION **/      /** -------------------------------------------- **/
 
     public Transform rotate(Vector3f rotation){
@@ -77,6 +91,11 @@ public class Transform {
         return new Vector3f(rotation);
     }
 
+    public void setRotation(Vector3f rotation){
+        this.rotation = rotation;
+        changed();
+    }
+
     /** Scaling **/      /** -------------------------------------------- **/
 
     public Transform scale(Vector3f scalar){
@@ -93,7 +112,7 @@ public class Transform {
     }
 
     public Transform scaleTo(Vector3f scaleFactor){
-        setScaling(scaleFactor);
+        setScaling(new Vector3f(scaleFactor));
         return this;
     }
 
@@ -109,4 +128,16 @@ public class Transform {
         return new Vector3f(scaling);
     }
 
+    public void setScaling(Vector3f scaling){
+        this.scaling = scaling;
+        changed();
+    }
+
+    /** Dirty tracking **/      /** -------------------------------------------- **/
+
+    private void changed(){
+        if(owner != null)
+            owner.invalidateTransform();
+    }
+
 }
@@ -0,0 +1,211 @@
+package engine.scene.node;
+
+import lombok.Getter;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+public class TransformStore {
+
+    /**
+     * Data oriented backend for scenegraph transforms.
+     *
+     * All nodes below the root are flattened into primitive arrays in
+     * pre-order, so a parent is always stored before its children. World
+     * matrices are then propagated with a single linear sweep instead of
+     * a recursive walk over heap objects. Nodes attached to a store become
+     * handles: their matrix getters read straight out of these arrays.
+     *
+     * Local values still live in each node's Transform and are copied in
+     * only for slots that were marked dirty since the last sweep.
+     */
+
+    private final Node root;
+
+    @Getter private int size;
+
+    private Node[] nodes;
+    private int[] parents;
+    private boolean[] dirty;
+    private int[] stamps;
+    private int frame;
+
+    // local and world translation/rotation/scaling, 3 floats per slot
+    private float[] localT, localR, localS;
+    private float[] worldT, worldR, worldS;
+
+    // world matrices, 16 floats per slot in column major order
+    private float[] matrices;
+
+    private boolean layoutDirty = true;
+
+    public TransformStore(Node root){
+        this.root = root;
+        allocate(64);
+    }
+
+    /**
+     * Flattens the tree below root into the arrays. Called automatically by
+     * propagate() after nodes were added or moved.
+     */
+    public void rebuild(){
+        size = 0;
+        insert(root, -1);
+        layoutDirty = false;
+    }
+
+    private void insert(Node node, int parent){
+        if(size == nodes.length)
+            allocate(nodes.length * 2);
+
+        int slot = size++;
+        nodes[slot] = node;
+        parents[slot] = parent;
+        dirty[slot] = true;
+        stamps[slot] = -1;
+        node.store = this;
+        node.storeSlot = slot;
+
+        for(Node child: node.getChildren())
+            insert(child, slot);
+    }
+
+    private void allocate(int capacity){
+        nodes = nodes == null ? new Node[capacity] : Arrays.copyOf(nodes, capacity);
+        parents = parents == null ? new int[capacity] : Arrays.copyOf(parents, capacity);
+        dirty = dirty == null ? new boolean[capacity] : Arrays.copyOf(dirty, capacity);
+        stamps = stamps == null ? new int[capacity] : Arrays.copyOf(stamps, capacity);
+
+        localT = grow(localT, capacity * 3);
+        localR = grow(localR, capacity * 3);
+        localS = grow(localS, capacity * 3);
+        worldT = grow(worldT, capacity * 3);
+        worldR = grow(worldR, capacity * 3);
+        worldS = grow(worldS, capacity * 3);
+        matrices = grow(matrices, capacity * 16);
+    }
+
+    private static float[] grow(float[] array, int length){
+        return array == null ? new float[length] : Arrays.copyOf(array, length);
+    }
+
+    void markDirty(int slot){
+        dirty[slot] = true;
+    }
+
+    void invalidateLayout(){
+        layoutDirty = true;
+    }
+
+    /**
+     * Releases every node from this store, returning them to their own
+     * cached transforms
+     */
+    public void detach(){
+        for(int i = 0; i < size; i++){
+            nodes[i].store = null;
+            nodes[i].storeSlot = -1;
+            nodes[i].invalidateTransform();
+            nodes[i] = null;
+        }
+        size = 0;
+        layoutDirty = true;
+    }
+
+    /**
+     * Linear sweep over all slots. A slot is recomputed if it was marked
+     * dirty or its parent was recomputed earlier in the same sweep.
+     */
+    public void propagate(){
+        if(layoutDirty) rebuild();
+
+        frame++;
+        for(int i = 0; i < size; i++){
+            int p = parents[i];
+            if(!dirty[i] && (p < 0 || stamps[p] != frame))
+                continue;
+
+            if(dirty[i]){
+                pull(i);
+                dirty[i] = false;
+            }
+            compute(i, p);
+            stamps[i] = frame;
+        }
+    }
+
+    private void pull(int slot){
+        Transform t = nodes[slot].transform;
+        int o = slot * 3;
+        localT[o] = t.translation.x; localT[o+1] = t.translation.y; localT[o+2] = t.translation.z;
+        localR[o] = t.rotation.x;    localR[o+1] = t.rotation.y;    localR[o+2] = t.rotation.z;
+        localS[o] = t.scaling.x;     localS[o+1] = t.scaling.y;     localS[o+2] = t.scaling.z;
+    }
+
+    private void compute(int slot, int parent){
+        int o = slot * 3;
+
+        if(parent < 0){
+            for(int k = 0; k < 3; k++){
+                worldT[o+k] = localT[o+k];
+                worldR[o+k] = localR[o+k];
+                worldS[o+k] = localS[o+k];
+            }
+        } else {
+            int po = parent * 3;
+            for(int k = 0; k < 3; k++){
+                worldT[o+k] = localT[o+k] + worldT[po+k];
+                worldR[o+k] = localR[o+k] + worldR[po+k];
+                worldS[o+k] = localS[o+k] * worldS[po+k];
+            }
+        }
+
+        // same composition as Node: translate * scale * rotX * rotY * rotZ (negated degrees)
+        float ax = (float) Math.toRadians(-worldR[o]);
+        float ay = (float) Math.toRadians(-worldR[o+1]);
+        float az = (float) Math.toRadians(-worldR[o+2]);
+        float sx = (float) org.joml.Math.sin(ax), cx = (float) org.joml.Math.cosFromSin(sx, ax);
+        float sy = (float) org.joml.Math.sin(ay), cy = (float) org.joml.Math.cosFromSin(sy, ay);
+        float sz = (float) org.joml.Math.sin(az), cz = (float) org.joml.Math.cosFromSin(sz, az);
+
+        float scaleX = worldS[o], scaleY = worldS[o+1], scaleZ = worldS[o+2];
+
+        int m = slot * 16;
+        matrices[m]    = scaleX * (cy * cz);
+        matrices[m+1]  = scaleY * (sx * sy * cz + cx * sz);
+        matrices[m+2]  = scaleZ * (-cx * sy * cz + sx * sz);
+        matrices[m+3]  = 0;
+        matrices[m+4]  = scaleX * (-cy * sz);
+        matrices[m+5]  = scaleY * (-sx * sy * sz + cx * cz);
+        matrices[m+6]  = scaleZ * (cx * sy * sz + sx * cz);
+        matrices[m+7]  = 0;
+        matrices[m+8]  = scaleX * sy;
+        matrices[m+9]  = scaleY * (-sx * cy);
+        matrices[m+10] = scaleZ * (cx * cy);
+        matrices[m+11] = 0;
+        matrices[m+12] = worldT[o];
+        matrices[m+13] = worldT[o+1];
+        matrices[m+14] = worldT[o+2];
+        matrices[m+15] = 1;
+    }
+
+    /** ACCESSORS **/      /** -------------------------------------------- **/
+
+    public Matrix4f getModelMatrix(int slot, Matrix4f dest){
+        return dest.set(matrices, slot * 16);
+    }
+
+    public Vector3f getWorldTranslation(int slot, Vector3f dest){
+        return dest.set(worldT[slot*3], worldT[slot*3+1], worldT[slot*3+2]);
+    }
+
+    public Vector3f getWorldRotation(int slot, Vector3f dest){
+        return dest.set(worldR[slot*3], worldR[slot*3+1], worldR[slot*3+2]);
+    }
+
+    public Vector3f getWorldScaling(int slot, Vector3f dest){
+        return dest.set(worldS[slot*3], worldS[slot*3+1], worldS[slot*3+2]);
+    }
+
+}
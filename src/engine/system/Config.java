@@ -1,11 +1,13 @@
 package engine.system;
 
+import engine.utils.AssimpLoader;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.joml.Vector3f;
 
 import java.io.FileInputStream;
+import java.nio.file.Paths;
 import java.util.Properties;
 
 @Getter @Setter
@@ -43,6 +45,37 @@ public class Config {
 
     private float ambientLight;
 
+    private boolean transformStore;
+    private boolean parallelUpdate;
+    private int parallelSplitThreshold;
+    private boolean spatialIndex;
+    private boolean cpuPicking;
+    private boolean occlusionCulling;
+    private boolean instancing;
+    private boolean staticBatching;
+    private boolean vertexQuantization;
+    private boolean meshOptimization;
+    private int meshLods;
+    private float lodPixelError;
+    private int shadowLodBias;
+    private AssimpLoader.Preset importPreset;
+    private boolean objLoader;
+    private boolean meshCache;
+    private String meshCacheDirectory;
+    private int meshCacheSize;
+    private boolean asyncLoading;
+    private int assetThreads;
+    private int uploadBudgetMillis;
+    private int uploadBudgetKB;
+    private boolean textureCompression;
+    private String compressedTextureDirectory;
+    private int compressedTextureCacheSize;
+    private boolean textureStreaming;
+    private int textureBudgetMB;
+    private int streamingStartSize;
+    private boolean assetArchive;
+    private String assetArchiveFile;
+
 
     @Setter(AccessLevel.NONE)
     @Getter(AccessLevel.NONE)
@@ -65,7 +98,7 @@ public class Config {
         Properties properties = new Properties();
 
         try{
-            String path = System.getProperty("user.dir") + "\\src\\res\\config.properties";
+            String path = Paths.get(System.getProperty("user.dir"), "src", "res", "config.properties").toString();
             FileInputStream fs = new FileInputStream(path);
 
             properties.load(fs);
@@ -112,6 +145,40 @@ public class Config {
 
         ambientLight = Float.valueOf(properties.getProperty("ambientLight"));
 
+        // scenegraph settings
+        transformStore = Boolean.valueOf(properties.getProperty("transformStore"));
+        parallelUpdate = Boolean.valueOf(properties.getProperty("parallelUpdate"));
+        parallelSplitThreshold = Integer.valueOf(properties.getProperty("parallelSplitThreshold"));
+        spatialIndex = Boolean.valueOf(properties.getProperty("spatialIndex"));
+        cpuPicking = Boolean.valueOf(properties.getProperty("cpuPicking"));
+        occlusionCulling = Boolean.valueOf(properties.getProperty("occlusionCulling"));
+        instancing = Boolean.valueOf(properties.getProperty("instancing"));
+        staticBatching = Boolean.valueOf(properties.getProperty("staticBatching"));
+        vertexQuantization = Boolean.valueOf(properties.getProperty("vertexQuantization"));
+        meshOptimization = Boolean.valueOf(properties.getProperty("meshOptimization"));
+        meshLods = Integer.valueOf(properties.getProperty("meshLods"));
+        lodPixelError = Float.valueOf(properties.getProperty("lodPixelError"));
+        shadowLodBias = Integer.valueOf(properties.getProperty("shadowLodBias"));
+        importPreset = AssimpLoader.Preset.valueOf(properties.getProperty("importPreset").trim().toUpperCase());
+        objLoader = Boolean.valueOf(properties.getProperty("objLoader"));
+        meshCache = Boolean.valueOf(properties.getProperty("meshCache"));
+        meshCacheDirectory = properties.getProperty("meshCacheDirectory");
+        meshCacheSize = Integer.valueOf(properties.getProperty("meshCacheSize"));
+
+        // asset loading settings
+        asyncLoading = Boolean.valueOf(properties.getProperty("asyncLoading"));
+        assetThreads = Integer.valueOf(properties.getProperty("assetThreads"));
+        uploadBudgetMillis = Integer.valueOf(properties.getProperty("uploadBudgetMillis"));
+        uploadBudgetKB = Integer.valueOf(properties.getProperty("uploadBudgetKB"));
+        textureCompression = Boolean.valueOf(properties.getProperty("textureCompression"));
+        compressedTextureDirectory = properties.getProperty("compressedTextureDirectory");
+        compressedTextureCacheSize = Integer.valueOf(properties.getProperty("compressedTextureCacheSize"));
+        textureStreaming = Boolean.valueOf(properties.getProperty("textureStreaming"));
+        textureBudgetMB = Integer.valueOf(properties.getProperty("textureBudgetMB"));
+        streamingStartSize = Integer.valueOf(properties.getProperty("streamingStartSize"));
+        assetArchive = Boolean.valueOf(properties.getProperty("assetArchive"));
+        assetArchiveFile = properties.getProperty("assetArchiveFile");
+
         isWireframe = Boolean.valueOf(properties.getProperty("isWireframe"));
         wireframeColor = new Vector3f(0.2f, 0.8f, 0.2f);
 
@@ -2,6 +2,13 @@ package engine.system;
 
 import lombok.Getter;
 import engine.application.event.InputManager;
+import engine.scene.node.SceneUpdater;
+import engine.utils.AssetArchive;
+import engine.utils.AssetManager;
+import engine.utils.TextureCache;
+import engine.utils.TextureStreamer;
+
+import java.io.File;
 
 
 public class Core implements Runnable {
@@ -61,6 +68,11 @@ public class Core implements Runnable {
      */
     protected void init() {
 
+        // assets are read from the archive if there is one
+        Config config = Config.instance();
+        if(config.isAssetArchive())
+            AssetArchive.mount(new File(System.getProperty("user.dir"), config.getAssetArchiveFile()));
+
         // initialize core systems before initializing interface
         window.init();
         app.init();
@@ -84,6 +96,9 @@ public class Core implements Runnable {
 
             input.update();
 
+            if(Config.instance().isTextureStreaming())
+                TextureStreamer.instance().update();
+            AssetManager.instance().update();
             app.update();
             app.draw();
 
@@ -97,7 +112,12 @@ public class Core implements Runnable {
     }
 
     void cleanup() {
-
+        AssetManager.instance().cleanup();
+        if(Config.instance().isParallelUpdate())
+            SceneUpdater.instance().shutdown();
+        System.out.println(TextureCache.instance().report());
+        if(Config.instance().isTextureStreaming())
+            System.out.println(TextureStreamer.instance().report());
     }
 
 //    public void addRenderer(@NotNull Pipeline pipeline){
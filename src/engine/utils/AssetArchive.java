@@ -0,0 +1,286 @@
+package engine.utils;
+
+import lombok.Getter;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.xxhash.XXHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_decompress_safe;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_decompress;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_getErrorName;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_isError;
+
+public class AssetArchive {
+
+    /**
+     * Read only view of a packed asset archive, see AssetPacker. The file
+     * is memory mapped once; entries are found by the xxHash of their path
+     * in a sorted table of contents and decompressed on demand into pooled
+     * direct buffers. Utils and AssimpLoader look in the mounted archive
+     * first and fall back to loose files for paths it does not contain.
+     *
+     * Layout, little endian:
+     *
+     *   int magic, int version, int entry count, int names bytes, long toc offset
+     *   entry data, each 8 byte aligned
+     *   toc, sorted by path hash, per entry:
+     *     long path hash, long offset, long content hash,
+     *     int stored bytes, int size, int codec, int name offset
+     *   names, per entry: int length, path (UTF-8)
+     *
+     * Paths are relative to the packed root with '/' separators, like
+     * "res/images/rock/height.png". The content hash is the xxHash of the
+     * uncompressed entry.
+     */
+
+    public enum Codec {
+        NONE, LZ4, ZSTD
+    }
+
+    public static final int VERSION = 1;
+
+    static final int MAGIC = 0x4B434150; // "PACK"
+    static final long SEED = 0x7061636BL;
+    static final int HEADER_BYTES = 24;
+    static final int TOC_BYTES = 40;
+
+    // released buffers kept for reuse, by power of two capacity
+    private static final long POOL_BYTES = 64L * 1024 * 1024;
+    private static final ArrayList<ArrayDeque<ByteBuffer>> pool = new ArrayList<>();
+    private static long pooledBytes;
+    @Getter private static int allocated, reused;
+
+    static {
+        for(int i = 0; i < 32; i++) pool.add(new ArrayDeque<>());
+    }
+
+    private static volatile AssetArchive mounted;
+
+    /**
+     * Makes the archive the first place Utils and AssimpLoader look for
+     * assets. A missing or invalid archive leaves loose files only
+     */
+    public static synchronized void mount(File file){
+        if(!file.isFile()){
+            System.out.println("No asset archive at " + file + ", loading loose files");
+            return;
+        }
+        try{
+            mounted = new AssetArchive(file);
+            System.out.println("Asset archive mounted: " + file + " (" + mounted.size() + " entries)");
+        } catch(IOException e){
+            System.err.println("Could not mount asset archive " + file + ": " + e);
+        }
+    }
+
+    public static synchronized void unmount(){
+        mounted = null;
+    }
+
+    /**
+     * @return the mounted archive, null if assets are loaded from loose files
+     */
+    public static AssetArchive mounted(){
+        return mounted;
+    }
+
+    @Getter private final File file;
+    private final MappedByteBuffer map;
+    private final long[] hashes;
+    private final int toc, names;
+
+    public AssetArchive(File file) throws IOException {
+        this.file = file;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Asset archive larger than 2 GB");
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+            throw new IOException("Not an asset archive of version " + VERSION);
+        hashes = new long[map.getInt(8)];
+        toc = (int) map.getLong(16);
+        names = toc + hashes.length * TOC_BYTES;
+        for(int i = 0; i < hashes.length; i++)
+            hashes[i] = map.getLong(toc + i * TOC_BYTES);
+    }
+
+    public int size(){
+        return hashes.length;
+    }
+
+    public boolean contains(String path){
+        return find(path) >= 0;
+    }
+
+    /**
+     * @return xxHash of the uncompressed entry, 0 if there is none
+     */
+    public long contentHash(String path){
+        int index = find(path);
+        return index < 0 ? 0 : map.getLong(toc + index * TOC_BYTES + 16);
+    }
+
+    /**
+     * Decompresses an entry into a pooled direct buffer, safe to call from
+     * any thread. Hand the buffer back with release once it is consumed
+     * @return the entry's bytes from position 0 to its size, null if there is none
+     */
+    public ByteBuffer read(String path){
+        int index = find(path);
+        if(index < 0) return null;
+
+        int record = toc + index * TOC_BYTES;
+        int offset = (int) map.getLong(record + 8);
+        int stored = map.getInt(record + 24), size = map.getInt(record + 28);
+        Codec codec = Codec.values()[map.getInt(record + 32)];
+
+        ByteBuffer src = map.duplicate();
+        src.position(offset).limit(offset + stored);
+        ByteBuffer ret = acquire(size);
+
+        long bytes;
+        switch(codec){
+            case LZ4:
+                bytes = LZ4_decompress_safe(src, ret);
+                break;
+            case ZSTD:
+                bytes = ZSTD_decompress(ret, src);
+                if(ZSTD_isError(bytes))
+                    throw new RuntimeException("Could not decompress " + path + ": " + ZSTD_getErrorName(bytes));
+                break;
+            default:
+                MemoryUtil.memCopy(src, ret);
+                bytes = size;
+        }
+        if(bytes != size)
+            throw new RuntimeException("Corrupt asset archive entry: " + path);
+        return ret;
+    }
+
+    /**
+     * @return the paths of all entries, in table of contents order
+     */
+    public String[] paths(){
+        String[] ret = new String[hashes.length];
+        for(int i = 0; i < ret.length; i++)
+            ret[i] = name(i);
+        return ret;
+    }
+
+    /**
+     * Index of path in the table of contents, -1 if the archive does not
+     * contain it. Paths are tried as given and below res/, since both src
+     * and src/res are resource roots
+     */
+    private int find(String path){
+        path = normalize(path);
+        int ret = find(path, hash(path));
+        if(ret < 0 && !path.startsWith("res/"))
+            ret = find("res/" + path, hash("res/" + path));
+        return ret;
+    }
+
+    private int find(String path, long hash){
+        int index = Arrays.binarySearch(hashes, hash);
+        if(index < 0) return -1;
+        // equal hashes are adjacent, compare the paths
+        while(index > 0 && hashes[index - 1] == hash) index--;
+        for(; index < hashes.length && hashes[index] == hash; index++)
+            if(path.equals(name(index))) return index;
+        return -1;
+    }
+
+    private String name(int index){
+        int position = names + map.getInt(toc + index * TOC_BYTES + 36);
+        byte[] bytes = new byte[map.getInt(position)];
+        ByteBuffer name = map.duplicate();
+        name.position(position + 4);
+        name.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return path relative to the packed root with '/' separators
+     */
+    public static String normalize(String path){
+        path = path.replace('\\', '/');
+        while(path.startsWith("/")) path = path.substring(1);
+        while(path.startsWith("./")) path = path.substring(2);
+        return path;
+    }
+
+    static long hash(String path){
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = MemoryUtil.memAlloc(bytes.length);
+        try{
+            buffer.put(bytes).flip();
+            return hash(buffer);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    static long hash(ByteBuffer data){
+        return XXHash.XXH64(data, SEED);
+    }
+
+    /**
+     * Direct buffer with room for size bytes, limited to size, from the
+     * pool or newly allocated
+     */
+    public static ByteBuffer acquire(int size){
+        int k = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        ByteBuffer ret = null;
+        if(k < 31){
+            synchronized(pool){
+                ret = pool.get(k).poll();
+                if(ret != null){
+                    pooledBytes -= ret.capacity();
+                    reused++;
+                } else {
+                    allocated++;
+                }
+            }
+        }
+        if(ret == null)
+            ret = BufferUtils.createByteBuffer(k < 31 ? 1 << k : size);
+        ret.clear().limit(size);
+        return ret;
+    }
+
+    /**
+     * Hands a buffer back to the pool once its contents are no longer
+     * needed. Buffers that are not pooled are left to the garbage collector
+     */
+    public static void release(ByteBuffer buffer){
+        if(buffer == null || !buffer.isDirect() || buffer.capacity() == 0) return;
+        int k = 31 - Integer.numberOfLeadingZeros(buffer.capacity());
+        synchronized(pool){
+            if(pooledBytes + buffer.capacity() > POOL_BYTES) return;
+            pool.get(k).push(buffer);
+            pooledBytes += buffer.capacity();
+        }
+    }
+
+    public static long getPooledBytes(){
+        synchronized(pool){
+            return pooledBytes;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package engine.utils;
+
+import engine.glapi.TextureObject;
+import engine.glapi.vbo.Mesh3D;
+import engine.system.Config;
+import lombok.Getter;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+
+public class AssetManager {
+
+    /**
+     * Loads meshes and textures in the background. File I/O, assimp imports
+     * and image decoding run on a pool of worker threads; the OpenGL part
+     * of every load is queued for the render thread, where update() runs
+     * queued uploads once per frame until the frame's time or byte budget
+     * is spent (at least one upload per frame, so a single large texture
+     * can still exceed it).
+     *
+     * Loads return a placeholder right away, an empty Mesh3D that draws
+     * nothing or a 1x1 texture of a given color, and the upload fills that
+     * same object. Whatever holds the placeholder (PBRModel, PBRMaterial)
+     * draws the real data from the frame it arrives in. whenLoaded runs
+     * code on the render thread once an asset is complete, the futures
+     * returned by load complete there as well.
+     *
+     * With asyncLoading off in the config every load finishes before it
+     * returns.
+     */
+
+    private static AssetManager instance;
+    public static AssetManager instance(){
+        if(instance == null){
+            Config config = Config.instance();
+            instance = new AssetManager(config.isAsyncLoading(), config.getAssetThreads(),
+                    config.getUploadBudgetMillis() * 1_000_000L, config.getUploadBudgetKB() * 1024L);
+        }
+        return instance;
+    }
+
+    private static class Upload {
+        final long bytes;
+        final Runnable task;
+
+        Upload(long bytes, Runnable task){
+            this.bytes = bytes;
+            this.task = task;
+        }
+    }
+
+    @Getter private final boolean async;
+    private final long budgetNanos, budgetBytes;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Upload> uploads = new ConcurrentLinkedQueue<>();
+
+    // placeholders still loading and what to run when they are done, render thread only
+    private final IdentityHashMap<Object, ArrayList<Runnable>> pending = new IdentityHashMap<>();
+
+    // loads started and not yet uploaded
+    @Getter private int loading;
+
+    @Getter private int uploadsLastFrame;
+    @Getter private long bytesLastFrame;
+
+    public AssetManager(boolean async, int threads, long budgetNanos, long budgetBytes){
+        this.async = async;
+        this.budgetNanos = budgetNanos;
+        this.budgetBytes = budgetBytes;
+        this.workers = !async ? null : Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "ASSET_LOADER");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs read on a worker and upload on the render thread. Call from the
+     * render thread
+     * @param read loads and decodes the asset, no GL calls
+     * @param bytes size of the upload, counted against the frame's budget
+     * @param upload GL work, done in update()
+     * @return future completed on the render thread after the upload
+     */
+    public <T> CompletableFuture<T> load(Callable<T> read, ToLongFunction<T> bytes, Consumer<T> upload){
+
+        CompletableFuture<T> ret = new CompletableFuture<>();
+
+        if(!async){
+            try{
+                T data = read.call();
+                upload.accept(data);
+                ret.complete(data);
+            } catch(Exception e){
+                e.printStackTrace();
+                ret.completeExceptionally(e);
+            }
+            return ret;
+        }
+
+        loading++;
+        workers.execute(() -> {
+            try{
+                T data = read.call();
+                uploads.add(new Upload(bytes.applyAsLong(data), () -> {
+                    loading--;
+                    try{
+                        upload.accept(data);
+                        ret.complete(data);
+                    } catch(Exception e){
+                        e.printStackTrace();
+                        ret.completeExceptionally(e);
+                    }
+                }));
+            } catch(Exception e){
+                uploads.add(new Upload(0, () -> {
+                    loading--;
+                    e.printStackTrace();
+                    ret.completeExceptionally(e);
+                }));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * @return empty mesh, filled with the first mesh of the file once loaded
+     */
+    public Mesh3D loadMesh(String filename){
+        return loadMesh(filename, Mesh3D::bind);
+    }
+
+    /**
+     * @param upload uploads the filled placeholder, called on the render thread
+     */
+    public Mesh3D loadMesh(String filename, Consumer<Mesh3D> upload){
+        Mesh3D placeholder = new Mesh3D();
+        track(placeholder, load(() -> read(filename), AssetManager::bytes, meshes -> {
+            Mesh3D mesh = meshes.get(0);
+            placeholder.setPositions(mesh.getPositions());
+            placeholder.setNormals(mesh.getNormals());
+            placeholder.setUVs(mesh.getUVs());
+            placeholder.setIndices(mesh.getIndices());
+            placeholder.copyLods(mesh);
+            upload.accept(placeholder);
+        }));
+        return placeholder;
+    }
+
+    /**
+     * @return future of all meshes in the file, bound, completed on the render thread
+     */
+    public CompletableFuture<ArrayList<Mesh3D>> loadMeshGroup(String filename){
+        return load(() -> read(filename), AssetManager::bytes, meshes -> meshes.forEach(Mesh3D::bind));
+    }
+
+    private static ArrayList<Mesh3D> read(String filename){
+        ArrayList<Mesh3D> ret = AssimpLoader.readMeshGroup(filename);
+        if(ret == null || ret.isEmpty())
+            throw new RuntimeException("Could not load mesh: " + filename);
+        return ret;
+    }
+
+    private static long bytes(ArrayList<Mesh3D> meshes){
+        long ret = 0;
+        for(Mesh3D mesh: meshes)
+            ret += 4L * (mesh.getPositions().length + mesh.getNormals().length
+                    + mesh.getUVs().length + mesh.getIndices().length + mesh.getLodIndexCount());
+        return ret;
+    }
+
+    /**
+     * Textures are shared through the TextureCache, a texture that is
+     * already loading is returned as is. Compressed textures are handed
+     * to the TextureStreamer if streaming is enabled
+     * @param placeholder RGBA color of the 1x1 texture shown until the image is loaded
+     * @return texture, replaced by the image with mipmaps once loaded
+     */
+    public TextureObject loadTexture(String filename, boolean srgb, int placeholder){
+
+        if(!async)
+            return ImageLoader.loadTexture(filename, srgb);
+
+        return TextureCache.instance().acquire(filename, srgb, () -> streamTexture(filename, srgb, placeholder));
+    }
+
+    private TextureObject streamTexture(String filename, boolean srgb, int placeholder){
+
+        TextureObject texture = new TextureObject(GL_TEXTURE_2D, 1, 1);
+        ByteBuffer texel = BufferUtils.createByteBuffer(4);
+        texel.put((byte) (placeholder >>> 24)).put((byte) (placeholder >>> 16))
+                .put((byte) (placeholder >>> 8)).put((byte) placeholder).flip();
+        texture.allocateImage2D(GL_RGBA8, GL_RGBA, texel);
+
+        if(ImageLoader.isCompressionEnabled() && Config.instance().isTextureStreaming()){
+            track(texture, TextureStreamer.instance().add(texture, filename, srgb));
+            return texture;
+        }
+
+        if(ImageLoader.isCompressionEnabled()){
+            track(texture, load(() -> {
+                TextureCompressor.CompressedImage image = ImageLoader.readCompressedImage(filename, srgb);
+                if(image == null)
+                    throw new RuntimeException("Could not find image: " + filename);
+                return image;
+            }, TextureCompressor.CompressedImage::getBytes, image -> {
+                ImageLoader.uploadCompressedImage(texture, image);
+                texture.trilinearFilter();
+                System.out.println("Texture " + texture.getId() + " streamed: " + filename
+                        + " (" + image.getWidth() + "," + image.getHeight() + ", " + image.getFormat() + ")");
+            }));
+            return texture;
+        }
+
+        track(texture, load(() -> {
+            ImageLoader.Image image = ImageLoader.decodeImage(filename);
+            if(image == null)
+                throw new RuntimeException("Could not find image: " + filename);
+            return image;
+        }, image -> (long) image.getWidth() * image.getHeight() * image.getChannels(), image -> {
+            ImageLoader.uploadImage(texture, image, srgb);
+            texture.trilinearFilter();
+            System.out.println("Texture " + texture.getId() + " streamed: " + filename
+                    + " (" + image.getWidth() + "," + image.getHeight() + ")");
+        }));
+        return texture;
+    }
+
+    private void track(Object placeholder, CompletableFuture<?> future){
+        if(future.isDone()) return;
+        pending.put(placeholder, new ArrayList<>());
+        future.whenComplete((data, error) -> {
+            ArrayList<Runnable> actions = pending.remove(placeholder);
+            if(error == null && actions != null)
+                actions.forEach(Runnable::run);
+        });
+    }
+
+    /**
+     * Runs action on the render thread once asset is loaded, right away if
+     * it is not loading
+     */
+    public void whenLoaded(Object asset, Runnable action){
+        ArrayList<Runnable> actions = pending.get(asset);
+        if(actions == null)
+            action.run();
+        else
+            actions.add(action);
+    }
+
+    public boolean isLoading(Object asset){
+        return pending.containsKey(asset);
+    }
+
+    /**
+     * Runs queued uploads within the frame's budget. Called once per frame
+     * on the render thread
+     */
+    public void update(){
+        long start = System.nanoTime(), bytes = 0;
+        int count = 0;
+
+        Upload upload;
+        while((upload = uploads.peek()) != null){
+            if(count > 0 && (System.nanoTime() - start >= budgetNanos || bytes + upload.bytes > budgetBytes))
+                break;
+            uploads.poll();
+            upload.task.run();
+            bytes += upload.bytes;
+            count++;
+        }
+
+        uploadsLastFrame = count;
+        bytesLastFrame = bytes;
+    }
+
+    public int getQueuedUploads(){
+        return uploads.size();
+    }
+
+    public void cleanup(){
+        if(workers != null)
+            workers.shutdownNow();
+    }
+
+}
@@ -0,0 +1,202 @@
+package engine.utils;
+
+import engine.utils.AssetArchive.Codec;
+import lombok.Getter;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_compressBound;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4HC_CLEVEL_MAX;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4_compress_HC;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_compress;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_compressBound;
+import static org.lwjgl.util.zstd.Zstd.ZSTD_isError;
+
+public class AssetPacker {
+
+    /**
+     * Builds an AssetArchive from the files below some directories.
+     * Entries are compressed in parallel with zstd for the smallest
+     * archive or LZ4 HC for the fastest loads; entries that do not get at
+     * least 5% smaller, like PNG and JPEG images, are stored as they are.
+     *
+     * Usage: java engine.utils.AssetPacker [archive] [zstd|lz4|none] [root] [directories]
+     * defaults to res.pak, zstd, src and res/images res/models res/shaders
+     */
+
+    public static final String[] DIRECTORIES = { "res/images", "res/models", "res/shaders" };
+    public static final int ZSTD_LEVEL = 19;
+
+    public static void main(String... args) throws IOException {
+        File output = new File(args.length > 0 ? args[0] : "res.pak");
+        Codec codec = args.length > 1 ? Codec.valueOf(args[1].toUpperCase()) : Codec.ZSTD;
+        File root = new File(args.length > 2 ? args[2] : "src");
+        String[] directories = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : DIRECTORIES;
+
+        long start = System.nanoTime();
+        Result result = pack(root, Arrays.asList(directories), output, codec);
+        System.out.printf("Packed %d files into %s: %.1f MB -> %.1f MB, %d compressed, %.1f s%n",
+                result.getEntries(), output, result.getSize() / 1048576d, result.getStored() / 1048576d,
+                result.getCompressed(), (System.nanoTime() - start) / 1e9);
+    }
+
+    public static class Result {
+        @Getter private int entries, compressed;
+        @Getter private long size, stored;
+    }
+
+    private static class Entry {
+        final String path;
+        final byte[] name;
+        final long hash;
+        byte[] data;
+        long contentHash;
+        int size;
+        Codec codec;
+        long offset;
+
+        Entry(String path){
+            this.path = path;
+            this.name = path.getBytes(StandardCharsets.UTF_8);
+            this.hash = AssetArchive.hash(path);
+        }
+    }
+
+    /**
+     * Packs every file below root/directory for each directory into
+     * output, replacing it
+     * @param codec compression tried on every entry
+     */
+    public static Result pack(File root, List<String> directories, File output, Codec codec) throws IOException {
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        for(String directory: directories)
+            collect(root, new File(root, directory), entries);
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.hash).thenComparing(entry -> entry.path));
+
+        // read and compress on the common pool, files are independent
+        IOException[] error = new IOException[1];
+        IntStream.range(0, entries.size()).parallel().forEach(i -> {
+            Entry entry = entries.get(i);
+            try{
+                compress(entry, Files.readAllBytes(new File(root, entry.path).toPath()), codec);
+            } catch(IOException e){
+                error[0] = e;
+            }
+        });
+        if(error[0] != null) throw error[0];
+
+        // entries, toc, names
+        Result result = new Result();
+        long offset = AssetArchive.HEADER_BYTES;
+        for(Entry entry: entries){
+            entry.offset = offset;
+            offset = align(offset + entry.data.length);
+            result.entries++;
+            result.size += entry.size;
+            result.stored += entry.data.length;
+            if(entry.codec != Codec.NONE) result.compressed++;
+        }
+        long toc = offset;
+        int names = 0;
+        for(Entry entry: entries) names += 4 + entry.name.length;
+        long total = toc + (long) entries.size() * AssetArchive.TOC_BYTES + names;
+        if(total > Integer.MAX_VALUE)
+            throw new IOException("Asset archive larger than 2 GB");
+
+        ByteBuffer data = MemoryUtil.memCalloc((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        try{
+            data.putInt(AssetArchive.MAGIC).putInt(AssetArchive.VERSION).putInt(entries.size()).putInt(names).putLong(toc);
+            for(Entry entry: entries){
+                data.position((int) entry.offset);
+                data.put(entry.data);
+            }
+            data.position((int) toc);
+            int name = 0;
+            for(Entry entry: entries){
+                data.putLong(entry.hash).putLong(entry.offset).putLong(entry.contentHash)
+                        .putInt(entry.data.length).putInt(entry.size).putInt(entry.codec.ordinal()).putInt(name);
+                name += 4 + entry.name.length;
+            }
+            for(Entry entry: entries)
+                data.putInt(entry.name.length).put(entry.name);
+            data.flip();
+
+            File parent = output.getAbsoluteFile().getParentFile();
+            if(parent != null) parent.mkdirs();
+            File temp = new File(output.getPath() + ".tmp");
+            try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                while(data.hasRemaining()) channel.write(data);
+            }
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+        return result;
+    }
+
+    private static void collect(File root, File directory, ArrayList<Entry> entries){
+        File[] files = directory.listFiles();
+        if(files == null) return;
+        Arrays.sort(files);
+        for(File file: files){
+            if(file.isDirectory())
+                collect(root, file, entries);
+            else
+                entries.add(new Entry(AssetArchive.normalize(root.toPath().relativize(file.toPath()).toString())));
+        }
+    }
+
+    private static void compress(Entry entry, byte[] bytes, Codec codec){
+        entry.size = bytes.length;
+        ByteBuffer src = MemoryUtil.memAlloc(Math.max(1, bytes.length));
+        ByteBuffer dst = null;
+        try{
+            src.put(bytes).flip();
+            entry.contentHash = AssetArchive.hash(src);
+
+            long stored = -1;
+            if(codec == Codec.ZSTD){
+                dst = MemoryUtil.memAlloc((int) ZSTD_compressBound(bytes.length));
+                stored = ZSTD_compress(dst, src, ZSTD_LEVEL);
+                if(ZSTD_isError(stored)) stored = -1;
+            } else if(codec == Codec.LZ4){
+                dst = MemoryUtil.memAlloc(LZ4_compressBound(bytes.length));
+                stored = LZ4_compress_HC(src, dst, LZ4HC_CLEVEL_MAX);
+                if(stored <= 0) stored = -1;
+            }
+
+            if(stored >= 0 && stored < bytes.length - bytes.length / 20){
+                entry.data = new byte[(int) stored];
+                dst.get(entry.data);
+                entry.codec = codec;
+            } else {
+                entry.data = bytes;
+                entry.codec = Codec.NONE;
+            }
+        } finally {
+            MemoryUtil.memFree(src);
+            if(dst != null) MemoryUtil.memFree(dst);
+        }
+    }
+
+    private static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+
+}
@@ -1,110 +1,406 @@
 package engine.utils;
 
-import org.joml.Vector2f;
-import org.joml.Vector3f;
 import org.lwjgl.assimp.*;
 import engine.glapi.vbo.Mesh3D;
+import engine.system.Config;
+import lombok.Getter;
 
-import java.nio.IntBuffer;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 
+import static org.lwjgl.assimp.Assimp.AI_CONFIG_PP_FD_REMOVE;
+import static org.lwjgl.assimp.Assimp.AI_CONFIG_PP_SBP_REMOVE;
+import static org.lwjgl.assimp.Assimp.aiOrigin_CUR;
+import static org.lwjgl.assimp.Assimp.aiOrigin_END;
+import static org.lwjgl.assimp.Assimp.aiPrimitiveType_LINE;
+import static org.lwjgl.assimp.Assimp.aiPrimitiveType_POINT;
+import static org.lwjgl.assimp.Assimp.aiProcess_FindDegenerates;
+import static org.lwjgl.assimp.Assimp.aiProcess_FindInvalidData;
 import static org.lwjgl.assimp.Assimp.aiProcess_GenSmoothNormals;
+import static org.lwjgl.assimp.Assimp.aiProcess_ImproveCacheLocality;
 import static org.lwjgl.assimp.Assimp.aiProcess_JoinIdenticalVertices;
+import static org.lwjgl.assimp.Assimp.aiProcess_OptimizeMeshes;
+import static org.lwjgl.assimp.Assimp.aiProcess_SortByPType;
+import static org.lwjgl.assimp.Assimp.aiProcess_Triangulate;
+import static org.lwjgl.assimp.Assimp.aiProcess_ValidateDataStructure;
+import static org.lwjgl.assimp.Assimp.aiReturn_FAILURE;
+import static org.lwjgl.assimp.Assimp.aiReturn_SUCCESS;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+import static org.lwjgl.system.MemoryUtil.memFloatBuffer;
+import static org.lwjgl.system.MemoryUtil.memGetAddress;
+import static org.lwjgl.system.MemoryUtil.memGetInt;
+import static org.lwjgl.system.MemoryUtil.memUTF8;
 
 public class AssimpLoader {
+
+    /**
+     * Post processing presets, picked with importPreset in the config.
+     * Both triangulate, so every face reaches the GPU as one triangle, and
+     * generate smooth normals where the file has none.
+     *
+     *   PREVIEW   joins identical vertices and nothing more, OBJ files
+     *             skip assimp through the ObjLoader. For iterating on assets
+     *   SHIPPING  also removes degenerate triangles, lines, points and
+     *             invalid data, merges meshes by material and orders the
+     *             triangles for the vertex cache. Always goes through
+     *             assimp, the ObjLoader does none of this cleanup
+     *
+     * With meshOptimization on the MeshOptimizer orders the triangles
+     * anyway, so aiProcess_ImproveCacheLocality is left out, see flags.
+     */
+    public enum Preset {
+        PREVIEW(aiProcess_Triangulate | aiProcess_GenSmoothNormals | aiProcess_JoinIdenticalVertices),
+        SHIPPING(aiProcess_Triangulate | aiProcess_GenSmoothNormals | aiProcess_JoinIdenticalVertices
+                | aiProcess_FindDegenerates | aiProcess_SortByPType | aiProcess_FindInvalidData
+                | aiProcess_OptimizeMeshes | aiProcess_ImproveCacheLocality | aiProcess_ValidateDataStructure);
+
+        @Getter private final int flags;
+
+        Preset(int flags){
+            this.flags = flags;
+        }
+
+        /**
+         * Flags to import with: without aiProcess_ImproveCacheLocality when
+         * the MeshOptimizer reorders the meshes after the import
+         */
+        public int flags(boolean meshOptimization){
+            return meshOptimization ? flags & ~aiProcess_ImproveCacheLocality : flags;
+        }
+
+        /**
+         * Importer settings of the preset, release with aiReleasePropertyStore
+         */
+        private AIPropertyStore properties(){
+            AIPropertyStore ret = Assimp.aiCreatePropertyStore();
+            if(this == SHIPPING){
+                // degenerate triangles collapse to lines and points, which are dropped
+                Assimp.aiSetImportPropertyInteger(ret, AI_CONFIG_PP_FD_REMOVE, 1);
+                Assimp.aiSetImportPropertyInteger(ret, AI_CONFIG_PP_SBP_REMOVE, aiPrimitiveType_POINT | aiPrimitiveType_LINE);
+            }
+            return ret;
+        }
+    }
+
     public static ArrayList<Mesh3D> loadMeshGroup(String filename){
 
-        ArrayList<Mesh3D> ret = new ArrayList<>();
+        ArrayList<Mesh3D> ret = readMeshGroup(filename);
+        if(ret == null)
+            System.exit(1);
+
+        ret.forEach(Mesh3D::bind);
+        return ret;
+    }
+
+    /**
+     * Everything loadMeshGroup does except the upload, safe to call from
+     * any thread
+     * @return the meshes, null if the file could not be imported
+     */
+    public static ArrayList<Mesh3D> readMeshGroup(String filename){
+        return importMeshGroup(filename, Config.instance().getImportPreset());
+    }
+
+    /**
+     * Reads the converted meshes from the MeshCache, or imports, converts
+     * and optimizes the file, generates its levels of detail and caches
+     * the result. Models are imported
+     * from the mounted AssetArchive if it has them, else from loose files.
+     * Reports the triangles and the time taken per file
+     */
+    private static ArrayList<Mesh3D> importMeshGroup(String filename, Preset preset){
+
+        long start = System.nanoTime();
+        Config config = Config.instance();
+        boolean optimize = config.isMeshOptimization();
+        int flags = preset.flags(optimize);
+
+        AssetArchive archive = AssetArchive.mounted();
+        boolean packed = archive != null && archive.contains(filename);
+        String path = packed ? AssetArchive.normalize(filename) : Utils.absolutePath(filename);
+        long hash = packed ? archive.contentHash(filename) : 0;
+
+        int lods = config.getMeshLods();
+        boolean objLoader = config.isObjLoader() && isObjImport(path, flags);
+        if(config.isMeshCache()){
+            ArrayList<Mesh3D> cached = packed ? MeshCache.instance().load(path, flags, optimize, objLoader, lods, hash)
+                    : MeshCache.instance().load(path, flags, optimize, objLoader, lods);
+            if(cached != null){
+                report(filename, preset, "mesh cache", cached, start);
+                return cached;
+            }
+        }
+
+        // the ObjLoader leaves polygons it does not triangulate like assimp to assimp
+        ArrayList<Mesh3D> ret = null;
+        if(objLoader){
+            ret = packed ? readObj(archive, path, flags) : ObjLoader.read(new File(path),
+                    (flags & aiProcess_Triangulate) != 0, (flags & aiProcess_GenSmoothNormals) != 0,
+                    (flags & aiProcess_JoinIdenticalVertices) != 0);
+        }
+        String source = ret != null ? "ObjLoader" : "assimp";
+        if(ret == null){
+            AIScene scene = packed ? importScene(archive, path, preset, flags) : importScene(path, preset, flags, null);
+            if(scene == null){
+                System.err.println(Assimp.aiGetErrorString());
+                return null;
+            }
+            ret = convertMeshGroup(scene);
+            Assimp.aiReleaseImport(scene);
+        }
+
+        if(optimize)
+            ret.forEach(AssimpLoader::optimize);
+        if(lods > 1)
+            ret.forEach(mesh -> generateLods(mesh, lods));
+        if(config.isMeshCache()){
+            if(packed) MeshCache.instance().store(path, flags, optimize, objLoader, lods, hash, ret);
+            else MeshCache.instance().store(path, flags, optimize, objLoader, lods, ret);
+        }
+        report(filename, preset, source, ret, start);
+        return ret;
+    }
+
+    private static void report(String filename, Preset preset, String source, ArrayList<Mesh3D> meshes, long start){
+        System.out.printf("Imported %s (%s, %s): %d meshes, %d triangles, %.1f ms%n", filename, preset, source,
+                meshes.size(), triangles(meshes), (System.nanoTime() - start) / 1e6);
+    }
 
-        AIScene scene = Assimp.aiImportFile(Utils.absolutePath(filename),
-                aiProcess_GenSmoothNormals | aiProcess_JoinIdenticalVertices);
+    /**
+     * @return the number of triangles of all meshes
+     */
+    public static int triangles(ArrayList<Mesh3D> meshes){
+        int ret = 0;
+        for(Mesh3D mesh: meshes)
+            ret += mesh.getIndices().length / 3;
+        return ret;
+    }
+
+    /**
+     * OBJ files can skip assimp if no post processing beyond what the
+     * ObjLoader replicates is asked for
+     */
+    private static boolean isObjImport(String path, int flags){
+        return path.toLowerCase().endsWith(".obj")
+                && (flags & ~(aiProcess_Triangulate | aiProcess_GenSmoothNormals | aiProcess_JoinIdenticalVertices)) == 0;
+    }
+
+    private static ArrayList<Mesh3D> readObj(AssetArchive archive, String path, int flags){
+        ByteBuffer data = archive.read(path);
+        try{
+            return ObjLoader.parse(data, (flags & aiProcess_Triangulate) != 0,
+                    (flags & aiProcess_GenSmoothNormals) != 0, (flags & aiProcess_JoinIdenticalVertices) != 0);
+        } finally {
+            AssetArchive.release(data);
+        }
+    }
+
+    /**
+     * Imports a loose model file with a preset, without converting it.
+     * The scene has to be released by the caller
+     * @return the scene, null if assimp could not import the file
+     */
+    public static AIScene importScene(String path, Preset preset){
+        return importScene(path, preset, preset.getFlags(), null);
+    }
+
+    /**
+     * Same with the flags the preset imports with when meshOptimization
+     * is as given, see Preset.flags
+     */
+    public static AIScene importScene(String path, Preset preset, boolean meshOptimization){
+        return importScene(path, preset, preset.flags(meshOptimization), null);
+    }
+
+    private static AIScene importScene(String path, Preset preset, int flags, AIFileIO io){
+        AIPropertyStore properties = preset.properties();
+        try{
+            return Assimp.aiImportFileExWithProperties(path, flags, io, properties);
+        } finally {
+            Assimp.aiReleasePropertyStore(properties);
+        }
+    }
+
+    /**
+     * Imports a model from an archive through assimp's file callbacks, so
+     * files it references, like OBJ materials, are read from there as well
+     */
+    private static AIScene importScene(AssetArchive archive, String path, Preset preset, int flags){
+
+        // open files by the address of their AIFile
+        HashMap<Long, ByteBuffer> files = new HashMap<>();
+
+        AIFileReadProc read = AIFileReadProc.create((file, buffer, size, count) -> {
+            ByteBuffer data = files.get(file);
+            long n = Math.min(count, size == 0 ? 0 : data.remaining() / size);
+            memCopy(memAddress(data), buffer, n * size);
+            data.position(data.position() + (int) (n * size));
+            return n;
+        });
+        AIFileWriteProc write = AIFileWriteProc.create((file, buffer, size, count) -> 0);
+        AIFileTellProc tell = AIFileTellProc.create(file -> files.get(file).position());
+        AIFileTellProc fileSize = AIFileTellProc.create(file -> files.get(file).limit());
+        AIFileSeek seek = AIFileSeek.create((file, offset, origin) -> {
+            ByteBuffer data = files.get(file);
+            long position = origin == aiOrigin_CUR ? data.position() + offset
+                    : origin == aiOrigin_END ? data.limit() + offset : offset;
+            if(position < 0 || position > data.limit()) return aiReturn_FAILURE;
+            data.position((int) position);
+            return aiReturn_SUCCESS;
+        });
+        AIFileFlushProc flush = AIFileFlushProc.create(file -> {});
 
+        AIFileOpenProc open = AIFileOpenProc.create((io, name, mode) -> {
+            ByteBuffer data = archive.read(memUTF8(name));
+            if(data == null) return NULL;
+            AIFile file = AIFile.calloc().ReadProc(read).WriteProc(write).TellProc(tell)
+                    .FileSizeProc(fileSize).SeekProc(seek).FlushProc(flush);
+            files.put(file.address(), data);
+            return file.address();
+        });
+        AIFileCloseProc close = AIFileCloseProc.create((io, file) -> {
+            AssetArchive.release(files.remove(file));
+            AIFile.create(file).free();
+        });
+
+        AIFileIO io = AIFileIO.calloc().OpenProc(open).CloseProc(close);
+        try{
+            return importScene(path, preset, flags, io);
+        } finally {
+            io.free();
+            open.free();
+            close.free();
+            read.free();
+            write.free();
+            tell.free();
+            fileSize.free();
+            seek.free();
+            flush.free();
+        }
+    }
+
+    /**
+     * Converts every mesh of an imported scene without uploading them.
+     * The scene still has to be released by the caller
+     */
+    public static ArrayList<Mesh3D> convertMeshGroup(AIScene scene){
+        ArrayList<Mesh3D> ret = new ArrayList<>();
         for(int i = 0; i<scene.mNumMeshes(); i++){
             Mesh3D mesh = ai_mesh_convert(AIMesh.create(scene.mMeshes().get(i)));
             if(mesh!=null)
                 ret.add(mesh);
         }
-
         return ret;
     }
 
     public static Mesh3D loadMesh(String filename){
         System.out.println("Loading mesh: " + filename);
 
-        AIScene scene = Assimp.aiImportFile(Utils.absolutePath(filename),
-                aiProcess_GenSmoothNormals);
-
-        if(scene == null){
-            System.err.println(Assimp.aiGetErrorString());
+        ArrayList<Mesh3D> meshes = importMeshGroup(filename, Config.instance().getImportPreset());
+        if(meshes == null)
             System.exit(1);
-        }
 
-        if(scene.mNumMeshes()!=1){
+        if(meshes.size()!=1){
             System.err.println("Too many meshes for loadMesh() to generate! Use loadMeshGroup() instead");
         }
 
-        Mesh3D mesh = ai_mesh_convert(AIMesh.create(scene.mMeshes().get(0)));
+        Mesh3D mesh = meshes.get(0);
+        mesh.bind();
         System.out.println("Finished loading: " + filename);
         return mesh;
     }
 
+    /**
+     * Reorders the mesh for the vertex cache, overdraw and vertex fetch,
+     * see MeshOptimizer
+     */
+    private static void optimize(Mesh3D mesh){
+        float before = MeshOptimizer.acmr(mesh);
+        MeshOptimizer.optimize(mesh);
+        System.out.printf("Optimized mesh: %d triangles, ACMR %.3f -> %.3f%n",
+                mesh.getIndices().length / 3, before, MeshOptimizer.acmr(mesh));
+    }
+
+    /**
+     * Adds up to levels - 1 coarser levels of detail, see MeshSimplifier
+     */
+    private static void generateLods(Mesh3D mesh, int levels){
+        MeshSimplifier.generateLods(mesh, levels);
+        if(mesh.getLodCount() == 1) return;
+        StringBuilder triangles = new StringBuilder();
+        for(int level = 1; level < mesh.getLodCount(); level++)
+            triangles.append(String.format(" -> %d (%.4f)", mesh.getLod(level).getVertexCount() / 3, mesh.getLodError(level)));
+        System.out.printf("Levels of detail: %d triangles%s%n", mesh.getIndices().length / 3, triangles);
+    }
+
+    /**
+     * Copies the mesh data straight from the native assimp buffers into
+     * the mesh arrays, without a GL context and without binding
+     */
     private static Mesh3D ai_mesh_convert(AIMesh mesh){
 
         if(mesh==null)
             return null;
 
         Mesh3D ret = new Mesh3D();
+        int vertices = mesh.mNumVertices();
 
         // POSITION //
-        AIVector3D.Buffer aiVert = mesh.mVertices();
-        while(aiVert.remaining()>0){
-            AIVector3D pos = aiVert.get();
-            ret.getPositions().add(new Vector3f(pos.x(), pos.y(), pos.z()));
-        }
+        // AIVector3D is three packed floats, so the buffers can be copied in bulk
+        float[] positions = new float[vertices * 3];
+        memFloatBuffer(mesh.mVertices().address(), vertices * 3).get(positions);
+        ret.setPositions(positions);
 
         // UV //
         AIVector3D.Buffer aiUV = mesh.mTextureCoords(0);
         if(aiUV != null){
-            while(aiUV.remaining()>0){
-                AIVector3D uv = aiUV.get();
-                ret.getUVs().add(new Vector2f(uv.x(), uv.y()));
+            FloatBuffer uvw = memFloatBuffer(aiUV.address(), vertices * 3);
+            float[] UVs = new float[vertices * 2];
+            for(int i = 0; i < vertices; i++){
+                UVs[i*2] = uvw.get(i*3);
+                UVs[i*2+1] = uvw.get(i*3+1);
             }
+            ret.setUVs(UVs);
         }
 
         AIVector3D.Buffer aiNorm = mesh.mNormals();
         if(aiNorm != null){
-            while(aiNorm.remaining()>0){
-                AIVector3D norm = aiNorm.get();
-                ret.getNormals().add(new Vector3f(norm.x(), norm.y(), norm.z()));
-            }
+            float[] normals = new float[vertices * 3];
+            memFloatBuffer(aiNorm.address(), vertices * 3).get(normals);
+            ret.setNormals(normals);
+        }
+
+        // faces are read through their addresses, without a wrapper object per face.
+        // The presets triangulate, lines and points are skipped
+        long faces = mesh.mFaces().address();
+        int numFaces = mesh.mNumFaces();
+        int count = 0;
+        for(int f = 0; f < numFaces; f++){
+            if(AIFace.nmNumIndices(faces + f * AIFace.SIZEOF) == 3)
+                count += 3;
         }
 
-        AIFace.Buffer aifaces = mesh.mFaces();
-        while (aifaces.remaining() > 0) {
-            AIFace aiface = aifaces.get();
+        int[] indices = new int[count];
+        int i = 0;
+        for(int f = 0; f < numFaces; f++){
+            long aiface = faces + f * AIFace.SIZEOF;
+            int n = AIFace.nmNumIndices(aiface);
+            long face = memGetAddress(aiface + AIFace.MINDICES);
 
-            if (aiface.mNumIndices() == 3) {
-                IntBuffer indicesBuffer = aiface.mIndices();
-                ret.getIndices().add(indicesBuffer.get(0));
-                ret.getIndices().add(indicesBuffer.get(1));
-                ret.getIndices().add(indicesBuffer.get(2));
-            }
-            if (aiface.mNumIndices() == 4) {
-                IntBuffer indicesBuffer = aiface.mIndices();
-                ret.getIndices().add(indicesBuffer.get(0));
-                ret.getIndices().add(indicesBuffer.get(1));
-                ret.getIndices().add(indicesBuffer.get(2));
-                ret.getIndices().add(indicesBuffer.get(0));
-                ret.getIndices().add(indicesBuffer.get(1));
-                ret.getIndices().add(indicesBuffer.get(3));
-                ret.getIndices().add(indicesBuffer.get(1));
-                ret.getIndices().add(indicesBuffer.get(2));
-                ret.getIndices().add(indicesBuffer.get(3));
+            if (n == 3) {
+                indices[i++] = memGetInt(face);
+                indices[i++] = memGetInt(face + 4);
+                indices[i++] = memGetInt(face + 8);
             }
 
         }
+        ret.setIndices(indices);
 
-        ret.bind();
         return ret;
 
     }
@@ -0,0 +1,238 @@
+package engine.utils;
+
+import engine.system.Config;
+import engine.utils.TextureCompressor.CompressedImage;
+import engine.utils.TextureCompressor.Format;
+import lombok.Getter;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.xxhash.XXHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class CompressedTextureCache {
+
+    /**
+     * Block compressed textures on disk, so every image is encoded by the
+     * TextureCompressor only once. Works like the MeshCache: one file per
+     * image and color space, named after their hash, holding an xxHash of
+     * the encoded image file. Files with another version, key or content
+     * hash are ignored and written again. Bump VERSION when the encoder's
+     * output changes.
+     *
+     * Layout, little endian, 4 byte aligned:
+     *
+     *   int magic, int version, int format, int srgb, long content hash,
+     *   int width, int height, int levels, int path length, path (UTF-8, padded)
+     *   per level: int bytes, blocks (padded)
+     */
+
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x58544342; // "BCTX"
+    private static final long SEED = 0x74657874L;
+    private static final String EXTENSION = ".bctx";
+    private static final int HEADER_BYTES = 40;
+
+    private static CompressedTextureCache instance;
+    public static synchronized CompressedTextureCache instance(){
+        if(instance == null){
+            Config config = Config.instance();
+            instance = new CompressedTextureCache(new File(System.getProperty("user.dir"), config.getCompressedTextureDirectory()),
+                    config.getCompressedTextureCacheSize() * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    @Getter private final File directory;
+    @Getter private final long maxBytes;
+
+    @Getter private int hits, misses;
+
+    public CompressedTextureCache(File directory, long maxBytes){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param source image file
+     * @param srgb whether the image is loaded as sRGB
+     * @param contentHash hash of the image file, see hash
+     * @return the cached texture, null if there is no valid cache file
+     */
+    public CompressedImage load(String source, boolean srgb, long contentHash){
+        return load(source, srgb, contentHash, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads only the mip levels no larger than maxSize texels on their
+     * longer side, the smallest level at least
+     * @return the cached levels, null if there is no valid cache file
+     */
+    public synchronized CompressedImage load(String source, boolean srgb, long contentHash, int maxSize){
+        File file = cacheFile(source, srgb);
+        if(!file.isFile()){
+            misses++;
+            return null;
+        }
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(map.getInt() != MAGIC || map.getInt() != VERSION){
+                misses++;
+                return null;
+            }
+            int format = map.getInt();
+            boolean srgbFormat = map.getInt() != 0;
+            if(map.getLong() != contentHash || format < 0 || format >= Format.values().length){
+                misses++;
+                return null;
+            }
+            int width = map.getInt(), height = map.getInt();
+            byte[][] levels = new byte[map.getInt()][];
+            if(!source.equals(readString(map))){
+                misses++;
+                return null;
+            }
+
+            int mip = TextureCompressor.mipForSize(width, height, maxSize);
+            for(int i = 0; i < levels.length; i++){
+                int length = map.getInt();
+                if(i >= mip){
+                    levels[i] = new byte[length];
+                    map.get(levels[i]);
+                } else {
+                    map.position(map.position() + length);
+                }
+                map.position(align(map.position()));
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            return new CompressedImage(Format.values()[format], srgbFormat, width, height, levels).fromLevel(mip);
+        } catch(Exception e){
+            System.err.println("Could not read texture cache " + file + ": " + e);
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Writes a compressed texture with all its levels, replacing an
+     * outdated cache file, and trims the directory to its size limit
+     */
+    public synchronized void store(String source, boolean srgb, long contentHash, CompressedImage image){
+        if(image.getMip() != 0)
+            throw new IllegalArgumentException("Only full mip chains can be cached: " + source);
+        File file = cacheFile(source, srgb);
+        byte[] path = source.getBytes(StandardCharsets.UTF_8);
+
+        long size = HEADER_BYTES + align(path.length);
+        for(byte[] level: image.getLevels())
+            size += 4 + align(level.length);
+        if(size > Integer.MAX_VALUE) return;
+
+        ByteBuffer data = MemoryUtil.memCalloc((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        try{
+            data.putInt(MAGIC).putInt(VERSION).putInt(image.getFormat().ordinal()).putInt(image.isSrgb() ? 1 : 0)
+                    .putLong(contentHash).putInt(image.getWidth()).putInt(image.getHeight())
+                    .putInt(image.getLevels().length).putInt(path.length).put(path);
+            data.position(HEADER_BYTES + align(path.length));
+            for(byte[] level: image.getLevels()){
+                data.putInt(level.length).put(level);
+                data.position(align(data.position()));
+            }
+            data.flip();
+
+            directory.mkdirs();
+            File temp = new File(directory, file.getName() + ".tmp");
+            try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                while(data.hasRemaining()) channel.write(data);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e){
+            System.err.println("Could not write texture cache " + file + ": " + e);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used cache files until the directory fits
+     * into maxBytes
+     */
+    public void trim(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if(files == null) return;
+
+        long total = 0;
+        for(File file: files) total += file.length();
+        if(total <= maxBytes) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for(int i = 0; i < files.length && total > maxBytes; i++){
+            long length = files[i].length();
+            if(files[i].delete()) total -= length;
+        }
+    }
+
+    public long size(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        long ret = 0;
+        if(files != null)
+            for(File file: files) ret += file.length();
+        return ret;
+    }
+
+    public void clear(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if(files != null)
+            for(File file: files) file.delete();
+    }
+
+    public File cacheFile(String source, boolean srgb){
+        String key = source + '|' + srgb;
+        ByteBuffer bytes = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = MemoryUtil.memAlloc(bytes.remaining());
+        try{
+            buffer.put(bytes).flip();
+            return new File(directory, Long.toHexString(hash(buffer)) + EXTENSION);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * xxHash of an encoded image file, the content hash of its cache entry
+     */
+    public static long hash(ByteBuffer encoded){
+        return XXHash.XXH64(encoded, SEED);
+    }
+
+    private static String readString(ByteBuffer map){
+        byte[] bytes = new byte[map.getInt()];
+        map.get(bytes);
+        map.position(HEADER_BYTES + align(bytes.length));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int align(int bytes){
+        return (bytes + 3) & ~3;
+    }
+
+}
@@ -1,6 +1,12 @@
 package engine.utils;
 
+import lombok.Getter;
+import engine.system.Config;
+import engine.utils.TextureCompressor.CompressedImage;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
 import engine.glapi.TextureObject;
 
 import java.io.IOException;
@@ -39,6 +45,7 @@ public class ImageLoader {
         }
 
         ByteBuffer image = stbi_load_from_memory(buffer, w, h, c, 0);
+        AssetArchive.release(buffer);
 
         if(image == null){
             throw new RuntimeException("Failed to load image: " + stbi_failure_reason());
@@ -50,21 +57,59 @@ public class ImageLoader {
     }
 
     /**
-     * Utility for loading texture to openGL directly
-     * @param filename image path with format "res/images/*"
-     * @return texture object with width, height, and handle
+     * Decoded pixels of an image file, see decodeImage
      */
-    public static TextureObject loadTexture(String filename, boolean srgb){
+    public static class Image {
+        @Getter private final String filename;
+        @Getter private final int width, height, channels;
+        @Getter private final ByteBuffer pixels;
+
+        private Image(String filename, int width, int height, int channels, ByteBuffer pixels){
+            this.filename = filename;
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.pixels = pixels;
+        }
 
-        ByteBuffer buffer;
+        public void free(){
+            nstbi_image_free(MemoryUtil.memAddress0(pixels));
+        }
+    }
+
+    /**
+     * Reads and decodes an image without touching OpenGL, so it can run on
+     * any thread
+     * @param filename image path with format "res/images/*"
+     * @return decoded image, null if the file does not exist
+     */
+    public static Image decodeImage(String filename){
+        ByteBuffer buffer = readImageFile(filename);
+        if(buffer == null)
+            return null;
+        Image ret = decodeImage(filename, buffer);
+        AssetArchive.release(buffer);
+        return ret;
+    }
 
+    /**
+     * @return encoded bytes of an image file, null if it does not exist.
+     * Hand them to AssetArchive.release once decoded
+     */
+    public static ByteBuffer readImageFile(String filename){
         try{
-            buffer = Utils.ioResourceToBuffer(filename, 128*128);
+            return Utils.ioResourceToBuffer(filename, 128*128);
         } catch(IOException e){
-            return TextureObject.emptyTexture();
+            return null;
         } catch(NullPointerException e){
-            return TextureObject.emptyTexture();
+            return null;
         }
+    }
+
+    /**
+     * Decodes an image file already in memory, see readImageFile
+     */
+    public static Image decodeImage(String filename, ByteBuffer buffer){
 
         IntBuffer w = BufferUtils.createIntBuffer(1);
         IntBuffer h = BufferUtils.createIntBuffer(1);
@@ -80,29 +125,128 @@ public class ImageLoader {
             throw new RuntimeException("Failed to load image: " + stbi_failure_reason());
         }
 
+        return new Image(filename, w.get(0), h.get(0), c.get(0), image);
+    }
+
+    /**
+     * Utility for loading texture to openGL directly. Textures are shared
+     * through the TextureCache, release them with TextureCache.release
+     * @param filename image path with format "res/images/*"
+     * @return texture object with width, height, and handle
+     */
+    public static TextureObject loadTexture(String filename, boolean srgb){
+        return TextureCache.instance().acquire(filename, srgb, () -> readTexture(filename, srgb));
+    }
+
+    private static TextureObject readTexture(String filename, boolean srgb){
+
+        if(isCompressionEnabled()){
+            CompressedImage compressed = readCompressedImage(filename, srgb);
+            if(compressed == null)
+                return TextureObject.emptyTexture();
+
+            TextureObject ret = new TextureObject(GL_TEXTURE_2D, compressed.getWidth(), compressed.getHeight());
+            ret.bilinearFilter();
+            uploadCompressedImage(ret, compressed);
+
+            System.out.println("Texture " + ret.getId() + " loaded: " + filename + " (" + compressed.getWidth()
+                    + "," + compressed.getHeight() + ", " + compressed.getFormat() + ")");
+            return ret;
+        }
+
+        Image image = decodeImage(filename);
+        if(image == null)
+            return TextureObject.emptyTexture();
+
         int id = glGenTextures();
-        TextureObject ret = new TextureObject(GL_TEXTURE_2D, w.get(0), h.get(0), id);
+        TextureObject ret = new TextureObject(GL_TEXTURE_2D, image.width, image.height, id);
         ret.bilinearFilter();
-        if (c.get(0) == 3) {
-            if ((w.get(0) & 3) != 0) {
-                glPixelStorei(GL_UNPACK_ALIGNMENT, 2 - (w.get(0) & 1));
+        uploadImage(ret, image, srgb);
+
+        System.out.println("Texture " + id + " loaded: " + filename + " (" + image.width + "," + image.height + ")");
+
+        return ret;
+    }
+
+    /**
+     * Stores a decoded image in texture, resizing it to the image, and
+     * frees the pixels
+     */
+    public static void uploadImage(TextureObject texture, Image image, boolean srgb){
+
+        int w = image.width, c = image.channels;
+        texture.setWidth(w);
+        texture.setHeight(image.height);
+
+        if (c == 3) {
+            if ((w & 3) != 0) {
+                glPixelStorei(GL_UNPACK_ALIGNMENT, 2 - (w & 1));
             }
             if(srgb)
-                ret.allocateImage2D(GL_SRGB8, GL_RGB, image);
+                texture.allocateImage2D(GL_SRGB8, GL_RGB, image.pixels);
             else
-                ret.allocateImage2D(GL_RGB16F, GL_RGB, image);
-        } else if (c.get(0) == 1){
-            ret.allocateImage2D(GL_RED, GL_RED, image);
+                texture.allocateImage2D(GL_RGB16F, GL_RGB, image.pixels);
+        } else if (c == 1){
+            texture.allocateImage2D(GL_RED, GL_RED, image.pixels);
         } else {
             if(srgb)
-                ret.allocateImage2D(GL_SRGB8_ALPHA8, GL_RGBA, image);
+                texture.allocateImage2D(GL_SRGB8_ALPHA8, GL_RGBA, image.pixels);
             else
-                ret.allocateImage2D(GL_RGBA16F, GL_RGBA, image);
+                texture.allocateImage2D(GL_RGBA16F, GL_RGBA, image.pixels);
+        }
+
+        image.free();
     }
 
-        stbi_image_free(image);
-        System.out.println("Texture " + id + " loaded: " + filename + " (" + w.get(0) + "," + h.get(0) + ")");
+    /**
+     * Textures are block compressed if enabled in the config and the
+     * driver supports S3TC, its sRGB formats and RGTC. Render thread only
+     */
+    public static boolean isCompressionEnabled(){
+        GLCapabilities caps = GL.getCapabilities();
+        return Config.instance().isTextureCompression() && caps.GL_EXT_texture_compression_s3tc
+                && caps.GL_EXT_texture_sRGB && caps.OpenGL30;
+    }
 
+    /**
+     * Reads an image block compressed with all mip levels, from the
+     * CompressedTextureCache or encoded and stored there. No OpenGL calls
+     * @return compressed image, null if the file does not exist
+     */
+    public static CompressedImage readCompressedImage(String filename, boolean srgb){
+        ByteBuffer buffer = readImageFile(filename);
+        if(buffer == null)
+            return null;
+        CompressedImage ret = readCompressedImage(filename, srgb, buffer);
+        AssetArchive.release(buffer);
         return ret;
     }
+
+    /**
+     * Same for an image file already in memory, see readImageFile
+     */
+    public static CompressedImage readCompressedImage(String filename, boolean srgb, ByteBuffer buffer){
+
+        CompressedTextureCache cache = CompressedTextureCache.instance();
+        long hash = CompressedTextureCache.hash(buffer);
+        CompressedImage ret = cache.load(filename, srgb, hash);
+        if(ret != null)
+            return ret;
+
+        Image image = decodeImage(filename, buffer);
+        ret = TextureCompressor.compress(image, TextureCompressor.Usage.of(filename), srgb);
+        image.free();
+        cache.store(filename, srgb, hash, ret);
+        return ret;
+    }
+
+    /**
+     * Stores a compressed image in texture, resizing it to the image's
+     * first level
+     */
+    public static void uploadCompressedImage(TextureObject texture, CompressedImage image){
+        texture.setWidth(image.getLevelWidth(image.getMip()));
+        texture.setHeight(image.getLevelHeight(image.getMip()));
+        texture.allocateCompressedImage2D(image.getInternalFormat(), image.getLevels());
+    }
 }
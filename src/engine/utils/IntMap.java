@@ -0,0 +1,124 @@
+package engine.utils;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class IntMap<V> {
+
+    /**
+     * Open addressing hash map from primitive int keys to objects.
+     * Avoids the Integer boxing and entry objects of HashMap<Integer, V>.
+     * Linear probing, removals shift following entries back so no
+     * tombstones are needed. Not thread safe.
+     */
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    @Getter private int size;
+
+    public IntMap(){
+        this(16);
+    }
+
+    public IntMap(int expected){
+        int capacity = Integer.highestOneBit(Math.max(4, (int)(expected / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(int key){
+        // spread sequential ids over the table
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key){
+        for(int i = slot(key); values[i] != null; i = (i + 1) & mask)
+            if(keys[i] == key) return (V) values[i];
+        return null;
+    }
+
+    public boolean containsKey(int key){
+        return get(key) != null;
+    }
+
+    /**
+     * @param value must not be null
+     * @return previous value of key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value){
+        if(value == null) throw new IllegalArgumentException("IntMap does not store null values");
+
+        int i = slot(key);
+        for(; values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key){
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if(++size > keys.length * LOAD_FACTOR)
+            resize(keys.length * 2);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key){
+        int i = slot(key);
+        while(values[i] != null && keys[i] != key)
+            i = (i + 1) & mask;
+        if(values[i] == null) return null;
+
+        V previous = (V) values[i];
+        values[i] = null;
+        size--;
+
+        // shift back entries of the same probe run that were displaced past the hole
+        int hole = i;
+        for(int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask){
+            int home = slot(keys[j]);
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if(movable){
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                values[j] = null;
+                hole = j;
+            }
+        }
+        return previous;
+    }
+
+    public void clear(){
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action){
+        for(Object value: values)
+            if(value != null) action.accept((V) value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity){
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++)
+            if(oldValues[i] != null) put(oldKeys[i], (V) oldValues[i]);
+    }
+
+}
@@ -0,0 +1,354 @@
+package engine.utils;
+
+import engine.glapi.vbo.Mesh3D;
+import engine.system.Config;
+import lombok.Getter;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.xxhash.XXHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class MeshCache {
+
+    /**
+     * Converted meshes on disk, so a model is imported through assimp only
+     * once. Every imported file becomes one cache file named after the hash
+     * of its source path, import flags, optimization setting, whether the
+     * ObjLoader reads it, the MeshOptimizer and MeshSimplifier versions and
+     * number of levels of detail; the header repeats those and adds an
+     * xxHash of the source file's content. A cache file whose version, key
+     * or content hash does not match is ignored and written again after
+     * the next import.
+     *
+     * Layout, little endian, arrays 4 byte aligned:
+     *
+     *   int magic, int version, int flags, int optimized, int obj loader,
+     *   int optimizer version, int simplifier version, int levels,
+     *   long content hash, int path length, path (UTF-8, padded), int mesh count
+     *   per mesh: int vertices, int indices, int has UVs, int has normals,
+     *             float positions[], float UVs[], float normals[], int indices[],
+     *             int coarser levels, per level: int indices, float error, int indices[]
+     *
+     * Cache files are read whole into a pooled buffer and the arrays bulk
+     * copied out of it. They are not memory mapped: a mapping stays until
+     * the garbage collector frees it, and on Windows keeps the file from
+     * being replaced or deleted. When the directory grows past its limit
+     * the least recently used files are deleted. Loads and stores are
+     * serialized, so asset workers can share the cache.
+     */
+
+    public static final int VERSION = 3;
+
+    private static final int MAGIC = 0x4853454D; // "MESH"
+    private static final long SEED = 0x6D657368L;
+    private static final String EXTENSION = ".mesh";
+    private static final int HEADER_BYTES = 44;
+
+    private static MeshCache instance;
+    public static synchronized MeshCache instance(){
+        if(instance == null){
+            Config config = Config.instance();
+            instance = new MeshCache(new File(System.getProperty("user.dir"), config.getMeshCacheDirectory()),
+                    config.getMeshCacheSize() * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    @Getter private final File directory;
+    @Getter private final long maxBytes;
+
+    @Getter private int hits, misses;
+
+    public MeshCache(File directory, long maxBytes){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param source imported model file
+     * @param flags assimp post processing flags the model is imported with
+     * @param optimized whether the meshes went through MeshOptimizer
+     * @return the cached meshes, null if there is no valid cache file
+     */
+    public ArrayList<Mesh3D> load(String source, int flags, boolean optimized){
+        return load(source, flags, optimized, false, 0, contentHash(source));
+    }
+
+    /**
+     * @param levels levels of detail the meshes were given, see MeshSimplifier.generateLods
+     */
+    public ArrayList<Mesh3D> load(String source, int flags, boolean optimized, int levels){
+        return load(source, flags, optimized, false, levels, contentHash(source));
+    }
+
+    /**
+     * @param objLoader whether the meshes were read by the ObjLoader instead of assimp
+     */
+    public ArrayList<Mesh3D> load(String source, int flags, boolean optimized, boolean objLoader, int levels){
+        return load(source, flags, optimized, objLoader, levels, contentHash(source));
+    }
+
+    /**
+     * Same for a source whose content hash is already known, like an
+     * AssetArchive entry
+     */
+    public synchronized ArrayList<Mesh3D> load(String source, int flags, boolean optimized, boolean objLoader,
+                                               int levels, long contentHash){
+        File file = cacheFile(source, flags, optimized, objLoader, levels);
+        if(!file.isFile()){
+            misses++;
+            return null;
+        }
+
+        ByteBuffer map = null;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            map = readFile(channel);
+
+            if(map.getInt() != MAGIC || map.getInt() != VERSION || map.getInt() != flags
+                    || map.getInt() != (optimized ? 1 : 0) || map.getInt() != (objLoader ? 1 : 0)
+                    || map.getInt() != MeshOptimizer.VERSION || map.getInt() != MeshSimplifier.VERSION
+                    || map.getInt() != levels || map.getLong() != contentHash
+                    || !source.equals(readString(map))){
+                misses++;
+                return null;
+            }
+
+            int count = map.getInt();
+            ArrayList<Mesh3D> ret = new ArrayList<>(count);
+            for(int i = 0; i < count; i++){
+                int vertices = map.getInt(), indices = map.getInt();
+                boolean hasUVs = map.getInt() != 0, hasNormals = map.getInt() != 0;
+
+                Mesh3D mesh = new Mesh3D();
+                mesh.setPositions(readFloats(map, vertices * 3));
+                if(hasUVs) mesh.setUVs(readFloats(map, vertices * 2));
+                if(hasNormals) mesh.setNormals(readFloats(map, vertices * 3));
+                mesh.setIndices(readInts(map, indices));
+
+                int lods = map.getInt();
+                int[][] lodIndices = new int[lods][];
+                float[] lodErrors = new float[lods];
+                for(int l = 0; l < lods; l++){
+                    int length = map.getInt();
+                    lodErrors[l] = map.getFloat();
+                    lodIndices[l] = readInts(map, length);
+                }
+                if(lods > 0) mesh.setLods(lodIndices, lodErrors);
+                ret.add(mesh);
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            return ret;
+        } catch(Exception e){
+            System.err.println("Could not read mesh cache " + file + ": " + e);
+            misses++;
+            return null;
+        } finally {
+            release(map);
+        }
+    }
+
+    /**
+     * Writes the meshes imported from source, replacing an outdated cache
+     * file, and trims the directory to its size limit
+     */
+    public void store(String source, int flags, boolean optimized, List<Mesh3D> meshes){
+        store(source, flags, optimized, false, 0, contentHash(source), meshes);
+    }
+
+    public void store(String source, int flags, boolean optimized, int levels, List<Mesh3D> meshes){
+        store(source, flags, optimized, false, levels, contentHash(source), meshes);
+    }
+
+    public void store(String source, int flags, boolean optimized, boolean objLoader, int levels, List<Mesh3D> meshes){
+        store(source, flags, optimized, objLoader, levels, contentHash(source), meshes);
+    }
+
+    public synchronized void store(String source, int flags, boolean optimized, boolean objLoader, int levels,
+                                   long contentHash, List<Mesh3D> meshes){
+        File file = cacheFile(source, flags, optimized, objLoader, levels);
+        byte[] path = source.getBytes(StandardCharsets.UTF_8);
+
+        long size = HEADER_BYTES + align(path.length) + 4;
+        for(Mesh3D mesh: meshes){
+            size += 20 + 4L * (mesh.getPositions().length + uvs(mesh).length + normals(mesh).length + mesh.getIndices().length);
+            for(int l = 1; l < mesh.getLodCount(); l++)
+                size += 8 + 4L * mesh.getLod(l).getVertexCount();
+        }
+        if(size > Integer.MAX_VALUE) return;
+
+        ByteBuffer data = MemoryUtil.memAlloc((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        try{
+            data.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(optimized ? 1 : 0).putInt(objLoader ? 1 : 0)
+                    .putInt(MeshOptimizer.VERSION).putInt(MeshSimplifier.VERSION).putInt(levels)
+                    .putLong(contentHash).putInt(path.length).put(path);
+            data.position(HEADER_BYTES + align(path.length));
+            data.putInt(meshes.size());
+            for(Mesh3D mesh: meshes){
+                data.putInt(mesh.getNumVertices()).putInt(mesh.getIndices().length)
+                        .putInt(uvs(mesh).length > 0 ? 1 : 0).putInt(normals(mesh).length > 0 ? 1 : 0);
+                data.asFloatBuffer().put(mesh.getPositions()).put(uvs(mesh)).put(normals(mesh));
+                data.position(data.position() + 4 * (mesh.getPositions().length + uvs(mesh).length + normals(mesh).length));
+                putInts(data, mesh.getIndices());
+                data.putInt(mesh.getLodCount() - 1);
+                for(int l = 1; l < mesh.getLodCount(); l++){
+                    int[] indices = ((Mesh3D.Lod) mesh.getLod(l)).getIndices();
+                    data.putInt(indices.length).putFloat(mesh.getLodError(l));
+                    putInts(data, indices);
+                }
+            }
+            data.flip();
+
+            directory.mkdirs();
+            File temp = new File(directory, file.getName() + ".tmp");
+            try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                while(data.hasRemaining()) channel.write(data);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e){
+            System.err.println("Could not write mesh cache " + file + ": " + e);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used cache files until the directory fits
+     * into maxBytes
+     */
+    public void trim(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if(files == null) return;
+
+        long total = 0;
+        for(File file: files) total += file.length();
+        if(total <= maxBytes) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for(int i = 0; i < files.length && total > maxBytes; i++){
+            long length = files[i].length();
+            if(files[i].delete()) total -= length;
+        }
+    }
+
+    public long size(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        long ret = 0;
+        if(files != null)
+            for(File file: files) ret += file.length();
+        return ret;
+    }
+
+    public void clear(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if(files != null)
+            for(File file: files) file.delete();
+    }
+
+    public File cacheFile(String source, int flags, boolean optimized){
+        return cacheFile(source, flags, optimized, false, 0);
+    }
+
+    public File cacheFile(String source, int flags, boolean optimized, boolean objLoader, int levels){
+        String key = source + '|' + flags + '|' + optimized + '|' + objLoader + '|' + MeshOptimizer.VERSION
+                + '|' + MeshSimplifier.VERSION + '|' + levels;
+        return new File(directory, Long.toHexString(hash(key.getBytes(StandardCharsets.UTF_8))) + EXTENSION);
+    }
+
+    /**
+     * xxHash of the source file, 0 if it can not be read
+     */
+    private static long contentHash(String source){
+        ByteBuffer data = null;
+        try(FileChannel channel = FileChannel.open(new File(source).toPath(), StandardOpenOption.READ)){
+            data = readFile(channel);
+            return XXHash.XXH64(data, SEED);
+        } catch(IOException e){
+            return 0;
+        } finally {
+            release(data);
+        }
+    }
+
+    /**
+     * Whole file in a little endian buffer from the AssetArchive pool,
+     * hand it back with release
+     */
+    private static ByteBuffer readFile(FileChannel channel) throws IOException {
+        ByteBuffer ret = AssetArchive.acquire((int) channel.size());
+        while(ret.hasRemaining())
+            if(channel.read(ret) < 0) throw new IOException("File shrank while reading");
+        ret.flip();
+        return ret.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void release(ByteBuffer buffer){
+        if(buffer != null)
+            AssetArchive.release(buffer.order(ByteOrder.BIG_ENDIAN));
+    }
+
+    private static long hash(byte[] bytes){
+        ByteBuffer buffer = MemoryUtil.memAlloc(bytes.length);
+        try{
+            buffer.put(bytes).flip();
+            return XXHash.XXH64(buffer, SEED);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    private static String readString(ByteBuffer map){
+        byte[] bytes = new byte[map.getInt()];
+        map.get(bytes);
+        map.position(HEADER_BYTES + align(bytes.length));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static float[] readFloats(ByteBuffer map, int count){
+        float[] ret = new float[count];
+        map.asFloatBuffer().get(ret);
+        map.position(map.position() + count * 4);
+        return ret;
+    }
+
+    private static int[] readInts(ByteBuffer map, int count){
+        int[] ret = new int[count];
+        map.asIntBuffer().get(ret);
+        map.position(map.position() + count * 4);
+        return ret;
+    }
+
+    private static void putInts(ByteBuffer data, int[] values){
+        data.asIntBuffer().put(values);
+        data.position(data.position() + values.length * 4);
+    }
+
+    private static int align(int bytes){
+        return (bytes + 3) & ~3;
+    }
+
+    private static float[] uvs(Mesh3D mesh){
+        return mesh.getUVs().length == mesh.getNumVertices() * 2 ? mesh.getUVs() : new float[0];
+    }
+
+    private static float[] normals(Mesh3D mesh){
+        return mesh.getNormals().length == mesh.getPositions().length ? mesh.getNormals() : new float[0];
+    }
+
+}
@@ -0,0 +1,320 @@
+package engine.utils;
+
+import engine.glapi.vbo.Mesh3D;
+
+import java.util.Arrays;
+
+public class MeshOptimizer {
+
+    /**
+     * Reorders a mesh's triangles and vertices for the GPU, in three stages:
+     *
+     *   vertex cache   Forsyth's greedy triangle ordering: the next triangle
+     *                  is the one whose vertices score highest in a simulated
+     *                  LRU cache, with a bonus for vertices few triangles
+     *                  still use
+     *   overdraw       the cache ordered triangles are cut into clusters
+     *                  wherever a triangle misses all three vertices, and the
+     *                  clusters sorted so outward facing ones on the rim of the
+     *                  mesh are drawn first and occlude the rest
+     *   vertex fetch   vertices are renumbered in the order the index buffer
+     *                  first uses them, unused vertices are dropped
+     *
+     * Cache efficiency is reported as ACMR, the average number of vertices
+     * transformed per triangle with a FIFO cache of ACMR_CACHE_SIZE entries
+     * (0.5 is the limit for a regular grid, 3 the worst case).
+     *
+     * Pure CPU work, run it before the mesh is bound.
+     */
+
+    public static final int ACMR_CACHE_SIZE = 16;
+
+    // part of the MeshCache key, bump it whenever optimize() orders meshes differently
+    public static final int VERSION = 1;
+
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    // score tables, by cache position and by remaining triangle count
+    private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[64];
+
+    static {
+        for(int i = 0; i < CACHE_SIZE; i++){
+            if(i < 3)
+                CACHE_SCORES[i] = LAST_TRIANGLE_SCORE;
+            else
+                CACHE_SCORES[i] = (float) Math.pow(1 - (i - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+        for(int i = 1; i < VALENCE_SCORES.length; i++)
+            VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Runs all three stages on the mesh's arrays
+     */
+    public static void optimize(Mesh3D mesh){
+        int[] indices = optimizeVertexCache(mesh.getIndices(), mesh.getNumVertices());
+        indices = optimizeOverdraw(indices, mesh.getPositions());
+        mesh.setIndices(indices);
+        optimizeVertexFetch(mesh);
+    }
+
+    /**
+     * @return the triangles of indices in Forsyth order
+     */
+    public static int[] optimizeVertexCache(int[] indices, int numVertices){
+
+        int numTriangles = indices.length / 3;
+        if(numTriangles == 0) return indices.clone();
+
+        // triangles of every vertex, the first remaining[v] of them not drawn yet
+        int[] remaining = new int[numVertices];
+        for(int i = 0; i < numTriangles * 3; i++)
+            remaining[indices[i]]++;
+        int[] offsets = new int[numVertices + 1];
+        for(int v = 0; v < numVertices; v++)
+            offsets[v + 1] = offsets[v] + remaining[v];
+        int[] adjacency = new int[numTriangles * 3];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        for(int i = 0; i < numTriangles * 3; i++)
+            adjacency[fill[indices[i]]++] = i / 3;
+
+        int[] cachePosition = new int[numVertices];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[numVertices];
+        for(int v = 0; v < numVertices; v++)
+            vertexScores[v] = score(-1, remaining[v]);
+
+        float[] triangleScores = new float[numTriangles];
+        boolean[] drawn = new boolean[numTriangles];
+        for(int t = 0; t < numTriangles; t++)
+            triangleScores[t] = vertexScores[indices[t*3]] + vertexScores[indices[t*3+1]] + vertexScores[indices[t*3+2]];
+
+        int[] cache = new int[CACHE_SIZE + 3], next = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+
+        int[] ret = new int[numTriangles * 3];
+        int best = highest(triangleScores);
+        int cursor = 0;
+
+        for(int out = 0; out < numTriangles; out++){
+
+            // no candidate around the cache, continue with the next triangle in input order
+            if(best < 0){
+                while(drawn[cursor]) cursor++;
+                best = cursor;
+            }
+
+            drawn[best] = true;
+            int a = indices[best*3], b = indices[best*3+1], c = indices[best*3+2];
+            ret[out*3] = a;
+            ret[out*3+1] = b;
+            ret[out*3+2] = c;
+
+            // drop the triangle from its vertices' lists
+            for(int k = 0; k < 3; k++){
+                int v = indices[best*3+k];
+                int end = offsets[v] + --remaining[v];
+                for(int j = offsets[v]; j < end; j++){
+                    if(adjacency[j] == best){
+                        adjacency[j] = adjacency[end];
+                        adjacency[end] = best;
+                        break;
+                    }
+                }
+            }
+
+            // move the triangle's vertices to the front of the cache
+            int count = 0;
+            next[count++] = a;
+            next[count++] = b;
+            next[count++] = c;
+            for(int i = 0; i < cacheCount; i++){
+                int v = cache[i];
+                if(v != a && v != b && v != c) next[count++] = v;
+            }
+            int[] swap = cache;
+            cache = next;
+            next = swap;
+            cacheCount = count;
+
+            // rescore the cached vertices and the triangles they touch
+            for(int i = 0; i < cacheCount; i++){
+                int v = cache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = score(cachePosition[v], remaining[v]);
+            }
+            best = -1;
+            float bestScore = -1;
+            for(int i = 0; i < cacheCount; i++){
+                int v = cache[i];
+                for(int j = offsets[v]; j < offsets[v] + remaining[v]; j++){
+                    int t = adjacency[j];
+                    float score = vertexScores[indices[t*3]] + vertexScores[indices[t*3+1]] + vertexScores[indices[t*3+2]];
+                    triangleScores[t] = score;
+                    if(score > bestScore){
+                        bestScore = score;
+                        best = t;
+                    }
+                }
+            }
+            if(cacheCount > CACHE_SIZE) cacheCount = CACHE_SIZE;
+        }
+        return ret;
+    }
+
+    private static float score(int cachePosition, int remaining){
+        if(remaining == 0) return -1;
+        float score = cachePosition < 0 ? 0 : CACHE_SCORES[cachePosition];
+        return score + VALENCE_SCORES[Math.min(remaining, VALENCE_SCORES.length - 1)];
+    }
+
+    private static int highest(float[] scores){
+        int ret = -1;
+        float best = Float.NEGATIVE_INFINITY;
+        for(int t = 0; t < scores.length; t++){
+            if(scores[t] > best){
+                best = scores[t];
+                ret = t;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Sorts clusters of cache ordered triangles front to back as seen from
+     * outside the mesh. Clusters start at triangles that miss all three of
+     * their vertices, so the cache order inside a cluster is kept
+     */
+    public static int[] optimizeOverdraw(int[] indices, float[] positions){
+
+        int numTriangles = indices.length / 3;
+        int numVertices = positions.length / 3;
+        if(numTriangles == 0) return indices.clone();
+
+        // cluster starts
+        int[] starts = new int[numTriangles + 1];
+        int clusters = 0;
+        int[] cacheTime = new int[numVertices];
+        Arrays.fill(cacheTime, -ACMR_CACHE_SIZE);
+        int time = 0;
+        for(int t = 0; t < numTriangles; t++){
+            int misses = 0;
+            for(int k = 0; k < 3; k++){
+                int v = indices[t*3+k];
+                if(time - cacheTime[v] >= ACMR_CACHE_SIZE){
+                    cacheTime[v] = time++;
+                    misses++;
+                }
+            }
+            if(misses == 3 || t == 0) starts[clusters++] = t;
+        }
+        starts[clusters] = numTriangles;
+
+        float cx = 0, cy = 0, cz = 0;
+        for(int i = 0; i + 2 < positions.length; i += 3){
+            cx += positions[i];
+            cy += positions[i+1];
+            cz += positions[i+2];
+        }
+        cx /= numVertices;
+        cy /= numVertices;
+        cz /= numVertices;
+
+        // area weighted centroid and normal per cluster, sort key is how far
+        // the cluster faces away from the mesh center
+        float[] keys = new float[clusters];
+        for(int c = 0; c < clusters; c++){
+            float px = 0, py = 0, pz = 0, nx = 0, ny = 0, nz = 0, area = 0;
+            for(int t = starts[c]; t < starts[c + 1]; t++){
+                int a = indices[t*3] * 3, b = indices[t*3+1] * 3, d = indices[t*3+2] * 3;
+                float ex = positions[b] - positions[a], ey = positions[b+1] - positions[a+1], ez = positions[b+2] - positions[a+2];
+                float fx = positions[d] - positions[a], fy = positions[d+1] - positions[a+1], fz = positions[d+2] - positions[a+2];
+                float x = ey * fz - ez * fy, y = ez * fx - ex * fz, z = ex * fy - ey * fx;
+                float weight = (float) Math.sqrt(x * x + y * y + z * z);
+                nx += x;
+                ny += y;
+                nz += z;
+                px += (positions[a] + positions[b] + positions[d]) / 3 * weight;
+                py += (positions[a+1] + positions[b+1] + positions[d+1]) / 3 * weight;
+                pz += (positions[a+2] + positions[b+2] + positions[d+2]) / 3 * weight;
+                area += weight;
+            }
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if(area == 0 || length == 0) continue;
+            keys[c] = ((px / area - cx) * nx + (py / area - cy) * ny + (pz / area - cz) * nz) / length;
+        }
+
+        Integer[] order = new Integer[clusters];
+        for(int c = 0; c < clusters; c++) order[c] = c;
+        Arrays.sort(order, (a, b) -> Float.compare(keys[b], keys[a]));
+
+        int[] ret = new int[numTriangles * 3];
+        int out = 0;
+        for(int c: order){
+            int length = (starts[c + 1] - starts[c]) * 3;
+            System.arraycopy(indices, starts[c] * 3, ret, out, length);
+            out += length;
+        }
+        return ret;
+    }
+
+    /**
+     * Renumbers the mesh's vertices in the order its indices first use them
+     */
+    public static void optimizeVertexFetch(Mesh3D mesh){
+
+        int[] indices = mesh.getIndices();
+        int numVertices = mesh.getNumVertices();
+
+        int[] remap = new int[numVertices];
+        Arrays.fill(remap, -1);
+        int count = 0;
+        int[] remapped = new int[indices.length];
+        for(int i = 0; i < indices.length; i++){
+            int v = indices[i];
+            if(remap[v] < 0) remap[v] = count++;
+            remapped[i] = remap[v];
+        }
+
+        mesh.setPositions(reorder(mesh.getPositions(), 3, remap, count));
+        if(mesh.getNormals().length == numVertices * 3)
+            mesh.setNormals(reorder(mesh.getNormals(), 3, remap, count));
+        if(mesh.getUVs().length == numVertices * 2)
+            mesh.setUVs(reorder(mesh.getUVs(), 2, remap, count));
+        mesh.setIndices(remapped);
+    }
+
+    private static float[] reorder(float[] data, int size, int[] remap, int count){
+        float[] ret = new float[count * size];
+        for(int v = 0; v < remap.length; v++)
+            if(remap[v] >= 0)
+                System.arraycopy(data, v * size, ret, remap[v] * size, size);
+        return ret;
+    }
+
+    /**
+     * Average cache miss ratio: transformed vertices per triangle with a
+     * FIFO post transform cache of cacheSize entries
+     */
+    public static float acmr(int[] indices, int numVertices, int cacheSize){
+        if(indices.length < 3) return 0;
+        int[] cacheTime = new int[numVertices];
+        Arrays.fill(cacheTime, -cacheSize);
+        int misses = 0;
+        for(int index: indices){
+            if(misses - cacheTime[index] >= cacheSize)
+                cacheTime[index] = misses++;
+        }
+        return misses / (float) (indices.length / 3);
+    }
+
+    public static float acmr(Mesh3D mesh){
+        return acmr(mesh.getIndices(), mesh.getNumVertices(), ACMR_CACHE_SIZE);
+    }
+
+}
@@ -0,0 +1,463 @@
+package engine.utils;
+
+import engine.glapi.vbo.Mesh3D;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class MeshSimplifier {
+
+    /**
+     * Quadric error metric simplification (Garland and Heckbert) by edge
+     * collapses onto existing vertices, so every level of detail indexes
+     * the vertices of the full mesh and shares its vertex buffer.
+     *
+     * Vertices at the same position are welded into one corner for the
+     * error and the topology; their attributes stay apart. Every corner
+     * gathers the area weighted planes of its triangles, plus planes
+     * through the open edges standing on their triangles, so borders keep
+     * their outline. A collapse of corner u onto its neighbour v costs the
+     * summed quadrics of both evaluated at v. Each vertex of u has to find
+     * a vertex of v it shares a triangle with, which keeps UV and normal
+     * seams closed: seams only collapse along themselves. Open edges only
+     * collapse along the border and non manifold corners never move.
+     *
+     * simplify() runs passes until the triangle target is met: the cheapest
+     * collapses of the pass are applied as long as they do not share a
+     * corner with an earlier one and do not flip a triangle. The error of a
+     * level is the largest root mean square distance of a collapse so far,
+     * relative to half the diagonal of the bounds, the same measure
+     * Mesh3D.selectLod compares with the size on screen.
+     *
+     * Pure CPU work, run it on the final vertex order (after MeshOptimizer).
+     */
+
+    // meshes with fewer triangles get no levels, and no level is made smaller
+    public static final int MIN_TRIANGLES = 256;
+
+    // part of the MeshCache key, bump it whenever generateLods() builds different levels
+    public static final int VERSION = 1;
+
+    // triangles of a level relative to the previous one
+    public static final float REDUCTION = 0.5f;
+
+    // a level that saves less than this is not worth its indices
+    private static final float MIN_SAVING = 0.2f;
+
+    // weight of the planes along open edges against the triangle planes
+    private static final double BORDER_WEIGHT = 10;
+
+    // smallest cosine between a triangle's normal before and after a collapse
+    private static final double MAX_FLIP = 0.25;
+
+    private static final byte INTERIOR = 0, BORDER = 1, LOCKED = 2;
+
+    private final float[] positions;
+    private final int numVertices;
+
+    // first vertex at the same position, and the next vertex there in a ring
+    private final int[] corner, wedge;
+    private final byte[] kind;
+
+    // per corner: symmetric 4x4 quadric as 10 coefficients and its summed weight
+    private final double[] quadrics;
+    private final double[] weights;
+
+    private final float scale;
+
+    private final int[] indices;
+    @Getter private int triangles;
+    // largest collapse error so far, relative to half the diagonal of the bounds
+    @Getter private float error;
+
+    // pass state: triangles around each corner, collapse target of each vertex
+    private int[] offsets, adjacency;
+    private final int[] remap;
+    private final boolean[] touched;
+    private final double[] before = new double[3], after = new double[3];
+
+    public MeshSimplifier(float[] positions, int[] indices){
+        this.positions = positions;
+        this.indices = indices.clone();
+        numVertices = positions.length / 3;
+        triangles = indices.length / 3;
+
+        corner = new int[numVertices];
+        wedge = new int[numVertices];
+        HashMap<Position, Integer> first = new HashMap<>();
+        for(int v = 0; v < numVertices; v++){
+            Integer c = first.putIfAbsent(new Position(positions, v), v);
+            corner[v] = c == null ? v : c;
+            // insert v into the ring after its corner
+            wedge[v] = v;
+            if(c != null){
+                wedge[v] = wedge[c];
+                wedge[c] = v;
+            }
+        }
+
+        scale = halfDiagonal(positions);
+        kind = new byte[numVertices];
+        quadrics = new double[numVertices * 10];
+        weights = new double[numVertices];
+        remap = new int[numVertices];
+        touched = new boolean[numVertices];
+
+        buildAdjacency();
+        classify();
+        addQuadrics();
+    }
+
+    /**
+     * Full level of detail chain of the mesh, each level with about
+     * REDUCTION of the triangles of the previous one
+     * @param levels number of levels including the full mesh
+     */
+    public static void generateLods(Mesh3D mesh, int levels){
+        if(levels < 2 || mesh.getIndices().length / 3 < MIN_TRIANGLES){
+            mesh.setLods(new int[0][], new float[0]);
+            return;
+        }
+
+        MeshSimplifier simplifier = new MeshSimplifier(mesh.getPositions(), mesh.getIndices());
+        int[][] indices = new int[levels - 1][];
+        float[] errors = new float[levels - 1];
+        int count = 0, previous = simplifier.getTriangles();
+        while(count < levels - 1){
+            int target = (int) (previous * REDUCTION);
+            if(target < MIN_TRIANGLES / 2) break;
+            simplifier.simplify(target);
+            if(simplifier.getTriangles() > previous * (1 - MIN_SAVING)) break;
+            indices[count] = MeshOptimizer.optimizeVertexCache(simplifier.getIndices(), mesh.getNumVertices());
+            errors[count] = simplifier.getError();
+            previous = simplifier.getTriangles();
+            count++;
+        }
+        mesh.setLods(Arrays.copyOf(indices, count), Arrays.copyOf(errors, count));
+    }
+
+    /**
+     * Triangles left after the last simplify, indexing the original vertices
+     */
+    public int[] getIndices(){
+        return Arrays.copyOf(indices, triangles * 3);
+    }
+
+    /**
+     * Collapses edges until at most target triangles are left or no
+     * collapse is possible. Continues from the result of the last call
+     */
+    public void simplify(int target){
+        while(triangles > target){
+            if(pass(target) == 0) break;
+        }
+    }
+
+    /**
+     * One round of collapses, at most one per corner
+     * @return the number of collapses applied
+     */
+    private int pass(int target){
+        buildAdjacency();
+
+        // candidates: every half edge in both directions, cost and index sorted as one long
+        int numCandidates = 0;
+        int[] from = new int[triangles * 6], to = new int[triangles * 6];
+        long[] order = new long[triangles * 6];
+        for(int t = 0; t < triangles; t++){
+            for(int k = 0; k < 3; k++){
+                int a = corner[indices[t * 3 + k]], b = corner[indices[t * 3 + (k + 1) % 3]];
+                for(int direction = 0; direction < 2; direction++){
+                    int u = direction == 0 ? a : b, v = direction == 0 ? b : a;
+                    // open edges have no second half edge to collapse the other way
+                    if(direction == 1 && kind[u] != BORDER) continue;
+                    if(!allowed(u, v)) continue;
+                    float cost = (float) cost(u, v);
+                    from[numCandidates] = u;
+                    to[numCandidates] = v;
+                    order[numCandidates] = (long) Float.floatToIntBits(cost) << 32 | numCandidates;
+                    numCandidates++;
+                }
+            }
+        }
+        Arrays.sort(order, 0, numCandidates);
+
+        for(int v = 0; v < numVertices; v++) remap[v] = v;
+        Arrays.fill(touched, false);
+
+        int collapses = 0, left = triangles;
+        for(int i = 0; i < numCandidates && left > target; i++){
+            int c = (int) order[i];
+            int u = from[c], v = to[c];
+            if(touched[u] || touched[v]) continue;
+            if(!mapWedges(u, v) || flips(u, v)) continue;
+
+            touched[u] = touched[v] = true;
+            addQuadric(v, u);
+            error = Math.max(error, (float) (Math.sqrt(Math.max(0, Float.intBitsToFloat((int) (order[i] >>> 32)))) / scale));
+            left -= kind[u] == BORDER ? 1 : 2;
+            collapses++;
+        }
+
+        if(collapses > 0) compact();
+        return collapses;
+    }
+
+    /**
+     * Applies remap to the indices and drops the triangles that lost their area
+     */
+    private void compact(){
+        int count = 0;
+        for(int t = 0; t < triangles; t++){
+            int a = remap[indices[t * 3]], b = remap[indices[t * 3 + 1]], c = remap[indices[t * 3 + 2]];
+            if(corner[a] == corner[b] || corner[b] == corner[c] || corner[a] == corner[c]) continue;
+            indices[count * 3] = a;
+            indices[count * 3 + 1] = b;
+            indices[count * 3 + 2] = c;
+            count++;
+        }
+        triangles = count;
+    }
+
+    private boolean allowed(int u, int v){
+        if(kind[u] == LOCKED || u == v) return false;
+        // border corners slide along open edges only
+        return kind[u] == INTERIOR || kind[v] != INTERIOR && isOpen(u, v);
+    }
+
+    /**
+     * Points every vertex at corner u at a vertex at corner v sharing a
+     * triangle with it, fails if one has none
+     */
+    private boolean mapWedges(int u, int v){
+        for(int w = u; ; ){
+            boolean used = false;
+            int target = -1;
+            for(int i = offsets[u]; i < offsets[u + 1] && target < 0; i++){
+                int t = adjacency[i] * 3;
+                int k = indices[t] == w ? 0 : indices[t + 1] == w ? 1 : indices[t + 2] == w ? 2 : -1;
+                if(k < 0) continue;
+                used = true;
+                for(int j = 0; j < 3; j++)
+                    if(corner[indices[t + j]] == v) target = indices[t + j];
+            }
+            if(used && target < 0){
+                unmapWedges(u);
+                return false;
+            }
+            if(used) remap[w] = target;
+            w = wedge[w];
+            if(w == u) break;
+        }
+        return true;
+    }
+
+    /**
+     * Whether moving corner u onto v turns one of the triangles around u
+     * that survive the collapse too far. Reads the other corners where
+     * earlier collapses of the pass moved them
+     */
+    private boolean flips(int u, int v){
+        for(int i = offsets[u]; i < offsets[u + 1]; i++){
+            int t = adjacency[i] * 3;
+            int k = corner[indices[t]] == u ? 0 : corner[indices[t + 1]] == u ? 1 : 2;
+            int b = corner[remap[indices[t + (k + 1) % 3]]], c = corner[remap[indices[t + (k + 2) % 3]]];
+            if(b == v || c == v || b == c) continue;
+
+            normal(u, b, c, before);
+            normal(v, b, c, after);
+            double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+            double lengths = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+                    * (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+            // triangles that lost their area to an earlier collapse do not count
+            if(lengths == 0) continue;
+            if(dot <= MAX_FLIP * lengths){
+                unmapWedges(u);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void unmapWedges(int u){
+        for(int w = u; ; ){
+            remap[w] = w;
+            w = wedge[w];
+            if(w == u) break;
+        }
+    }
+
+    private void normal(int a, int b, int c, double[] dest){
+        double ux = positions[b * 3] - positions[a * 3], uy = positions[b * 3 + 1] - positions[a * 3 + 1],
+                uz = positions[b * 3 + 2] - positions[a * 3 + 2];
+        double vx = positions[c * 3] - positions[a * 3], vy = positions[c * 3 + 1] - positions[a * 3 + 1],
+                vz = positions[c * 3 + 2] - positions[a * 3 + 2];
+        dest[0] = uy * vz - uz * vy;
+        dest[1] = uz * vx - ux * vz;
+        dest[2] = ux * vy - uy * vx;
+    }
+
+    /**
+     * Triangles around every corner of the current indices
+     */
+    private void buildAdjacency(){
+        if(offsets == null) offsets = new int[numVertices + 1];
+        Arrays.fill(offsets, 0);
+        for(int i = 0; i < triangles * 3; i++)
+            offsets[corner[indices[i]] + 1]++;
+        for(int v = 0; v < numVertices; v++)
+            offsets[v + 1] += offsets[v];
+        if(adjacency == null || adjacency.length < triangles * 3) adjacency = new int[triangles * 3];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        for(int i = 0; i < triangles * 3; i++)
+            adjacency[fill[corner[indices[i]]]++] = i / 3;
+    }
+
+    /**
+     * Whether the edge from corner a to b belongs to a single triangle
+     */
+    private boolean isOpen(int a, int b){
+        int count = 0;
+        for(int i = offsets[a]; i < offsets[a + 1]; i++){
+            int t = adjacency[i] * 3;
+            for(int k = 0; k < 3; k++)
+                if(corner[indices[t + k]] == b) count++;
+        }
+        return count == 1;
+    }
+
+    /**
+     * Interior corners have no open edges, border corners two (one
+     * triangle in, one out), anything else is locked
+     */
+    private void classify(){
+        int[] open = new int[numVertices];
+        for(int t = 0; t < triangles; t++){
+            for(int k = 0; k < 3; k++){
+                int a = corner[indices[t * 3 + k]], b = corner[indices[t * 3 + (k + 1) % 3]];
+                // an edge used by more than two triangles is not manifold
+                int shared = 0;
+                for(int i = offsets[a]; i < offsets[a + 1]; i++){
+                    int s = adjacency[i] * 3;
+                    if(corner[indices[s]] == b || corner[indices[s + 1]] == b || corner[indices[s + 2]] == b)
+                        shared++;
+                }
+                if(shared > 2){
+                    kind[a] = kind[b] = LOCKED;
+                } else if(isOpen(a, b)){
+                    open[a]++;
+                    open[b]++;
+                }
+            }
+        }
+        for(int v = 0; v < numVertices; v++){
+            if(corner[v] != v || kind[v] == LOCKED) continue;
+            kind[v] = open[v] == 0 ? INTERIOR : open[v] == 2 ? BORDER : LOCKED;
+        }
+    }
+
+    private void addQuadrics(){
+        for(int t = 0; t < triangles; t++){
+            int[] c = { corner[indices[t * 3]], corner[indices[t * 3 + 1]], corner[indices[t * 3 + 2]] };
+            double[] n = before;
+            normal(c[0], c[1], c[2], n);
+            double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            if(length == 0) continue;
+            double area = length / 2;
+            double nx = n[0] / length, ny = n[1] / length, nz = n[2] / length;
+            for(int k = 0; k < 3; k++)
+                addPlane(c[k], nx, ny, nz, c[0], area);
+
+            // plane through each open edge, upright on the triangle
+            for(int k = 0; k < 3; k++){
+                int a = c[k], b = c[(k + 1) % 3];
+                if(!isOpen(a, b)) continue;
+                double ex = positions[b * 3] - positions[a * 3], ey = positions[b * 3 + 1] - positions[a * 3 + 1],
+                        ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+                double px = ey * nz - ez * ny, py = ez * nx - ex * nz, pz = ex * ny - ey * nx;
+                double edge = Math.sqrt(px * px + py * py + pz * pz);
+                if(edge == 0) continue;
+                double weight = BORDER_WEIGHT * edge * edge;
+                addPlane(a, px / edge, py / edge, pz / edge, a, weight);
+                addPlane(b, px / edge, py / edge, pz / edge, a, weight);
+            }
+        }
+    }
+
+    /**
+     * Adds the plane with unit normal n through the position of vertex p to the quadric of corner v
+     */
+    private void addPlane(int v, double nx, double ny, double nz, int p, double weight){
+        double d = -(nx * positions[p * 3] + ny * positions[p * 3 + 1] + nz * positions[p * 3 + 2]);
+        double[] q = quadrics;
+        int i = v * 10;
+        q[i] += weight * nx * nx; q[i + 1] += weight * nx * ny; q[i + 2] += weight * nx * nz; q[i + 3] += weight * nx * d;
+        q[i + 4] += weight * ny * ny; q[i + 5] += weight * ny * nz; q[i + 6] += weight * ny * d;
+        q[i + 7] += weight * nz * nz; q[i + 8] += weight * nz * d;
+        q[i + 9] += weight * d * d;
+        weights[v] += weight;
+    }
+
+    private void addQuadric(int to, int from){
+        for(int i = 0; i < 10; i++)
+            quadrics[to * 10 + i] += quadrics[from * 10 + i];
+        weights[to] += weights[from];
+    }
+
+    /**
+     * Mean squared distance of the planes of corners u and v to the position of v
+     */
+    private double cost(int u, int v){
+        double x = positions[v * 3], y = positions[v * 3 + 1], z = positions[v * 3 + 2];
+        double weight = weights[u] + weights[v];
+        if(weight == 0) return 0;
+        return Math.max(0, evaluate(u, x, y, z) + evaluate(v, x, y, z)) / weight;
+    }
+
+    private double evaluate(int c, double x, double y, double z){
+        double[] q = quadrics;
+        int i = c * 10;
+        return q[i] * x * x + 2 * q[i + 1] * x * y + 2 * q[i + 2] * x * z + 2 * q[i + 3] * x
+                + q[i + 4] * y * y + 2 * q[i + 5] * y * z + 2 * q[i + 6] * y
+                + q[i + 7] * z * z + 2 * q[i + 8] * z + q[i + 9];
+    }
+
+    private static float halfDiagonal(float[] positions){
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for(int i = 0; i + 2 < positions.length; i += 3){
+            minX = Math.min(minX, positions[i]); maxX = Math.max(maxX, positions[i]);
+            minY = Math.min(minY, positions[i + 1]); maxY = Math.max(maxY, positions[i + 1]);
+            minZ = Math.min(minZ, positions[i + 2]); maxZ = Math.max(maxZ, positions[i + 2]);
+        }
+        float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        float ret = 0.5f * (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return ret > 0 ? ret : 1;
+    }
+
+    /**
+     * Position of a vertex as a hash key, -0 and 0 are the same place
+     */
+    private static class Position {
+        final float x, y, z;
+
+        Position(float[] positions, int v){
+            x = positions[v * 3] + 0f;
+            y = positions[v * 3 + 1] + 0f;
+            z = positions[v * 3 + 2] + 0f;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            Position p = (Position) o;
+            return x == p.x && y == p.y && z == p.z;
+        }
+
+        @Override
+        public int hashCode(){
+            return (Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y)) * 31 + Float.floatToIntBits(z);
+        }
+    }
+
+}
@@ -0,0 +1,728 @@
+package engine.utils;
+
+import engine.glapi.vbo.Mesh3D;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.IntStream;
+
+public class ObjLoader {
+
+    /**
+     * Wavefront OBJ reader producing the same meshes as AssimpLoader with
+     * aiProcess_Triangulate, aiProcess_GenSmoothNormals and
+     * aiProcess_JoinIdenticalVertices, without going through assimp.
+     *
+     *   parse      the file is memory mapped and cut into line aligned
+     *              chunks, parsed in parallel into flat float and int
+     *              arrays. Negative (relative) indices are resolved once the
+     *              counts of the preceding chunks are known
+     *   split      faces are grouped into meshes the way assimp's importer
+     *              does: a new mesh for every new object ('o'), every change
+     *              of group ('g') and every change of material ('usemtl')
+     *              after a face, empty meshes are dropped
+     *   build      meshes are built in parallel. Quads are split into two
+     *              triangles fanned from their concave corner, if they have
+     *              one, as assimp's triangulation does. Meshes without
+     *              normals get the normalized sum of the normals of the
+     *              faces at each position, weighted by area like assimp 4.1
+     *              does: the cross product of the edges from the first corner
+     *              to the second and to the last. Vertices with equal
+     *              position, UV and normal are joined with a primitive hash
+     *              table, numbered in the order faces first use them
+     *
+     * Triangles become indices, other faces are skipped, like in
+     * AssimpLoader. Polygons with more than four corners are left to assimp:
+     * when they are to be triangulated, parse gives up and returns null.
+     * Materials are not read, the MTL file only names them and Mesh3D has
+     * no use for their properties.
+     */
+
+    // files are cut into chunks of about this size, at least one per file
+    private static final int CHUNK_BYTES = 256 * 1024;
+
+    private static final int MISSING = -1;
+
+    // corners of the two triangles of a quad, from the corner it is fanned from
+    private static final int[] FAN = { 0, 1, 2, 0, 2, 3 };
+
+    /**
+     * Maps and parses an OBJ file
+     * @return the meshes, null if the file could not be read or has
+     * polygons to triangulate with more than four corners
+     */
+    public static ArrayList<Mesh3D> read(File file, boolean triangulate, boolean smoothNormals, boolean joinVertices){
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    triangulate, smoothNormals, joinVertices);
+        } catch(IOException e){
+            System.err.println("Could not read " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses an OBJ file in memory, from its position to its limit
+     * @param triangulate split quads into triangles, like aiProcess_Triangulate
+     * @param smoothNormals generate normals for meshes without, like aiProcess_GenSmoothNormals
+     * @param joinVertices share equal vertices, like aiProcess_JoinIdenticalVertices
+     * @return the meshes, null if there are polygons to triangulate with more than four corners
+     */
+    public static ArrayList<Mesh3D> parse(ByteBuffer data, boolean triangulate, boolean smoothNormals, boolean joinVertices){
+
+        // chunk bounds, moved forward to the next line start
+        int start = data.position(), end = data.limit();
+        int count = Math.max(1, Math.min((end - start) / CHUNK_BYTES, 4 * Runtime.getRuntime().availableProcessors()));
+        int[] bounds = new int[count + 1];
+        bounds[0] = start;
+        bounds[count] = end;
+        for(int i = 1; i < count; i++){
+            int position = Math.max(bounds[i - 1], start + (int) ((long) (end - start) * i / count));
+            while(position < end && data.get(position - 1) != '\n') position++;
+            bounds[i] = position;
+        }
+
+        Chunk[] chunks = new Chunk[count];
+        IntStream.range(0, count).parallel().forEach(i -> chunks[i] = new Chunk(data, bounds[i], bounds[i + 1]).parse());
+        if(triangulate){
+            for(Chunk chunk: chunks)
+                for(int f = 0; f < chunk.faceSizes.size; f++)
+                    if(chunk.faceSizes.data[f] > 4) return null;
+        }
+
+        // concatenate, resolving relative indices against the preceding chunks
+        int positions = 0, uvs = 0, normals = 0;
+        for(Chunk chunk: chunks){
+            chunk.positionBase = positions;
+            chunk.uvBase = uvs;
+            chunk.normalBase = normals;
+            positions += chunk.positions.size / 3;
+            uvs += chunk.uvs.size / 2;
+            normals += chunk.normals.size / 3;
+        }
+        Model model = new Model(chunks, concat(chunks, 0), concat(chunks, 1), concat(chunks, 2));
+        for(Chunk chunk: chunks){
+            int[] corners = chunk.corners.data;
+            for(int i = 0; i < chunk.relative.size; i++){
+                int at = chunk.relative.data[i];
+                corners[at] += at % 3 == 0 ? chunk.positionBase : at % 3 == 1 ? chunk.uvBase : chunk.normalBase;
+            }
+        }
+
+        // canonical ids, so equal values written twice in the file are one vertex
+        model.positionIds = dedupe(bits(model.positions), 3, null);
+        model.uvIds = dedupe(bits(model.uvs), 2, null);
+        model.normalIds = dedupe(bits(model.normals), 3, null);
+
+        ArrayList<Group> groups = split(chunks);
+        Mesh3D[] meshes = new Mesh3D[groups.size()];
+        IntStream.range(0, meshes.length).parallel().forEach(i ->
+                meshes[i] = build(model, groups.get(i), triangulate, smoothNormals, joinVertices));
+
+        ArrayList<Mesh3D> ret = new ArrayList<>(meshes.length);
+        for(Mesh3D mesh: meshes)
+            if(mesh != null) ret.add(mesh);
+        return ret;
+    }
+
+    /**
+     * Faces of one mesh: runs of faces in the chunks
+     */
+    private static class Group {
+        String material;
+        final IntArray runs = new IntArray(); // chunk, first face, end face
+        int faces;
+
+        Group(String material){
+            this.material = material;
+        }
+    }
+
+    /**
+     * Replays the chunks' statements in file order and groups their faces
+     */
+    private static ArrayList<Group> split(Chunk[] chunks){
+        ArrayList<Group> ret = new ArrayList<>();
+        HashSet<String> objects = new HashSet<>();
+        String group = null, material = null;
+        Group current = null;
+
+        for(int c = 0; c < chunks.length; c++){
+            Chunk chunk = chunks[c];
+            int face = 0;
+            for(int e = 0; e <= chunk.events.size(); e++){
+                int next = e < chunk.events.size() ? chunk.events.get(e).face : chunk.faceSizes.size;
+                if(next > face){
+                    if(current == null){
+                        current = new Group(material);
+                        ret.add(current);
+                    }
+                    current.runs.add(c);
+                    current.runs.add(face);
+                    current.runs.add(next);
+                    current.faces += next - face;
+                    face = next;
+                }
+                if(e == chunk.events.size()) break;
+
+                Event event = chunk.events.get(e);
+                switch(event.type){
+                    case 'o':
+                        // an existing object is continued
+                        if(objects.add(event.name)) current = null;
+                        break;
+                    case 'g':
+                        if(!event.name.equals(group)){
+                            group = event.name;
+                            objects.add(event.name);
+                            current = null;
+                        }
+                        break;
+                    default:
+                        // a mesh has one material, a mesh with faces but none yet takes this one
+                        material = event.name;
+                        if(current != null && current.faces > 0 && current.material != null
+                                && !current.material.equals(material))
+                            current = null;
+                        else if(current != null)
+                            current.material = material;
+                }
+            }
+        }
+        ret.removeIf(g -> g.faces == 0);
+        return ret;
+    }
+
+    private static Mesh3D build(Model model, Group group, boolean triangulate, boolean smoothNormals, boolean joinVertices){
+
+        // face corners of the mesh, with canonical attribute ids
+        int corners = 0;
+        boolean hasUVs = false, hasNormals = false;
+        IntArray sizes = new IntArray();
+        for(int r = 0; r < group.runs.size; r += 3){
+            Chunk chunk = model.chunks[group.runs.data[r]];
+            for(int f = group.runs.data[r + 1]; f < group.runs.data[r + 2]; f++){
+                sizes.add(chunk.faceSizes.data[f]);
+                corners += chunk.faceSizes.data[f];
+            }
+        }
+        int[] keys = new int[corners * 3];
+        int k = 0;
+        for(int r = 0; r < group.runs.size; r += 3){
+            Chunk chunk = model.chunks[group.runs.data[r]];
+            int from = chunk.faceStarts.data[group.runs.data[r + 1]] * 3;
+            int to = group.runs.data[r + 2] < chunk.faceStarts.size ? chunk.faceStarts.data[group.runs.data[r + 2]] * 3 : chunk.corners.size;
+            for(int i = from; i < to; i += 3){
+                int v = chunk.corners.data[i], vt = chunk.corners.data[i + 1], vn = chunk.corners.data[i + 2];
+                keys[k++] = model.positionIds[v];
+                keys[k++] = vt == MISSING ? MISSING : model.uvIds[vt];
+                keys[k++] = vn == MISSING ? MISSING : model.normalIds[vn];
+                hasUVs |= vt != MISSING;
+                hasNormals |= vn != MISSING;
+            }
+        }
+
+        // faces as lists of corners, quads split in two if triangulating
+        float[] p = model.canonicalPositions();
+        IntArray faces = new IntArray(), faceSizes = new IntArray();
+        for(int f = 0, corner = 0; f < sizes.size; corner += sizes.data[f++]){
+            int n = sizes.data[f];
+            if(n == 4 && triangulate){
+                int s = fanStart(p, keys, corner);
+                for(int i: FAN)
+                    faces.add(corner + (s + i) % 4);
+                faceSizes.add(3);
+                faceSizes.add(3);
+            } else {
+                for(int i = 0; i < n; i++)
+                    faces.add(corner + i);
+                faceSizes.add(n);
+            }
+        }
+
+        // generated normals follow from the position, summed per position in this mesh
+        float[] generated = null;
+        int[] local = null;
+        if(!hasNormals && smoothNormals){
+            int[] positionKeys = new int[corners];
+            for(int i = 0; i < corners; i++) positionKeys[i] = keys[i * 3];
+            int[] count = new int[1];
+            local = dedupe(positionKeys, 1, count);
+            // each corner keeps the normal of the last face using it, as in assimp
+            float[] cornerNormals = new float[corners * 3];
+            for(int f = 0, first = 0; f < faceSizes.size; first += faceSizes.data[f++]){
+                int n = faceSizes.data[f];
+                // corners 0, 1 and last, like assimp
+                int a = keys[faces.data[first] * 3] * 3, b = keys[faces.data[first + 1] * 3] * 3,
+                        c = keys[faces.data[first + n - 1] * 3] * 3;
+                float ux = p[b] - p[a], uy = p[b + 1] - p[a + 1], uz = p[b + 2] - p[a + 2];
+                float vx = p[c] - p[a], vy = p[c + 1] - p[a + 1], vz = p[c + 2] - p[a + 2];
+                float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                for(int i = first; i < first + n; i++){
+                    int at = faces.data[i] * 3;
+                    cornerNormals[at] = nx;
+                    cornerNormals[at + 1] = ny;
+                    cornerNormals[at + 2] = nz;
+                }
+            }
+            generated = new float[count[0] * 3];
+            for(int i = 0; i < corners; i++){
+                generated[local[i] * 3] += cornerNormals[i * 3];
+                generated[local[i] * 3 + 1] += cornerNormals[i * 3 + 1];
+                generated[local[i] * 3 + 2] += cornerNormals[i * 3 + 2];
+            }
+            for(int i = 0; i < generated.length; i += 3){
+                float length = (float) Math.sqrt(generated[i] * generated[i] + generated[i + 1] * generated[i + 1]
+                        + generated[i + 2] * generated[i + 2]);
+                if(length != 0){
+                    float inverse = 1 / length;
+                    generated[i] *= inverse;
+                    generated[i + 1] *= inverse;
+                    generated[i + 2] *= inverse;
+                }
+            }
+        }
+
+        // vertices, joined or one per corner
+        int[] count = new int[]{ corners };
+        int[] vertex = joinVertices ? dedupe(keys, 3, count) : null;
+        int vertices = count[0];
+
+        float[] positions = new float[vertices * 3];
+        float[] uvs = hasUVs ? new float[vertices * 2] : null;
+        float[] normals = hasNormals || generated != null ? new float[vertices * 3] : null;
+        float[] t = model.canonicalUVs(), nrm = model.canonicalNormals();
+        for(int i = 0; i < corners; i++){
+            int v = vertex == null ? i : vertex[i];
+            System.arraycopy(p, keys[i * 3] * 3, positions, v * 3, 3);
+            if(uvs != null && keys[i * 3 + 1] != MISSING)
+                System.arraycopy(t, keys[i * 3 + 1] * 2, uvs, v * 2, 2);
+            if(generated != null)
+                System.arraycopy(generated, local[i] * 3, normals, v * 3, 3);
+            else if(normals != null && keys[i * 3 + 2] != MISSING)
+                System.arraycopy(nrm, keys[i * 3 + 2] * 3, normals, v * 3, 3);
+        }
+
+        // triangles as AssimpLoader converts them
+        int length = 0;
+        for(int f = 0; f < faceSizes.size; f++)
+            if(faceSizes.data[f] == 3) length += 3;
+        int[] indices = new int[length];
+        for(int f = 0, first = 0, i = 0; f < faceSizes.size; first += faceSizes.data[f++]){
+            if(faceSizes.data[f] != 3) continue;
+            for(int c = first; c < first + 3; c++)
+                indices[i++] = vertex == null ? faces.data[c] : vertex[faces.data[c]];
+        }
+
+        Mesh3D ret = new Mesh3D();
+        ret.setPositions(positions);
+        if(uvs != null) ret.setUVs(uvs);
+        if(normals != null) ret.setNormals(normals);
+        ret.setIndices(indices);
+        return ret;
+    }
+
+    /**
+     * Corner of the quad starting at corner to fan its two triangles from:
+     * the concave one, whose angles to the diagonal add up to more than
+     * pi, else the first. acos(a) + acos(b) > pi exactly when a + b < 0,
+     * so assimp's float acos is only needed close to the tie
+     */
+    private static int fanStart(float[] p, int[] keys, int corner){
+        for(int i = 0; i < 4; i++){
+            int v = keys[(corner + i) * 3] * 3;
+            int left = keys[(corner + (i + 3) % 4) * 3] * 3;
+            int diagonal = keys[(corner + (i + 2) % 4) * 3] * 3;
+            int right = keys[(corner + (i + 1) % 4) * 3] * 3;
+            float a = cosine(p, v, left, diagonal), b = cosine(p, v, right, diagonal);
+            if(a + b < -1e-5f || (a + b < 1e-5f && (float) Math.acos(a) + (float) Math.acos(b) > (float) Math.PI))
+                return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Cosine of the angle at v between the edges to a and b, NaN if an
+     * edge has no length
+     */
+    private static float cosine(float[] p, int v, int a, int b){
+        float ax = p[a] - p[v], ay = p[a + 1] - p[v + 1], az = p[a + 2] - p[v + 2];
+        float bx = p[b] - p[v], by = p[b + 1] - p[v + 1], bz = p[b + 2] - p[v + 2];
+        float la = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        float lb = (float) Math.sqrt(bx * bx + by * by + bz * bz);
+        ax /= la; ay /= la; az /= la;
+        bx /= lb; by /= lb; bz /= lb;
+        return ax * bx + ay * by + az * bz;
+    }
+
+    /**
+     * Attribute arrays of the whole file
+     */
+    private static class Model {
+        final Chunk[] chunks;
+        final float[] positions, uvs, normals;
+        int[] positionIds, uvIds, normalIds;
+        private float[] canonicalPositions, canonicalUVs, canonicalNormals;
+
+        Model(Chunk[] chunks, float[] positions, float[] uvs, float[] normals){
+            this.chunks = chunks;
+            this.positions = positions;
+            this.uvs = uvs;
+            this.normals = normals;
+        }
+
+        synchronized float[] canonicalPositions(){
+            if(canonicalPositions == null) canonicalPositions = compact(positions, positionIds, 3);
+            return canonicalPositions;
+        }
+
+        synchronized float[] canonicalUVs(){
+            if(canonicalUVs == null) canonicalUVs = compact(uvs, uvIds, 2);
+            return canonicalUVs;
+        }
+
+        synchronized float[] canonicalNormals(){
+            if(canonicalNormals == null) canonicalNormals = compact(normals, normalIds, 3);
+            return canonicalNormals;
+        }
+
+        private static float[] compact(float[] values, int[] ids, int stride){
+            int count = 0;
+            for(int id: ids) count = Math.max(count, id + 1);
+            float[] ret = new float[count * stride];
+            for(int i = 0; i < ids.length; i++)
+                System.arraycopy(values, i * stride, ret, ids[i] * stride, stride);
+            return ret;
+        }
+    }
+
+    private static float[] concat(Chunk[] chunks, int attribute){
+        int size = 0;
+        for(Chunk chunk: chunks) size += chunk.attribute(attribute).size;
+        float[] ret = new float[size];
+        int at = 0;
+        for(Chunk chunk: chunks){
+            FloatArray values = chunk.attribute(attribute);
+            System.arraycopy(values.data, 0, ret, at, values.size);
+            at += values.size;
+        }
+        return ret;
+    }
+
+    /**
+     * Float bits with -0 as 0, so equal values have equal keys
+     */
+    private static int[] bits(float[] values){
+        int[] ret = new int[values.length];
+        for(int i = 0; i < values.length; i++)
+            ret[i] = Float.floatToIntBits(values[i] + 0f);
+        return ret;
+    }
+
+    /**
+     * Numbers the tuples of stride ints in data in order of their first
+     * occurrence, equal tuples get the same number. Open addressing with
+     * linear probing over tuple indices, no boxing
+     * @param count receives the number of distinct tuples, may be null
+     * @return the number of each tuple
+     */
+    static int[] dedupe(int[] data, int stride, int[] count){
+        int tuples = data.length / stride;
+        int capacity = Integer.highestOneBit(Math.max(4, tuples * 2) - 1) << 1;
+        int mask = capacity - 1;
+        int[] table = new int[capacity]; // tuple index + 1, 0 is empty
+        int[] ret = new int[tuples];
+        int next = 0;
+
+        for(int t = 0; t < tuples; t++){
+            int h = 0;
+            for(int i = t * stride; i < t * stride + stride; i++)
+                h = (h + data[i]) * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while(true){
+                int other = table[slot] - 1;
+                if(other < 0){
+                    table[slot] = t + 1;
+                    ret[t] = next++;
+                    break;
+                }
+                if(equal(data, other * stride, t * stride, stride)){
+                    ret[t] = ret[other];
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        if(count != null) count[0] = next;
+        return ret;
+    }
+
+    private static boolean equal(int[] data, int a, int b, int stride){
+        for(int i = 0; i < stride; i++)
+            if(data[a + i] != data[b + i]) return false;
+        return true;
+    }
+
+    /**
+     * Object, group or material statement before the face-th face of a chunk
+     */
+    private static class Event {
+        final char type;
+        final String name;
+        final int face;
+
+        Event(char type, String name, int face){
+            this.type = type;
+            this.name = name;
+            this.face = face;
+        }
+    }
+
+    /**
+     * Parses the lines between start and end of an OBJ file
+     */
+    private static class Chunk {
+        final ByteBuffer data;
+        final int end;
+        int position;
+
+        final FloatArray positions = new FloatArray(), uvs = new FloatArray(), normals = new FloatArray();
+        // v, vt, vn per corner, 0 based, MISSING if not given
+        final IntArray corners = new IntArray();
+        final IntArray faceSizes = new IntArray(), faceStarts = new IntArray();
+        // corners holding relative indices, resolved after all chunks are parsed
+        final IntArray relative = new IntArray();
+        final ArrayList<Event> events = new ArrayList<>();
+
+        int positionBase, uvBase, normalBase;
+
+        Chunk(ByteBuffer data, int start, int end){
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        FloatArray attribute(int attribute){
+            return attribute == 0 ? positions : attribute == 1 ? uvs : normals;
+        }
+
+        Chunk parse(){
+            while(position < end){
+                skipSpaces();
+                if(position >= end) break;
+                byte c = data.get(position);
+                byte next = position + 1 < end ? data.get(position + 1) : (byte) '\n';
+
+                if(c == 'v' && next == ' '){
+                    position++;
+                    positions.add(parseFloat());
+                    positions.add(parseFloat());
+                    positions.add(parseFloat());
+                } else if(c == 'v' && next == 't'){
+                    position += 2;
+                    uvs.add(parseFloat());
+                    uvs.add(parseFloat());
+                } else if(c == 'v' && next == 'n'){
+                    position += 2;
+                    normals.add(parseFloat());
+                    normals.add(parseFloat());
+                    normals.add(parseFloat());
+                } else if(c == 'f' && (next == ' ' || next == '\t')){
+                    position++;
+                    parseFace();
+                } else if((c == 'o' || c == 'g') && (next == ' ' || next == '\t')){
+                    position++;
+                    events.add(new Event((char) c, parseName(), faceSizes.size));
+                } else if(c == 'u' && startsWith("usemtl")){
+                    position += 6;
+                    events.add(new Event('u', parseName(), faceSizes.size));
+                }
+                skipLine();
+            }
+            return this;
+        }
+
+        private void parseFace(){
+            int start = corners.size;
+            while(true){
+                skipSpaces();
+                if(position >= end || !isIndex(data.get(position))) break;
+                corner(parseInt(), 0);
+                for(int attribute = 1; attribute < 3; attribute++){
+                    if(position < end && data.get(position) == '/'){
+                        position++;
+                        if(position < end && isIndex(data.get(position)))
+                            corner(parseInt(), attribute);
+                        else
+                            corners.add(MISSING);
+                    } else {
+                        corners.add(MISSING);
+                    }
+                }
+            }
+            int size = (corners.size - start) / 3;
+            if(size < 3){
+                // lines and points are not meshes
+                corners.size = start;
+                while(relative.size > 0 && relative.data[relative.size - 1] >= start) relative.size--;
+                return;
+            }
+            faceStarts.add(start / 3);
+            faceSizes.add(size);
+        }
+
+        private void corner(int index, int attribute){
+            if(index < 0){
+                // relative to the values read so far, the chunk's base is added later
+                int read = attribute == 0 ? positions.size / 3 : attribute == 1 ? uvs.size / 2 : normals.size / 3;
+                relative.add(corners.size);
+                corners.add(read + index);
+            } else {
+                corners.add(index - 1);
+            }
+        }
+
+        private static boolean isIndex(byte c){
+            return c == '-' || (c >= '0' && c <= '9');
+        }
+
+        private int parseInt(){
+            boolean negative = data.get(position) == '-';
+            if(negative) position++;
+            int ret = 0;
+            while(position < end){
+                byte c = data.get(position);
+                if(c < '0' || c > '9') break;
+                ret = ret * 10 + (c - '0');
+                position++;
+            }
+            return negative ? -ret : ret;
+        }
+
+        /**
+         * Decimal float, exact for up to 18 significant digits and small
+         * exponents, anything else goes through Float.parseFloat
+         */
+        private float parseFloat(){
+            skipSpaces();
+            int start = position;
+            boolean negative = false;
+            if(position < end && (data.get(position) == '-' || data.get(position) == '+'))
+                negative = data.get(position++) == '-';
+
+            long mantissa = 0;
+            int digits = 0, exponent = 0;
+            boolean fallback = false;
+            for(boolean fraction = false; position < end; position++){
+                byte c = data.get(position);
+                if(c >= '0' && c <= '9'){
+                    if(digits < 18){
+                        mantissa = mantissa * 10 + (c - '0');
+                        if(mantissa != 0) digits++;
+                        if(fraction) exponent--;
+                    } else if(!fraction){
+                        exponent++;
+                    }
+                } else if(c == '.' && !fraction){
+                    fraction = true;
+                } else {
+                    break;
+                }
+            }
+            if(position < end && (data.get(position) == 'e' || data.get(position) == 'E')){
+                position++;
+                boolean negativeExponent = false;
+                if(position < end && (data.get(position) == '-' || data.get(position) == '+'))
+                    negativeExponent = data.get(position++) == '-';
+                int value = 0;
+                while(position < end && data.get(position) >= '0' && data.get(position) <= '9')
+                    value = Math.min(value * 10 + (data.get(position++) - '0'), 100_000);
+                exponent += negativeExponent ? -value : value;
+            }
+            if(position == start) return 0;
+
+            double ret = mantissa;
+            if(exponent < 0 && exponent >= -22) ret /= POWERS[-exponent];
+            else if(exponent > 0 && exponent <= 22) ret *= POWERS[exponent];
+            else if(exponent != 0) fallback = true;
+
+            if(fallback || digits >= 16){
+                byte[] text = new byte[position - start];
+                for(int i = 0; i < text.length; i++) text[i] = data.get(start + i);
+                try{
+                    return Float.parseFloat(new String(text, StandardCharsets.US_ASCII));
+                } catch(NumberFormatException e){
+                    return 0;
+                }
+            }
+            return (float) (negative ? -ret : ret);
+        }
+
+        private String parseName(){
+            skipSpaces();
+            int start = position;
+            while(position < end){
+                byte c = data.get(position);
+                if(c == ' ' || c == '\t' || c == '\r' || c == '\n') break;
+                position++;
+            }
+            byte[] bytes = new byte[position - start];
+            for(int i = 0; i < bytes.length; i++) bytes[i] = data.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private boolean startsWith(String keyword){
+            if(position + keyword.length() > end) return false;
+            for(int i = 0; i < keyword.length(); i++)
+                if(data.get(position + i) != keyword.charAt(i)) return false;
+            return true;
+        }
+
+        private void skipSpaces(){
+            while(position < end){
+                byte c = data.get(position);
+                if(c != ' ' && c != '\t' && c != '\r') break;
+                position++;
+            }
+        }
+
+        private void skipLine(){
+            while(position < end && data.get(position) != '\n') position++;
+            position++;
+        }
+    }
+
+    private static final double[] POWERS = new double[23];
+    static {
+        POWERS[0] = 1;
+        for(int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private static class FloatArray {
+        float[] data = new float[1024];
+        int size;
+
+        void add(float value){
+            if(size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+
+    private static class IntArray {
+        int[] data = new int[1024];
+        int size;
+
+        void add(int value){
+            if(size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+
+}
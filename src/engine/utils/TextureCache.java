@@ -0,0 +1,132 @@
+package engine.utils;
+
+import engine.glapi.TextureObject;
+import lombok.Getter;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.function.Supplier;
+
+public class TextureCache {
+
+    /**
+     * Shares textures between everything that loads the same image. Entries
+     * are keyed by the normalized image path and whether it is uploaded as
+     * sRGB or linear, every acquire counts a reference and the texture is
+     * deleted when the last holder releases it.
+     *
+     * Only touched from the render thread, like the textures themselves.
+     */
+
+    private static TextureCache instance;
+    public static TextureCache instance(){
+        if(instance == null)
+            instance = new TextureCache();
+        return instance;
+    }
+
+    private static class Entry {
+        final String key;
+        final TextureObject texture;
+        int references = 1, hits;
+
+        Entry(String key, TextureObject texture){
+            this.key = key;
+            this.texture = texture;
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final IdentityHashMap<TextureObject, Entry> textures = new IdentityHashMap<>();
+
+    @Getter private int hits, misses, deleted;
+
+    // bytes saved by entries that were already deleted
+    private long deletedBytesSaved;
+
+    /**
+     * @param load creates the texture on a miss
+     * @return the cached texture for filename in that color space, one more reference to it
+     */
+    public TextureObject acquire(String filename, boolean srgb, Supplier<TextureObject> load){
+        String key = key(filename, srgb);
+
+        Entry entry = entries.get(key);
+        if(entry != null){
+            entry.references++;
+            entry.hits++;
+            hits++;
+            return entry.texture;
+        }
+
+        misses++;
+        TextureObject texture = load.get();
+        entry = new Entry(key, texture);
+        entries.put(key, entry);
+        textures.put(texture, entry);
+        return texture;
+    }
+
+    /**
+     * Drops one reference, deletes the texture after the last one. Textures
+     * that did not come from the cache are deleted right away
+     */
+    public void release(TextureObject texture){
+        Entry entry = textures.get(texture);
+        if(entry == null){
+            texture.cleanup();
+            return;
+        }
+        if(--entry.references > 0) return;
+
+        entries.remove(entry.key);
+        textures.remove(texture);
+        deletedBytesSaved += entry.hits * texture.getBytes();
+        deleted++;
+        texture.cleanup();
+    }
+
+    public int getReferences(TextureObject texture){
+        Entry entry = textures.get(texture);
+        return entry == null ? 0 : entry.references;
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     * @return video memory of the cached textures
+     */
+    public long getResidentBytes(){
+        long ret = 0;
+        for(Entry entry: entries.values())
+            ret += entry.texture.getBytes();
+        return ret;
+    }
+
+    /**
+     * @return video memory every hit would have taken as its own copy
+     */
+    public long getBytesSaved(){
+        long ret = deletedBytesSaved;
+        for(Entry entry: entries.values())
+            ret += entry.hits * entry.texture.getBytes();
+        return ret;
+    }
+
+    public String report(){
+        return String.format("Texture cache: %d textures (%.1f MB), %d hits, %d misses, %d deleted, %.1f MB saved",
+                size(), getResidentBytes() / 1048576d, hits, misses, deleted, getBytesSaved() / 1048576d);
+    }
+
+    /**
+     * Same image, same key: separators unified and "." / ".." resolved
+     */
+    public static String key(String filename, boolean srgb){
+        String path = Paths.get(filename.replace('\\', '/')).normalize().toString().replace('\\', '/');
+        return path + (srgb ? "|srgb" : "|linear");
+    }
+
+}
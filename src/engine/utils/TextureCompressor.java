@@ -0,0 +1,600 @@
+package engine.utils;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+import static org.lwjgl.opengl.EXTTextureSRGB.GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.EXTTextureSRGB.GL_COMPRESSED_SRGB_S3TC_DXT1_EXT;
+import static org.lwjgl.opengl.GL30.GL_COMPRESSED_RED_RGTC1;
+import static org.lwjgl.opengl.GL30.GL_COMPRESSED_RG_RGTC2;
+
+public class TextureCompressor {
+
+    /**
+     * CPU block compression of material textures, so they upload with
+     * glCompressedTexImage2D at 4 or 8 bits per texel instead of 24 to 64.
+     * The format follows from what the texture is used for:
+     *
+     *   color maps             BC1, BC3 if any texel is not opaque
+     *   roughness, metal, ...  BC4, the red channel only
+     *   normal maps            BC5, x and y, the shader rebuilds z
+     *
+     * Every mip level is generated on the CPU (in linear space for sRGB
+     * color, renormalized for normals) and encoded. Block rows are encoded
+     * in parallel on the common ForkJoinPool. Endpoints are fit along the
+     * principal axis of each block and refined by least squares, which is
+     * well within the quality of a 565 endpoint format for this kind of
+     * texture. decode and psnr allow checking the result without a GPU.
+     */
+
+    public enum Format {
+        BC1(8, 3), BC3(16, 4), BC4(8, 1), BC5(16, 2);
+
+        @Getter private final int blockBytes;
+
+        // channels the format stores
+        @Getter private final int channels;
+
+        Format(int blockBytes, int channels){
+            this.blockBytes = blockBytes;
+            this.channels = channels;
+        }
+
+        public int getInternalFormat(boolean srgb){
+            switch(this){
+                case BC1: return srgb ? GL_COMPRESSED_SRGB_S3TC_DXT1_EXT : GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+                case BC3: return srgb ? GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT : GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+                case BC4: return GL_COMPRESSED_RED_RGTC1;
+                default: return GL_COMPRESSED_RG_RGTC2;
+            }
+        }
+
+        public int size(int width, int height){
+            return ((width + 3) / 4) * ((height + 3) / 4) * blockBytes;
+        }
+    }
+
+    public enum Usage {
+        COLOR, SINGLE_CHANNEL, NORMAL;
+
+        /**
+         * Guesses the usage from the file name, as PBRMaterial and the
+         * directories under res/images name their maps
+         */
+        public static Usage of(String filename){
+            String name = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1).toLowerCase();
+            if(name.lastIndexOf('.') > 0) name = name.substring(0, name.lastIndexOf('.'));
+
+            if(name.contains("normal"))
+                return NORMAL;
+            if(name.contains("rough") || name.contains("metal") || name.contains("height")
+                    || name.equals("ao") || name.endsWith("_ao"))
+                return SINGLE_CHANNEL;
+            return COLOR;
+        }
+    }
+
+    /**
+     * Encoded mip chain of one texture, or the part of it from mip on.
+     * width and height are those of the full size texture
+     */
+    public static class CompressedImage {
+        @Getter private final Format format;
+        @Getter private final boolean srgb;
+        @Getter private final int width, height;
+
+        // mip level of levels[0]
+        @Getter private final int mip;
+        @Getter private final byte[][] levels;
+
+        public CompressedImage(Format format, boolean srgb, int width, int height, byte[][] levels){
+            this(format, srgb, width, height, 0, levels);
+        }
+
+        public CompressedImage(Format format, boolean srgb, int width, int height, int mip, byte[][] levels){
+            this.format = format;
+            this.srgb = srgb;
+            this.width = width;
+            this.height = height;
+            this.mip = mip;
+            this.levels = levels;
+        }
+
+        public int getInternalFormat(){
+            return format.getInternalFormat(srgb);
+        }
+
+        public long getBytes(){
+            long ret = 0;
+            for(byte[] level: levels) ret += level.length;
+            return ret;
+        }
+
+        public int getMipCount(){
+            return mipLevels(width, height);
+        }
+
+        public int getLevelWidth(int mip){
+            return Math.max(1, width >> mip);
+        }
+
+        public int getLevelHeight(int mip){
+            return Math.max(1, height >> mip);
+        }
+
+        /**
+         * @return the levels from mip on, sharing their data
+         */
+        public CompressedImage fromLevel(int mip){
+            mip = Math.max(this.mip, Math.min(mip, this.mip + levels.length - 1));
+            byte[][] ret = new byte[levels.length - (mip - this.mip)][];
+            System.arraycopy(levels, mip - this.mip, ret, 0, ret.length);
+            return new CompressedImage(format, srgb, width, height, mip, ret);
+        }
+    }
+
+    /**
+     * @return bytes of the mip chain of a width x height texture from mip on
+     */
+    public static long chainBytes(Format format, int width, int height, int mip){
+        long ret = 0;
+        for(int level = mip; level < mipLevels(width, height); level++)
+            ret += format.size(Math.max(1, width >> level), Math.max(1, height >> level));
+        return ret;
+    }
+
+    /**
+     * @return the first mip whose longer side is at most size texels
+     */
+    public static int mipForSize(int width, int height, float size){
+        int mip = 0, last = mipLevels(width, height) - 1;
+        while(mip < last && Math.max(width, height) >> mip > size)
+            mip++;
+        return mip;
+    }
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+    static {
+        for(int i = 0; i < 256; i++){
+            float c = i / 255f;
+            SRGB_TO_LINEAR[i] = c <= 0.04045f ? c / 12.92f : (float) Math.pow((c + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    /**
+     * Compresses a decoded image with all its mip levels, the image is not freed
+     * @param srgb whether the texture was meant to be sampled as sRGB
+     */
+    public static CompressedImage compress(ImageLoader.Image image, Usage usage, boolean srgb){
+        return compress(toRGBA(image), image.getWidth(), image.getHeight(), usage, srgb);
+    }
+
+    /**
+     * @param rgba 4 bytes per texel, rows top to bottom
+     */
+    public static CompressedImage compress(byte[] rgba, int width, int height, Usage usage, boolean srgb){
+
+        Format format;
+        switch(usage){
+            case NORMAL: format = Format.BC5; break;
+            case SINGLE_CHANNEL: format = Format.BC4; break;
+            default: format = isOpaque(rgba) ? Format.BC1 : Format.BC3;
+        }
+
+        // only BC1 and BC3 have sRGB variants, single channel maps keep
+        // sampling the same values by being stored linear
+        boolean srgbFormat = srgb && usage == Usage.COLOR;
+        if(srgb && usage == Usage.SINGLE_CHANNEL)
+            rgba = linearize(rgba);
+
+        byte[][] levels = new byte[mipLevels(width, height)][];
+        int w = width, h = height;
+        for(int level = 0; level < levels.length; level++){
+            levels[level] = encode(rgba, w, h, format);
+            if(level < levels.length - 1){
+                rgba = downsample(rgba, w, h, usage, srgbFormat);
+                w = Math.max(1, w / 2);
+                h = Math.max(1, h / 2);
+            }
+        }
+        return new CompressedImage(format, srgbFormat, width, height, levels);
+    }
+
+    public static int mipLevels(int width, int height){
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+    }
+
+    /**
+     * Expands the 1 to 4 channels of an image to RGBA
+     */
+    public static byte[] toRGBA(ImageLoader.Image image){
+        ByteBuffer pixels = image.getPixels();
+        int c = image.getChannels(), texels = image.getWidth() * image.getHeight();
+        byte[] ret = new byte[texels * 4];
+        for(int i = 0; i < texels; i++){
+            int src = i * c, dst = i * 4;
+            if(c < 3){
+                ret[dst] = ret[dst+1] = ret[dst+2] = pixels.get(src);
+                ret[dst+3] = c == 2 ? pixels.get(src + 1) : (byte) 255;
+            } else {
+                ret[dst] = pixels.get(src);
+                ret[dst+1] = pixels.get(src + 1);
+                ret[dst+2] = pixels.get(src + 2);
+                ret[dst+3] = c == 4 ? pixels.get(src + 3) : (byte) 255;
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isOpaque(byte[] rgba){
+        for(int i = 3; i < rgba.length; i += 4)
+            if(rgba[i] != (byte) 255) return false;
+        return true;
+    }
+
+    private static byte[] linearize(byte[] rgba){
+        byte[] ret = new byte[rgba.length];
+        for(int i = 0; i < rgba.length; i++)
+            ret[i] = (i & 3) == 3 ? rgba[i] : (byte) Math.round(SRGB_TO_LINEAR[rgba[i] & 0xFF] * 255);
+        return ret;
+    }
+
+    private static int linearToSrgb(float c){
+        float s = c <= 0.0031308f ? c * 12.92f : 1.055f * (float) Math.pow(c, 1 / 2.4f) - 0.055f;
+        return Math.max(0, Math.min(255, Math.round(s * 255)));
+    }
+
+    /**
+     * Halves an RGBA image with a 2x2 box filter
+     */
+    public static byte[] downsample(byte[] rgba, int width, int height, Usage usage, boolean srgb){
+        int w = Math.max(1, width / 2), h = Math.max(1, height / 2);
+        byte[] ret = new byte[w * h * 4];
+
+        IntStream.range(0, h).parallel().forEach(y -> {
+            int y0 = Math.min(2 * y, height - 1) * width, y1 = Math.min(2 * y + 1, height - 1) * width;
+            for(int x = 0; x < w; x++){
+                int x0 = Math.min(2 * x, width - 1), x1 = Math.min(2 * x + 1, width - 1);
+                int a = (y0 + x0) * 4, b = (y0 + x1) * 4, c = (y1 + x0) * 4, d = (y1 + x1) * 4;
+                int dst = (y * w + x) * 4;
+
+                if(usage == Usage.NORMAL){
+                    float nx = 0, ny = 0, nz = 0;
+                    for(int src: new int[]{ a, b, c, d }){
+                        nx += (rgba[src] & 0xFF) / 127.5f - 1;
+                        ny += (rgba[src+1] & 0xFF) / 127.5f - 1;
+                        nz += (rgba[src+2] & 0xFF) / 127.5f - 1;
+                    }
+                    float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                    if(length > 0){ nx /= length; ny /= length; nz /= length; }
+                    ret[dst] = (byte) Math.round((nx + 1) * 127.5f);
+                    ret[dst+1] = (byte) Math.round((ny + 1) * 127.5f);
+                    ret[dst+2] = (byte) Math.round((nz + 1) * 127.5f);
+                } else {
+                    for(int ch = 0; ch < 3; ch++){
+                        if(srgb)
+                            ret[dst+ch] = (byte) linearToSrgb((SRGB_TO_LINEAR[rgba[a+ch] & 0xFF] + SRGB_TO_LINEAR[rgba[b+ch] & 0xFF]
+                                    + SRGB_TO_LINEAR[rgba[c+ch] & 0xFF] + SRGB_TO_LINEAR[rgba[d+ch] & 0xFF]) / 4);
+                        else
+                            ret[dst+ch] = (byte) (((rgba[a+ch] & 0xFF) + (rgba[b+ch] & 0xFF) + (rgba[c+ch] & 0xFF) + (rgba[d+ch] & 0xFF) + 2) >> 2);
+                    }
+                }
+                ret[dst+3] = (byte) (((rgba[a+3] & 0xFF) + (rgba[b+3] & 0xFF) + (rgba[c+3] & 0xFF) + (rgba[d+3] & 0xFF) + 2) >> 2);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Encodes one level, block rows in parallel
+     */
+    public static byte[] encode(byte[] rgba, int width, int height, Format format){
+        int blocksX = (width + 3) / 4, blocksY = (height + 3) / 4;
+        byte[] ret = new byte[blocksX * blocksY * format.blockBytes];
+
+        IntStream.range(0, blocksY).parallel().forEach(by -> {
+            int[] block = new int[64];
+            for(int bx = 0; bx < blocksX; bx++){
+                // edge blocks repeat the last row and column
+                for(int t = 0; t < 16; t++){
+                    int x = Math.min(bx * 4 + (t & 3), width - 1), y = Math.min(by * 4 + (t >> 2), height - 1);
+                    for(int ch = 0; ch < 4; ch++)
+                        block[t * 4 + ch] = rgba[(y * width + x) * 4 + ch] & 0xFF;
+                }
+
+                int offset = (by * blocksX + bx) * format.blockBytes;
+                switch(format){
+                    case BC1: encodeColorBlock(block, ret, offset); break;
+                    case BC3: encodeAlphaBlock(block, 3, ret, offset); encodeColorBlock(block, ret, offset + 8); break;
+                    case BC4: encodeAlphaBlock(block, 0, ret, offset); break;
+                    case BC5: encodeAlphaBlock(block, 0, ret, offset); encodeAlphaBlock(block, 1, ret, offset + 8); break;
+                }
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * BC1 color block: two 565 endpoints and 2 bit indices, always in 4 color mode
+     */
+    private static void encodeColorBlock(int[] block, byte[] out, int offset){
+
+        float mr = 0, mg = 0, mb = 0;
+        for(int t = 0; t < 16; t++){
+            mr += block[t*4]; mg += block[t*4+1]; mb += block[t*4+2];
+        }
+        mr /= 16; mg /= 16; mb /= 16;
+
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for(int t = 0; t < 16; t++){
+            float r = block[t*4] - mr, g = block[t*4+1] - mg, b = block[t*4+2] - mb;
+            rr += r * r; rg += r * g; rb += r * b;
+            gg += g * g; gb += g * b; bb += b * b;
+        }
+
+        // principal axis by power iteration
+        float ar = 1, ag = 1, ab = 1;
+        for(int i = 0; i < 8; i++){
+            float r = rr * ar + rg * ag + rb * ab;
+            float g = rg * ar + gg * ag + gb * ab;
+            float b = rb * ar + gb * ag + bb * ab;
+            float length = Math.max(Math.abs(r), Math.max(Math.abs(g), Math.abs(b)));
+            if(length == 0) break;
+            ar = r / length; ag = g / length; ab = b / length;
+        }
+
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for(int t = 0; t < 16; t++){
+            float p = (block[t*4] - mr) * ar + (block[t*4+1] - mg) * ag + (block[t*4+2] - mb) * ab;
+            min = Math.min(min, p);
+            max = Math.max(max, p);
+        }
+        float norm = ar * ar + ag * ag + ab * ab;
+        if(norm > 0){ min /= norm; max /= norm; }
+
+        int c0 = to565(mr + ar * max, mg + ag * max, mb + ab * max);
+        int c1 = to565(mr + ar * min, mg + ag * min, mb + ab * min);
+        long best = colorIndices(block, c0, c1);
+
+        // least squares endpoints for the chosen indices
+        for(int iteration = 0; iteration < 2; iteration++){
+            float aa = 0, ab2 = 0, bb2 = 0;
+            float ax = 0, ay = 0, az = 0, bx = 0, by = 0, bz = 0;
+            int indices = (int) best;
+            for(int t = 0; t < 16; t++){
+                float alpha = WEIGHTS[(indices >>> (2 * t)) & 3], beta = 1 - alpha;
+                aa += alpha * alpha; ab2 += alpha * beta; bb2 += beta * beta;
+                ax += alpha * block[t*4]; ay += alpha * block[t*4+1]; az += alpha * block[t*4+2];
+                bx += beta * block[t*4]; by += beta * block[t*4+1]; bz += beta * block[t*4+2];
+            }
+            float det = aa * bb2 - ab2 * ab2;
+            if(Math.abs(det) < 1e-6f) break;
+            float f = 1 / det;
+            int n0 = to565((ax * bb2 - bx * ab2) * f, (ay * bb2 - by * ab2) * f, (az * bb2 - bz * ab2) * f);
+            int n1 = to565((bx * aa - ax * ab2) * f, (by * aa - ay * ab2) * f, (bz * aa - az * ab2) * f);
+            long candidate = colorIndices(block, n0, n1);
+            if((candidate >>> 32) >= (best >>> 32)) break;
+            best = candidate;
+            c0 = n0;
+            c1 = n1;
+        }
+
+        int indices = (int) best;
+        if(c0 < c1){
+            // 4 color mode needs c0 > c1, swapping the endpoints swaps 0/1 and 2/3
+            int s = c0; c0 = c1; c1 = s;
+            indices ^= 0x55555555;
+        } else if(c0 == c1){
+            indices = 0;
+        }
+
+        out[offset] = (byte) c0;
+        out[offset+1] = (byte) (c0 >>> 8);
+        out[offset+2] = (byte) c1;
+        out[offset+3] = (byte) (c1 >>> 8);
+        for(int i = 0; i < 4; i++)
+            out[offset+4+i] = (byte) (indices >>> (8 * i));
+    }
+
+    // weight of c0 for each 2 bit index
+    private static final float[] WEIGHTS = { 1, 0, 2 / 3f, 1 / 3f };
+
+    /**
+     * @return squared error in the upper, indices in the lower 32 bits
+     */
+    private static long colorIndices(int[] block, int c0, int c1){
+        int[] palette = new int[12];
+        colorPalette(c0, c1, true, palette);
+
+        long error = 0;
+        int indices = 0;
+        for(int t = 0; t < 16; t++){
+            int bestIndex = 0, bestError = Integer.MAX_VALUE;
+            for(int i = 0; i < 4; i++){
+                int dr = block[t*4] - palette[i*3], dg = block[t*4+1] - palette[i*3+1], db = block[t*4+2] - palette[i*3+2];
+                int e = dr * dr + dg * dg + db * db;
+                if(e < bestError){ bestError = e; bestIndex = i; }
+            }
+            error += bestError;
+            indices |= bestIndex << (2 * t);
+        }
+        return (error << 32) | (indices & 0xFFFFFFFFL);
+    }
+
+    private static void colorPalette(int c0, int c1, boolean fourColors, int[] palette){
+        expand565(c0, palette, 0);
+        expand565(c1, palette, 3);
+        for(int ch = 0; ch < 3; ch++){
+            int a = palette[ch], b = palette[3+ch];
+            if(fourColors){
+                palette[6+ch] = (2 * a + b) / 3;
+                palette[9+ch] = (a + 2 * b) / 3;
+            } else {
+                palette[6+ch] = (a + b) / 2;
+                palette[9+ch] = 0;
+            }
+        }
+    }
+
+    private static int to565(float r, float g, float b){
+        int r5 = Math.max(0, Math.min(31, Math.round(r * 31 / 255)));
+        int g6 = Math.max(0, Math.min(63, Math.round(g * 63 / 255)));
+        int b5 = Math.max(0, Math.min(31, Math.round(b * 31 / 255)));
+        return (r5 << 11) | (g6 << 5) | b5;
+    }
+
+    private static void expand565(int c, int[] out, int offset){
+        int r = (c >>> 11) & 31, g = (c >>> 5) & 63, b = c & 31;
+        out[offset] = (r << 3) | (r >>> 2);
+        out[offset+1] = (g << 2) | (g >>> 4);
+        out[offset+2] = (b << 3) | (b >>> 2);
+    }
+
+    /**
+     * BC4 block of one channel: two 8 bit endpoints and 3 bit indices,
+     * in 8 value mode. Tries endpoints slightly inside the block's range
+     */
+    private static void encodeAlphaBlock(int[] block, int channel, byte[] out, int offset){
+
+        int min = 255, max = 0;
+        for(int t = 0; t < 16; t++){
+            min = Math.min(min, block[t*4+channel]);
+            max = Math.max(max, block[t*4+channel]);
+        }
+
+        int best0 = max, best1 = min;
+        long bestIndices = 0;
+        if(max > min){
+            int[] palette = new int[8];
+            int bestError = Integer.MAX_VALUE;
+            for(int d0 = 0; d0 <= 2; d0++){
+                for(int d1 = 0; d1 <= 2; d1++){
+                    int r0 = max - d0, r1 = min + d1;
+                    if(r0 <= r1) continue;
+                    alphaPalette(r0, r1, palette);
+
+                    int error = 0;
+                    long indices = 0;
+                    for(int t = 0; t < 16; t++){
+                        int v = block[t*4+channel], bestIndex = 0, e = Integer.MAX_VALUE;
+                        for(int i = 0; i < 8; i++){
+                            int d = (v - palette[i]) * (v - palette[i]);
+                            if(d < e){ e = d; bestIndex = i; }
+                        }
+                        error += e;
+                        indices |= (long) bestIndex << (3 * t);
+                    }
+                    if(error < bestError){
+                        bestError = error;
+                        best0 = r0;
+                        best1 = r1;
+                        bestIndices = indices;
+                    }
+                }
+            }
+        }
+
+        out[offset] = (byte) best0;
+        out[offset+1] = (byte) best1;
+        for(int i = 0; i < 6; i++)
+            out[offset+2+i] = (byte) (bestIndices >>> (8 * i));
+    }
+
+    private static void alphaPalette(int r0, int r1, int[] palette){
+        palette[0] = r0;
+        palette[1] = r1;
+        if(r0 > r1){
+            for(int i = 1; i < 7; i++)
+                palette[i+1] = ((7 - i) * r0 + i * r1 + 3) / 7;
+        } else {
+            for(int i = 1; i < 5; i++)
+                palette[i+1] = ((5 - i) * r0 + i * r1 + 2) / 5;
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    /**
+     * Decodes one level back to RGBA, channels the format does not store
+     * are 0 (alpha 255)
+     */
+    public static byte[] decode(byte[] blocks, int width, int height, Format format){
+        int blocksX = (width + 3) / 4, blocksY = (height + 3) / 4;
+        byte[] ret = new byte[width * height * 4];
+        int[] block = new int[64], palette = new int[12];
+
+        for(int by = 0; by < blocksY; by++){
+            for(int bx = 0; bx < blocksX; bx++){
+                int offset = (by * blocksX + bx) * format.blockBytes;
+                for(int t = 0; t < 16; t++){
+                    block[t*4] = block[t*4+1] = block[t*4+2] = 0;
+                    block[t*4+3] = 255;
+                }
+
+                switch(format){
+                    case BC1: decodeColorBlock(blocks, offset, false, block, palette); break;
+                    case BC3: decodeAlphaBlock(blocks, offset, 3, block, palette); decodeColorBlock(blocks, offset + 8, true, block, palette); break;
+                    case BC4: decodeAlphaBlock(blocks, offset, 0, block, palette); break;
+                    case BC5: decodeAlphaBlock(blocks, offset, 0, block, palette); decodeAlphaBlock(blocks, offset + 8, 1, block, palette); break;
+                }
+
+                for(int t = 0; t < 16; t++){
+                    int x = bx * 4 + (t & 3), y = by * 4 + (t >> 2);
+                    if(x >= width || y >= height) continue;
+                    for(int ch = 0; ch < 4; ch++)
+                        ret[(y * width + x) * 4 + ch] = (byte) block[t*4+ch];
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static void decodeColorBlock(byte[] data, int offset, boolean alwaysFourColors, int[] block, int[] palette){
+        int c0 = (data[offset] & 0xFF) | (data[offset+1] & 0xFF) << 8;
+        int c1 = (data[offset+2] & 0xFF) | (data[offset+3] & 0xFF) << 8;
+        int indices = (data[offset+4] & 0xFF) | (data[offset+5] & 0xFF) << 8
+                | (data[offset+6] & 0xFF) << 16 | (data[offset+7] & 0xFF) << 24;
+
+        boolean fourColors = alwaysFourColors || c0 > c1;
+        colorPalette(c0, c1, fourColors, palette);
+        for(int t = 0; t < 16; t++){
+            int i = (indices >>> (2 * t)) & 3;
+            block[t*4] = palette[i*3];
+            block[t*4+1] = palette[i*3+1];
+            block[t*4+2] = palette[i*3+2];
+            if(!fourColors && i == 3) block[t*4+3] = 0;
+        }
+    }
+
+    private static void decodeAlphaBlock(byte[] data, int offset, int channel, int[] block, int[] palette){
+        alphaPalette(data[offset] & 0xFF, data[offset+1] & 0xFF, palette);
+        long indices = 0;
+        for(int i = 0; i < 6; i++)
+            indices |= (long) (data[offset+2+i] & 0xFF) << (8 * i);
+        for(int t = 0; t < 16; t++)
+            block[t*4+channel] = palette[(int) (indices >>> (3 * t)) & 7];
+    }
+
+    /**
+     * Peak signal to noise ratio over the first channels of two RGBA images
+     * @return in dB, infinite for identical images
+     */
+    public static double psnr(byte[] a, byte[] b, int channels){
+        double error = 0;
+        long count = 0;
+        for(int i = 0; i < a.length; i += 4){
+            for(int ch = 0; ch < channels; ch++){
+                int d = (a[i+ch] & 0xFF) - (b[i+ch] & 0xFF);
+                error += d * d;
+            }
+            count += channels;
+        }
+        if(error == 0) return Double.POSITIVE_INFINITY;
+        return 10 * Math.log10(255d * 255d / (error / count));
+    }
+
+}
@@ -0,0 +1,322 @@
+package engine.utils;
+
+import engine.glapi.TextureObject;
+import engine.system.Config;
+import engine.utils.TextureCompressor.CompressedImage;
+import engine.utils.TextureCompressor.Format;
+import lombok.Getter;
+import org.joml.AABBf;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TextureStreamer {
+
+    /**
+     * Keeps only the mip levels of block compressed textures in video
+     * memory that are needed at their current size on screen.
+     *
+     * A texture starts out with the levels no larger than startSize texels.
+     * While rendering, the pipeline reports how large the surfaces using a
+     * texture appear on screen (request). update() then streams finer
+     * levels in through the AssetManager, read on a worker and uploaded
+     * within the frame's budget. When the missing levels do not fit into
+     * the VRAM budget, the least recently used textures drop back to the
+     * levels they need, down to startSize if they were not drawn last frame.
+     *
+     * A texture is rebuilt from its smallest level up to the new finest one
+     * on every change, the levels are read from the CompressedTextureCache.
+     * Reading and uploading go through a Backend, so the residency logic
+     * also runs without OpenGL.
+     */
+
+    public interface Backend {
+        /**
+         * Reads the mip levels no larger than maxSize texels, called on asset workers
+         * @return the levels, null if the image can not be read
+         */
+        CompressedImage read(String filename, boolean srgb, int maxSize);
+
+        /**
+         * Replaces the levels of texture with image, called on the render thread
+         */
+        void upload(TextureObject texture, CompressedImage image);
+    }
+
+    /**
+     * Reads from the CompressedTextureCache and uploads with glCompressedTexImage2D
+     */
+    public static class GLBackend implements Backend {
+
+        // content hash of each image read, so the image file is hashed once
+        private final ConcurrentHashMap<String, Long> hashes = new ConcurrentHashMap<>();
+
+        @Override
+        public CompressedImage read(String filename, boolean srgb, int maxSize){
+            Long hash = hashes.get(filename);
+            ByteBuffer file = null;
+            if(hash == null){
+                file = ImageLoader.readImageFile(filename);
+                if(file == null) return null;
+                hash = CompressedTextureCache.hash(file);
+                hashes.put(filename, hash);
+            }
+
+            CompressedImage ret = CompressedTextureCache.instance().load(filename, srgb, hash, maxSize);
+            if(ret != null){
+                AssetArchive.release(file);
+                return ret;
+            }
+
+            // not cached yet or trimmed from the cache, encodes the image again
+            if(file == null) file = ImageLoader.readImageFile(filename);
+            if(file == null) return null;
+            ret = ImageLoader.readCompressedImage(filename, srgb, file);
+            AssetArchive.release(file);
+            return ret.fromLevel(TextureCompressor.mipForSize(ret.getWidth(), ret.getHeight(), maxSize));
+        }
+
+        @Override
+        public void upload(TextureObject texture, CompressedImage image){
+            ImageLoader.uploadCompressedImage(texture, image);
+            texture.trilinearFilter();
+        }
+    }
+
+    private static TextureStreamer instance;
+    public static TextureStreamer instance(){
+        if(instance == null){
+            Config config = Config.instance();
+            instance = new TextureStreamer(new GLBackend(), AssetManager.instance(),
+                    config.getTextureBudgetMB() * 1024L * 1024L, config.getStreamingStartSize());
+        }
+        return instance;
+    }
+
+    private static class Entry {
+        final TextureObject texture;
+        final String filename;
+        final boolean srgb;
+
+        // known once the first levels arrived
+        Format format;
+        int width, height, floor;
+
+        // finest resident mip, -1 until the first levels arrived
+        int resident = -1;
+        // mip being streamed to, -1 if none
+        int target = -1;
+        // mip needed by the last frame
+        int wanted;
+
+        // largest size on screen requested this frame, and the frame of the last request
+        float screenSize;
+        long lastUsed = -1;
+
+        Entry(TextureObject texture, String filename, boolean srgb){
+            this.texture = texture;
+            this.filename = filename;
+            this.srgb = srgb;
+        }
+
+        long bytes(int mip){
+            return mip < 0 ? 0 : TextureCompressor.chainBytes(format, width, height, mip);
+        }
+    }
+
+    // most streams in flight at once, so a camera cut does not queue every texture
+    private static final int MAX_STREAMS = 4;
+
+    private final Backend backend;
+    private final AssetManager assets;
+    private final IdentityHashMap<TextureObject, Entry> entries = new IdentityHashMap<>();
+    private final ArrayList<Entry> candidates = new ArrayList<>();
+
+    @Getter private final long budgetBytes;
+    @Getter private final int startSize;
+
+    @Getter private long frame;
+    @Getter private long residentBytes;
+    @Getter private int streaming, streamedIn, streamedOut;
+
+    public TextureStreamer(Backend backend, AssetManager assets, long budgetBytes, int startSize){
+        this.backend = backend;
+        this.assets = assets;
+        this.budgetBytes = budgetBytes;
+        this.startSize = startSize;
+    }
+
+    /**
+     * Streams image filename into texture, starting with its levels no
+     * larger than startSize
+     * @return future completed once the first levels are uploaded
+     */
+    public CompletableFuture<CompressedImage> add(TextureObject texture, String filename, boolean srgb){
+        Entry entry = new Entry(texture, filename, srgb);
+        entries.put(texture, entry);
+
+        return assets.load(() -> read(entry, startSize), CompressedImage::getBytes, image -> {
+            entry.format = image.getFormat();
+            entry.width = image.getWidth();
+            entry.height = image.getHeight();
+            entry.floor = image.getMip();
+            entry.wanted = entry.floor;
+            apply(entry, image);
+        });
+    }
+
+    /**
+     * Reports that texture was drawn this frame
+     * @param screenSize size in pixels of one repeat of the texture on screen, see projectedSize
+     */
+    public void request(TextureObject texture, float screenSize){
+        Entry entry = entries.get(texture);
+        if(entry == null) return;
+        entry.screenSize = Math.max(entry.screenSize, screenSize);
+        entry.lastUsed = frame;
+    }
+
+    /**
+     * Evicts and streams levels for the requests of the frame that just
+     * ended. Called once per frame on the render thread, before the
+     * AssetManager's update
+     */
+    public void update(){
+
+        // textures deleted by their last user
+        entries.values().removeIf(entry -> {
+            if(!entry.texture.isDeleted()) return false;
+            residentBytes -= entry.bytes(entry.resident);
+            return true;
+        });
+
+        long planned = 0;
+        for(Entry entry: entries.values()){
+            if(entry.resident < 0) continue;
+            planned += entry.bytes(entry.target >= 0 ? entry.target : entry.resident);
+            entry.wanted = entry.lastUsed == frame ? neededMip(entry) : entry.floor;
+            entry.screenSize = 0;
+        }
+
+        // levels the drawn textures are missing
+        long missing = 0;
+        collect(true);
+        for(Entry entry: candidates)
+            missing += entry.bytes(entry.wanted) - entry.bytes(entry.resident);
+
+        // no room for them: least recently used textures drop to the levels they need
+        if(planned + missing > budgetBytes){
+            collect(false);
+            candidates.sort(Comparator.comparingLong((Entry entry) -> entry.lastUsed)
+                    .thenComparingLong(entry -> entry.bytes(entry.wanted) - entry.bytes(entry.resident)));
+            for(Entry entry: candidates){
+                if(planned + missing <= budgetBytes || streaming >= MAX_STREAMS) break;
+                planned += entry.bytes(entry.wanted) - entry.bytes(entry.resident);
+                stream(entry, entry.wanted);
+            }
+        }
+
+        // stream in, textures missing the most levels first, as far as the budget allows
+        collect(true);
+        candidates.sort(Comparator.comparingInt((Entry entry) -> entry.wanted - entry.resident)
+                .thenComparingLong(entry -> -entry.lastUsed));
+        for(Entry entry: candidates){
+            if(streaming >= MAX_STREAMS) break;
+            int mip = entry.wanted;
+            while(mip < entry.resident && planned + entry.bytes(mip) - entry.bytes(entry.resident) > budgetBytes)
+                mip++;
+            if(mip == entry.resident) continue;
+            planned += entry.bytes(mip) - entry.bytes(entry.resident);
+            stream(entry, mip);
+        }
+
+        frame++;
+    }
+
+    /**
+     * Fills candidates with the idle textures that need finer (in) or
+     * fewer (out) levels than they have
+     */
+    private void collect(boolean in){
+        candidates.clear();
+        for(Entry entry: entries.values()){
+            if(entry.resident < 0 || entry.target >= 0) continue;
+            if(in ? entry.wanted < entry.resident : entry.wanted > entry.resident)
+                candidates.add(entry);
+        }
+    }
+
+    private int neededMip(Entry entry){
+        int mip = TextureCompressor.mipForSize(entry.width, entry.height, entry.screenSize);
+        // one texel per pixel at least
+        if(mip > 0 && Math.max(entry.width, entry.height) >> mip < entry.screenSize)
+            mip--;
+        return Math.min(mip, entry.floor);
+    }
+
+    private void stream(Entry entry, int mip){
+        if(mip < entry.resident) streamedIn++;
+        else streamedOut++;
+
+        entry.target = mip;
+        streaming++;
+        int maxSize = Math.max(entry.width, entry.height) >> mip;
+        assets.load(() -> read(entry, maxSize), CompressedImage::getBytes, image -> apply(entry, image))
+                .whenComplete((image, error) -> {
+                    streaming--;
+                    entry.target = -1;
+                });
+    }
+
+    private CompressedImage read(Entry entry, int maxSize){
+        CompressedImage ret = backend.read(entry.filename, entry.srgb, maxSize);
+        if(ret == null)
+            throw new RuntimeException("Could not find image: " + entry.filename);
+        return ret;
+    }
+
+    private void apply(Entry entry, CompressedImage image){
+        if(entry.texture.isDeleted()) return;
+        residentBytes += image.getBytes() - entry.bytes(entry.resident);
+        entry.resident = image.getMip();
+        backend.upload(entry.texture, image);
+    }
+
+    /**
+     * @return finest resident mip of texture, -1 if it is not streamed or not loaded yet
+     */
+    public int getResidentMip(TextureObject texture){
+        Entry entry = entries.get(texture);
+        return entry == null ? -1 : entry.resident;
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public String report(){
+        return String.format("Texture streaming: %d textures, %.1f of %.1f MB resident, %d streams in, %d out, %d in flight",
+                size(), residentBytes / 1048576d, budgetBytes / 1048576d, streamedIn, streamedOut, streaming);
+    }
+
+    /**
+     * Diameter in pixels of bounds seen from eye, infinite if eye is inside
+     * @param fovY vertical field of view in radians
+     */
+    public static float projectedSize(AABBf bounds, Vector3f eye, float fovY, int screenHeight){
+        float dx = bounds.maxX - bounds.minX, dy = bounds.maxY - bounds.minY, dz = bounds.maxZ - bounds.minZ;
+        float radius = 0.5f * (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        float cx = (bounds.minX + bounds.maxX) / 2 - eye.x;
+        float cy = (bounds.minY + bounds.maxY) / 2 - eye.y;
+        float cz = (bounds.minZ + bounds.maxZ) / 2 - eye.z;
+        float distance = (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+        if(distance <= radius) return Float.POSITIVE_INFINITY;
+        return radius / (distance * (float) Math.tan(fovY / 2)) * screenHeight;
+    }
+
+}
@@ -0,0 +1,111 @@
+package engine.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class TreeTraversal<T> {
+
+    /**
+     * Reusable depth first and breadth first walks over a tree of nodes
+     * (scenegraph Nodes or GUI Elements).
+     *
+     * The work arrays grow once to the size of the largest tree walked and
+     * are reused afterwards, children are read by index, so a walk with
+     * non-capturing (or cached) lambdas allocates nothing.
+     *
+     * The root is always visited. Every other node is tested with the
+     * descend predicate first; if it fails, the node and its whole subtree
+     * are skipped, the same way Node.render(type, condition) prunes.
+     *
+     * An instance may be reused from inside a visitor (nested walks), but
+     * must only be used by one thread.
+     */
+
+    private final Function<T, List<T>> children;
+
+    private Object[] work = new Object[64];
+    private int top;
+
+    public TreeTraversal(Function<T, List<T>> children){
+        this.children = children;
+    }
+
+    /**
+     * Pre-order walk, children in list order
+     * @param descend pruning predicate, null to visit every node
+     */
+    @SuppressWarnings("unchecked")
+    public void depthFirst(T root, Predicate<T> descend, Consumer<T> visitor){
+        int base = top;
+        push(root);
+        while(top > base){
+            T node = (T) work[--top];
+            work[top] = null;
+            visitor.accept(node);
+
+            // pushed in reverse so the first child is visited next
+            List<T> list = children.apply(node);
+            for(int i = list.size() - 1; i >= 0; i--){
+                T child = list.get(i);
+                if(descend == null || descend.test(child))
+                    push(child);
+            }
+        }
+    }
+
+    /**
+     * Level order walk, children in list order
+     * @param descend pruning predicate, null to visit every node
+     */
+    @SuppressWarnings("unchecked")
+    public void breadthFirst(T root, Predicate<T> descend, Consumer<T> visitor){
+        int base = top;
+        int head = base;
+        push(root);
+        while(head < top){
+            T node = (T) work[head];
+            work[head++] = null;
+            visitor.accept(node);
+
+            List<T> list = children.apply(node);
+            for(int i = 0; i < list.size(); i++){
+                T child = list.get(i);
+                if(descend == null || descend.test(child))
+                    push(child);
+            }
+        }
+        top = base;
+    }
+
+    /**
+     * Adds root and every node the descend predicate lets through to out, in pre-order
+     */
+    @SuppressWarnings("unchecked")
+    public <L extends List<? super T>> L collect(T root, Predicate<T> descend, L out){
+        int base = top;
+        push(root);
+        while(top > base){
+            T node = (T) work[--top];
+            work[top] = null;
+            out.add(node);
+
+            List<T> list = children.apply(node);
+            for(int i = list.size() - 1; i >= 0; i--){
+                T child = list.get(i);
+                if(descend == null || descend.test(child))
+                    push(child);
+            }
+        }
+        return out;
+    }
+
+    private void push(T node){
+        if(top == work.length)
+            work = Arrays.copyOf(work, work.length * 2);
+        work[top++] = node;
+    }
+
+}
@@ -1,6 +1,7 @@
 package engine.utils;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
 import sun.misc.IOUtils;
 
 import java.io.BufferedReader;
@@ -30,6 +31,15 @@ public class Utils {
     public static String loadResource(String filePath) throws Exception {
         String result;
 
+        AssetArchive archive = AssetArchive.mounted();
+        ByteBuffer packed = archive == null ? null : archive.read(filePath);
+        if(packed != null){
+            result = MemoryUtil.memUTF8(packed);
+            AssetArchive.release(packed);
+            System.out.println("Resouce loaded: " + filePath + " (archive)");
+            return result;
+        }
+
         try (
                 InputStream in = Utils.class.getResourceAsStream("/"+filePath);
                 Scanner scanner = new Scanner(in, "UTF-8"))
@@ -58,14 +68,29 @@ public class Utils {
         return list;
     }
 
+    /**
+     * Reads a resource from the mounted AssetArchive, or else from the file
+     * system or the class path
+     * @param filename path with format "res/*"
+     * @param bufferSize initial size of the buffer for class path resources
+     * @return flipped direct buffer, hand it to AssetArchive.release once consumed
+     */
     public static ByteBuffer ioResourceToBuffer(String filename, int bufferSize) throws IOException {
 
+        AssetArchive archive = AssetArchive.mounted();
+        if(archive != null){
+            ByteBuffer packed = archive.read(filename);
+            if(packed != null)
+                return packed;
+        }
+
         ByteBuffer buffer;
         Path path = Paths.get(filename);
 
         if(Files.isReadable(path)){
             try(SeekableByteChannel channel = Files.newByteChannel(path)){
                 buffer = BufferUtils.createByteBuffer((int)channel.size()+1);
+                while(channel.read(buffer) != -1 && buffer.hasRemaining());
             }
         }
         else {
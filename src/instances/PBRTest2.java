@@ -39,7 +39,7 @@ public class PBRTest2 extends SceneContext {
         int matrixdim = 5;
         for(int i = 0; i < matrixdim; i++){
             for(int j = 0; j < matrixdim; j++){
-                PBRModel model = new PBRModel(Meshs.sphere,
+                PBRModel model = new PBRModel(Meshs.sphere(),
                         new PBRMaterial(0f, 0f, 0f,
                                 (float)i/(float)matrixdim, (float)j/(float)matrixdim));
                 model.transform.translate(0, 2*(i-matrixdim/2), 2*(j-matrixdim/2));
@@ -9,7 +9,7 @@ import engine.scene.light.PointLight;
 import engine.scene.node.Node;
 import engine.system.Config;
 import engine.scene.SceneContext;
-import engine.utils.AssimpLoader;
+import engine.utils.AssetManager;
 import modules.pbr.PBRMaterial;
 import modules.pbr.PBRModel;
 
@@ -49,7 +49,10 @@ public class PBRTest3 extends SceneContext {
         lights = new Node();
         object.addChild(lights);
 
-        Mesh3D mesh = AssimpLoader.loadMeshGroup("res/models/dragon.obj").get(0);
+        // meshes and textures stream in, models draw placeholders until then
+        AssetManager assets = AssetManager.instance();
+
+        Mesh3D mesh = assets.loadMesh("res/models/dragon.obj");
 
         PBRMaterial fu = new PBRMaterial("res/images/scuffed_plastic/", "albedoyellow.png",
                 "normal.png", "rough.png", "metal.png",  false);
@@ -66,7 +69,7 @@ public class PBRTest3 extends SceneContext {
 
         /** material testers **/
         Node matTesters = new Node();
-        Mesh3D m = AssimpLoader.loadMeshGroup("res/models/mat_test.obj").get(0);
+        Mesh3D m = assets.loadMesh("res/models/mat_test.obj");
         PBRModel m1 = new PBRModel(m, new PBRMaterial(0.15f, 0.488f, 0.5f, 0.95f, 0f));
         m1.transform.translate(0,0,-15).scaleTo(2f);
         PBRModel m2 = new PBRModel(m, new PBRMaterial("res/images/chipped_paint/", false));
@@ -79,16 +82,16 @@ public class PBRTest3 extends SceneContext {
         PBRModel m5 = new PBRModel(m, new PBRMaterial("res/images/plastic_squares/", false));
         m5.transform.translate(0,0,5).scaleTo(2f);
 
-        matTesters.transform.translate(12, -m1.getMesh().getLowest(), 0);
+        assets.whenLoaded(m1.getMesh(), () -> matTesters.transform.translate(12, -m1.getMesh().getLowest(), 0));
         matTesters.addChildren(m1, m2, m3, m4, m5);
 
         /** bunny and buddha **/
-        m = AssimpLoader.loadMeshGroup("res/models/bunny.obj").get(0);
-        PBRModel bunny = new PBRModel(m, new PBRMaterial("res/images/scuffed_plastic/",
+        PBRModel bunny = new PBRModel(assets.loadMesh("res/models/bunny.obj"), new PBRMaterial("res/images/scuffed_plastic/",
                 "albedored.png", "normal.png", "rough.png", "metal.png",  false));
-        bunny.transform.translate(-25, -m.getLowest(), -10).scaleTo(1.5f).rotate(0, -90, 0);
+        bunny.transform.translate(-25, 0, -10).scaleTo(1.5f).rotate(0, -90, 0);
+        assets.whenLoaded(bunny.getMesh(), () -> bunny.transform.translate(0, -bunny.getMesh().getLowest(), 0));
 
-        m = AssimpLoader.loadMeshGroup("res/models/buddha.obj").get(0);
+        m = assets.loadMesh("res/models/buddha.obj");
         PBRModel buddha = new PBRModel(m, new PBRMaterial("res/images/gold/", true));
         buddha.transform.translate(-25f,-2.5f,0).rotate(-90, 0, 90).scale(5f);
 
@@ -153,9 +156,10 @@ public class PBRTest3 extends SceneContext {
         for(int i = -amount/2; i<amount/2; i++){
             for(int j = -amount/2; j<amount/2; j++){
 
-                if((i == -1||i==0)&&(j==-1||j==0)) model = new PBRModel(Meshs.thickquad, mat2);
-                else model = new PBRModel(Meshs.thickquad, mat);
+                if((i == -1||i==0)&&(j==-1||j==0)) model = new PBRModel(Meshs.thickquad(), mat2);
+                else model = new PBRModel(Meshs.thickquad(), mat);
                 model.transform.translate(i*scale*2,0,j*scale*2).scaleTo(scale).rotateTo(90,0,0);
+                model.setStatic(true);
                 object.addChild(model);
             }
         }
@@ -170,36 +174,44 @@ public class PBRTest3 extends SceneContext {
         int amount = 4;
 
         for(int i = 0; i < amount; i++){
-            model = new PBRModel(Meshs.thickquad, mat);
+            model = new PBRModel(Meshs.thickquad(), mat);
             model.transform.translate(2*scale*(i-amount/2.0f),-model.getMesh().getLowest()*scale-.1f,-(1+amount)*scale).scaleTo(scale);
             model.setUVscalar(1f);
+            model.setOccluder(true);
+            model.setStatic(true);
             object.addChild(model);
         }
 
         for(int i = 0; i < amount; i++){
-            model = new PBRModel(Meshs.thickquad, mat);
+            model = new PBRModel(Meshs.thickquad(), mat);
             model.transform.translate(-(1+amount)*scale,-model.getMesh().getLowest()*scale-.1f,2*scale*(i-amount/2.0f))
                             .scaleTo(scale)
                             .rotateTo(0,-90,0);
             model.setUVscalar(1f);
+            model.setOccluder(true);
+            model.setStatic(true);
             object.addChild(model);
         }
 
         for(int i = 0; i < amount; i++){
-            model = new PBRModel(Meshs.thickquad, mat);
+            model = new PBRModel(Meshs.thickquad(), mat);
             model.transform.translate(2*scale*(i-amount/2.0f),-model.getMesh().getLowest()*scale-.1f,(amount-1)*scale)
                     .scaleTo(scale)
                     .rotateTo(0,180,0);
             model.setUVscalar(1f);
+            model.setOccluder(true);
+            model.setStatic(true);
             object.addChild(model);
         }
 
         for(int i = 0; i < amount; i++){
-            model = new PBRModel(Meshs.thickquad, mat);
+            model = new PBRModel(Meshs.thickquad(), mat);
             model.transform.translate((amount-1)*scale,-model.getMesh().getLowest()*scale-.1f,2*scale*(i-amount/2.0f))
                     .scaleTo(scale)
                     .rotateTo(0,90,0);
             model.setUVscalar(1f);
+            model.setOccluder(true);
+            model.setStatic(true);
             object.addChild(model);
         }
 
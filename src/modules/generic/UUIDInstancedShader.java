@@ -0,0 +1,22 @@
+package modules.generic;
+
+import engine.glapi.Shader;
+
+public class UUIDInstancedShader extends UUIDShader {
+
+    private static UUIDInstancedShader instance;
+    public static UUIDInstancedShader instance(){
+        if (instance == null)
+            instance = new UUIDInstancedShader();
+        return instance;
+    }
+
+    private UUIDInstancedShader(){
+        super("res/shaders/picking/UUID_instanced_vs.glsl", "res/shaders/picking/UUID_instanced_fs.glsl");
+    }
+
+    @Override
+    public Shader getInstancedShader() {
+        return null;
+    }
+}
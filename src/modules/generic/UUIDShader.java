@@ -1,5 +1,6 @@
 package modules.generic;
 
+import engine.glapi.vbo.InstanceBuffer;
 import engine.scene.Picking;
 import engine.scene.node.ModuleNode;
 import engine.scene.Camera;
@@ -15,25 +16,54 @@ public class UUIDShader extends Shader {
     }
 
     private UUIDShader(){
+        this("res/shaders/picking/UUID_vs.glsl", "res/shaders/picking/UUID_fs.glsl");
+
+        addUniform("modelMatrix");
+        addUniform("color");
+    }
+
+    protected UUIDShader(String vertexShader, String fragmentShader){
         super();
-        createVertexShader("res/shaders/picking/UUID_vs.glsl");
-        createFragmentShader("res/shaders/picking/UUID_fs.glsl");
+        createVertexShader(vertexShader);
+        createFragmentShader(fragmentShader);
         link();
 
-        addUniform("modelMatrix");
         addUniform("viewMatrix");
         addUniform("projectionMatrix");
-
-        addUniform("color");
     }
 
     @Override
     public void updateUniforms(ModuleNode node) {
+        updatePassUniforms();
+        updateObjectUniforms(node);
+    }
+
+    @Override
+    public void updatePassUniforms() {
         Camera camera = boundContext.getCamera();
 
         setUniform("projectionMatrix", camera.getProjectionMatrix());
-        setUniform("modelMatrix", node.getModelMatrix());
         setUniform("viewMatrix", camera.getViewMatrix());
+    }
+
+    @Override
+    public void updateObjectUniforms(ModuleNode node) {
+        setUniform("modelMatrix", node.getModelMatrix());
         setUniform("color", Picking.getUUIDColor(node.getUUID()));
     }
+
+    @Override
+    public Shader getInstancedShader() {
+        return UUIDInstancedShader.instance();
+    }
+
+    /**
+     * Same encoding as Picking.getUUIDColor, without the vector
+     */
+    @Override
+    public void putInstance(ModuleNode node, InstanceBuffer instances) {
+        int UUID = node.getUUID();
+        instances.put(node.getModelMatrix(),
+                (UUID & 0xFF) / 255f, ((UUID >> 8) & 0xFF) / 255f, ((UUID >> 16) & 0xFF) / 255f, 1);
+    }
 }
@@ -38,13 +38,23 @@ public class OutlineShader extends Shader {
 
     @Override
     public void updateUniforms(ModuleNode node) {
+        updatePassUniforms();
+        updateObjectUniforms(node);
+    }
+
+    @Override
+    public void updatePassUniforms() {
         Camera camera = boundContext.getCamera();
 
         setUniform("projectionMatrix", camera.getProjectionMatrix());
-        setUniform("modelMatrix", node.getModelMatrix());
         setUniform("viewMatrix", camera.getViewMatrix());
         setUniform("color", color);
         setUniform("offset", offset);
+    }
+
+    @Override
+    public void updateObjectUniforms(ModuleNode node) {
+        setUniform("modelMatrix", node.getModelMatrix());
         //setUniform("scaling", node.transform.getScaling());
     }
 }
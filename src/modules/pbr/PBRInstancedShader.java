@@ -0,0 +1,37 @@
+package modules.pbr;
+
+import engine.glapi.Shader;
+
+public class PBRInstancedShader extends PBRShader {
+
+    /**
+     * PBRShader for instanced draws. Model matrix and UV scale are per
+     * instance attributes; the vertex stage applies the UV scale, so the
+     * shared fragment stage runs with UVscale 1
+     */
+
+    private static PBRInstancedShader instance = null;
+
+    public static PBRInstancedShader instance(){
+        if(instance == null){
+            instance = new PBRInstancedShader();
+        }
+        return instance;
+    }
+
+    private PBRInstancedShader(){
+        super("res/shaders/pbr/pbr_instanced_vs.glsl");
+    }
+
+    @Override
+    public void updatePassUniforms(){
+        super.updatePassUniforms();
+        setUniform("UVscale", 1f);
+    }
+
+    @Override
+    public Shader getInstancedShader(){
+        return null;
+    }
+
+}
@@ -5,7 +5,10 @@ import lombok.Setter;
 import org.joml.Vector3f;
 import engine.glapi.TextureObject;
 import engine.scene.node.Module;
-import engine.utils.ImageLoader;
+import engine.utils.AssetManager;
+import engine.utils.TextureCache;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PBRMaterial extends Module {
 
@@ -23,6 +26,16 @@ public class PBRMaterial extends Module {
 
     private Boolean is_albedo_map, is_normal_map, is_roughness_map, is_metal_map;
 
+    // RGBA of the 1x1 maps drawn while the textures load: grey, flat normal, rough, not metallic
+    private static final int PLACEHOLDER_ALBEDO = 0x808080FF;
+    private static final int PLACEHOLDER_NORMAL = 0x8080FFFF;
+    private static final int PLACEHOLDER_ROUGHNESS = 0xFFFFFFFF;
+    private static final int PLACEHOLDER_METAL = 0x000000FF;
+
+    // identifies this material when sorting and batching draws, never 0
+    private static final AtomicInteger materialIDs = new AtomicInteger(1);
+    @Getter private final int materialID = materialIDs.getAndIncrement();
+
     public PBRMaterial(float albedo_r, float albedo_g, float albedo_b,
                        float roughness, float metal)
     {
@@ -44,23 +57,25 @@ public class PBRMaterial extends Module {
     public PBRMaterial(String texturePath, String albedoFile, String normalFile,
                        String roughnessFile, String metalFile, boolean srgb){
 
-        TextureObject albedo = ImageLoader.loadTexture(
-                texturePath + albedoFile, srgb)
+        AssetManager assets = AssetManager.instance();
+
+        TextureObject albedo = assets.loadTexture(
+                texturePath + albedoFile, srgb, PLACEHOLDER_ALBEDO)
                 .trilinearFilter().wrap();
         setAlbedoMap(albedo);
 
-        TextureObject normal = ImageLoader.loadTexture(
-                texturePath + normalFile, srgb)
+        TextureObject normal = assets.loadTexture(
+                texturePath + normalFile, srgb, PLACEHOLDER_NORMAL)
                 .trilinearFilter().wrap();
         setNormalMap(normal);
 
-        TextureObject roughness = ImageLoader.loadTexture(
-                texturePath + roughnessFile, srgb)
+        TextureObject roughness = assets.loadTexture(
+                texturePath + roughnessFile, srgb, PLACEHOLDER_ROUGHNESS)
                 .trilinearFilter().wrap();
         setRoughnessMap(roughness);
 
-        TextureObject metal = ImageLoader.loadTexture(
-                texturePath + metalFile, srgb)
+        TextureObject metal = assets.loadTexture(
+                texturePath + metalFile, srgb, PLACEHOLDER_METAL)
                 .trilinearFilter().wrap();
         setMetalMap(metal);
 
@@ -80,6 +95,20 @@ public class PBRMaterial extends Module {
         this(new Vector3f(1,1,1), 0f, 0f);
     }
 
+    /**
+     * Releases the maps, the TextureCache deletes a texture once no
+     * material uses it anymore. Safe to call more than once
+     */
+    @Override
+    public void cleanup(){
+        TextureCache cache = TextureCache.instance();
+        if(albedoMap != null) cache.release(albedoMap);
+        if(normalMap != null) cache.release(normalMap);
+        if(roughnessMap != null) cache.release(roughnessMap);
+        if(metalMap != null) cache.release(metalMap);
+        albedoMap = normalMap = roughnessMap = metalMap = null;
+    }
+
     public void useAllMaps(Boolean use){
         this.is_metal_map = use;
         this.is_roughness_map = use;
@@ -2,10 +2,12 @@ package modules.pbr;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.joml.AABBf;
 import engine.glapi.vbo.Mesh3D;
 import engine.scene.node.ModuleNode;
 import engine.scene.node.RenderModule;
 import engine.scene.node.RenderType;
+import engine.utils.AssetManager;
 import modules.generic.UUIDShader;
 import modules.shadow.ShadowShader;
 import modules.outline.OutlineShader;
@@ -19,6 +21,10 @@ public class PBRModel extends ModuleNode {
 
     @Getter @Setter private float UVscalar = 1f;
 
+    // large closed meshes like walls and floors that hide what is behind them,
+    // rasterized into the occlusion buffer before the scene pass
+    @Getter @Setter private boolean occluder = false;
+
     public PBRModel(Mesh3D mesh, PBRMaterial material){
 
         super();
@@ -47,6 +53,8 @@ public class PBRModel extends ModuleNode {
         addModule(RenderType.TYPE_OUTLINE, outlinerenderer);
         addModule(RenderType.TYPE_UUID, UUIDrenderer);
 
+        // a mesh still loading has no bounds yet, refresh them when it arrives
+        AssetManager.instance().whenLoaded(mesh, this::invalidateTransform);
     }
 
     public PBRModel(ArrayList<Mesh3D> meshs, PBRMaterial material){
@@ -56,4 +64,9 @@ public class PBRModel extends ModuleNode {
             addChild(model);
         }
     }
+
+    @Override
+    public AABBf getLocalBounds(){
+        return mesh == null ? null : mesh.getBounds();
+    }
 }
@@ -2,13 +2,26 @@ package modules.pbr;
 
 import lombok.Getter;
 import engine.scene.SceneContext;
+import engine.scene.light.LightManager;
+import engine.glapi.vbo.Mesh3D;
+import engine.scene.node.ModuleNode;
+import engine.scene.node.Node;
+import engine.scene.node.OcclusionCuller;
+import engine.scene.node.RenderQueue;
 import engine.scene.node.RenderType;
+import engine.utils.TextureStreamer;
+import engine.utils.TreeTraversal;
 import engine.system.*;
 import engine.glapi.fbo.ShadowFrameBufferObject;
 import modules.post.bloom.Bloom;
 import modules.post.ssao.SSAO;
 import modules.post.ssr.SSR;
 import modules.post.tonemap.Tonemap;
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -36,6 +49,40 @@ public class PBRPipeline extends Pipeline {
     // tone mapping
     @Getter private Tonemap tonemap;
 
+    // sorted draw lists of the geometry passes
+    @Getter private RenderQueue sceneQueue, shadowQueue;
+
+    // CPU depth buffer of PBRModels flagged as occluders, tested before the scene pass
+    @Getter private OcclusionCuller occlusionCuller;
+    private final TreeTraversal<Node> occluderTraversal = Node.traversal();
+    private final Consumer<Node> rasterizeOccluder = node -> {
+        if(node instanceof PBRModel && ((PBRModel) node).isOccluder()){
+            Mesh3D mesh = ((PBRModel) node).getMesh();
+            occlusionCuller.rasterize(node.getModelMatrix(), mesh.getPositions(), mesh.getIndices());
+        }
+    };
+
+    // camera of the frame, for the size of objects on screen
+    private final Vector3f eye = new Vector3f();
+    private float fovY;
+    private int screenHeight;
+
+    // asks the TextureStreamer for the mip levels each drawn material needs at its size on screen
+    private final Consumer<ModuleNode> requestTextures = node -> {
+        if(!(node instanceof PBRModel)) return;
+        PBRModel model = (PBRModel) node;
+        AABBf bounds = model.getWorldBounds();
+        if(bounds == null) return;
+
+        float size = TextureStreamer.projectedSize(bounds, eye, fovY, screenHeight) / model.getUVscalar();
+        PBRMaterial material = model.getMaterial();
+        TextureStreamer streamer = TextureStreamer.instance();
+        if(material.isAlbedoMapped()) streamer.request(material.getAlbedoMap(), size);
+        if(material.isNormalMapped()) streamer.request(material.getNormalMap(), size);
+        if(material.isRoughnessMapped()) streamer.request(material.getRoughnessMap(), size);
+        if(material.isMetalMapped()) streamer.request(material.getMetalMap(), size);
+    };
+
     public PBRPipeline(SceneContext context) {
 
         super(context);
@@ -49,6 +96,10 @@ public class PBRPipeline extends Pipeline {
 
         bloomPass = new Bloom();
         tonemap = new Tonemap();
+
+        sceneQueue = new RenderQueue();
+        shadowQueue = new RenderQueue();
+        occlusionCuller = new OcclusionCuller();
     }
 
     @Override
@@ -61,25 +112,54 @@ public class PBRPipeline extends Pipeline {
     @Override
     protected void renderScene(SceneContext context) {
 
+        eye.set(context.getCamera().transform.getTranslation());
+        fovY = (float) Math.toRadians(context.getCamera().getFOV());
+        screenHeight = context.getResolution().y;
+
+        // shadows need less detail than the view, the shadow pass draws coarser levels
+        float pixelError = Config.instance().getLodPixelError();
+        sceneQueue.setLevelOfDetail(eye, fovY, screenHeight, pixelError, 0);
+        shadowQueue.setLevelOfDetail(eye, fovY, screenHeight, pixelError, Config.instance().getShadowLodBias());
+
         if(Config.instance().isShadows()) {
             shadowFBO.bind(() -> {
                 glDisable(GL_CULL_FACE);
                 glViewport(0, 0, Config.instance().getShadowBufferWidth(),
                     Config.instance().getShadowBufferHeight());
                 glClear(GL_DEPTH_BUFFER_BIT);
-                context.getScene().render(RenderType.TYPE_SHADOW);
+                shadowQueue.setFrustum(LightManager.getSun().getLightSpaceMatrix())
+                        .setInstancing(Config.instance().isInstancing())
+                        .setStaticBatcher(context.getScene().getStaticBatcher())
+                        .render(context.getScene(), RenderType.TYPE_SHADOW);
                 glEnable(GL_CULL_FACE);
             });
         }
 
+        Matrix4f viewProjection = context.getCamera().getViewProjectionMatrix();
+
+        if(Config.instance().isOcclusionCulling()) {
+            occlusionCuller.begin(viewProjection);
+            occluderTraversal.depthFirst(context.getScene(), e -> e.isActivated() && !e.isHidden(), rasterizeOccluder);
+            sceneQueue.setOcclusion(occlusionCuller.finish());
+        } else {
+            sceneQueue.setOcclusion(null);
+        }
+
         pbrFBO.bind(()-> {
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT| GL_STENCIL_BUFFER_BIT);
             Window.instance().resizeViewport(context.getResolution());
 
             // render scenegraph to obtain geometry data in the pbrFBO buffers
-            context.getScene().render(RenderType.TYPE_SCENE);
+            sceneQueue.setEye(context.getCamera().transform.getTranslation())
+                    .setFrustum(viewProjection)
+                    .setInstancing(Config.instance().isInstancing())
+                    .setStaticBatcher(context.getScene().getStaticBatcher())
+                    .render(context.getScene(), RenderType.TYPE_SCENE);
         });
 
+        if(Config.instance().isTextureStreaming())
+            sceneQueue.forEachNode(requestTextures);
+
         // calculate ssao
         if(Config.instance().isSsao())
             ssaoPass.compute(
@@ -1,7 +1,9 @@
 package modules.pbr;
 
 import engine.scene.Camera;
+import org.joml.Matrix4f;
 import engine.glapi.Shader;
+import engine.glapi.vbo.InstanceBuffer;
 import engine.scene.node.ModuleNode;
 
 public class PBRShader extends Shader {
@@ -13,6 +15,8 @@ public class PBRShader extends Shader {
 
     private static PBRShader instance = null;
 
+    private static final Matrix4f IDENTITY = new Matrix4f();
+
     public static PBRShader instance(){
         if(instance == null){
             instance = new PBRShader();
@@ -22,9 +26,21 @@ public class PBRShader extends Shader {
 
     private PBRShader()  {
 
+        this("res/shaders/pbr/pbr_vs.glsl");
+
+        addUniform("modelMatrix");
+    }
+
+    /**
+     * Shares the fragment stage and material uniforms with variants that
+     * read the model matrix elsewhere (PBRInstancedShader)
+     * @param vertexShader path of the vertex stage
+     */
+    protected PBRShader(String vertexShader){
+
         super();
 
-        createVertexShader("res/shaders/pbr/pbr_vs.glsl");
+        createVertexShader(vertexShader);
         createFragmentShader("res/shaders/pbr/pbr_fs.glsl");
         link();
 
@@ -43,7 +59,6 @@ public class PBRShader extends Shader {
         addUniform("metalMap");
         addUniform("metalConst");
 
-        addUniform("modelMatrix");
         addUniform("viewMatrix");
         addUniform("projectionMatrix");
 
@@ -55,8 +70,25 @@ public class PBRShader extends Shader {
 
     @Override
     public void updateUniforms(ModuleNode group){
+        updatePassUniforms();
+        updateMaterialUniforms(group);
+        updateObjectUniforms(group);
+    }
 
+    @Override
+    public void updatePassUniforms(){
         Camera camera = boundContext.getCamera();
+        setUniform("projectionMatrix", camera.getProjectionMatrix());
+        setUniform("viewMatrix", camera.getViewMatrix());
+    }
+
+    @Override
+    public int getMaterialKey(ModuleNode group){
+        return ((PBRModel)group).getMaterial().getMaterialID();
+    }
+
+    @Override
+    public void updateMaterialUniforms(ModuleNode group){
 
         PBRMaterial material = ((PBRModel)group).getMaterial();
 
@@ -94,13 +126,33 @@ public class PBRShader extends Shader {
             setUniform("metalConst", material.getMetalConst());
             setUniform("map_metal", 0);
         }
+    }
 
-        setUniform("projectionMatrix", camera.getProjectionMatrix());
+    @Override
+    public void updateObjectUniforms(ModuleNode group){
         setUniform("modelMatrix", group.getModelMatrix());
-        setUniform("viewMatrix", camera.getViewMatrix());
+        setUniform("UVscale", ((PBRModel)group).getUVscalar());
+    }
 
+    @Override
+    public int getBatchKey(ModuleNode group){
+        return Float.floatToIntBits(((PBRModel)group).getUVscalar());
+    }
+
+    @Override
+    public void updateBatchUniforms(ModuleNode group){
+        setUniform("modelMatrix", IDENTITY);
         setUniform("UVscale", ((PBRModel)group).getUVscalar());
+    }
 
+    @Override
+    public Shader getInstancedShader(){
+        return PBRInstancedShader.instance();
+    }
+
+    @Override
+    public void putInstance(ModuleNode group, InstanceBuffer instances){
+        instances.put(group.getModelMatrix(), ((PBRModel)group).getUVscalar(), 0, 0, 0);
     }
 
 }
@@ -0,0 +1,22 @@
+package modules.shadow;
+
+import engine.glapi.Shader;
+
+public class ShadowInstancedShader extends ShadowShader {
+
+    private static ShadowInstancedShader instance;
+    public static ShadowInstancedShader instance(){
+        if(instance == null)
+            instance = new ShadowInstancedShader();
+        return instance;
+    }
+
+    private ShadowInstancedShader(){
+        super("res/shaders/shadow/shadow_instanced_vs.glsl");
+    }
+
+    @Override
+    public Shader getInstancedShader() {
+        return null;
+    }
+}
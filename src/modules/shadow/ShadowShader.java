@@ -1,12 +1,15 @@
 package modules.shadow;
 
+import engine.glapi.vbo.InstanceBuffer;
 import engine.scene.light.LightManager;
 import engine.scene.node.ModuleNode;
 import engine.glapi.Shader;
+import org.joml.Matrix4f;
 
 public class ShadowShader extends Shader {
 
     private static ShadowShader instance;
+    private static final Matrix4f IDENTITY = new Matrix4f();
     public static ShadowShader instance(){
         if(instance == null)
             instance = new ShadowShader();
@@ -14,17 +17,46 @@ public class ShadowShader extends Shader {
     }
 
     private ShadowShader(){
-        createVertexShader("res/shaders/shadow/shadow_vs.glsl");
+        this("res/shaders/shadow/shadow_vs.glsl");
+        addUniform("modelMatrix");
+    }
+
+    protected ShadowShader(String vertexShader){
+        createVertexShader(vertexShader);
         createFragmentShader("res/shaders/shadow/shadow_fs.glsl");
         link();
 
         addUniform("lightSpaceMatrix");
-        addUniform("modelMatrix");
     }
 
     @Override
     public void updateUniforms(ModuleNode parent) {
+        updatePassUniforms();
+        updateObjectUniforms(parent);
+    }
+
+    @Override
+    public void updatePassUniforms() {
         setUniform("lightSpaceMatrix", LightManager.getSun().getLightSpaceMatrix());
+    }
+
+    @Override
+    public void updateObjectUniforms(ModuleNode parent) {
         setUniform("modelMatrix", parent.getModelMatrix());
     }
+
+    @Override
+    public void updateBatchUniforms(ModuleNode parent) {
+        setUniform("modelMatrix", IDENTITY);
+    }
+
+    @Override
+    public Shader getInstancedShader() {
+        return ShadowInstancedShader.instance();
+    }
+
+    @Override
+    public void putInstance(ModuleNode parent, InstanceBuffer instances) {
+        instances.put(parent.getModelMatrix(), 0, 0, 0, 0);
+    }
 }
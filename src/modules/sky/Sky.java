@@ -2,22 +2,28 @@ package modules.sky;
 
 import engine.glapi.vbo.Meshs;
 import engine.scene.node.ModuleNode;
+import engine.scene.node.Node;
 import engine.scene.node.RenderModule;
 import engine.scene.node.RenderType;
 
+import java.util.function.Predicate;
+
 import static org.lwjgl.opengl.GL11.GL_BACK;
 import static org.lwjgl.opengl.GL11.GL_FRONT;
 import static org.lwjgl.opengl.GL11.glCullFace;
 
 public class Sky extends ModuleNode {
 
+    // the sky's colour follows the height, a coarse sphere shows no facets
+    private static final int SKY_LOD = 2;
+
     public Sky(){
         super();
 
         transform.scaleTo(2800);
 
         addModule(RenderType.TYPE_SCENE, new RenderModule(
-                SkyShader.instance(), Meshs.sphere
+                SkyShader.instance(), Meshs.sphere(SKY_LOD)
         ));
     }
 
@@ -29,7 +35,7 @@ public class Sky extends ModuleNode {
     }
 
     @Override
-    public void render(RenderType type, Condition condition){
+    public void render(RenderType type, Predicate<Node> condition){
         glCullFace(GL_FRONT);
         super.render(type, condition);
         glCullFace(GL_BACK);
@@ -2,7 +2,7 @@
 
 layout (location = 0) in vec3 pos;
 layout (location = 1) in vec2 uv;
-layout (location = 2) in vec3 norm;
+layout (location = 2) in vec2 norm;
 
 uniform mat4 projectionMatrix;
 uniform mat4 viewMatrix;
@@ -10,9 +10,18 @@ uniform mat4 modelMatrix;
 
 uniform float offset;
 
+// normals arrive octahedral encoded, see QuantizedVertices
+vec3 octDecode(vec2 e){
+    vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+    float t = max(-n.z, 0.0);
+    n.x += n.x >= 0.0 ? -t : t;
+    n.y += n.y >= 0.0 ? -t : t;
+    return normalize(n);
+}
+
 void main() {
     vec3 worldPos = (modelMatrix * vec4(pos, 1)).xyz;
-    vec3 worldNorm = normalize((modelMatrix * vec4(norm, 0)).xyz);
+    vec3 worldNorm = normalize((modelMatrix * vec4(octDecode(norm), 0)).xyz);
 
     vec3 pushedWorldPos = worldPos + worldNorm * offset;
 
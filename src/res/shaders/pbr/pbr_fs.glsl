@@ -39,7 +39,9 @@ void main(){
     vec2 uv = vec2(vs.uv.x,1-vs.uv.y) * UVscale;
 
 
-    vec3 norm_sample = normalize(2*texture(normalMap, uv).rgb - 1);
+    // x and y only, block compressed normal maps (BC5) have no z
+    vec2 norm_xy = 2*texture(normalMap, uv).rg - 1;
+    vec3 norm_sample = vec3(norm_xy, sqrt(max(0, 1 - dot(norm_xy, norm_xy))));
     if(map_normal == 1){
         // gram-schmidt process to transform normals from tangent space to world space
         vec3 tangent   = normalize(basis - norm * dot(basis, norm));
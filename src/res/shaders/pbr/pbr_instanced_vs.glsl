@@ -0,0 +1,37 @@
+# version 330
+
+ layout (location = 0) in vec3 pos;
+ layout (location = 1) in vec2 uv;
+ layout (location = 2) in vec2 norm;
+
+ // per instance, see InstanceBuffer
+ layout (location = 3) in mat4 modelMatrix;
+ layout (location = 7) in vec4 instanceData;
+
+ out VS_DATA{
+     vec2 uv;
+     vec3 norm;
+     vec3 pos;
+ } vs;
+
+ uniform mat4 viewMatrix;
+ uniform mat4 projectionMatrix;
+
+ // normals arrive octahedral encoded, see QuantizedVertices
+ vec3 octDecode(vec2 e){
+     vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+     float t = max(-n.z, 0.0);
+     n.x += n.x >= 0.0 ? -t : t;
+     n.y += n.y >= 0.0 ? -t : t;
+     return normalize(n);
+ }
+
+ void main(){
+     vec4 modelCoord = modelMatrix * vec4(pos, 1.0);
+     gl_Position = projectionMatrix * viewMatrix * modelCoord;
+     vs.pos = modelCoord.xyz;
+     // pbr_fs flips v before scaling, pre-scale so it ends up at (1-v) * UVscale
+     float UVscale = instanceData.x;
+     vs.uv = vec2(uv.x * UVscale, 1 - (1 - uv.y) * UVscale);
+     vs.norm = normalize(modelMatrix * vec4(octDecode(norm), 0)).xyz;
+ }
@@ -2,7 +2,7 @@
 
  layout (location = 0) in vec3 pos;
  layout (location = 1) in vec2 uv;
- layout (location = 2) in vec3 norm;
+ layout (location = 2) in vec2 norm;
 
  out VS_DATA{
      vec2 uv;
@@ -14,10 +14,19 @@
  uniform mat4 viewMatrix;
  uniform mat4 projectionMatrix;
 
+ // normals arrive octahedral encoded, see QuantizedVertices
+ vec3 octDecode(vec2 e){
+     vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+     float t = max(-n.z, 0.0);
+     n.x += n.x >= 0.0 ? -t : t;
+     n.y += n.y >= 0.0 ? -t : t;
+     return normalize(n);
+ }
+
  void main(){
      vec4 modelCoord = modelMatrix * vec4(pos, 1.0);
      gl_Position = projectionMatrix * viewMatrix * modelCoord;
      vs.pos = modelCoord.xyz;
      vs.uv = vec2(uv.x, uv.y);
-     vs.norm = normalize(modelMatrix * vec4(norm, 0)).xyz;
+     vs.norm = normalize(modelMatrix * vec4(octDecode(norm), 0)).xyz;
  }
\ No newline at end of file
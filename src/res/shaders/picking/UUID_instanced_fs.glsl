@@ -0,0 +1,8 @@
+#version 330
+
+layout (location = 0) out vec4 fragColor;
+flat in vec3 color;
+
+void main(){
+    fragColor = vec4(color,1);
+}
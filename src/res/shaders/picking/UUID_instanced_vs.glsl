@@ -0,0 +1,18 @@
+#version 330
+
+ layout (location = 0) in vec3 pos;
+
+ // per instance, see InstanceBuffer
+ layout (location = 3) in mat4 modelMatrix;
+ layout (location = 7) in vec4 instanceData;
+
+ flat out vec3 color;
+
+ uniform mat4 viewMatrix;
+ uniform mat4 projectionMatrix;
+
+ void main(){
+     vec4 modelCoord = modelMatrix * vec4(pos, 1.0);
+     gl_Position = projectionMatrix * viewMatrix * modelCoord;
+     color = instanceData.rgb;
+ }
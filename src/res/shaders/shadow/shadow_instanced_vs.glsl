@@ -0,0 +1,12 @@
+#version 330
+
+layout (location = 0) in vec3 position;
+
+// per instance, see InstanceBuffer
+layout (location = 3) in mat4 modelMatrix;
+
+uniform mat4 lightSpaceMatrix;
+
+void main() {
+    gl_Position = lightSpaceMatrix * modelMatrix * vec4(position, 1.0);
+}
@@ -2,7 +2,7 @@
 
 layout (location = 0) in vec3 pos;
 layout (location = 1) in vec2 uv;
-layout (location = 2) in vec3 norm;
+layout (location = 2) in vec2 norm;
 
 out vec3 fragPos;
 out float height;